@@ -0,0 +1,112 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.benchmarks;
+
+import io.hops.exception.StorageInitializtionException;
+import io.hops.metadata.ndb.ClusterjConnector;
+import io.hops.metadata.ndb.NdbStorageFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * The storage the benchmarks run against.
+ * <p/>
+ * The backend is chosen with -Dhops.bench.backend: memory (the default) runs
+ * the DAL on the in-process store, ndb on MySQL Cluster. Every system property
+ * starting with com.mysql.clusterj. or io.hops. overrides the matching key of
+ * ndb-config.properties.template, so for instance
+ * <pre>
+ * java -Dhops.bench.backend=ndb -Dcom.mysql.clusterj.connectstring=ndb1
+ *      -Dcom.mysql.clusterj.database=hops_bench -jar benchmarks.jar
+ * </pre>
+ * runs the benchmarks against a real cluster. The database is formatted
+ * before the data of a benchmark is loaded.
+ */
+public abstract class BenchmarkBackend {
+
+  public static final String BACKEND = "hops.bench.backend";
+  private static final String TEMPLATE = "ndb-config.properties.template";
+
+  private static NdbStorageFactory storageFactory = null;
+
+  abstract String getName();
+
+  /**
+   * Backend specific configuration, applied on top of the template.
+   */
+  abstract void configure(Properties conf);
+
+  public static BenchmarkBackend fromSystemProperties() {
+    String name = System.getProperty(BACKEND, MemoryBackend.NAME);
+    if (name.equals(MemoryBackend.NAME)) {
+      return new MemoryBackend();
+    } else if (name.equals(NdbBackend.NAME)) {
+      return new NdbBackend();
+    }
+    throw new IllegalArgumentException("Unknown benchmark backend " + name);
+  }
+
+  /**
+   * Configure the storage factory once per JVM and format the database.
+   */
+  public static synchronized NdbStorageFactory getStorageFactory()
+      throws IOException {
+    if (storageFactory == null) {
+      BenchmarkBackend backend = fromSystemProperties();
+      Properties conf = loadConfiguration(backend);
+      NdbStorageFactory factory = new NdbStorageFactory();
+      try {
+        factory.setConfiguration(conf);
+      } catch (StorageInitializtionException e) {
+        throw new IOException("Could not start the " + backend.getName() +
+            " backend", e);
+      }
+      ClusterjConnector.getInstance().formatStorage();
+      storageFactory = factory;
+    }
+    return storageFactory;
+  }
+
+  static Properties loadConfiguration(BenchmarkBackend backend)
+      throws IOException {
+    Properties conf = new Properties();
+    InputStream in = BenchmarkBackend.class.getClassLoader()
+        .getResourceAsStream(TEMPLATE);
+    if (in == null) {
+      throw new IOException(TEMPLATE + " is not on the classpath");
+    }
+    try {
+      conf.load(in);
+    } finally {
+      in.close();
+    }
+    //keep the session pool in line with the number of benchmark threads
+    conf.setProperty("io.hops.session.pool.size", "64");
+    conf.setProperty("io.hops.session.pool.max.size", "256");
+    backend.configure(conf);
+    for (String key : System.getProperties().stringPropertyNames()) {
+      if (key.startsWith("com.mysql.clusterj.") || key.startsWith("io.hops.")) {
+        conf.setProperty(key, System.getProperty(key));
+      }
+    }
+    return conf;
+  }
+}
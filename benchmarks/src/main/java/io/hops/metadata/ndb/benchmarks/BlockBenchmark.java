@@ -0,0 +1,81 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.benchmarks;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.hdfs.entity.BlockInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Block and replica scans: the blocks of a batch of files, and the
+ * block to inode map of the mismatched buckets of a block report.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class BlockBenchmark {
+
+  @Param({"1", "16"})
+  public int inodesPerCall;
+
+  @Param({"10"})
+  public int bucketsPerCall;
+
+  @Benchmark
+  public List<BlockInfo> findByInodeIds(NamespaceState ns)
+      throws StorageException {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long[] inodeIds = new long[inodesPerCall];
+    for (int i = 0; i < inodeIds.length; i++) {
+      inodeIds[i] = ns.fileId(random.nextInt(ns.directories),
+          random.nextInt(ns.files));
+    }
+    return ns.blockInfos.findByInodeIds(inodeIds);
+  }
+
+  @Benchmark
+  public Map<Long, Long> findBlockAndInodeIdsByStorageIdAndBucketIds(
+      NamespaceState ns) throws StorageException {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    List<Integer> buckets = new ArrayList<>(bucketsPerCall);
+    for (int i = 0; i < bucketsPerCall; i++) {
+      buckets.add(random.nextInt(NamespaceState.BUCKETS));
+    }
+    return ns.replicas.findBlockAndInodeIdsByStorageIdAndBucketIds(
+        random.nextInt(ns.storages), buckets);
+  }
+}
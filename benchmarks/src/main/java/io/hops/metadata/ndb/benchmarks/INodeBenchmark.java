@@ -0,0 +1,91 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.benchmarks;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.hdfs.entity.INode;
+import io.hops.transaction.context.EntityContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Path resolution: the batched primary key reads of the inodes of a
+ * root/dir/file path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class INodeBenchmark {
+
+  private final String[] names = new String[3];
+  private final long[] parentIds = new long[3];
+  private final long[] partitionIds = new long[3];
+
+  private void nextPath(NamespaceState ns) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int d = random.nextInt(ns.directories);
+    int f = random.nextInt(ns.files);
+    names[0] = NamespaceState.ROOT_NAME;
+    parentIds[0] = NamespaceState.ROOT_PARENT_ID;
+    partitionIds[0] = NamespaceState.ROOT_PARENT_ID;
+    names[1] = "dir" + d;
+    parentIds[1] = NamespaceState.ROOT_ID;
+    partitionIds[1] = NamespaceState.ROOT_ID;
+    names[2] = "file" + f;
+    parentIds[2] = ns.directoryId(d);
+    partitionIds[2] = ns.directoryId(d);
+  }
+
+  @Benchmark
+  public List<INode> getINodesPkBatched(NamespaceState ns)
+      throws StorageException {
+    nextPath(ns);
+    return ns.inodes.getINodesPkBatched(names, parentIds, partitionIds);
+  }
+
+  @Benchmark
+  public List<INode> lockInodesUsingPkBatchTxReadCommitted(NamespaceState ns)
+      throws StorageException {
+    nextPath(ns);
+    return ns.inodes.lockInodesUsingPkBatchTx(names, parentIds, partitionIds,
+        EntityContext.LockMode.READ_COMMITTED);
+  }
+
+  @Benchmark
+  public List<INode> lockInodesUsingPkBatchTxWriteLock(NamespaceState ns)
+      throws StorageException {
+    nextPath(ns);
+    return ns.inodes.lockInodesUsingPkBatchTx(names, parentIds, partitionIds,
+        EntityContext.LockMode.WRITE_LOCK);
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.benchmarks;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.hdfs.TablesDef;
+import io.hops.metadata.ndb.mysqlserver.Constants;
+import io.hops.metadata.ndb.mysqlserver.MySQLQueryHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The count queries run on the MySQL Server, with the value inlined in the
+ * text of the query as the DAL used to do and as a bind variable, with and
+ * without the prepared statement cache of the connections. Needs the ndb
+ * backend and io.hops.metadata.ndb.mysqlserver.host.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@Threads(8)
+public class MySQLQueryBenchmark implements TablesDef.ReplicaTableDef {
+
+  private static final int STORAGES = 1000;
+
+  @Param({"true", "false"})
+  public String cachePreparedStatements;
+
+  @Setup
+  public void setup() throws IOException {
+    if (!NdbBackend.NAME.equals(System.getProperty(BenchmarkBackend.BACKEND))) {
+      throw new IllegalArgumentException(getClass().getSimpleName() +
+          " runs on the MySQL Server, it needs -D" + BenchmarkBackend.BACKEND +
+          "=" + NdbBackend.NAME);
+    }
+    System.setProperty(Constants.PROPERTY_MYSQL_CACHE_PREPARED_STATEMENTS,
+        cachePreparedStatements);
+    BenchmarkBackend.getStorageFactory();
+  }
+
+  @Benchmark
+  public int countInlined() throws StorageException {
+    return MySQLQueryHelper.countWithCriterion(TABLE_NAME,
+        String.format("%s=%d", STORAGE_ID, nextStorage()));
+  }
+
+  @Benchmark
+  public int countBound() throws StorageException {
+    return MySQLQueryHelper.countWithCriterion(TABLE_NAME, STORAGE_ID + "=?",
+        nextStorage());
+  }
+
+  private static int nextStorage() {
+    return ThreadLocalRandom.current().nextInt(STORAGES);
+  }
+}
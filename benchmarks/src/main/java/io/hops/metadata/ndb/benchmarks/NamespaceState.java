@@ -0,0 +1,174 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.benchmarks;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.hdfs.entity.BlockInfo;
+import io.hops.metadata.hdfs.entity.INode;
+import io.hops.metadata.hdfs.entity.Replica;
+import io.hops.metadata.ndb.ClusterjConnector;
+import io.hops.metadata.ndb.dalimpl.hdfs.BlockInfoClusterj;
+import io.hops.metadata.ndb.dalimpl.hdfs.INodeClusterj;
+import io.hops.metadata.ndb.dalimpl.hdfs.ReplicaClusterj;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A namespace of directories holding files with blocks, and the replicas of
+ * those blocks on a set of storages.
+ * <p/>
+ * Ids are derived from positions so that the benchmarks can build their
+ * keys without reading anything back: directory d has id
+ * {@code FIRST_DIR_ID + d}, file f of directory d has id
+ * {@code FIRST_FILE_ID + d * files + f} and its partition id is the id of
+ * its directory, block b of file i has id {@code i * blocks + b + 1}.
+ */
+@State(Scope.Benchmark)
+public class NamespaceState {
+
+  static final long ROOT_ID = 1;
+  static final long ROOT_PARENT_ID = 0;
+  static final String ROOT_NAME = "";
+  static final long FIRST_DIR_ID = 2;
+  static final long FIRST_FILE_ID = 1000000;
+  static final int BUCKETS = 1000;
+  private static final int ROWS_PER_TRANSACTION = 1000;
+
+  @Param({"64"})
+  public int directories;
+
+  @Param({"64"})
+  public int files;
+
+  @Param({"3"})
+  public int blocks;
+
+  @Param({"3"})
+  public int replication;
+
+  @Param({"16"})
+  public int storages;
+
+  ClusterjConnector connector;
+  INodeClusterj inodes;
+  BlockInfoClusterj blockInfos;
+  ReplicaClusterj replicas;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    BenchmarkBackend.getStorageFactory();
+    connector = ClusterjConnector.getInstance();
+    inodes = new INodeClusterj();
+    blockInfos = new BlockInfoClusterj();
+    replicas = new ReplicaClusterj();
+    load();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws StorageException {
+    connector.formatStorage();
+  }
+
+  long directoryId(int directory) {
+    return FIRST_DIR_ID + directory;
+  }
+
+  long fileId(int directory, int file) {
+    return FIRST_FILE_ID + (long) directory * files + file;
+  }
+
+  long blockId(long fileId, int block) {
+    return (fileId - FIRST_FILE_ID) * blocks + block + 1;
+  }
+
+  int storageId(long blockId, int replica) {
+    return (int) ((blockId + replica) % storages);
+  }
+
+  int bucketId(long blockId) {
+    return (int) (blockId % BUCKETS);
+  }
+
+  private void load() throws StorageException {
+    List<INode> newINodes = new ArrayList<>();
+    List<BlockInfo> newBlocks = new ArrayList<>();
+    List<Replica> newReplicas = new ArrayList<>();
+    newINodes.add(inode(ROOT_ID, ROOT_NAME, ROOT_PARENT_ID, ROOT_PARENT_ID,
+        true));
+    for (int d = 0; d < directories; d++) {
+      newINodes.add(inode(directoryId(d), "dir" + d, ROOT_ID, ROOT_ID, true));
+      for (int f = 0; f < files; f++) {
+        long fileId = fileId(d, f);
+        newINodes.add(inode(fileId, "file" + f, directoryId(d),
+            directoryId(d), false));
+        for (int b = 0; b < blocks; b++) {
+          long blockId = blockId(fileId, b);
+          newBlocks.add(new BlockInfo(blockId, b, fileId, 1024, 1, 0,
+              System.currentTimeMillis(), -1, -1, -1, -1));
+          for (int r = 0; r < replication; r++) {
+            newReplicas.add(new Replica(storageId(blockId, r), blockId,
+                fileId, bucketId(blockId)));
+          }
+        }
+        if (newINodes.size() + newBlocks.size() + newReplicas.size() >
+            ROWS_PER_TRANSACTION) {
+          write(newINodes, newBlocks, newReplicas);
+        }
+      }
+    }
+    write(newINodes, newBlocks, newReplicas);
+  }
+
+  private void write(List<INode> newINodes, List<BlockInfo> newBlocks,
+      List<Replica> newReplicas) throws StorageException {
+    List<INode> noINodes = Collections.emptyList();
+    List<BlockInfo> noBlocks = Collections.emptyList();
+    List<Replica> noReplicas = Collections.emptyList();
+    connector.beginTransaction();
+    try {
+      inodes.prepare(noINodes, newINodes, noINodes);
+      blockInfos.prepare(noBlocks, newBlocks, noBlocks);
+      replicas.prepare(noReplicas, newReplicas, noReplicas);
+      connector.commit();
+    } catch (StorageException e) {
+      connector.rollback();
+      throw e;
+    }
+    newINodes.clear();
+    newBlocks.clear();
+    newReplicas.clear();
+  }
+
+  private static INode inode(long id, String name, long parentId,
+      long partitionId, boolean dir) {
+    long now = System.currentTimeMillis();
+    return new INode(id, name, parentId, partitionId, dir, false, now, now,
+        0, 0, (short) 0755, false, null, null, 0, 0L, null, false, 0L,
+        (byte) 0, 0L, false, 0, (byte) 0, 0, 0, (byte) 0, (byte) 0);
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.benchmarks;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.ClusterjConnector;
+import io.hops.metadata.ndb.dalimpl.yarn.ContainerStatusClusterJ;
+import io.hops.metadata.ndb.dalimpl.yarn.FullRMNodeClusterJ;
+import io.hops.metadata.ndb.dalimpl.yarn.RMNodeClusterJ;
+import io.hops.metadata.ndb.dalimpl.yarn.ResourceClusterJ;
+import io.hops.metadata.ndb.dalimpl.yarn.UpdatedContainerInfoClusterJ;
+import io.hops.metadata.yarn.TablesDef;
+import io.hops.metadata.yarn.entity.ContainerStatus;
+import io.hops.metadata.yarn.entity.RMNode;
+import io.hops.metadata.yarn.entity.RMNodeComps;
+import io.hops.metadata.yarn.entity.Resource;
+import io.hops.metadata.yarn.entity.UpdatedContainerInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The read of a full RM node on heartbeat: the node, its resource, its
+ * pending container updates and their statuses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class RMNodeBenchmark {
+
+  private static final int PENDING_EVENT_ID = 0;
+
+  @Param({"256"})
+  public int nodes;
+
+  @Param({"8"})
+  public int containersPerNode;
+
+  private ClusterjConnector connector;
+  private FullRMNodeClusterJ fullRMNodes;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    BenchmarkBackend.getStorageFactory();
+    connector = ClusterjConnector.getInstance();
+    fullRMNodes = new FullRMNodeClusterJ();
+    RMNodeClusterJ rmNodeDA = new RMNodeClusterJ();
+    ResourceClusterJ resourceDA = new ResourceClusterJ();
+    UpdatedContainerInfoClusterJ updatedContainerDA =
+        new UpdatedContainerInfoClusterJ();
+    ContainerStatusClusterJ containerStatusDA = new ContainerStatusClusterJ();
+    for (int n = 0; n < nodes; n++) {
+      String nodeId = nodeId(n);
+      List<UpdatedContainerInfo> updatedContainers = new ArrayList<>();
+      List<ContainerStatus> statuses = new ArrayList<>();
+      for (int c = 0; c < containersPerNode; c++) {
+        String containerId = nodeId + "_container" + c;
+        UpdatedContainerInfo updated =
+            new UpdatedContainerInfo(nodeId, containerId, c, PENDING_EVENT_ID);
+        updatedContainers.add(updated);
+        statuses.add(new ContainerStatus(containerId,
+            TablesDef.ContainerStatusTableDef.STATE_RUNNING, "", 0, nodeId,
+            PENDING_EVENT_ID, updated.getUpdatedContainerInfoId()));
+      }
+      connector.beginTransaction();
+      connector.writeLock();
+      try {
+        rmNodeDA.add(new RMNode(nodeId, "host" + n, 9999, 9876, "",
+            -10L, "RUNNING", "hayarn", PENDING_EVENT_ID));
+        resourceDA.add(new Resource(nodeId, 1, 100, 100, PENDING_EVENT_ID));
+        updatedContainerDA.addAll(updatedContainers);
+        containerStatusDA.addAll(statuses);
+        connector.commit();
+      } catch (StorageException e) {
+        connector.rollback();
+        throw e;
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws StorageException {
+    connector.formatStorage();
+  }
+
+  private static String nodeId(int n) {
+    return "rmnode" + n;
+  }
+
+  @Benchmark
+  public RMNodeComps findByNodeId() throws StorageException {
+    String nodeId = nodeId(ThreadLocalRandom.current().nextInt(nodes));
+    connector.beginTransaction();
+    connector.writeLock();
+    try {
+      RMNodeComps comps = fullRMNodes.findByNodeId(nodeId);
+      connector.commit();
+      return comps;
+    } catch (StorageException e) {
+      connector.rollback();
+      throw e;
+    }
+  }
+}
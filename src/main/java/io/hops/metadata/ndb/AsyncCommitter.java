@@ -0,0 +1,151 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.metrics.MetricsRegistry;
+import io.hops.metadata.ndb.wrapper.HopsExceptionHelper;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Commits transactions on a dedicated group of threads so that the thread
+ * that ran the transaction can go on with the next one without waiting for
+ * the NDB round trip.
+ * <p/>
+ * The session of the transaction is handed over to a committer thread, which
+ * commits it, returns it to the pool and then completes the future, whatever
+ * fails on the way: the failures of the commit and of the hooks of the
+ * session fail the future, and the session is closed if the commit failed.
+ * When all the committer threads are busy and the queue is full the commit
+ * is done in the calling thread, which throttles the callers.
+ */
+class AsyncCommitter {
+
+  static final Log LOG = LogFactory.getLog(AsyncCommitter.class);
+
+  private final DBSessionProvider sessionProvider;
+  private final MetricsRegistry metrics;
+  private final ThreadPoolExecutor executor;
+
+  AsyncCommitter(DBSessionProvider sessionProvider, MetricsRegistry metrics,
+      int nbThreads, int queueSize) {
+    this.sessionProvider = sessionProvider;
+    this.metrics = metrics;
+    this.executor = new ThreadPoolExecutor(nbThreads, nbThreads, 0,
+        TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+        new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger(0);
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread =
+                new Thread(r, "Async Committer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        },
+        new RejectedExecutionHandler() {
+          @Override
+          public void rejectedExecution(Runnable r,
+              ThreadPoolExecutor executor) {
+            // queue full or shutting down, commit in the caller thread
+            r.run();
+          }
+        });
+  }
+
+  /**
+   * Commit the active transaction of the session. The caller must not use
+   * the session after this call.
+   */
+  ListenableFuture<Void> commit(final DBSession dbSession) {
+    final SettableFuture<Void> future = SettableFuture.create();
+    final long asyncTimer = metrics.startTimer();
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        Throwable failure = null;
+        boolean committed = false;
+        try {
+          long timer = metrics.startTimer();
+          try {
+            dbSession.getSession().currentTransaction().commit();
+            committed = true;
+          } catch (StorageException e) {
+            metrics.recordFailure(MetricsRegistry.Operation.COMMIT, e);
+            failure = e;
+          } catch (RuntimeException e) {
+            failure = e;
+          } finally {
+            metrics.stopTimer(MetricsRegistry.Operation.COMMIT, timer);
+          }
+          // a failed hook fails the commit, as it would in the caller thread
+          dbSession.getSession().transactionEnded(committed);
+        } catch (Throwable t) {
+          if (failure == null) {
+            failure = t;
+          } else {
+            failure.addSuppressed(t);
+          }
+        } finally {
+          try {
+            sessionProvider.returnSession(dbSession, !committed,
+                HopsExceptionHelper.isConnectionFailure(failure));
+          } catch (StorageException | RuntimeException e) {
+            LOG.warn("Could not return the session to the pool", e);
+          } finally {
+            metrics.stopTimer(MetricsRegistry.Operation.ASYNC_COMMIT,
+                asyncTimer);
+            if (failure == null) {
+              future.set(null);
+            } else {
+              future.setException(failure);
+            }
+          }
+        }
+      }
+    });
+    return future;
+  }
+
+  int getPendingCommits() {
+    return executor.getQueue().size() + executor.getActiveCount();
+  }
+
+  void stop() {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+        LOG.warn("Timed out waiting for the pending asynchronous commits");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import com.mysql.clusterj.ClusterJException;
+import com.mysql.clusterj.ClusterJHelper;
+import com.mysql.clusterj.Constants;
+import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.wrapper.HopsExceptionHelper;
+import io.hops.metadata.ndb.wrapper.HopsSession;
+import io.hops.metadata.ndb.wrapper.HopsSessionFactory;
+import io.hops.metadata.ndb.wrapper.memory.MemorySessionFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The cluster connections sessions are opened on.
+ * <p/>
+ * With io.hops.metadata.ndb.connections greater than one, the connector
+ * opens that many session factories, each with a cluster connection of its
+ * own (ClusterJ connection pool size 0) and optionally its own API node id
+ * taken from io.hops.metadata.ndb.connections.nodeids. New sessions are
+ * created round robin on the connections; as the session pool hands a
+ * thread back the session it used last, the threads end up striped across
+ * the connections.
+ * <p/>
+ * A connection whose sessions fail {@value #MAX_CONSECUTIVE_FAILURES} times
+ * in a row (the session could not be created, or its transaction failed on
+ * a node failure or a lost connection) gets no new sessions for
+ * {@value #RETRY_DELAY_MS} ms, the other connections take over its load in
+ * the meantime. Other database errors do not count against the connection.
+ */
+class ClusterConnections {
+
+  static final Log LOG = LogFactory.getLog(ClusterConnections.class);
+
+  static final String CONNECTIONS = "io.hops.metadata.ndb.connections";
+  static final String NODE_IDS = "io.hops.metadata.ndb.connections.nodeids";
+
+  private static final int MAX_CONSECUTIVE_FAILURES = 3;
+  private static final long RETRY_DELAY_MS = 5000;
+
+  private final HopsSessionFactory[] factories;
+  private final String[] nodeIds;
+  private final AtomicIntegerArray openSessions;
+  private final AtomicIntegerArray consecutiveFailures;
+  private final AtomicLongArray failures;
+  private final AtomicLongArray unavailableUntil;
+  private final AtomicInteger next = new AtomicInteger(0);
+  private final long retryDelay;
+
+  private ClusterConnections(HopsSessionFactory[] factories, String[] nodeIds) {
+    this(factories, nodeIds, RETRY_DELAY_MS);
+  }
+
+  ClusterConnections(HopsSessionFactory[] factories, String[] nodeIds,
+      long retryDelay) {
+    this.factories = factories;
+    this.retryDelay = retryDelay;
+    this.nodeIds = nodeIds;
+    this.openSessions = new AtomicIntegerArray(factories.length);
+    this.consecutiveFailures = new AtomicIntegerArray(factories.length);
+    this.failures = new AtomicLongArray(factories.length);
+    this.unavailableUntil = new AtomicLongArray(factories.length);
+  }
+
+  static ClusterConnections create(Properties conf) throws StorageException {
+    if (MemorySessionFactory.isSelected(conf)) {
+      LOG.warn("Using the in-memory backend, nothing is persisted");
+      return new ClusterConnections(
+          new HopsSessionFactory[]{new MemorySessionFactory(conf)},
+          new String[1]);
+    }
+    int nbConnections =
+        Integer.parseInt(conf.getProperty(CONNECTIONS, "1").trim());
+    if (nbConnections <= 1) {
+      return new ClusterConnections(
+          new HopsSessionFactory[]{newSessionFactory(conf)}, new String[1]);
+    }
+
+    String[] nodeIds = new String[nbConnections];
+    String nodeIdList = conf.getProperty(NODE_IDS, "").trim();
+    if (!nodeIdList.isEmpty()) {
+      String[] ids = nodeIdList.split(",");
+      if (ids.length != nbConnections) {
+        throw new StorageException(NODE_IDS + " lists " + ids.length +
+            " node ids for " + nbConnections + " connections");
+      }
+      for (int i = 0; i < ids.length; i++) {
+        nodeIds[i] = ids[i].trim();
+      }
+    }
+    HopsSessionFactory[] factories = new HopsSessionFactory[nbConnections];
+    for (int i = 0; i < nbConnections; i++) {
+      Properties connectionConf = new Properties();
+      connectionConf.putAll(conf);
+      // pool size 0 makes ClusterJ create a new factory with its own
+      // connection instead of returning the cached one
+      connectionConf.setProperty(Constants.PROPERTY_CONNECTION_POOL_SIZE, "0");
+      if (nodeIds[i] == null) {
+        connectionConf.remove(Constants.PROPERTY_CONNECTION_POOL_NODEIDS);
+      } else {
+        connectionConf.setProperty(Constants.PROPERTY_CONNECTION_POOL_NODEIDS,
+            nodeIds[i]);
+      }
+      factories[i] = newSessionFactory(connectionConf);
+    }
+    LOG.info("Opened " + nbConnections + " cluster connections");
+    return new ClusterConnections(factories, nodeIds);
+  }
+
+  private static HopsSessionFactory newSessionFactory(Properties conf)
+      throws StorageException {
+    try {
+      return new HopsSessionFactory(ClusterJHelper.getSessionFactory(conf));
+    } catch (ClusterJException ex) {
+      throw HopsExceptionHelper.wrap(ex);
+    }
+  }
+
+  int size() {
+    return factories.length;
+  }
+
+  /**
+   * @return the connection the next session should be opened on, the next
+   * available one in round robin order
+   */
+  int next() {
+    if (factories.length == 1) {
+      return 0;
+    }
+    int start = next.getAndIncrement() & Integer.MAX_VALUE;
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < factories.length; i++) {
+      int connection = (start + i) % factories.length;
+      if (unavailableUntil.get(connection) <= now) {
+        return connection;
+      }
+    }
+    // all connections failed recently, keep trying them in turn
+    return start % factories.length;
+  }
+
+  HopsSession openSession(int connection) throws StorageException {
+    try {
+      HopsSession session = factories[connection].getSession();
+      openSessions.incrementAndGet(connection);
+      return session;
+    } catch (StorageException e) {
+      failed(connection);
+      throw e;
+    }
+  }
+
+  void closed(int connection) {
+    openSessions.decrementAndGet(connection);
+  }
+
+  void succeeded(int connection) {
+    consecutiveFailures.set(connection, 0);
+  }
+
+  void failed(int connection) {
+    failures.incrementAndGet(connection);
+    if (factories.length > 1 &&
+        consecutiveFailures.incrementAndGet(connection) >=
+            MAX_CONSECUTIVE_FAILURES) {
+      consecutiveFailures.set(connection, 0);
+      unavailableUntil.set(connection,
+          System.currentTimeMillis() + retryDelay);
+      LOG.warn("Cluster connection " + connection + " failed " +
+          MAX_CONSECUTIVE_FAILURES + " times in a row, no new sessions are " +
+          "opened on it for " + retryDelay + " ms");
+    }
+  }
+
+  List<ConnectionStats> getStats() {
+    long now = System.currentTimeMillis();
+    List<ConnectionStats> stats = new ArrayList<>(factories.length);
+    for (int i = 0; i < factories.length; i++) {
+      stats.add(new ConnectionStats(i, nodeIds[i], openSessions.get(i),
+          failures.get(i), unavailableUntil.get(i) <= now));
+    }
+    return stats;
+  }
+}
@@ -18,22 +18,25 @@
  */
 package io.hops.metadata.ndb;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.mysql.clusterj.Constants;
 import com.mysql.clusterj.LockMode;
 import io.hops.StorageConnector;
 import io.hops.exception.StorageException;
 import io.hops.metadata.common.EntityDataAccess;
 import io.hops.metadata.common.entity.Variable;
-import io.hops.metadata.election.TablesDef;
 import io.hops.metadata.election.dal.HdfsLeDescriptorDataAccess;
 import io.hops.metadata.election.dal.YarnLeDescriptorDataAccess;
 import io.hops.metadata.hdfs.dal.*;
-import io.hops.metadata.ndb.dalimpl.election.HdfsLeaderClusterj;
-import io.hops.metadata.ndb.dalimpl.election.YarnLeaderClusterj;
 import io.hops.metadata.ndb.dalimpl.hdfs.*;
-import io.hops.metadata.ndb.mysqlserver.MysqlServerConnector;
+import io.hops.metadata.ndb.metrics.MetricsRegistry;
+import io.hops.metadata.ndb.metrics.NdbMetrics;
+import io.hops.metadata.ndb.metrics.NoOpMetricsRegistry;
+import io.hops.metadata.ndb.mysqlserver.RowCountEstimator;
+import io.hops.metadata.ndb.wrapper.HopsExceptionHelper;
 import io.hops.metadata.ndb.wrapper.HopsSession;
 import io.hops.metadata.ndb.wrapper.HopsTransaction;
+import io.hops.metadata.ndb.wrapper.PartitionHints;
 import io.hops.metadata.yarn.dal.AppProvenanceDataAccess;
 import io.hops.metadata.yarn.dal.ContainerIdToCleanDataAccess;
 import io.hops.metadata.yarn.dal.ContainerStatusDataAccess;
@@ -57,8 +60,19 @@ import io.hops.metadata.yarn.dal.rmstatestore.DelegationTokenDataAccess;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.mysql.clusterj.annotation.PersistenceCapable;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import io.hops.metadata.yarn.dal.RMNodeApplicationsDataAccess;
 import io.hops.metadata.yarn.dal.ReservationStateDataAccess;
 
@@ -67,6 +81,15 @@ public class ClusterjConnector implements StorageConnector<DBSession> {
   private final static ClusterjConnector instance = new ClusterjConnector();
   private static boolean isInitialized = false;
   private DBSessionProvider dbSessionProvider = null;
+  private MetricsRegistry metrics = NoOpMetricsRegistry.INSTANCE;
+  private AsyncCommitter asyncCommitter = null;
+  private final ConcurrentMap<String, GroupCommitter> groupCommitters =
+      new ConcurrentHashMap<>();
+  private long groupCommitWindow;
+  private int groupCommitBatchSize;
+  private TransactionExecutor transactionExecutor;
+  private final PartitionKeyRegistry partitionKeys = new PartitionKeyRegistry();
+  private TableTruncator tableTruncator;
   static ThreadLocal<DBSession> sessions = new ThreadLocal<>();
   static final Log LOG = LogFactory.getLog(ClusterjConnector.class);
   private String clusterConnectString;
@@ -98,8 +121,37 @@ public class ClusterjConnector implements StorageConnector<DBSession> {
         Integer.parseInt((String) conf.get("io.hops.session.pool.size"));
     int reuseCount =
         Integer.parseInt((String) conf.get("io.hops.session.reuse.count"));
+    int maxPoolSize = Integer.parseInt(conf.getProperty(
+        "io.hops.session.pool.max.size", Integer.toString(2 * initialPoolSize)));
+    long acquireTimeout = Long.parseLong(conf.getProperty(
+        "io.hops.session.pool.acquire.timeout", "10000"));
+    metrics = NdbMetrics.create(conf);
+    NdbMetrics.registerMBean(metrics);
     dbSessionProvider =
-        new DBSessionProvider(conf, reuseCount, initialPoolSize);
+        new DBSessionProvider(conf, reuseCount, initialPoolSize, maxPoolSize,
+            acquireTimeout, metrics);
+    int asyncCommitThreads = Integer.parseInt(conf.getProperty(
+        "io.hops.metadata.ndb.async.commit.threads", "4"));
+    int asyncCommitQueueSize = Integer.parseInt(conf.getProperty(
+        "io.hops.metadata.ndb.async.commit.queue.size", "1024"));
+    asyncCommitter = new AsyncCommitter(dbSessionProvider, metrics,
+        asyncCommitThreads, asyncCommitQueueSize);
+    groupCommitWindow = Long.parseLong(conf.getProperty(
+        "io.hops.metadata.ndb.group.commit.window", "5"));
+    groupCommitBatchSize = Integer.parseInt(conf.getProperty(
+        "io.hops.metadata.ndb.group.commit.batch.size", "256"));
+    transactionExecutor = new TransactionExecutor(this, conf);
+    int formatThreads = Math.min(Integer.parseInt(conf.getProperty(
+        "io.hops.metadata.ndb.format.threads", "8")),
+        Integer.parseInt(conf.getProperty(io.hops.metadata.ndb.mysqlserver
+            .Constants.PROPERTY_MYSQL_CONNECTION_POOL_SIZE, "1")));
+    tableTruncator = new TableTruncator(Math.max(formatThreads, 1));
+    boolean autoPartitionKey = Boolean.parseBoolean(conf.getProperty(
+        "io.hops.metadata.ndb.partition.key.auto", "true"));
+    PartitionHints.getInstance().setHintable(autoPartitionKey ?
+        partitionKeys.getDtos() : Collections.<Class<?>>emptySet());
+    NdbMetrics.registerMBean(PartitionHints.getInstance(),
+        PartitionHints.MBEAN_NAME);
     
     isInitialized = true;
   }
@@ -136,12 +188,32 @@ public class ClusterjConnector implements StorageConnector<DBSession> {
    */
   @Override
   public void beginTransaction() throws StorageException {
-    HopsSession session = obtainSession();
+    obtainSession();
+    begin(sessions.get());
+  }
+
+  void begin(DBSession dbSession) throws StorageException {
+    HopsSession session = dbSession.getSession();
     if (session.currentTransaction().isActive()) {
       LOG.fatal("Prevented starting transaction within a transaction.");
       throw new Error("Can not start Tx inside another Tx");
     }
-    session.currentTransaction().begin();
+    if (session.isReadOnly()) {
+      throw new StorageException("Can not begin a transaction in read only " +
+          "mode");
+    }
+    // a transaction abandoned without commit or rollback
+    session.transactionEnded(false);
+    session.clearPartitionKey();
+    long timer = metrics.startTimer();
+    try {
+      session.currentTransaction().begin();
+    } catch (StorageException e) {
+      metrics.recordFailure(MetricsRegistry.Operation.BEGIN, e);
+      throw e;
+    } finally {
+      metrics.stopTimer(MetricsRegistry.Operation.BEGIN, timer);
+    }
   }
 
   /**
@@ -151,41 +223,285 @@ public class ClusterjConnector implements StorageConnector<DBSession> {
    */
   @Override
   public void commit() throws StorageException {
-    HopsSession session = null;
+    obtainSession();
+    DBSession dbSession = sessions.get();
+    sessions.remove();
+    commit(dbSession);
+  }
+
+  /**
+   * Commit the transaction of a session that is not bound to the calling
+   * thread, and return the session to the pool.
+   */
+  void commit(DBSession dbSession) throws StorageException {
     boolean dbError = false;
+    boolean connectionFailed = false;
+    long timer = metrics.startTimer();
     try {
-      session = obtainSession();
-      HopsTransaction tx = session.currentTransaction();
+      HopsTransaction tx = dbSession.getSession().currentTransaction();
       if (!tx.isActive()) {
         throw new StorageException("The transaction is not began!");
       }
       tx.commit();
     } catch (StorageException e) {
       dbError = true;
+      connectionFailed = HopsExceptionHelper.isConnectionFailure(e);
+      metrics.recordFailure(MetricsRegistry.Operation.COMMIT, e);
       throw e;
     } finally {
-      returnSession(dbError);
+      metrics.stopTimer(MetricsRegistry.Operation.COMMIT, timer);
+      dbSession.getSession().transactionEnded(!dbError);
+      dbSessionProvider.returnSession(dbSession, dbError, connectionFailed);
     }
   }
  
+  /**
+   * Commit the transaction without waiting for it to complete. The session
+   * is detached from the calling thread right away, so the thread can begin
+   * a new transaction before the returned future is done. The session goes
+   * back to the pool once the commit completed.
+   *
+   * @return a future that fails with the StorageException of the commit
+   * @throws io.hops.exception.StorageException
+   *     if there is no active transaction
+   */
+  public ListenableFuture<Void> commitAsync() throws StorageException {
+    obtainSession();
+    DBSession dbSession = sessions.get();
+    sessions.remove();
+    return commitAsync(dbSession);
+  }
+
+  ListenableFuture<Void> commitAsync(DBSession dbSession)
+      throws StorageException {
+    if (!dbSession.getSession().currentTransaction().isActive()) {
+      dbSessionProvider.returnSession(dbSession, true);
+      throw new StorageException("The transaction is not began!");
+    }
+    return asyncCommitter.commit(dbSession);
+  }
+
+  /**
+   * Enter read only mode: the reads that follow run as committed reads
+   * without a transaction, so there is no begin or commit round trip to
+   * the transaction coordinator, and they all use the session bound to the
+   * calling thread until {@link #endReadOnly}. Writes, locking reads and
+   * transactions fail right away in this mode.
+   *
+   * @throws StorageException
+   *     if the thread is in a transaction or already in read only mode
+   */
+  public void beginReadOnly() throws StorageException {
+    HopsSession session = obtainSession();
+    if (session.currentTransaction().isActive()) {
+      throw new StorageException("Can not enter read only mode inside a " +
+          "transaction");
+    }
+    if (session.isReadOnly()) {
+      throw new StorageException("Already in read only mode");
+    }
+    session.setLockMode(LockMode.READ_COMMITTED);
+    session.setReadOnly(true);
+  }
+
+  /**
+   * Leave read only mode and return the session to the pool.
+   *
+   * @param error
+   *     true if a read failed with a database error, to close the session
+   */
+  public void endReadOnly(boolean error) throws StorageException {
+    endReadOnly(error, false);
+  }
+
+  private void endReadOnly(boolean error, boolean connectionFailed)
+      throws StorageException {
+    DBSession dbSession = sessions.get();
+    if (dbSession == null || !dbSession.getSession().isReadOnly()) {
+      throw new StorageException("Not in read only mode");
+    }
+    dbSession.getSession().setReadOnly(false);
+    sessions.remove();
+    dbSessionProvider.returnSession(dbSession, error, connectionFailed);
+  }
+
+  public boolean isReadOnly() {
+    DBSession dbSession = sessions.get();
+    return dbSession != null && dbSession.getSession().isReadOnly();
+  }
+
+  /**
+   * Run a batch of reads in read only mode, see {@link #beginReadOnly}. If
+   * the thread is already in read only mode the reads join it. The session
+   * is returned to the pool afterwards, it is only discarded if the reads
+   * lost the connection to the cluster.
+   *
+   * @return the result of the work
+   */
+  public <T> T readOnly(TransactionExecutor.Work<T> work)
+      throws StorageException {
+    if (isReadOnly()) {
+      return work.run();
+    }
+    beginReadOnly();
+    boolean connectionFailed = false;
+    try {
+      return work.run();
+    } catch (StorageException e) {
+      // the other failures, like a write attempted by the work, leave the
+      // session usable
+      connectionFailed = HopsExceptionHelper.isConnectionFailure(e);
+      throw e;
+    } finally {
+      endReadOnly(connectionFailed, connectionFailed);
+    }
+  }
+
+  /**
+   * Begin a transaction on a session of its own, not bound to the calling
+   * thread.
+   *
+   * @see TransactionContext
+   */
+  public TransactionContext beginTransactionContext() throws StorageException {
+    DBSession dbSession = dbSessionProvider.getSession();
+    try {
+      begin(dbSession);
+    } catch (StorageException e) {
+      dbSessionProvider.returnSession(dbSession, true,
+          HopsExceptionHelper.isConnectionFailure(e));
+      throw e;
+    }
+    return new TransactionContext(this, dbSession);
+  }
+
+  /**
+   * Bind a session to the calling thread.
+   *
+   * @return the session that was bound to the thread before, if any
+   */
+  DBSession bind(DBSession dbSession) {
+    DBSession previous = sessions.get();
+    sessions.set(dbSession);
+    return previous;
+  }
+
+  /**
+   * Restore the session bound to the calling thread before {@link #bind}.
+   */
+  void unbind(DBSession previous) {
+    if (previous == null) {
+      sessions.remove();
+    } else {
+      sessions.set(previous);
+    }
+  }
+
+  /**
+   * Load the ClusterJ metadata of the DTO interfaces declared by the given
+   * data access classes, see {@link DBSessionProvider#warmUp}.
+   */
+  public void warmUp(Collection<? extends EntityDataAccess> dataAccesses)
+      throws StorageException {
+    Set<Class<?>> dtoClasses = new LinkedHashSet<>();
+    for (EntityDataAccess dataAccess : dataAccesses) {
+      for (Class<?> cls = dataAccess.getClass(); cls != null;
+           cls = cls.getSuperclass()) {
+        for (Class<?> declared : cls.getDeclaredClasses()) {
+          if (declared.isInterface() &&
+              declared.isAnnotationPresent(PersistenceCapable.class)) {
+            dtoClasses.add(declared);
+          }
+        }
+      }
+    }
+    dbSessionProvider.warmUp(new ArrayList<>(dtoClasses));
+  }
+
+  /**
+   * @return the state of each of the cluster connections the sessions are
+   * striped across
+   */
+  public List<ConnectionStats> getConnectionStats() {
+    return dbSessionProvider.getConnectionStats();
+  }
+
+  /**
+   * @return how long, in ms, each phase of the startup took
+   */
+  public Map<String, Long> getStartupTimes() {
+    return dbSessionProvider.getStartupTimes();
+  }
+
+  /**
+   * @return the number of asynchronous commits queued or running
+   */
+  public int getPendingAsyncCommits() {
+    return asyncCommitter.getPendingCommits();
+  }
+
+  /**
+   * Return the group committer with the given name, creating it on first
+   * use.
+   *
+   * @see GroupCommitter
+   */
+  public GroupCommitter getGroupCommitter(String name) {
+    GroupCommitter committer = groupCommitters.get(name);
+    if (committer == null) {
+      synchronized (groupCommitters) {
+        committer = groupCommitters.get(name);
+        if (committer == null) {
+          committer = new GroupCommitter(name, this, metrics,
+              groupCommitWindow, groupCommitBatchSize);
+          groupCommitters.put(name, committer);
+        }
+      }
+    }
+    return committer;
+  }
+
+  /**
+   * @return the executor running units of work in transactions retried on
+   * transient errors
+   */
+  public TransactionExecutor getTransactionExecutor() {
+    return transactionExecutor;
+  }
+
   /**
    * It rolls back only when the transaction is active.
    */
   @Override
   public void rollback() throws StorageException {
-    HopsSession session = null;
+    obtainSession();
+    DBSession dbSession = sessions.get();
+    sessions.remove();
+    rollback(dbSession);
+  }
+
+  /**
+   * Roll back the transaction of a session that is not bound to the calling
+   * thread, and return the session to the pool.
+   */
+  void rollback(DBSession dbSession) throws StorageException {
     boolean dbError = false;
+    boolean connectionFailed = false;
+    long timer = metrics.startTimer();
     try {
-      session = obtainSession();
-      HopsTransaction tx = session.currentTransaction();
+      HopsTransaction tx = dbSession.getSession().currentTransaction();
       if (tx.isActive()) {
         tx.rollback();
       }
     } catch (StorageException e) {
       dbError = true;
+      connectionFailed = HopsExceptionHelper.isConnectionFailure(e);
+      metrics.recordFailure(MetricsRegistry.Operation.ROLLBACK, e);
       throw e;
     } finally {
-      returnSession(dbError);
+      metrics.stopTimer(MetricsRegistry.Operation.ROLLBACK, timer);
+      dbSession.getSession().transactionEnded(false);
+      dbSessionProvider.returnSession(dbSession, dbError, connectionFailed);
     }
   }
 
@@ -221,6 +537,11 @@ public class ClusterjConnector implements StorageConnector<DBSession> {
 
   @Override
   public void stopStorage() throws StorageException {
+    for (GroupCommitter committer : groupCommitters.values()) {
+      committer.stop();
+    }
+    groupCommitters.clear();
+    asyncCommitter.stop();
     dbSessionProvider.stop();
   }
 
@@ -245,76 +566,19 @@ public class ClusterjConnector implements StorageConnector<DBSession> {
   @Override
   public void setPartitionKey(Class className, Object key)
       throws StorageException {
-    Class cls = null;
-    if (className == BlockInfoDataAccess.class) {
-      cls = BlockInfoClusterj.BlockInfoDTO.class;
-    } else if (className == S3ObjectInfoDataAccess.class) {
-      cls = S3ObjectInfoClusterj.DTO.class;
-    } else if (className == PendingBlockDataAccess.class) {
-      cls = PendingBlockClusterj.PendingBlockDTO.class;
-    } else if (className == ReplicaUnderConstructionDataAccess.class) {
-      cls = ReplicaUnderConstructionClusterj.ReplicaUcDTO.class;
-    } else if (className == INodeDataAccess.class) {
-      cls = INodeClusterj.InodeDTO.class;
-    } else if (className == DirectoryWithQuotaFeatureDataAccess.class) {
-      cls = DirectoryWithQuotaFeatureClusterj.INodeAttributesDTO.class;
-    } else if (className == LeaseDataAccess.class) {
-      cls = LeaseClusterj.LeaseDTO.class;
-    } else if (className == LeasePathDataAccess.class) {
-      cls = LeasePathClusterj.LeasePathsDTO.class;
-    } else if (className == HdfsLeDescriptorDataAccess.class) {
-      cls = HdfsLeaderClusterj.HdfsLeaderDTO.class;
-    } else if (className == YarnLeDescriptorDataAccess.class) {
-      cls = YarnLeaderClusterj.YarnLeaderDTO.class;
-    } else if (className == ReplicaDataAccess.class) {
-      cls = ReplicaClusterj.ReplicaDTO.class;
-    } else if (className == CorruptReplicaDataAccess.class) {
-      cls = CorruptReplicaClusterj.CorruptReplicaDTO.class;
-    } else if (className == ExcessReplicaDataAccess.class) {
-      cls = ExcessReplicaClusterj.ExcessReplicaDTO.class;
-    } else if (className == InvalidateBlockDataAccess.class) {
-      cls = InvalidatedBlockClusterj.InvalidateBlocksDTO.class;
-    } else if (className == UnderReplicatedBlockDataAccess.class) {
-      cls = UnderReplicatedBlockClusterj.UnderReplicatedBlocksDTO.class;
-    } else if (className == VariableDataAccess.class) {
-      cls = VariableClusterj.VariableDTO.class;
-    } else if (className == QuotaUpdateDataAccess.class) {
-      cls = QuotaUpdateClusterj.QuotaUpdateDTO.class;
-    } else if (className == EncodingStatusDataAccess.class) {
-      cls = EncodingStatusClusterj.EncodingStatusDto.class;
-    } else if (className == BlockChecksumDataAccess.class) {
-      cls = BlockChecksumClusterj.BlockChecksumDto.class;
-    } else if (className == OngoingSubTreeOpsDataAccess.class) {
-      cls = OnGoingSubTreeOpsClusterj.OnGoingSubTreeOpsDTO.class;
-    } else if (className == HashBucketDataAccess.class){
-      cls = HashBucketClusterj.HashBucketDTO.class;
-    } else if (className == InMemoryInodeDataAccess.class) {
-      cls = InMemoryFileInodeClusterj.FileInodeDataDTO.class;
-    } else if (className == SmallOnDiskInodeDataAccess.class) {
-      cls = SmallOnDiskFileInodeClusterj.FileInodeDataDTO.class;
-    } else if (className == MediumOnDiskInodeDataAccess.class) {
-      cls = MediumOnDiskFileInodeClusterj.FileInodeDataDTO.class;
-    } else if (className == LargeOnDiskInodeDataAccess.class) {
-      cls = LargeOnDiskFileInodeClusterj.FileInodeDataDTO.class;
-    } else if (className == AceDataAccess.class){
-      cls = AceClusterJ.AceDto.class;
-    } else if (className == RetryCacheEntryDataAccess.class){
-      cls = RetryCacheEntryClusterj.RetryCacheEntryDTO.class;
-    } else if (className == CacheDirectiveDataAccess.class){
-      cls = CacheDirectiveClusterj.CacheDirectiveDTO.class;
-    } else if (className == CachePoolDataAccess.class){
-      cls = CachePoolClusterJ.CachePoolDTO.class;
-    } else if (className == CachedBlockDataAccess.class){
-      cls = CachedBlockClusterJ.CachedBlockDTO.class;
-    } else if (className == ActiveBlockReportsClusterj.class){
-      cls = ActiveBlockReportsClusterj.class;
-    }
-
     HopsSession session = obtainSession();
-    session.setPartitionKey(cls, key);
+    session.setPartitionKey(partitionKeys.getDto(className), key);
     session.flush();
   }
 
+  /**
+   * @return the partition column of the table of the data access class, null
+   * if the table is partitioned on its whole primary key
+   */
+  public String getPartitionColumn(Class<? extends EntityDataAccess> dataAccess) {
+    return partitionKeys.getPartitionColumn(dataAccess);
+  }
+
     @Override
   public boolean formatAllStorageNonTransactional() throws StorageException {
     return formatAll(false);
@@ -392,219 +656,28 @@ public class ClusterjConnector implements StorageConnector<DBSession> {
       Class<? extends EntityDataAccess>... das) throws StorageException {
     
     final int RETRIES = 5; // in test
+    List<Class<? extends EntityDataAccess>> dataAccesses = Arrays.asList(das);
     for (int i = 0; i < RETRIES; i++) {
       try {
-        for (Class e : das) {
-          if (e == StorageDataAccess.class) {
-            MysqlServerConnector
-                .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.StoragesTableDef.TABLE_NAME);
-          } else if (e == INodeDataAccess.class) {
-            MysqlServerConnector
-                .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.INodeTableDef.TABLE_NAME);
-          } else if(e == InMemoryInodeDataAccess.class){
-            MysqlServerConnector.truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.FileInodeInMemoryData.TABLE_NAME);
-          } else if(e == SmallOnDiskInodeDataAccess.class){
-            MysqlServerConnector.truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.FileInodeSmallDiskData.TABLE_NAME);
-          } else if(e == MediumOnDiskInodeDataAccess.class){
-            MysqlServerConnector.truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.FileInodeMediumlDiskData.TABLE_NAME);
-          } else if(e == LargeOnDiskInodeDataAccess.class){
-            MysqlServerConnector.truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.FileInodeLargeDiskData.TABLE_NAME);
-          } else if (e == BlockInfoDataAccess.class) {
-            MysqlServerConnector
-                .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.BlockInfoTableDef.TABLE_NAME);
-          } else if (e == S3ObjectInfoDataAccess.class) {
-            MysqlServerConnector
-                    .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.S3ObjectInfoTableDef.TABLE_NAME);
-          } else if (e == LeaseDataAccess.class) {
-            MysqlServerConnector
-                .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.LeaseTableDef.TABLE_NAME);
-          } else if (e == LeasePathDataAccess.class) {
-            MysqlServerConnector
-                .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.LeasePathTableDef.TABLE_NAME);
-          } else if (e == OngoingSubTreeOpsDataAccess.class) {
-            MysqlServerConnector
-                .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.OnGoingSubTreeOpsDef.TABLE_NAME);
-          } else if (e == ReplicaDataAccess.class) {
-            MysqlServerConnector
-                .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.ReplicaTableDef.TABLE_NAME);
-          } else if (e == ReplicaUnderConstructionDataAccess.class) {
-            MysqlServerConnector.truncateTable(transactional,
-                io.hops.metadata.hdfs.TablesDef.ReplicaUnderConstructionTableDef.TABLE_NAME);
-          } else if (e == InvalidateBlockDataAccess.class) {
-            MysqlServerConnector.truncateTable(transactional,
-                io.hops.metadata.hdfs.TablesDef.InvalidatedBlockTableDef.TABLE_NAME);
-          } else if (e == ExcessReplicaDataAccess.class) {
-            MysqlServerConnector
-                .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.ExcessReplicaTableDef.TABLE_NAME);
-          } else if (e == PendingBlockDataAccess.class) {
-            MysqlServerConnector
-                .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.PendingBlockTableDef.TABLE_NAME);
-          } else if (e == CorruptReplicaDataAccess.class) {
-            MysqlServerConnector.truncateTable(transactional,
-                io.hops.metadata.hdfs.TablesDef.CorruptReplicaTableDef.TABLE_NAME);
-          } else if (e == UnderReplicatedBlockDataAccess.class) {
-            MysqlServerConnector.truncateTable(transactional,
-                io.hops.metadata.hdfs.TablesDef.UnderReplicatedBlockTableDef.TABLE_NAME);
-          } else if (e == HdfsLeDescriptorDataAccess.class) {
-            MysqlServerConnector
-                .truncateTable(transactional, TablesDef.HdfsLeaderTableDef.TABLE_NAME);
-          } else if (e == DirectoryWithQuotaFeatureDataAccess.class) {
-            MysqlServerConnector.truncateTable(transactional,
-                io.hops.metadata.hdfs.TablesDef.DirectoryWithQuotaFeatureTableDef.TABLE_NAME);
-          } else if (e == VariableDataAccess.class) {
-            HopsSession session = obtainSession();
-            session.currentTransaction().begin();
-            session.deletePersistentAll(VariableClusterj.VariableDTO.class);
-            for (Variable.Finder varType : Variable.Finder.values()) {
-              LOG.debug("write varialbe " + varType.name() + " with id " + varType.getId());
-              VariableClusterj.VariableDTO vd =
-                  session.newInstance(VariableClusterj.VariableDTO.class);
-              vd.setId(varType.getId());
-              byte[] value = varType.getDefaultValue();
-              vd.setValue(varType.getDefaultValue());
-              session.savePersistent(vd);
-            }
-            session.currentTransaction().commit();
-          } else if (e == StorageIdMapDataAccess.class) {
-            MysqlServerConnector
-                .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.StorageIdMapTableDef.TABLE_NAME);
-          } else if (e == BlockLookUpDataAccess.class) {
-            MysqlServerConnector
-                .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.BlockLookUpTableDef.TABLE_NAME);
-          } else if (e == S3ObjectLookUpDataAccess.class) {
-            MysqlServerConnector
-                    .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.S3ObjectLookUpTableDef.TABLE_NAME);
-          } else if (e == S3ObjectDeletableClusterj.class) {
-            MysqlServerConnector
-                    .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.S3ObjectDeletableTableDef.TABLE_NAME);
-          } else if (e == S3ProcessableClusterj.class) {
-            MysqlServerConnector
-                    .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.S3ProcessableTableDef.TABLE_NAME);
-          } else if (e == SafeBlocksDataAccess.class) {
-            MysqlServerConnector
-                .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.SafeBlocksTableDef.TABLE_NAME);
-          } else if (e == MisReplicatedRangeQueueDataAccess.class) {
-            MysqlServerConnector.truncateTable(transactional,
-                io.hops.metadata.hdfs.TablesDef.MisReplicatedRangeQueueTableDef.TABLE_NAME);
-          } else if (e == QuotaUpdateDataAccess.class) {
-            MysqlServerConnector
-                .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.QuotaUpdateTableDef.TABLE_NAME);
-          } else if (e == EncodingStatusDataAccess.class) {
-            MysqlServerConnector.truncateTable(transactional,
-                io.hops.metadata.hdfs.TablesDef.EncodingStatusTableDef.TABLE_NAME);
-          } else if (e == BlockChecksumDataAccess.class) {
-            MysqlServerConnector
-                .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.BlockChecksumTableDef.TABLE_NAME);
-          } else if (e == MetadataLogDataAccess.class) {
-            MysqlServerConnector.truncateTable(transactional,
-                io.hops.metadata.hdfs.TablesDef.MetadataLogTableDef.TABLE_NAME);
-            MysqlServerConnector.truncateTable(transactional,
-                io.hops.metadata.hdfs.TablesDef.MetadataLogTableDef.LOOKUP_TABLE_NAME);
-          } else if (e == EncodingJobsDataAccess.class) {
-            MysqlServerConnector
-                .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.EncodingJobsTableDef.TABLE_NAME);
-          } else if (e == RepairJobsDataAccess.class) {
-            MysqlServerConnector
-                .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.RepairJobsTableDef.TABLE_NAME);
-          } else if (e == UserDataAccess.class) {
-            // Truncate not supported with FK
-            MysqlServerConnector
-                .truncateTable(true, io.hops.metadata.hdfs.TablesDef.UsersTableDef.TABLE_NAME);
-          }else if (e == GroupDataAccess.class) {
-            // Truncate not supported with FK
-            MysqlServerConnector
-                .truncateTable(true, io.hops.metadata.hdfs.TablesDef.GroupsTableDef.TABLE_NAME);
-          }else if (e == UserGroupDataAccess.class) {
-            MysqlServerConnector
-                .truncateTable(transactional, io.hops.metadata.hdfs.TablesDef.UsersGroupsTableDef.TABLE_NAME);
-          } else if (e == YarnLeDescriptorDataAccess.class) {
-            MysqlServerConnector
-                .truncateTable(transactional,
-                    TablesDef.YarnLeaderTableDef.TABLE_NAME);
-          } else if (e == ContainerIdToCleanDataAccess.class) {
-            truncate(transactional,
-                io.hops.metadata.yarn.TablesDef.ContainerIdToCleanTableDef.TABLE_NAME);
-          } else if (e == ContainerToSignalDataAccess.class) {
-            truncate(transactional,
-                io.hops.metadata.yarn.TablesDef.ContainerToSignalTableDef.TABLE_NAME);
-          } else if (e == ContainerToDecreaseDataAccess.class) {
-            truncate(transactional,
-                io.hops.metadata.yarn.TablesDef.ContainerToDecreaseTableDef.TABLE_NAME);
-          } else if (e == ApplicationAttemptStateDataAccess.class) {
-            truncate(transactional,
-                io.hops.metadata.yarn.TablesDef.ApplicationAttemptStateTableDef.TABLE_NAME);
-          } else if (e == ApplicationStateDataAccess.class) {
-            truncate(transactional,
-                io.hops.metadata.yarn.TablesDef.ApplicationStateTableDef.TABLE_NAME);
-          } else if (e == DelegationKeyDataAccess.class) {
-            truncate(transactional,
-                io.hops.metadata.yarn.TablesDef.DelegationKeyTableDef.TABLE_NAME);
-          } else if (e == DelegationTokenDataAccess.class) {
-            truncate(transactional,
-                io.hops.metadata.yarn.TablesDef.DelegationTokenTableDef.TABLE_NAME);
-          } else if (e == ContainerStatusDataAccess.class) {
-            truncate(transactional,
-                io.hops.metadata.yarn.TablesDef.ContainerStatusTableDef.TABLE_NAME);
-          } else if (e == ResourceDataAccess.class) {
-            truncate(transactional,
-                io.hops.metadata.yarn.TablesDef.ResourceTableDef.TABLE_NAME);
-          } else if (e == RMNodeDataAccess.class) {
-            // Truncate does not work with foreign keys
-            truncate(true,
-                io.hops.metadata.yarn.TablesDef.RMNodeTableDef.TABLE_NAME);
-          } else if (e == RMNodeApplicationsDataAccess.class) {
-            truncate(transactional,
-                io.hops.metadata.yarn.TablesDef.FinishedApplicationsTableDef.TABLE_NAME);
-          } else if (e == UpdatedContainerInfoDataAccess.class) {
-            truncate(transactional, io.hops.metadata.yarn.TablesDef.UpdatedContainerInfoTableDef.TABLE_NAME);
-          } else if (e == RMLoadDataAccess.class) {
-            truncate(transactional, io.hops.metadata.yarn.TablesDef.RMLoadTableDef.TABLE_NAME);
-          } else if (e == PendingEventDataAccess.class) {
-            truncate(transactional,
-                io.hops.metadata.yarn.TablesDef.PendingEventTableDef.TABLE_NAME);
-          } else if (e == NextHeartbeatDataAccess.class) {
-            truncate(transactional, io.hops.metadata.yarn.TablesDef.NextHeartbeatTableDef.TABLE_NAME);
-          } else if (e == ProjectQuotaDataAccess.class) {
-            truncate(transactional, io.hops.metadata.yarn.TablesDef.ProjectQuotaTableDef.TABLE_NAME);
-          } else if (e == ContainersLogsDataAccess.class) {
-            truncate(transactional, io.hops.metadata.yarn.TablesDef.ContainersLogsTableDef.TABLE_NAME);
-          } else if (e == ContainersCheckPointsDataAccess.class) {
-            truncate(transactional, io.hops.metadata.yarn.TablesDef.ContainersCheckPointsTableDef.TABLE_NAME);
-          } else if (e == ProjectsDailyCostDataAccess.class) {
-            truncate(transactional, io.hops.metadata.yarn.TablesDef.ProjectsDailyCostTableDef.TABLE_NAME);
-          } else if (e == PriceMultiplicatorDataAccess.class) {
-            truncate(transactional, io.hops.metadata.yarn.TablesDef.PriceMultiplicatorTableDef.TABLE_NAME);
-          } else if (e == HashBucketDataAccess.class){
-            truncate(transactional, io.hops.metadata.hdfs.TablesDef
-                .HashBucketsTableDef.TABLE_NAME);
-          } else if (e == ReservationStateDataAccess.class) {
-            truncate(transactional,
-                io.hops.metadata.yarn.TablesDef.ReservationStateTableDef.TABLE_NAME);
-          } else if (e == AceDataAccess.class){
-            truncate(transactional, io.hops.metadata.hdfs.TablesDef.AcesTableDef.TABLE_NAME);
-          } else if (e == RetryCacheEntryDataAccess.class){
-            truncate(transactional, io.hops.metadata.hdfs.TablesDef.RetryCacheEntryTableDef.TABLE_NAME);
-          } else if (e == CacheDirectiveDataAccess.class){
-            // Truncate not supported with FK
-            truncate(true, io.hops.metadata.hdfs.TablesDef.CacheDirectiveTableDef.TABLE_NAME);
-          } else if (e == CachePoolDataAccess.class){
-            truncate(transactional, io.hops.metadata.hdfs.TablesDef.CachePoolTableDef.TABLE_NAME);
-          } else if (e == CachedBlockDataAccess.class){
-            truncate(transactional, io.hops.metadata.hdfs.TablesDef.CachedBlockTableDef.TABLE_NAME);
-          } else if (e == ActiveBlockReportsDataAccess.class){
-            truncate(transactional, io.hops.metadata.hdfs.TablesDef.ActiveBlockReports.TABLE_NAME);
-          } else if (e == XAttrDataAccess.class){
-            truncate(transactional, io.hops.metadata.hdfs.TablesDef.XAttrTableDef.TABLE_NAME);
-          } else if (e == EncryptionZoneDataAccess.class){
-            truncate(transactional, io.hops.metadata.hdfs.TablesDef.EncryptionZones.TABLE_NAME);
-          } else if (e == FileProvenanceDataAccess.class) {
-            truncate(transactional, io.hops.metadata.hdfs.TablesDef.FileProvenanceTableDef.TABLE_NAME);
-          }  else if (e == FileProvXAttrBufferDataAccess.class) {
-            truncate(transactional, io.hops.metadata.hdfs.TablesDef.FileProvXAttrBufferTableDef.TABLE_NAME);
+        tableTruncator.truncate(transactional, dataAccesses,
+            "hdfs_path_memcached");
+        RowCountEstimator.getInstance().invalidate();
+        BlockLookUpClusterj.clearCache();
+        S3ObjectLookUpClusterj.clearCache();
+        if (dataAccesses.contains(VariableDataAccess.class)) {
+          HopsSession session = obtainSession();
+          session.currentTransaction().begin();
+          session.deletePersistentAll(VariableClusterj.VariableDTO.class);
+          for (Variable.Finder varType : Variable.Finder.values()) {
+            LOG.debug("write varialbe " + varType.name() + " with id " + varType.getId());
+            VariableClusterj.VariableDTO vd =
+                session.newInstance(VariableClusterj.VariableDTO.class);
+            vd.setId(varType.getId());
+            vd.setValue(varType.getDefaultValue());
+            session.savePersistent(vd);
           }
+          session.currentTransaction().commit();
         }
-        MysqlServerConnector.truncateTable(transactional,
-            "hdfs_path_memcached");
         return true;
 
       } catch (SQLException ex) {
@@ -613,10 +686,12 @@ public class ClusterjConnector implements StorageConnector<DBSession> {
     } // end retry loop
     return false;
   }
-  
-  private void truncate(boolean transactional, String tableName)
-      throws StorageException, SQLException {
-    MysqlServerConnector.truncateTable(transactional, tableName);
+
+  /**
+   * @return the time in ms taken to empty each table by the last format
+   */
+  public Map<String, Long> getTruncationTimes() {
+    return tableTruncator.getTruncationTimes();
   }
 
   @Override
@@ -626,7 +701,15 @@ public class ClusterjConnector implements StorageConnector<DBSession> {
       dbSession = dbSessionProvider.getSession();
       sessions.set(dbSession);
     }
-    dbSession.getSession().flush();
+    long timer = metrics.startTimer();
+    try {
+      dbSession.getSession().flush();
+    } catch (StorageException e) {
+      metrics.recordFailure(MetricsRegistry.Operation.FLUSH, e);
+      throw e;
+    } finally {
+      metrics.stopTimer(MetricsRegistry.Operation.FLUSH, timer);
+    }
   }
 
   public String getClusterConnectString() {
@@ -636,5 +719,13 @@ public class ClusterjConnector implements StorageConnector<DBSession> {
   public String getDatabaseName() {
     return databaseName;
   }
+
+  public MetricsRegistry getMetrics() {
+    return metrics;
+  }
+
+  public DBSessionProvider getSessionProvider() {
+    return dbSessionProvider;
+  }
   
 }
@@ -0,0 +1,79 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+/**
+ * Snapshot of the state of one of the cluster connections the sessions are
+ * striped across.
+ */
+public class ConnectionStats {
+  private final int index;
+  private final String nodeId;
+  private final int openSessions;
+  private final long failures;
+  private final boolean available;
+
+  ConnectionStats(int index, String nodeId, int openSessions, long failures,
+      boolean available) {
+    this.index = index;
+    this.nodeId = nodeId;
+    this.openSessions = openSessions;
+    this.failures = failures;
+    this.available = available;
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  /**
+   * @return the API node id of the connection, null if it is assigned by the
+   * management server
+   */
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  public int getOpenSessions() {
+    return openSessions;
+  }
+
+  /**
+   * @return the number of sessions of the connection that could not be
+   * created or were closed after an error
+   */
+  public long getFailures() {
+    return failures;
+  }
+
+  /**
+   * @return false while no new sessions are created on the connection
+   * because of repeated failures
+   */
+  public boolean isAvailable() {
+    return available;
+  }
+
+  @Override
+  public String toString() {
+    return "connection " + index + (nodeId == null ? "" : " (node " + nodeId +
+        ")") + ": sessions " + openSessions + ", failures " + failures +
+        (available ? "" : ", unavailable");
+  }
+}
@@ -20,15 +20,28 @@ package io.hops.metadata.ndb;
 
 import io.hops.metadata.ndb.wrapper.HopsSession;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class DBSession {
 
   private HopsSession session;
   private final int MAX_REUSE_COUNT;
+  // the cluster connection the session was opened on
+  private final int connection;
   private int sessionUseCount;
+  // bookkeeping of the DBSessionPool
+  final AtomicInteger poolState = new AtomicInteger(DBSessionPool.IN_USE);
+  final AtomicBoolean enqueued = new AtomicBoolean(false);
 
   public DBSession(HopsSession session, int maxReuseCount) {
+    this(session, maxReuseCount, 0);
+  }
+
+  DBSession(HopsSession session, int maxReuseCount, int connection) {
     this.session = session;
     this.MAX_REUSE_COUNT = maxReuseCount;
+    this.connection = connection;
     this.sessionUseCount = 0;
   }
 
@@ -47,4 +60,8 @@ public class DBSession {
   public int getMaxReuseCount() {
     return MAX_REUSE_COUNT;
   }
+
+  int getConnection() {
+    return connection;
+  }
 }
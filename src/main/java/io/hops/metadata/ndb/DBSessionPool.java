@@ -0,0 +1,282 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded pool of idle {@link DBSession}s.
+ * <p/>
+ * Idle sessions are kept in per-core striped LIFO free lists so that handler
+ * threads do not all CAS on the head of a single queue. On top of that every
+ * thread remembers the last session it returned and tries to take that one
+ * back first, which in the common case of a handler thread running one
+ * transaction after the other does not touch any shared list at all.
+ * <p/>
+ * A session is owned by whoever flips its state from FREE to IN_USE. The free
+ * lists only hold references to sessions that were FREE when they were pushed;
+ * a reference may be stale (the session was taken back through the thread
+ * affine path) in which case it is simply dropped when polled.
+ * <p/>
+ * The pool never creates sessions. Borrowers that find it empty wait for a
+ * session to be returned or to be added by the replenisher, the pool only
+ * keeps track of the demand so that the replenisher knows how many sessions
+ * to create.
+ */
+class DBSessionPool {
+
+  static final int FREE = 0;
+  static final int IN_USE = 1;
+  static final int REMOVED = 2;
+
+  private final ConcurrentLinkedDeque<DBSession>[] stripes;
+  private final int stripeMask;
+  private final int maxSize;
+  private final ThreadLocal<DBSession> lastReturned = new ThreadLocal<>();
+
+  // sessions owned by the pool, idle or borrowed
+  private final AtomicInteger total = new AtomicInteger(0);
+  private final AtomicInteger idle = new AtomicInteger(0);
+  // borrowers that found the pool empty and are waiting for a session
+  private final AtomicInteger waiters = new AtomicInteger(0);
+  // misses since the replenisher last looked at the pool
+  private final AtomicInteger misses = new AtomicInteger(0);
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition sessionAvailable = lock.newCondition();
+  private final Condition demand = lock.newCondition();
+
+  @SuppressWarnings("unchecked")
+  DBSessionPool(int maxSize) {
+    this.maxSize = maxSize;
+    int nbStripes = Integer.highestOneBit(
+        Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+    stripes = new ConcurrentLinkedDeque[nbStripes];
+    for (int i = 0; i < nbStripes; i++) {
+      stripes[i] = new ConcurrentLinkedDeque<>();
+    }
+    stripeMask = nbStripes - 1;
+  }
+
+  /**
+   * Reserve room for a new session. The caller must either {@link #add} the
+   * created session or {@link #release} the reservation.
+   *
+   * @return false if the pool is already at its upper bound
+   */
+  boolean reserve() {
+    while (true) {
+      int current = total.get();
+      if (current >= maxSize) {
+        return false;
+      }
+      if (total.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Give back a reservation obtained through {@link #reserve} or account for
+   * a borrowed session that was closed instead of being returned.
+   */
+  void release() {
+    total.decrementAndGet();
+  }
+
+  /**
+   * Add a freshly created session for which room was reserved.
+   */
+  void add(DBSession session) {
+    session.poolState.set(FREE);
+    push(session);
+  }
+
+  /**
+   * Take an idle session without waiting.
+   *
+   * @return an idle session or null if there is none
+   */
+  DBSession poll() {
+    DBSession last = lastReturned.get();
+    if (last != null && last.poolState.compareAndSet(FREE, IN_USE)) {
+      idle.decrementAndGet();
+      return last;
+    }
+    int home = stripe();
+    for (int i = 0; i < stripes.length; i++) {
+      ConcurrentLinkedDeque<DBSession> stripe = stripes[(home + i) & stripeMask];
+      DBSession session;
+      while ((session = stripe.pollFirst()) != null) {
+        session.enqueued.set(false);
+        if (session.poolState.compareAndSet(FREE, IN_USE)) {
+          idle.decrementAndGet();
+          return session;
+        }
+        // stale reference, the session was taken back by its last user
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Take an idle session, waiting up to the given timeout for one to become
+   * available.
+   *
+   * @return an idle session or null if the timeout expired
+   */
+  DBSession poll(long timeout, TimeUnit unit) throws InterruptedException {
+    DBSession session = poll();
+    if (session != null) {
+      return session;
+    }
+    misses.incrementAndGet();
+    long remaining = unit.toNanos(timeout);
+    waiters.incrementAndGet();
+    try {
+      while (true) {
+        lock.lock();
+        try {
+          demand.signal();
+          session = poll();
+          if (session != null) {
+            return session;
+          }
+          if (remaining <= 0) {
+            return null;
+          }
+          remaining = sessionAvailable.awaitNanos(remaining);
+        } finally {
+          lock.unlock();
+        }
+      }
+    } finally {
+      waiters.decrementAndGet();
+    }
+  }
+
+  /**
+   * Return a borrowed session to the pool.
+   */
+  void offer(DBSession session) {
+    session.poolState.set(FREE);
+    lastReturned.set(session);
+    push(session);
+  }
+
+  /**
+   * Take a borrowed session out of the pool for good, i.e. it is going to be
+   * closed. The room it occupied can be reused by the replenisher.
+   */
+  void remove(DBSession session) {
+    session.poolState.set(REMOVED);
+    if (lastReturned.get() == session) {
+      lastReturned.remove();
+    }
+    total.decrementAndGet();
+    misses.incrementAndGet();
+    signalDemand();
+  }
+
+  /**
+   * Remove all idle sessions from the pool.
+   */
+  List<DBSession> drain() {
+    List<DBSession> drained = new ArrayList<>();
+    for (ConcurrentLinkedDeque<DBSession> stripe : stripes) {
+      DBSession session;
+      while ((session = stripe.pollFirst()) != null) {
+        session.enqueued.set(false);
+        if (session.poolState.compareAndSet(FREE, REMOVED)) {
+          idle.decrementAndGet();
+          total.decrementAndGet();
+          drained.add(session);
+        }
+      }
+    }
+    return drained;
+  }
+
+  /**
+   * Wait until there is demand for new sessions or the timeout expires.
+   *
+   * @return the number of misses since the last call
+   */
+  int awaitDemand(long timeout, TimeUnit unit) throws InterruptedException {
+    lock.lock();
+    try {
+      if (misses.get() == 0) {
+        demand.await(timeout, unit);
+      }
+    } finally {
+      lock.unlock();
+    }
+    return misses.getAndSet(0);
+  }
+
+  void signalDemand() {
+    lock.lock();
+    try {
+      demand.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int getIdle() {
+    return idle.get();
+  }
+
+  int getTotal() {
+    return total.get();
+  }
+
+  int getMaxSize() {
+    return maxSize;
+  }
+
+  int getWaiters() {
+    return waiters.get();
+  }
+
+  private void push(DBSession session) {
+    idle.incrementAndGet();
+    if (session.enqueued.compareAndSet(false, true)) {
+      stripes[stripe()].offerFirst(session);
+    }
+    if (waiters.get() > 0) {
+      lock.lock();
+      try {
+        sessionAvailable.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private int stripe() {
+    return (int) Thread.currentThread().getId() & stripeMask;
+  }
+}
@@ -18,50 +18,87 @@
  */
 package io.hops.metadata.ndb;
 
-import com.mysql.clusterj.ClusterJException;
-import com.mysql.clusterj.ClusterJHelper;
 import com.mysql.clusterj.Constants;
 import com.mysql.clusterj.LockMode;
 import io.hops.exception.StorageException;
-import io.hops.metadata.ndb.wrapper.HopsExceptionHelper;
+import io.hops.exception.TransientStorageException;
+import io.hops.metadata.ndb.metrics.MetricsRegistry;
+import io.hops.metadata.ndb.metrics.NoOpMetricsRegistry;
 import io.hops.metadata.ndb.wrapper.HopsSession;
-import io.hops.metadata.ndb.wrapper.HopsSessionFactory;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Random;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class DBSessionProvider implements Runnable {
 
   static final Log LOG = LogFactory.getLog(DBSessionProvider.class);
-  static HopsSessionFactory sessionFactory;
-  private ConcurrentLinkedQueue<DBSession> sessionPool =
-      new ConcurrentLinkedQueue<>();
+  private ClusterConnections connections;
+  private static final long REFRESH_INTERVAL_MS = 1000;
+  private final DBSessionPool sessionPool;
   private ConcurrentLinkedQueue<DBSession> toGC =
       new ConcurrentLinkedQueue<>();
   private final int MAX_REUSE_COUNT;
+  private final int minIdleSessions;
+  private final long acquireTimeout;
+  private final int initThreads;
+  private final Map<String, Long> startupTimes = new LinkedHashMap<>();
   private Properties conf;
+  private final MetricsRegistry metrics;
   private final Random rand;
   private AtomicInteger sessionsCreated = new AtomicInteger(0);
   private long rollingAvg[];
   private AtomicInteger rollingAvgIndex = new AtomicInteger(-1);
-  private boolean automaticRefresh = false;
+  private volatile boolean automaticRefresh = false;
   private Thread thread;
 
   public DBSessionProvider(Properties conf, int reuseCount, int initialPoolSize)
       throws StorageException {
+    this(conf, reuseCount, initialPoolSize, 2 * initialPoolSize, 10000,
+        NoOpMetricsRegistry.INSTANCE);
+  }
+
+  /**
+   * @param maxPoolSize
+   *     hard upper bound on the number of sessions, idle or in use
+   * @param acquireTimeout
+   *     how long in ms getSession waits for a session when the pool is empty
+   * @param metrics
+   *     where the session acquire and creation times are recorded
+   */
+  public DBSessionProvider(Properties conf, int reuseCount, int initialPoolSize,
+      int maxPoolSize, long acquireTimeout, MetricsRegistry metrics)
+      throws StorageException {
     this.conf = conf;
+    this.metrics = metrics;
     if (reuseCount <= 0) {
       System.err.println("Invalid value for session reuse count");
       System.exit(-1);
     }
     this.MAX_REUSE_COUNT = reuseCount;
+    this.acquireTimeout = acquireTimeout;
+    this.initThreads = Math.max(1, Integer.parseInt(
+        conf.getProperty("io.hops.session.pool.init.threads", "8")));
+    this.minIdleSessions = Math.max(1, initialPoolSize / 10);
     rand = new Random(System.currentTimeMillis());
-    rollingAvg = new long[initialPoolSize];
+    rollingAvg = new long[Math.max(1, initialPoolSize)];
+    sessionPool = new DBSessionPool(Math.max(initialPoolSize, maxPoolSize));
     start(initialPoolSize);
   }
 
@@ -72,16 +109,40 @@ public class DBSessionProvider implements Runnable {
         "Database name: " + conf.get(Constants.PROPERTY_CLUSTER_DATABASE));
     System.out.println("Max Transactions: " +
         conf.get(Constants.PROPERTY_CLUSTER_MAX_TRANSACTIONS));
-    try {
-      sessionFactory =
-          new HopsSessionFactory(ClusterJHelper.getSessionFactory(conf));
-    } catch (ClusterJException ex) {
-      throw HopsExceptionHelper.wrap(ex);
-    }
+    long phaseStart = System.currentTimeMillis();
+    connections = ClusterConnections.create(conf);
+
+    phaseStart = recordStartupTime("session factory", phaseStart);
 
+    List<Callable<DBSession>> tasks = new ArrayList<>(initialPoolSize);
     for (int i = 0; i < initialPoolSize; i++) {
-      sessionPool.add(initSession());
+      if (!sessionPool.reserve()) {
+        break;
+      }
+      tasks.add(new Callable<DBSession>() {
+        @Override
+        public DBSession call() throws StorageException {
+          return initSession();
+        }
+      });
     }
+    StorageException failure = null;
+    for (Future<DBSession> future : runInParallel(tasks)) {
+      try {
+        sessionPool.add(future.get());
+      } catch (ExecutionException e) {
+        sessionPool.release();
+        failure = toStorageException(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        sessionPool.release();
+        failure = new StorageException(e);
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    recordStartupTime("sessions", phaseStart);
 
     thread = new Thread(this, "Session Pool Refresh Daemon");
     thread.setDaemon(true);
@@ -89,61 +150,207 @@ public class DBSessionProvider implements Runnable {
     thread.start();
   }
 
+  /**
+   * Load the ClusterJ metadata (domain type handler and table definition) of
+   * the given DTO interfaces, so that the first transactions using them do
+   * not pay for it. The classes are spread over the startup threads, each
+   * thread using a session of the pool. Classes whose metadata cannot be
+   * loaded are logged and skipped.
+   */
+  public void warmUp(List<Class<?>> dtoClasses) throws StorageException {
+    long phaseStart = System.currentTimeMillis();
+    int nbTasks = Math.min(initThreads, dtoClasses.size());
+    List<Callable<Void>> tasks = new ArrayList<>(nbTasks);
+    for (int i = 0; i < nbTasks; i++) {
+      final List<Class<?>> slice = new ArrayList<>();
+      for (int j = i; j < dtoClasses.size(); j += nbTasks) {
+        slice.add(dtoClasses.get(j));
+      }
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws StorageException {
+          DBSession dbSession = getSession();
+          try {
+            HopsSession session = dbSession.getSession();
+            for (Class<?> dtoClass : slice) {
+              try {
+                session.release(session.newInstance(dtoClass));
+              } catch (StorageException | RuntimeException e) {
+                LOG.warn("Could not load the metadata of " +
+                    dtoClass.getName(), e);
+              }
+            }
+          } finally {
+            returnSession(dbSession, false);
+          }
+          return null;
+        }
+      });
+    }
+    for (Future<Void> future : runInParallel(tasks)) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        throw toStorageException(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new StorageException(e);
+      }
+    }
+    recordStartupTime("dto metadata", phaseStart);
+  }
+
+  /**
+   * @return how long, in ms, each phase of the startup took, in the order
+   * the phases ran
+   */
+  public synchronized Map<String, Long> getStartupTimes() {
+    return Collections.unmodifiableMap(new LinkedHashMap<>(startupTimes));
+  }
+
+  private synchronized long recordStartupTime(String phase, long phaseStart) {
+    long now = System.currentTimeMillis();
+    startupTimes.put(phase, now - phaseStart);
+    return now;
+  }
+
+  /**
+   * Run the startup tasks on up to initThreads threads and wait for them.
+   */
+  private <T> List<Future<T>> runInParallel(List<Callable<T>> tasks)
+      throws StorageException {
+    if (tasks.isEmpty()) {
+      return Collections.emptyList();
+    }
+    final AtomicInteger count = new AtomicInteger(0);
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(initThreads, tasks.size()), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread =
+                new Thread(r, "Session Pool Init-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    try {
+      return executor.invokeAll(tasks);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StorageException(e);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static StorageException toStorageException(Throwable t) {
+    if (t instanceof StorageException) {
+      return (StorageException) t;
+    }
+    return new StorageException(t);
+  }
+
   private DBSession initSession() throws StorageException {
     Long startTime = System.currentTimeMillis();
-    HopsSession session = sessionFactory.getSession();
+    long timer = metrics.startTimer();
+    int connection = connections.next();
+    HopsSession session;
+    try {
+      session = connections.openSession(connection);
+    } catch (StorageException e) {
+      metrics.recordFailure(MetricsRegistry.Operation.SESSION_CREATE, e);
+      throw e;
+    }
+    metrics.stopTimer(MetricsRegistry.Operation.SESSION_CREATE, timer);
     Long sessionCreationTime = (System.currentTimeMillis() - startTime);
     rollingAvg[rollingAvgIndex.incrementAndGet() % rollingAvg.length] =
         sessionCreationTime;
 
     int reuseCount = rand.nextInt(MAX_REUSE_COUNT) + 1;
-    DBSession dbSession = new DBSession(session, reuseCount);
+    DBSession dbSession = new DBSession(session, reuseCount, connection);
     sessionsCreated.incrementAndGet();
     return dbSession;
   }
 
   private void closeSession(DBSession dbSession) throws StorageException {
-    Long startTime = System.currentTimeMillis();
+    connections.closed(dbSession.getConnection());
     dbSession.getSession().close();
-    Long sessionCreationTime = (System.currentTimeMillis() - startTime);
-    rollingAvg[rollingAvgIndex.incrementAndGet() % rollingAvg.length] =
-        sessionCreationTime;
   }
 
   public void stop() throws StorageException {
     automaticRefresh = false;
-    while (!sessionPool.isEmpty()) {
-      DBSession dbsession = sessionPool.remove();
+    sessionPool.signalDemand();
+    for (DBSession dbsession : sessionPool.drain()) {
       closeSession(dbsession);
     }
   }
 
   public DBSession getSession() throws StorageException {
-    try {
-      DBSession session = sessionPool.remove();
+    long timer = metrics.startTimer();
+    DBSession session = sessionPool.poll();
+    if (session != null) {
+      metrics.stopTimer(MetricsRegistry.Operation.SESSION_ACQUIRE, timer);
       return session;
-    } catch (NoSuchElementException e) {
+    }
+    try {
+      session = sessionPool.poll(acquireTimeout, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StorageException(e);
+    }
+    if (session == null) {
       LOG.warn(
-          "DB Sessino provider cant keep up with the demand for new sessions");
-      return initSession();
+          "DB Session provider cant keep up with the demand for new sessions");
+      StorageException e = new TransientStorageException("Timed out after " +
+          acquireTimeout + " ms waiting for a database session. Sessions in " +
+          "use: " + (sessionPool.getTotal() - sessionPool.getIdle()) + "/" +
+          sessionPool.getMaxSize());
+      metrics.recordFailure(MetricsRegistry.Operation.SESSION_ACQUIRE, e);
+      throw e;
     }
+    metrics.stopTimer(MetricsRegistry.Operation.SESSION_ACQUIRE, timer);
+    return session;
   }
 
   public void returnSession(DBSession returnedSession, boolean forceClose) throws StorageException {
+    returnSession(returnedSession, forceClose, false);
+  }
+
+  /**
+   * @param forceClose
+   *     true to close the session instead of returning it to the pool, after
+   *     a database error
+   * @param connectionFailed
+   *     true if the error came from the cluster connection of the session,
+   *     only these errors count against the connection, the others show it
+   *     still works
+   */
+  public void returnSession(DBSession returnedSession, boolean forceClose,
+      boolean connectionFailed) throws StorageException {
     //session has been used, increment the use counter
     returnedSession
         .setSessionUseCount(returnedSession.getSessionUseCount() + 1);
+    if (connectionFailed) {
+      connections.failed(returnedSession.getConnection());
+    } else {
+      connections.succeeded(returnedSession.getConnection());
+    }
 
     if ((returnedSession.getSessionUseCount() >=
         returnedSession.getMaxReuseCount()) ||
         forceClose) { // session can be closed even before the reuse count has expired. Close the session incase of database errors.
       toGC.add(returnedSession);
+      sessionPool.remove(returnedSession);
     } else { // increment the count and return it to the pool
+      returnedSession.getSession().setReadOnly(false);
       returnedSession.getSession().setLockMode(LockMode.READ_COMMITTED);
-      sessionPool.add(returnedSession);
+      sessionPool.offer(returnedSession);
     }
   }
 
+  /**
+   * @return the average time in ms it took to create the last sessions
+   */
   public double getSessionCreationRollingAvg() {
     double avg = 0;
     for (long aRollingAvg : rollingAvg) {
@@ -158,54 +365,72 @@ public class DBSessionProvider implements Runnable {
   }
 
   public int getAvailableSessions() {
-    return sessionPool.size();
+    return sessionPool.getIdle();
   }
 
+  public int getPoolSize() {
+    return sessionPool.getTotal();
+  }
+
+  public int getMaxPoolSize() {
+    return sessionPool.getMaxSize();
+  }
+
+  public int getSessionWaiters() {
+    return sessionPool.getWaiters();
+  }
+
+  /**
+   * @return the state of each of the cluster connections the sessions are
+   * opened on
+   */
+  public List<ConnectionStats> getConnectionStats() {
+    return connections.getStats();
+  }
+
+  /**
+   * Closes the sessions that reached their reuse count and creates new ones
+   * when there is demand for them, i.e. a borrower found the pool empty or
+   * the number of idle sessions dropped below the low watermark.
+   */
   @Override
   public void run() {
     while (automaticRefresh) {
       try {
-        int toGCSize = toGC.size();
+        int misses = sessionPool.awaitDemand(REFRESH_INTERVAL_MS,
+            TimeUnit.MILLISECONDS);
+        if (!automaticRefresh) {
+          break;
+        }
 
+        int toGCSize = toGC.size();
         if (toGCSize > 0) {
           LOG.debug("Renewing a session(s) " + toGCSize);
           for (int i = 0; i < toGCSize; i++) {
             DBSession session = toGC.remove();
-            session.getSession().close();
+            closeSession(session);
           }
-          //System.out.println("CGed " + toGCSize);
+        }
 
-          for (int i = 0; i < toGCSize; i++) {
-            sessionPool.add(initSession());
+        int toCreate = Math.max(Math.max(misses, sessionPool.getWaiters()),
+            minIdleSessions - sessionPool.getIdle());
+        for (int i = 0; i < toCreate; i++) {
+          if (!sessionPool.reserve()) {
+            break;
           }
-          //System.out.println("Created " + toGCSize);
-        }
-        //                for (int i = 0; i < 100; i++) {
-        //                    DBSession session = sessionPool.remove();
-        //                    double percent = (((double) session.getSessionUseCount() / (double) session.getMaxReuseCount()) * (double) 100);
-        //                    // System.out.print(session.getSessionUseCount()+","+session.getMaxReuseCount()+","+percent+" ");
-        //                    if (percent > 80) { // more than 80% used then recyle it
-        //                        session.getSession().close();
-        //                        System.out.println("Recycled a session");
-        //                        //add a new session
-        //                        sessionPool.add(initSession());
-        //                    } else {
-        //                        sessionPool.add(session);
-        //                    }
-        //                }
-        Thread.sleep(5);
-      } catch (NoSuchElementException e) {
-        //System.out.print(".");
-        for (int i = 0; i < 100; i++) {
           try {
             sessionPool.add(initSession());
-          } catch (StorageException e1) {
-            LOG.error(e1);
+          } catch (StorageException e) {
+            sessionPool.release();
+            throw e;
           }
         }
+      } catch (NoSuchElementException e) {
+        LOG.warn(e);
       } catch (InterruptedException ex) {
         LOG.warn(ex);
         Thread.currentThread().interrupt();
+        break;
       } catch (StorageException e) {
         LOG.error(e);
       }
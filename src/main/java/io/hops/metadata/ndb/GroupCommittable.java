@@ -0,0 +1,44 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.hops.exception.StorageException;
+
+/**
+ * A data access whose entries can be added through a {@link GroupCommitter}.
+ * The DAL interfaces do not declare it, callers reach it by casting the data
+ * access handed out by the storage factory, tracing proxies included:
+ * <pre>
+ *   GroupCommittable&lt;MetadataLogEntry&gt; log =
+ *       (GroupCommittable&lt;MetadataLogEntry&gt;) factory.getDataAccess(
+ *           MetadataLogDataAccess.class);
+ * </pre>
+ */
+public interface GroupCommittable<T> {
+
+  /**
+   * Add the entry in a transaction of its own, shared with the entries added
+   * concurrently by other threads. Must not be called for entries that have
+   * to be written atomically with the caller's transaction.
+   *
+   * @return a future that completes once the entry is committed
+   */
+  ListenableFuture<Void> addGroupCommitted(T entry) throws StorageException;
+}
@@ -0,0 +1,274 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.metrics.MetricsRegistry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces small independent writes coming from many threads into one NDB
+ * transaction per time window or batch size.
+ * <p/>
+ * The writes must not depend on each other or on data read by the caller:
+ * they run on the committer thread, in a transaction of their own, using the
+ * connector session of that thread. Typical users are append only log
+ * tables.
+ * <p/>
+ * Every caller gets a future that completes when the transaction containing
+ * its write committed. If the batch transaction fails, the writes of the
+ * batch are retried one transaction each, through the connector's
+ * {@link TransactionExecutor}, so that only the culprit write fails. As a
+ * failed commit may still have been applied, the writes must be
+ * idempotent.
+ * <p/>
+ * {@link #stop()} commits the writes queued so far before the committer
+ * thread exits.
+ *
+ * @see GroupCommittable
+ */
+public class GroupCommitter implements Runnable {
+
+  static final Log LOG = LogFactory.getLog(GroupCommitter.class);
+
+  /**
+   * A write to add to a group commit transaction.
+   */
+  public interface Write {
+    /**
+     * Called on the committer thread inside the batch transaction, and again
+     * in a transaction of its own if the batch fails. Applying the write
+     * twice must have the effect of applying it once (savePersistent rather
+     * than makePersistent).
+     */
+    void apply() throws StorageException;
+  }
+
+  private static class PendingWrite {
+    private final Write write;
+    private final SettableFuture<Void> future = SettableFuture.create();
+
+    PendingWrite(Write write) {
+      this.write = write;
+    }
+  }
+
+  /**
+   * Queued by {@link #stop()} to wake up the committer thread.
+   */
+  private static final PendingWrite STOP = new PendingWrite(null);
+
+  private final String name;
+  private final ClusterjConnector connector;
+  private final MetricsRegistry metrics;
+  private final long windowNanos;
+  private final int maxBatchSize;
+  private final BlockingQueue<PendingWrite> queue;
+  private final Thread thread;
+  private volatile boolean running = true;
+  private final AtomicLong batches = new AtomicLong(0);
+  private final AtomicLong writes = new AtomicLong(0);
+  private final AtomicLong failedBatches = new AtomicLong(0);
+
+  GroupCommitter(String name, ClusterjConnector connector,
+      MetricsRegistry metrics, long windowMs, int maxBatchSize) {
+    this.name = name;
+    this.connector = connector;
+    this.metrics = metrics;
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+    this.maxBatchSize = maxBatchSize;
+    this.queue = new LinkedBlockingQueue<>(maxBatchSize * 16);
+    this.thread = new Thread(this, "Group Committer " + name);
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Queue a write for the next group commit. Blocks if too many writes are
+   * already queued.
+   *
+   * @return a future that completes once the write is committed
+   */
+  public ListenableFuture<Void> submit(Write write) throws StorageException {
+    if (!running) {
+      throw new StorageException("Group committer " + name + " is stopped");
+    }
+    PendingWrite pending = new PendingWrite(write);
+    try {
+      queue.put(pending);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StorageException(e);
+    }
+    return pending.future;
+  }
+
+  public long getBatchesCommitted() {
+    return batches.get();
+  }
+
+  public long getWritesCommitted() {
+    return writes.get();
+  }
+
+  public long getFailedBatches() {
+    return failedBatches.get();
+  }
+
+  public int getQueuedWrites() {
+    return queue.size();
+  }
+
+  /**
+   * Commit what is queued and stop the committer thread. The thread is not
+   * interrupted, a batch being committed completes; the writes still queued
+   * after 30 seconds fail.
+   */
+  void stop() {
+    running = false;
+    queue.offer(STOP);
+    try {
+      thread.join(TimeUnit.SECONDS.toMillis(30));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (thread.isAlive()) {
+      LOG.warn("Group committer " + name + " did not commit its queued " +
+          "writes in time");
+    }
+    PendingWrite pending;
+    while ((pending = queue.poll()) != null) {
+      if (pending != STOP) {
+        pending.future.setException(
+            new StorageException("Group committer " + name + " is stopped"));
+      }
+    }
+  }
+
+  @Override
+  public void run() {
+    List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+    while (running || !queue.isEmpty()) {
+      try {
+        PendingWrite first = running ? queue.poll(1, TimeUnit.SECONDS) :
+            queue.poll();
+        if (first == null || first == STOP) {
+          continue;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + windowNanos;
+        while (batch.size() < maxBatchSize) {
+          if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+            continue;
+          }
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0 || !running) {
+            break;
+          }
+          PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+          if (next == null || next == STOP) {
+            break;
+          }
+          batch.add(next);
+        }
+        batch.remove(STOP);
+      } catch (InterruptedException e) {
+        // commit what we have, the loop ends once stopped and drained
+      }
+      if (!batch.isEmpty()) {
+        commitBatch(batch);
+        batch.clear();
+      }
+    }
+  }
+
+  private void commitBatch(List<PendingWrite> batch) {
+    long timer = metrics.startTimer();
+    try {
+      runInTransaction(batch);
+      batches.incrementAndGet();
+      writes.addAndGet(batch.size());
+      for (PendingWrite pending : batch) {
+        pending.future.set(null);
+      }
+      return;
+    } catch (Throwable e) {
+      failedBatches.incrementAndGet();
+      if (batch.size() == 1) {
+        batch.get(0).future.setException(e);
+        return;
+      }
+      LOG.debug("Group commit of " + batch.size() + " writes to " + name +
+          " failed, retrying them one by one", e);
+    } finally {
+      metrics.stopTimer(MetricsRegistry.Operation.GROUP_COMMIT, timer);
+    }
+
+    TransactionExecutor executor = connector.getTransactionExecutor();
+    for (final PendingWrite pending : batch) {
+      try {
+        executor.execute("GroupCommitter." + name, name,
+            new TransactionExecutor.Work<Void>() {
+              @Override
+              public Void run() throws StorageException {
+                pending.write.apply();
+                return null;
+              }
+            });
+        batches.incrementAndGet();
+        writes.incrementAndGet();
+        pending.future.set(null);
+      } catch (Throwable e) {
+        pending.future.setException(e);
+      }
+    }
+  }
+
+  private void runInTransaction(List<PendingWrite> batch)
+      throws StorageException {
+    boolean committing = false;
+    try {
+      connector.beginTransaction();
+      for (PendingWrite pending : batch) {
+        pending.write.apply();
+      }
+      committing = true;
+      connector.commit();
+    } catch (StorageException | RuntimeException e) {
+      if (!committing) {
+        try {
+          connector.rollback();
+        } catch (StorageException re) {
+          LOG.warn("Could not roll back the group commit transaction", re);
+        }
+      }
+      throw e;
+    }
+  }
+}
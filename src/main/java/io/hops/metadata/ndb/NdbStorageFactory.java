@@ -52,6 +52,7 @@ import io.hops.metadata.ndb.dalimpl.yarn.rmstatestore.ApplicationAttemptStateClu
 import io.hops.metadata.ndb.dalimpl.yarn.rmstatestore.ApplicationStateClusterJ;
 import io.hops.metadata.ndb.dalimpl.yarn.rmstatestore.DelegationKeyClusterJ;
 import io.hops.metadata.ndb.dalimpl.yarn.rmstatestore.DelegationTokenClusterJ;
+import io.hops.metadata.ndb.metrics.DalTracer;
 import io.hops.metadata.ndb.mysqlserver.MysqlServerConnector;
 import io.hops.metadata.yarn.dal.AppProvenanceDataAccess;
 import io.hops.metadata.yarn.dal.ContainerIdToCleanDataAccess;
@@ -76,6 +77,9 @@ import io.hops.metadata.yarn.dal.rmstatestore.ApplicationAttemptStateDataAccess;
 import io.hops.metadata.yarn.dal.rmstatestore.ApplicationStateDataAccess;
 import io.hops.metadata.yarn.dal.rmstatestore.DelegationKeyDataAccess;
 import io.hops.metadata.yarn.dal.rmstatestore.DelegationTokenDataAccess;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
@@ -83,16 +87,41 @@ import java.util.Properties;
 
 public class NdbStorageFactory implements DalStorageFactory {
 
+  static final Log LOG = LogFactory.getLog(NdbStorageFactory.class);
+
   private Map<Class, EntityDataAccess> dataAccessMap =
       new HashMap<>();
+  private FileBlockStateLoader fileBlockStateLoader;
 
   @Override
   public void setConfiguration(Properties conf)
           throws StorageInitializtionException {
     try {
-      ClusterjConnector.getInstance().setConfiguration(conf);
+      long start = System.currentTimeMillis();
+      ClusterjConnector connector = ClusterjConnector.getInstance();
+      connector.setConfiguration(conf);
       MysqlServerConnector.getInstance().setConfiguration(conf);
       initDataAccessMap();
+      ((ReplicaClusterj) dataAccessMap.get(ReplicaDataAccess.class))
+          .setConfiguration(conf);
+      ((BlockLookUpClusterj) dataAccessMap.get(BlockLookUpDataAccess.class))
+          .setConfiguration(conf);
+      ((S3ObjectLookUpClusterj) dataAccessMap.get(
+          S3ObjectLookUpDataAccess.class)).setConfiguration(conf);
+      if (Boolean.parseBoolean(
+          conf.getProperty("io.hops.session.pool.warm.up", "true"))) {
+        connector.warmUp(dataAccessMap.values());
+      }
+      LOG.info("Storage started in " + (System.currentTimeMillis() - start) +
+          " ms, phases (ms): " + connector.getStartupTimes());
+      if (DalTracer.isInstalled(conf)) {
+        DalTracer tracer = DalTracer.getInstance();
+        tracer.configure(conf);
+        for (Map.Entry<Class, EntityDataAccess> e : dataAccessMap.entrySet()) {
+          e.setValue(tracer.wrap(e.getValue()));
+        }
+      }
+      fileBlockStateLoader = new FileBlockStateLoader(dataAccessMap);
     } catch (IOException ex) {
       //ClusterJ dumps username and password in the exception
       throw new StorageInitializtionException("Error getting connection to cluster");
@@ -203,7 +232,32 @@ public class NdbStorageFactory implements DalStorageFactory {
   public EntityDataAccess getDataAccess(Class type) {
     return dataAccessMap.get(type);
   }
+
+  /**
+   * The data access of a type as its implementation class, for the methods
+   * the DAL interfaces do not declare, e.g.
+   * INodeClusterj.findInodesByParentIdAndPartitionIdPPIS by pages. The data
+   * access is unwrapped from its tracing proxy, so these calls are not
+   * traced.
+   *
+   * @throws ClassCastException
+   *     if the data access of the type is not an instance of the class
+   */
+  public <T extends EntityDataAccess> T getDataAccess(Class type,
+      Class<T> implementation) {
+    EntityDataAccess dataAccess = getDataAccess(type);
+    return dataAccess == null ? null :
+        implementation.cast(DalTracer.unwrap(dataAccess));
+  }
   
+  /**
+   * @return the loader of the block state of files, reading through the
+   * data access objects of this factory
+   */
+  public FileBlockStateLoader getFileBlockStateLoader() {
+    return fileBlockStateLoader;
+  }
+
   @Override
   public boolean hasResources(double threshold) throws StorageException {
     return MysqlServerConnector.hasResources(threshold);
@@ -0,0 +1,152 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import com.mysql.clusterj.annotation.PartitionKey;
+import io.hops.exception.StorageException;
+import io.hops.metadata.election.dal.HdfsLeDescriptorDataAccess;
+import io.hops.metadata.election.dal.YarnLeDescriptorDataAccess;
+import io.hops.metadata.hdfs.dal.*;
+import io.hops.metadata.ndb.dalimpl.election.HdfsLeaderClusterj;
+import io.hops.metadata.ndb.dalimpl.election.YarnLeaderClusterj;
+import io.hops.metadata.ndb.dalimpl.hdfs.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps the data access classes to the DTO the partition key hints of
+ * {@link ClusterjConnector#setPartitionKey} are given for, and to the
+ * partition column of its table, as declared by the {@link PartitionKey}
+ * annotation of the DTO. The tables without the annotation are partitioned
+ * on their whole primary key.
+ */
+class PartitionKeyRegistry {
+
+  private static class Entry {
+    private final Class<?> dto;
+    private final String partitionColumn;
+
+    Entry(Class<?> dto) {
+      this.dto = dto;
+      PartitionKey partitionKey = dto.getAnnotation(PartitionKey.class);
+      this.partitionColumn = partitionKey == null ||
+          partitionKey.column().isEmpty() ? null : partitionKey.column();
+    }
+  }
+
+  private final Map<Class<?>, Entry> entries = new HashMap<>();
+
+  PartitionKeyRegistry() {
+    register(BlockInfoDataAccess.class, BlockInfoClusterj.BlockInfoDTO.class);
+    register(S3ObjectInfoDataAccess.class, S3ObjectInfoClusterj.DTO.class);
+    register(PendingBlockDataAccess.class,
+        PendingBlockClusterj.PendingBlockDTO.class);
+    register(ReplicaUnderConstructionDataAccess.class,
+        ReplicaUnderConstructionClusterj.ReplicaUcDTO.class);
+    register(INodeDataAccess.class, INodeClusterj.InodeDTO.class);
+    register(DirectoryWithQuotaFeatureDataAccess.class,
+        DirectoryWithQuotaFeatureClusterj.INodeAttributesDTO.class);
+    register(LeaseDataAccess.class, LeaseClusterj.LeaseDTO.class);
+    register(LeasePathDataAccess.class, LeasePathClusterj.LeasePathsDTO.class);
+    register(HdfsLeDescriptorDataAccess.class,
+        HdfsLeaderClusterj.HdfsLeaderDTO.class);
+    register(YarnLeDescriptorDataAccess.class,
+        YarnLeaderClusterj.YarnLeaderDTO.class);
+    register(ReplicaDataAccess.class, ReplicaClusterj.ReplicaDTO.class);
+    register(CorruptReplicaDataAccess.class,
+        CorruptReplicaClusterj.CorruptReplicaDTO.class);
+    register(ExcessReplicaDataAccess.class,
+        ExcessReplicaClusterj.ExcessReplicaDTO.class);
+    register(InvalidateBlockDataAccess.class,
+        InvalidatedBlockClusterj.InvalidateBlocksDTO.class);
+    register(UnderReplicatedBlockDataAccess.class,
+        UnderReplicatedBlockClusterj.UnderReplicatedBlocksDTO.class);
+    register(VariableDataAccess.class, VariableClusterj.VariableDTO.class);
+    register(QuotaUpdateDataAccess.class,
+        QuotaUpdateClusterj.QuotaUpdateDTO.class);
+    register(EncodingStatusDataAccess.class,
+        EncodingStatusClusterj.EncodingStatusDto.class);
+    register(BlockChecksumDataAccess.class,
+        BlockChecksumClusterj.BlockChecksumDto.class);
+    register(OngoingSubTreeOpsDataAccess.class,
+        OnGoingSubTreeOpsClusterj.OnGoingSubTreeOpsDTO.class);
+    register(HashBucketDataAccess.class, HashBucketClusterj.HashBucketDTO.class);
+    register(InMemoryInodeDataAccess.class,
+        InMemoryFileInodeClusterj.FileInodeDataDTO.class);
+    register(SmallOnDiskInodeDataAccess.class,
+        SmallOnDiskFileInodeClusterj.FileInodeDataDTO.class);
+    register(MediumOnDiskInodeDataAccess.class,
+        MediumOnDiskFileInodeClusterj.FileInodeDataDTO.class);
+    register(LargeOnDiskInodeDataAccess.class,
+        LargeOnDiskFileInodeClusterj.FileInodeDataDTO.class);
+    register(AceDataAccess.class, AceClusterJ.AceDto.class);
+    register(RetryCacheEntryDataAccess.class,
+        RetryCacheEntryClusterj.RetryCacheEntryDTO.class);
+    register(CacheDirectiveDataAccess.class,
+        CacheDirectiveClusterj.CacheDirectiveDTO.class);
+    register(CachePoolDataAccess.class, CachePoolClusterJ.CachePoolDTO.class);
+    register(CachedBlockDataAccess.class,
+        CachedBlockClusterJ.CachedBlockDTO.class);
+    register(ActiveBlockReportsDataAccess.class,
+        ActiveBlockReportsClusterj.ActiveBlockReportDTO.class);
+  }
+
+  private void register(Class<?> dataAccess, Class<?> dto) {
+    entries.put(dataAccess, new Entry(dto));
+  }
+
+  /**
+   * @return the DTO of the data access class
+   * @throws StorageException
+   *     if the data access class is not registered
+   */
+  Class<?> getDto(Class<?> dataAccess) throws StorageException {
+    Entry entry = entries.get(dataAccess);
+    if (entry == null) {
+      throw new StorageException("No partition key is registered for " +
+          dataAccess.getName());
+    }
+    return entry.dto;
+  }
+
+  /**
+   * @return the partition column of the table of the data access class, null
+   * if the table is partitioned on its whole primary key or the class is not
+   * registered
+   */
+  String getPartitionColumn(Class<?> dataAccess) {
+    Entry entry = entries.get(dataAccess);
+    return entry == null ? null : entry.partitionColumn;
+  }
+
+  /**
+   * @return the DTO classes of all the registered data access classes
+   */
+  Set<Class<?>> getDtos() {
+    Set<Class<?>> dtos = new HashSet<>();
+    for (Entry entry : entries.values()) {
+      dtos.add(entry.dto);
+    }
+    return Collections.unmodifiableSet(dtos);
+  }
+}
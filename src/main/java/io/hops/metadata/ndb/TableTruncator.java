@@ -0,0 +1,444 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.common.EntityDataAccess;
+import io.hops.metadata.election.TablesDef;
+import io.hops.metadata.election.dal.HdfsLeDescriptorDataAccess;
+import io.hops.metadata.election.dal.YarnLeDescriptorDataAccess;
+import io.hops.metadata.hdfs.dal.*;
+import io.hops.metadata.ndb.mysqlserver.MysqlServerConnector;
+import io.hops.metadata.yarn.dal.ContainerIdToCleanDataAccess;
+import io.hops.metadata.yarn.dal.ContainerStatusDataAccess;
+import io.hops.metadata.yarn.dal.ContainerToDecreaseDataAccess;
+import io.hops.metadata.yarn.dal.ContainerToSignalDataAccess;
+import io.hops.metadata.yarn.dal.NextHeartbeatDataAccess;
+import io.hops.metadata.yarn.dal.PendingEventDataAccess;
+import io.hops.metadata.yarn.dal.RMLoadDataAccess;
+import io.hops.metadata.yarn.dal.RMNodeApplicationsDataAccess;
+import io.hops.metadata.yarn.dal.RMNodeDataAccess;
+import io.hops.metadata.yarn.dal.ReservationStateDataAccess;
+import io.hops.metadata.yarn.dal.ResourceDataAccess;
+import io.hops.metadata.yarn.dal.UpdatedContainerInfoDataAccess;
+import io.hops.metadata.yarn.dal.quota.ContainersCheckPointsDataAccess;
+import io.hops.metadata.yarn.dal.quota.ContainersLogsDataAccess;
+import io.hops.metadata.yarn.dal.quota.PriceMultiplicatorDataAccess;
+import io.hops.metadata.yarn.dal.quota.ProjectQuotaDataAccess;
+import io.hops.metadata.yarn.dal.quota.ProjectsDailyCostDataAccess;
+import io.hops.metadata.yarn.dal.rmstatestore.ApplicationAttemptStateDataAccess;
+import io.hops.metadata.yarn.dal.rmstatestore.ApplicationStateDataAccess;
+import io.hops.metadata.yarn.dal.rmstatestore.DelegationKeyDataAccess;
+import io.hops.metadata.yarn.dal.rmstatestore.DelegationTokenDataAccess;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Empties the tables of the data access classes for the format operations.
+ * <p/>
+ * The tables are emptied in parallel, in waves that respect the order
+ * declared between the tables of a foreign key: the referencing tables are
+ * emptied in an earlier wave than the tables they reference. A table is
+ * truncated, or in transactional mode deleted 1000 rows per transaction.
+ * The tables with foreign keys can not be truncated, they are always
+ * deleted, one task per partition.
+ */
+class TableTruncator {
+
+  static final Log LOG = LogFactory.getLog(TableTruncator.class);
+
+  private static class Table {
+    private final String name;
+    private final boolean foreignKeys;
+    private final Set<String> after = new LinkedHashSet<>();
+
+    Table(String name, boolean foreignKeys) {
+      this.name = name;
+      this.foreignKeys = foreignKeys;
+    }
+  }
+
+  /**
+   * Times a table from the start of its first task to the end of its last.
+   */
+  private class TableTimer {
+    private final String table;
+    private final AtomicInteger remaining;
+    private volatile long start = 0;
+
+    TableTimer(String table, int tasks) {
+      this.table = table;
+      this.remaining = new AtomicInteger(tasks);
+    }
+
+    synchronized void started() {
+      if (start == 0) {
+        start = System.currentTimeMillis();
+      }
+    }
+
+    void done() {
+      if (remaining.decrementAndGet() == 0) {
+        synchronized (truncationTimes) {
+          truncationTimes.put(table, System.currentTimeMillis() - start);
+        }
+      }
+    }
+  }
+
+  private final Map<Class<?>, List<Table>> registry = new HashMap<>();
+  private final Map<String, Table> tables = new HashMap<>();
+  private final int threads;
+  private final Map<String, Long> truncationTimes = new LinkedHashMap<>();
+
+  TableTruncator(int threads) {
+    this.threads = threads;
+    register(StorageDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.StoragesTableDef.TABLE_NAME);
+    register(INodeDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.INodeTableDef.TABLE_NAME);
+    register(InMemoryInodeDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.FileInodeInMemoryData.TABLE_NAME);
+    register(SmallOnDiskInodeDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.FileInodeSmallDiskData.TABLE_NAME);
+    register(MediumOnDiskInodeDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.FileInodeMediumlDiskData.TABLE_NAME);
+    register(LargeOnDiskInodeDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.FileInodeLargeDiskData.TABLE_NAME);
+    register(BlockInfoDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.BlockInfoTableDef.TABLE_NAME);
+    register(S3ObjectInfoDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.S3ObjectInfoTableDef.TABLE_NAME);
+    register(LeaseDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.LeaseTableDef.TABLE_NAME);
+    register(LeasePathDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.LeasePathTableDef.TABLE_NAME);
+    register(OngoingSubTreeOpsDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.OnGoingSubTreeOpsDef.TABLE_NAME);
+    register(ReplicaDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.ReplicaTableDef.TABLE_NAME);
+    register(ReplicaUnderConstructionDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.ReplicaUnderConstructionTableDef.TABLE_NAME);
+    register(InvalidateBlockDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.InvalidatedBlockTableDef.TABLE_NAME);
+    register(ExcessReplicaDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.ExcessReplicaTableDef.TABLE_NAME);
+    register(PendingBlockDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.PendingBlockTableDef.TABLE_NAME);
+    register(CorruptReplicaDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.CorruptReplicaTableDef.TABLE_NAME);
+    register(UnderReplicatedBlockDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.UnderReplicatedBlockTableDef.TABLE_NAME);
+    register(HdfsLeDescriptorDataAccess.class,
+        TablesDef.HdfsLeaderTableDef.TABLE_NAME);
+    register(DirectoryWithQuotaFeatureDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.DirectoryWithQuotaFeatureTableDef.TABLE_NAME);
+    register(StorageIdMapDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.StorageIdMapTableDef.TABLE_NAME);
+    register(BlockLookUpDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.BlockLookUpTableDef.TABLE_NAME);
+    register(S3ObjectLookUpDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.S3ObjectLookUpTableDef.TABLE_NAME);
+    register(S3ObjectDeletableDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.S3ObjectDeletableTableDef.TABLE_NAME);
+    register(S3ProcessableDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.S3ProcessableTableDef.TABLE_NAME);
+    register(SafeBlocksDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.SafeBlocksTableDef.TABLE_NAME);
+    register(MisReplicatedRangeQueueDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.MisReplicatedRangeQueueTableDef.TABLE_NAME);
+    register(QuotaUpdateDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.QuotaUpdateTableDef.TABLE_NAME);
+    register(EncodingStatusDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.EncodingStatusTableDef.TABLE_NAME);
+    register(BlockChecksumDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.BlockChecksumTableDef.TABLE_NAME);
+    register(MetadataLogDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.MetadataLogTableDef.TABLE_NAME,
+        io.hops.metadata.hdfs.TablesDef.MetadataLogTableDef.LOOKUP_TABLE_NAME);
+    register(EncodingJobsDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.EncodingJobsTableDef.TABLE_NAME);
+    register(RepairJobsDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.RepairJobsTableDef.TABLE_NAME);
+    registerWithForeignKeys(UserDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.UsersTableDef.TABLE_NAME);
+    registerWithForeignKeys(GroupDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.GroupsTableDef.TABLE_NAME);
+    register(UserGroupDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.UsersGroupsTableDef.TABLE_NAME);
+    register(YarnLeDescriptorDataAccess.class,
+        TablesDef.YarnLeaderTableDef.TABLE_NAME);
+    register(ContainerIdToCleanDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.ContainerIdToCleanTableDef.TABLE_NAME);
+    register(ContainerToSignalDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.ContainerToSignalTableDef.TABLE_NAME);
+    register(ContainerToDecreaseDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.ContainerToDecreaseTableDef.TABLE_NAME);
+    register(ApplicationAttemptStateDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.ApplicationAttemptStateTableDef.TABLE_NAME);
+    registerWithForeignKeys(ApplicationStateDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.ApplicationStateTableDef.TABLE_NAME);
+    register(DelegationKeyDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.DelegationKeyTableDef.TABLE_NAME);
+    register(DelegationTokenDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.DelegationTokenTableDef.TABLE_NAME);
+    register(ContainerStatusDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.ContainerStatusTableDef.TABLE_NAME);
+    register(ResourceDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.ResourceTableDef.TABLE_NAME);
+    registerWithForeignKeys(RMNodeDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.RMNodeTableDef.TABLE_NAME);
+    register(RMNodeApplicationsDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.FinishedApplicationsTableDef.TABLE_NAME);
+    register(UpdatedContainerInfoDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.UpdatedContainerInfoTableDef.TABLE_NAME);
+    register(RMLoadDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.RMLoadTableDef.TABLE_NAME);
+    register(PendingEventDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.PendingEventTableDef.TABLE_NAME);
+    register(NextHeartbeatDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.NextHeartbeatTableDef.TABLE_NAME);
+    register(ProjectQuotaDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.ProjectQuotaTableDef.TABLE_NAME);
+    register(ContainersLogsDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.ContainersLogsTableDef.TABLE_NAME);
+    register(ContainersCheckPointsDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.ContainersCheckPointsTableDef.TABLE_NAME);
+    register(ProjectsDailyCostDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.ProjectsDailyCostTableDef.TABLE_NAME);
+    register(PriceMultiplicatorDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.PriceMultiplicatorTableDef.TABLE_NAME);
+    register(HashBucketDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.HashBucketsTableDef.TABLE_NAME);
+    register(ReservationStateDataAccess.class,
+        io.hops.metadata.yarn.TablesDef.ReservationStateTableDef.TABLE_NAME);
+    register(AceDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.AcesTableDef.TABLE_NAME);
+    register(RetryCacheEntryDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.RetryCacheEntryTableDef.TABLE_NAME);
+    registerWithForeignKeys(CacheDirectiveDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.CacheDirectiveTableDef.TABLE_NAME);
+    register(CachePoolDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.CachePoolTableDef.TABLE_NAME);
+    register(CachedBlockDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.CachedBlockTableDef.TABLE_NAME);
+    register(ActiveBlockReportsDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.ActiveBlockReports.TABLE_NAME);
+    register(XAttrDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.XAttrTableDef.TABLE_NAME);
+    register(EncryptionZoneDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.EncryptionZones.TABLE_NAME);
+    register(FileProvenanceDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.FileProvenanceTableDef.TABLE_NAME);
+    register(FileProvXAttrBufferDataAccess.class,
+        io.hops.metadata.hdfs.TablesDef.FileProvXAttrBufferTableDef.TABLE_NAME);
+
+    after(io.hops.metadata.hdfs.TablesDef.UsersTableDef.TABLE_NAME,
+        io.hops.metadata.hdfs.TablesDef.UsersGroupsTableDef.TABLE_NAME);
+    after(io.hops.metadata.hdfs.TablesDef.GroupsTableDef.TABLE_NAME,
+        io.hops.metadata.hdfs.TablesDef.UsersGroupsTableDef.TABLE_NAME);
+    after(io.hops.metadata.hdfs.TablesDef.CachePoolTableDef.TABLE_NAME,
+        io.hops.metadata.hdfs.TablesDef.CacheDirectiveTableDef.TABLE_NAME);
+    after(io.hops.metadata.yarn.TablesDef.ApplicationStateTableDef.TABLE_NAME,
+        io.hops.metadata.yarn.TablesDef.ApplicationAttemptStateTableDef.TABLE_NAME);
+  }
+
+  private void register(Class<? extends EntityDataAccess> dataAccess,
+      String... tableNames) {
+    List<Table> list = new ArrayList<>(tableNames.length);
+    for (String tableName : tableNames) {
+      list.add(table(tableName, false));
+    }
+    registry.put(dataAccess, list);
+  }
+
+  private void registerWithForeignKeys(
+      Class<? extends EntityDataAccess> dataAccess, String tableName) {
+    registry.put(dataAccess,
+        Collections.singletonList(table(tableName, true)));
+  }
+
+  private Table table(String tableName, boolean foreignKeys) {
+    Table table = new Table(tableName, foreignKeys);
+    tables.put(tableName, table);
+    return table;
+  }
+
+  /**
+   * Declare that a table is emptied only once the other tables are.
+   */
+  private void after(String tableName, String... others) {
+    tables.get(tableName).after.addAll(Arrays.asList(others));
+  }
+
+  /**
+   * Empty the tables of the data access classes and the extra tables. The
+   * data access classes that have no table registered are ignored.
+   */
+  void truncate(boolean transactional,
+      Collection<Class<? extends EntityDataAccess>> dataAccesses,
+      String... extraTables) throws StorageException, SQLException {
+    Map<String, Table> pending = new LinkedHashMap<>();
+    for (Class<? extends EntityDataAccess> dataAccess : dataAccesses) {
+      List<Table> list = registry.get(dataAccess);
+      if (list == null) {
+        LOG.debug("No table to truncate for " + dataAccess.getName());
+        continue;
+      }
+      for (Table table : list) {
+        pending.put(table.name, table);
+      }
+    }
+    for (String extra : extraTables) {
+      if (!pending.containsKey(extra)) {
+        pending.put(extra, new Table(extra, false));
+      }
+    }
+
+    synchronized (truncationTimes) {
+      truncationTimes.clear();
+    }
+    long start = System.currentTimeMillis();
+    ExecutorService executor = Executors.newFixedThreadPool(threads,
+        new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger(0);
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,
+                "Table Truncator-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    try {
+      while (!pending.isEmpty()) {
+        List<Table> wave = new ArrayList<>();
+        for (Table table : pending.values()) {
+          if (Collections.disjoint(table.after, pending.keySet())) {
+            wave.add(table);
+          }
+        }
+        for (Table table : wave) {
+          pending.remove(table.name);
+        }
+        run(executor, tasks(transactional, wave));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    LOG.info("Truncated the tables in " + (System.currentTimeMillis() - start)
+        + " ms, per table (ms): " + getTruncationTimes());
+  }
+
+  /**
+   * @return the time in ms taken by each table of the last call to
+   * {@link #truncate}
+   */
+  Map<String, Long> getTruncationTimes() {
+    synchronized (truncationTimes) {
+      return new LinkedHashMap<>(truncationTimes);
+    }
+  }
+
+  private List<Callable<Void>> tasks(final boolean transactional,
+      List<Table> wave) throws StorageException {
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (final Table table : wave) {
+      List<String> partitions = table.foreignKeys ?
+          MysqlServerConnector.getPartitions(table.name) :
+          Collections.<String>emptyList();
+      if (partitions.isEmpty()) {
+        final TableTimer timer = new TableTimer(table.name, 1);
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            timer.started();
+            MysqlServerConnector.truncateTable(
+                transactional || table.foreignKeys, table.name);
+            timer.done();
+            return null;
+          }
+        });
+      } else {
+        final TableTimer timer = new TableTimer(table.name, partitions.size());
+        for (final String partition : partitions) {
+          tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              timer.started();
+              MysqlServerConnector.truncatePartition(table.name, partition);
+              timer.done();
+              return null;
+            }
+          });
+        }
+      }
+    }
+    return tasks;
+  }
+
+  private void run(ExecutorService executor, List<Callable<Void>> tasks)
+      throws StorageException, SQLException {
+    List<Future<Void>> futures;
+    try {
+      futures = executor.invokeAll(tasks);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StorageException(e);
+    }
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new StorageException(e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof StorageException) {
+          throw (StorageException) cause;
+        } else if (cause instanceof SQLException) {
+          throw (SQLException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new StorageException(cause);
+      }
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.wrapper.HopsSession;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A transaction and the session it runs on, not bound to any thread.
+ * <p/>
+ * {@link ClusterjConnector#beginTransaction()} binds a session to the calling
+ * thread until the transaction ends, so every concurrent operation pins a
+ * thread and a session. A context instead can be handed from thread to
+ * thread (an executor, a callback of an asynchronous call) and only holds a
+ * session, so many operations can be in flight with a small pool.
+ * <p/>
+ * The DAL classes get their session from the thread; {@link #call} binds
+ * the session of the context to the calling thread for the duration of the
+ * DAL calls it runs. A context can be used by one thread at a time.
+ * <pre>
+ * TransactionContext tx = connector.beginTransactionContext();
+ * INode inode = tx.call(new Callable&lt;INode&gt;() {...});
+ * // later, possibly on another thread
+ * tx.call(...);
+ * tx.commit();
+ * </pre>
+ */
+public class TransactionContext {
+
+  private final ClusterjConnector connector;
+  private final AtomicBoolean inUse = new AtomicBoolean(false);
+  private volatile DBSession dbSession;
+
+  TransactionContext(ClusterjConnector connector, DBSession dbSession) {
+    this.connector = connector;
+    this.dbSession = dbSession;
+  }
+
+  /**
+   * Run DAL calls in the transaction. The session of the context is bound
+   * to the calling thread while the callable runs, the session that was
+   * bound to the thread before, if any, is restored afterwards.
+   */
+  public <T> T call(Callable<T> callable) throws StorageException {
+    DBSession session = acquire();
+    DBSession previous = connector.bind(session);
+    try {
+      return callable.call();
+    } catch (StorageException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new StorageException(e);
+    } finally {
+      connector.unbind(previous);
+      inUse.set(false);
+    }
+  }
+
+  /**
+   * @return the session of the context, to be used only by the thread
+   * running the context
+   */
+  public HopsSession getSession() throws StorageException {
+    return current().getSession();
+  }
+
+  /**
+   * @return false once the transaction was committed or rolled back
+   */
+  public boolean isActive() {
+    return dbSession != null;
+  }
+
+  public void commit() throws StorageException {
+    connector.commit(end());
+  }
+
+  /**
+   * @see ClusterjConnector#commitAsync()
+   */
+  public ListenableFuture<Void> commitAsync() throws StorageException {
+    return connector.commitAsync(end());
+  }
+
+  public void rollback() throws StorageException {
+    connector.rollback(end());
+  }
+
+  private DBSession acquire() throws StorageException {
+    if (!inUse.compareAndSet(false, true)) {
+      throw new IllegalStateException(
+          "The transaction context is used by another thread");
+    }
+    try {
+      return current();
+    } catch (StorageException e) {
+      inUse.set(false);
+      throw e;
+    }
+  }
+
+  private DBSession end() throws StorageException {
+    DBSession session = acquire();
+    dbSession = null;
+    inUse.set(false);
+    return session;
+  }
+
+  private DBSession current() throws StorageException {
+    DBSession session = dbSession;
+    if (session == null) {
+      throw new StorageException("The transaction context is closed");
+    }
+    return session;
+  }
+}
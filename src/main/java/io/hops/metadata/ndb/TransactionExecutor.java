@@ -0,0 +1,402 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import io.hops.exception.StorageException;
+import io.hops.exception.TransientDeadLockException;
+import io.hops.exception.TransientStorageException;
+import io.hops.metadata.ndb.metrics.NdbMetrics;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs units of work in transactions of their own, retrying the attempts
+ * that abort with a transient error, as classified by
+ * {@link io.hops.metadata.ndb.wrapper.HopsExceptionHelper#wrap}.
+ * <p/>
+ * Retries wait for a jittered, exponentially growing delay. The executor
+ * keeps the recent abort rate of each table the work is declared to
+ * contend on: the delay grows with that rate, and once it passes the
+ * contention threshold only a bounded number of transactions may be
+ * retrying on the table at the same time, the others fail with their last
+ * error instead of adding to the contention.
+ * <p/>
+ * The work runs on the calling thread using the connector session of that
+ * thread. When the thread is already in a transaction the work joins it and
+ * is not retried, the retry belongs to the outermost transaction.
+ */
+public class TransactionExecutor implements TransactionExecutorMXBean {
+
+  static final Log LOG = LogFactory.getLog(TransactionExecutor.class);
+
+  public static final String PROPERTY_MAX_RETRIES =
+      "io.hops.metadata.ndb.retry.max";
+  public static final String PROPERTY_BASE_DELAY =
+      "io.hops.metadata.ndb.retry.backoff.base";
+  public static final String PROPERTY_MAX_DELAY =
+      "io.hops.metadata.ndb.retry.backoff.max";
+  public static final String PROPERTY_CONTENTION_THRESHOLD =
+      "io.hops.metadata.ndb.retry.contention.threshold";
+  public static final String PROPERTY_CONTENTION_MAX_RETRYING =
+      "io.hops.metadata.ndb.retry.contention.max.retrying";
+  public static final String MBEAN_NAME =
+      "io.hops.metadata.ndb:type=TransactionExecutor";
+
+  /**
+   * Weight of the last attempt in the abort rate of a table.
+   */
+  private static final double ABORT_RATE_WEIGHT = 0.05;
+  /**
+   * Bound of the abort rate used to scale the delays, the delay grows at
+   * most 1 / (1 - MAX_SCALED_ABORT_RATE) times.
+   */
+  private static final double MAX_SCALED_ABORT_RATE = 0.9;
+
+  /**
+   * A unit of work to run in a transaction.
+   */
+  public interface Work<T> {
+    /**
+     * Called inside the transaction, once per attempt. Must not begin,
+     * commit or roll back the transaction itself.
+     */
+    T run() throws StorageException;
+  }
+
+  private static class OperationStats {
+    private final AtomicLong calls = new AtomicLong(0);
+    private final AtomicLong retries = new AtomicLong(0);
+    private final AtomicLong aborts = new AtomicLong(0);
+    private final AtomicLong deadlocks = new AtomicLong(0);
+    private final AtomicLong failures = new AtomicLong(0);
+    private final AtomicLong throttled = new AtomicLong(0);
+  }
+
+  private static class TableContention {
+    private final Semaphore retrying;
+    private double abortRate = 0;
+
+    TableContention(int maxRetrying) {
+      this.retrying = new Semaphore(maxRetrying);
+    }
+
+    synchronized void record(boolean aborted) {
+      abortRate += ABORT_RATE_WEIGHT * ((aborted ? 1 : 0) - abortRate);
+    }
+
+    synchronized double getAbortRate() {
+      return abortRate;
+    }
+  }
+
+  private final ClusterjConnector connector;
+  private final int maxRetries;
+  private final long baseDelay;
+  private final long maxDelay;
+  private final double contentionThreshold;
+  private final int contentionMaxRetrying;
+  private final ConcurrentMap<String, OperationStats> operations =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, TableContention> tables =
+      new ConcurrentHashMap<>();
+
+  TransactionExecutor(ClusterjConnector connector, Properties conf) {
+    this.connector = connector;
+    this.maxRetries = Integer.parseInt(
+        conf.getProperty(PROPERTY_MAX_RETRIES, "5"));
+    this.baseDelay = Long.parseLong(
+        conf.getProperty(PROPERTY_BASE_DELAY, "10"));
+    this.maxDelay = Long.parseLong(
+        conf.getProperty(PROPERTY_MAX_DELAY, "1000"));
+    this.contentionThreshold = Double.parseDouble(
+        conf.getProperty(PROPERTY_CONTENTION_THRESHOLD, "0.3"));
+    this.contentionMaxRetrying = Integer.parseInt(
+        conf.getProperty(PROPERTY_CONTENTION_MAX_RETRYING, "8"));
+    NdbMetrics.registerMBean(this, MBEAN_NAME);
+  }
+
+  /**
+   * Run the work in a transaction without contention feedback.
+   *
+   * @see #execute(String, String, Work)
+   */
+  public <T> T execute(String operation, Work<T> work)
+      throws StorageException {
+    return execute(operation, null, work);
+  }
+
+  /**
+   * Run the work in a transaction, retrying it on transient errors.
+   *
+   * @param operation
+   *     name the statistics are kept under, typically the DAL method
+   * @param table
+   *     the table the work contends on, typically the one of its hot rows,
+   *     or null
+   * @return the result of the attempt that committed
+   * @throws StorageException
+   *     the error of the last attempt
+   */
+  public <T> T execute(String operation, String table, Work<T> work)
+      throws StorageException {
+    OperationStats stats = getStats(operation);
+    stats.calls.incrementAndGet();
+    if (connector.isTransactionActive()) {
+      try {
+        return work.run();
+      } catch (StorageException | RuntimeException e) {
+        stats.failures.incrementAndGet();
+        throw e;
+      }
+    }
+
+    TableContention contention = table == null ? null : getContention(table);
+    TransientStorageException lastAbort = null;
+    for (int retry = 0; ; retry++) {
+      boolean permit = retry > 0 &&
+          awaitRetry(stats, contention, retry, lastAbort);
+      try {
+        T result = runInTransaction(work);
+        if (contention != null) {
+          contention.record(false);
+        }
+        return result;
+      } catch (TransientStorageException e) {
+        lastAbort = e;
+        stats.aborts.incrementAndGet();
+        if (e instanceof TransientDeadLockException) {
+          stats.deadlocks.incrementAndGet();
+        }
+        if (contention != null) {
+          contention.record(true);
+        }
+        if (retry >= maxRetries) {
+          stats.failures.incrementAndGet();
+          throw e;
+        }
+        stats.retries.incrementAndGet();
+        LOG.debug(operation + " aborted, retry " + (retry + 1) + " of " +
+            maxRetries, e);
+      } catch (StorageException | RuntimeException e) {
+        stats.failures.incrementAndGet();
+        throw e;
+      } finally {
+        if (permit) {
+          contention.retrying.release();
+        }
+      }
+    }
+  }
+
+  /**
+   * Wait before a retry.
+   *
+   * @param lastAbort
+   *     the error of the previous attempt, thrown if the retry is throttled
+   * @return true if a retry permit of the table was taken, to be released
+   * once the attempt is done
+   */
+  private boolean awaitRetry(OperationStats stats, TableContention contention,
+      int retry, TransientStorageException lastAbort)
+      throws StorageException {
+    double abortRate = contention == null ? 0 : contention.getAbortRate();
+    long delay = getDelay(retry, abortRate);
+    long start = System.nanoTime();
+    boolean permit = false;
+    try {
+      if (abortRate >= contentionThreshold) {
+        permit = contention.retrying.tryAcquire(delay, TimeUnit.MILLISECONDS);
+        if (!permit) {
+          stats.throttled.incrementAndGet();
+          stats.failures.incrementAndGet();
+          LOG.debug("Gave up retrying, too many transactions are retrying " +
+              "on a contended table (abort rate " +
+              String.format("%.2f", abortRate) + ")");
+          throw lastAbort;
+        }
+      }
+      long remaining = delay -
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      if (remaining > 0) {
+        Thread.sleep(remaining);
+      }
+      return permit;
+    } catch (InterruptedException e) {
+      if (permit) {
+        contention.retrying.release();
+      }
+      Thread.currentThread().interrupt();
+      stats.failures.incrementAndGet();
+      throw new StorageException(e);
+    }
+  }
+
+  /**
+   * Equal jitter exponential backoff: half of the delay is fixed, the other
+   * half random. The delay is stretched by the abort rate of the table.
+   */
+  long getDelay(int retry, double abortRate) {
+    long delay = baseDelay << Math.min(retry - 1, 30);
+    if (delay <= 0 || delay > maxDelay) {
+      delay = maxDelay;
+    }
+    delay = (long) (delay /
+        (1 - Math.min(abortRate, MAX_SCALED_ABORT_RATE)));
+    long half = delay / 2;
+    return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+  }
+
+  private <T> T runInTransaction(Work<T> work) throws StorageException {
+    boolean committing = false;
+    try {
+      connector.beginTransaction();
+      T result = work.run();
+      committing = true;
+      connector.commit();
+      return result;
+    } catch (StorageException | RuntimeException e) {
+      if (!committing) {
+        try {
+          connector.rollback();
+        } catch (StorageException re) {
+          LOG.warn("Could not roll back the transaction", re);
+        }
+      }
+      throw e;
+    }
+  }
+
+  private OperationStats getStats(String operation) {
+    OperationStats stats = operations.get(operation);
+    if (stats == null) {
+      stats = new OperationStats();
+      OperationStats existing = operations.putIfAbsent(operation, stats);
+      if (existing != null) {
+        stats = existing;
+      }
+    }
+    return stats;
+  }
+
+  private TableContention getContention(String table) {
+    TableContention contention = tables.get(table);
+    if (contention == null) {
+      contention = new TableContention(contentionMaxRetrying);
+      TableContention existing = tables.putIfAbsent(table, contention);
+      if (existing != null) {
+        contention = existing;
+      }
+    }
+    return contention;
+  }
+
+  public long getRetries(String operation) {
+    OperationStats stats = operations.get(operation);
+    return stats == null ? 0 : stats.retries.get();
+  }
+
+  public long getAborts(String operation) {
+    OperationStats stats = operations.get(operation);
+    return stats == null ? 0 : stats.aborts.get();
+  }
+
+  public double getAbortRate(String table) {
+    TableContention contention = tables.get(table);
+    return contention == null ? 0 : contention.getAbortRate();
+  }
+
+  @Override
+  public Map<String, Long> getCallCounts() {
+    Map<String, Long> result = new HashMap<>();
+    for (Map.Entry<String, OperationStats> e : operations.entrySet()) {
+      result.put(e.getKey(), e.getValue().calls.get());
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> getRetryCounts() {
+    Map<String, Long> result = new HashMap<>();
+    for (Map.Entry<String, OperationStats> e : operations.entrySet()) {
+      result.put(e.getKey(), e.getValue().retries.get());
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> getAbortCounts() {
+    Map<String, Long> result = new HashMap<>();
+    for (Map.Entry<String, OperationStats> e : operations.entrySet()) {
+      result.put(e.getKey(), e.getValue().aborts.get());
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> getDeadlockCounts() {
+    Map<String, Long> result = new HashMap<>();
+    for (Map.Entry<String, OperationStats> e : operations.entrySet()) {
+      result.put(e.getKey(), e.getValue().deadlocks.get());
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> getFailureCounts() {
+    Map<String, Long> result = new HashMap<>();
+    for (Map.Entry<String, OperationStats> e : operations.entrySet()) {
+      result.put(e.getKey(), e.getValue().failures.get());
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> getThrottledCounts() {
+    Map<String, Long> result = new HashMap<>();
+    for (Map.Entry<String, OperationStats> e : operations.entrySet()) {
+      result.put(e.getKey(), e.getValue().throttled.get());
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Double> getAbortRates() {
+    Map<String, Double> result = new HashMap<>();
+    for (Map.Entry<String, TableContention> e : tables.entrySet()) {
+      result.put(e.getKey(), e.getValue().getAbortRate());
+    }
+    return result;
+  }
+
+  @Override
+  public void reset() {
+    operations.clear();
+    tables.clear();
+  }
+}
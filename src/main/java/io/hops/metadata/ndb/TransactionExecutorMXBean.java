@@ -0,0 +1,69 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import java.util.Map;
+
+/**
+ * JMX view of the transaction retries, registered as
+ * {@value TransactionExecutor#MBEAN_NAME}.
+ */
+public interface TransactionExecutorMXBean {
+
+  /**
+   * @return the number of units of work run per operation
+   */
+  Map<String, Long> getCallCounts();
+
+  /**
+   * @return the number of attempts that were retried per operation
+   */
+  Map<String, Long> getRetryCounts();
+
+  /**
+   * @return the number of attempts aborted with a transient error per
+   * operation, deadlocks included
+   */
+  Map<String, Long> getAbortCounts();
+
+  /**
+   * @return the number of attempts aborted by a deadlock or lock wait
+   * timeout per operation
+   */
+  Map<String, Long> getDeadlockCounts();
+
+  /**
+   * @return the number of units of work that failed per operation, after
+   * their last retry or with an error that is not retried
+   */
+  Map<String, Long> getFailureCounts();
+
+  /**
+   * @return the number of retries given up per operation because too many
+   * transactions were already retrying on a contended table
+   */
+  Map<String, Long> getThrottledCounts();
+
+  /**
+   * @return the recent fraction of aborted attempts per table
+   */
+  Map<String, Double> getAbortRates();
+
+  void reset();
+}
@@ -155,13 +155,14 @@ public class BlockChecksumClusterj
 
   @Override
   public void deleteAll(long inodeId) throws StorageException {
-    final String query = String.format("DELETE FROM %s WHERE %s=%d",
+    final String query = String.format("DELETE FROM %s WHERE %s=?",
         TablesDef.BlockChecksumTableDef.TABLE_NAME,
-        TablesDef.BlockChecksumTableDef.INODE_ID, inodeId);
+        TablesDef.BlockChecksumTableDef.INODE_ID);
     PreparedStatement s = null;
     try {
       Connection conn = mysqlConnector.obtainSession();
       s = conn.prepareStatement(query);
+      s.setLong(1, inodeId);
       s.executeUpdate();
     } catch (SQLException ex) {
       throw HopsSQLExceptionHelper.wrap(ex);
@@ -31,6 +31,7 @@ import io.hops.metadata.hdfs.entity.BlockInfo;
 import io.hops.metadata.hdfs.entity.BlockLookUp;
 import io.hops.metadata.ndb.ClusterjConnector;
 import io.hops.metadata.ndb.mysqlserver.MySQLQueryHelper;
+import io.hops.metadata.ndb.util.LongSink;
 import io.hops.metadata.ndb.wrapper.HopsPredicate;
 import io.hops.metadata.ndb.wrapper.HopsQuery;
 import io.hops.metadata.ndb.wrapper.HopsQueryBuilder;
@@ -107,7 +108,8 @@ public class BlockInfoClusterj
     void setTruncateBlockGenerationBlock(long generationStamp);
   }
   private ClusterjConnector connector = ClusterjConnector.getInstance();
-  private final static int NOT_FOUND_ROW = -1000;
+  private final BlockReportLoader blockReportLoader =
+      new BlockReportLoader(this);
 
   @Override
   public int countAll() throws StorageException {
@@ -117,7 +119,7 @@ public class BlockInfoClusterj
   @Override
   public int countAllCompleteBlocks() throws StorageException {
     return MySQLQueryHelper.countWithCriterion(TABLE_NAME,
-        String.format("%s=%d", BLOCK_UNDER_CONSTRUCTION_STATE, 0));
+        BLOCK_UNDER_CONSTRUCTION_STATE + "=?", 0);
   }
 
   @Override
@@ -179,6 +181,20 @@ public class BlockInfoClusterj
       session.deletePersistentAll(luDeletions);
       session.savePersistentAll(blkChanges);
       session.savePersistentAll(luChanges);
+
+      long[] blockIds =
+          new long[removed.size() + news.size() + modified.size()];
+      int i = 0;
+      for (BlockInfo block : removed) {
+        blockIds[i++] = block.getBlockId();
+      }
+      for (BlockInfo block : news) {
+        blockIds[i++] = block.getBlockId();
+      }
+      for (BlockInfo block : modified) {
+        blockIds[i++] = block.getBlockId();
+      }
+      BlockLookUpClusterj.invalidateCache(session, blockIds);
     }finally {
       session.release(blkDeletions);
       session.release(luDeletions);
@@ -269,9 +285,29 @@ public class BlockInfoClusterj
     return lbis;
   }
 
+  /**
+   * Outside of a transaction the blocks are loaded in pages by the
+   * {@link BlockReportLoader}. Inside of a transaction the reads stay on its
+   * session and are not paged: all the replicas of the storage and then all
+   * their blocks are held in memory at once, use
+   * {@link #findBlockInfosByStorageId(int, int, BlockReportLoader.Consumer)}
+   * for large storages.
+   */
   @Override
   public List<BlockInfo> findBlockInfosByStorageId(int storageId)
           throws StorageException {
+    if (!connector.isTransactionActive()) {
+      final List<BlockInfo> ret = new ArrayList<>();
+      blockReportLoader.load(storageId, BlockReportLoader.DEFAULT_PAGE_SIZE,
+          new BlockReportLoader.Consumer() {
+            @Override
+            public void accept(List<BlockInfo> blocks) {
+              ret.addAll(blocks);
+            }
+          });
+      return ret;
+    }
+    // the reads of a transaction stay on its session
     HopsSession session = connector.obtainSession();
     List<ReplicaClusterj.ReplicaDTO> replicas = ReplicaClusterj.getReplicas(session, storageId);
     long[] blockIds = new long[replicas.size()];
@@ -285,6 +321,22 @@ public class BlockInfoClusterj
     return ret;
   }
 
+  /**
+   * Hand the blocks of a storage to the consumer in pages of at most
+   * pageSize blocks, reading a page while the next one is scanned. The
+   * blocks are read outside of the transaction of the caller, if any.
+   *
+   * @return the number of blocks
+   */
+  public long findBlockInfosByStorageId(int storageId, int pageSize,
+      BlockReportLoader.Consumer consumer) throws StorageException {
+    return blockReportLoader.load(storageId, pageSize, consumer);
+  }
+
+  public BlockReportLoader getBlockReportLoader() {
+    return blockReportLoader;
+  }
+
   @Override
   public List<BlockInfo> findBlockInfosByStorageId(int storageId, long from, int size)
           throws StorageException {
@@ -335,6 +387,15 @@ public class BlockInfoClusterj
     return ReplicaClusterj.getReplicas(storageId);
   }
 
+  /**
+   * Stream the ids returned by {@link #findINodeIdsByStorageId(int)} to the
+   * sink instead of collecting them in a set.
+   */
+  public void findINodeIdsByStorageId(int storageId, LongSink sink)
+          throws StorageException {
+    ReplicaClusterj.getReplicas(storageId, sink);
+  }
+
   @Override
   public List<BlockInfo> findByIds(long[] blockIds, long[] inodeIds)
           throws StorageException {
@@ -347,19 +408,15 @@ public class BlockInfoClusterj
       StorageException {
     HopsSession session = connector.obtainSession();
     
-    List<ReplicaClusterj.ReplicaDTO> dtos = new ArrayList<>();
+    List<Object[]> pks = new ArrayList<>(sids.size());
     for(Integer sid: sids){
-      Object[] pk = new Object[]{inodeId, blockId, sid};
-      ReplicaClusterj.ReplicaDTO dto = session.newInstance(ReplicaClusterj.ReplicaDTO.class, pk);
-      dto.setBucketId(NOT_FOUND_ROW);
-      dto = session.load(dto);
-      dtos.add(dto);
-      
+      pks.add(new Object[]{inodeId, blockId, sid});
     }
-    session.flush();
+    List<ReplicaClusterj.ReplicaDTO> dtos =
+        session.loadAll(ReplicaClusterj.ReplicaDTO.class, pks);
     boolean exist = false;
     for(ReplicaClusterj.ReplicaDTO dto: dtos){
-      if(dto.getBucketId()!=NOT_FOUND_ROW){
+      if(dto != null){
         exist = true;
         break;
       }
@@ -369,20 +426,15 @@ public class BlockInfoClusterj
     return exist;
   }
 
-  private List<BlockInfo> readBlockInfoBatch(final HopsSession session,
+  List<BlockInfo> readBlockInfoBatch(final HopsSession session,
           final long[] inodeIds, final long[] blockIds) throws StorageException {
-    final List<BlockInfoClusterj.BlockInfoDTO> bdtos =
-        new ArrayList<>();
+    final List<Object[]> pks = new ArrayList<>(blockIds.length);
+    for (int i = 0; i < blockIds.length; i++) {
+      pks.add(new Object[]{inodeIds[i], blockIds[i]});
+    }
+    List<BlockInfoClusterj.BlockInfoDTO> bdtos = null;
     try {
-      for (int i = 0; i < blockIds.length; i++) {
-        Object[] pk = new Object[]{inodeIds[i], blockIds[i]};
-        BlockInfoClusterj.BlockInfoDTO bdto =
-                session.newInstance(BlockInfoClusterj.BlockInfoDTO.class, pk);
-        bdto.setBlockIndex(NOT_FOUND_ROW);
-        bdto = session.load(bdto);
-        bdtos.add(bdto);
-      }
-      session.flush();
+      bdtos = session.loadAll(BlockInfoClusterj.BlockInfoDTO.class, pks);
       List<BlockInfo> lbis = createBlockInfoList(bdtos);
       return lbis;
     }finally{
@@ -395,7 +447,7 @@ public class BlockInfoClusterj
     List<BlockInfo> list = new ArrayList<>();
     if (bitList != null) {
       for (BlockInfoClusterj.BlockInfoDTO blockInfoDTO : bitList) {
-        if (blockInfoDTO.getBlockIndex() != NOT_FOUND_ROW) {
+        if (blockInfoDTO != null) {
           list.add(createBlockInfo(blockInfoDTO));
         }
       }
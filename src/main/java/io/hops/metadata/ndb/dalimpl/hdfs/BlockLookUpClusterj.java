@@ -18,8 +18,6 @@
  */
 package io.hops.metadata.ndb.dalimpl.hdfs;
 
-import com.google.common.primitives.Ints;
-import com.google.common.primitives.Longs;
 import com.mysql.clusterj.annotation.Column;
 import com.mysql.clusterj.annotation.PersistenceCapable;
 import com.mysql.clusterj.annotation.PrimaryKey;
@@ -28,6 +26,7 @@ import io.hops.metadata.hdfs.TablesDef;
 import io.hops.metadata.hdfs.dal.BlockLookUpDataAccess;
 import io.hops.metadata.hdfs.entity.BlockLookUp;
 import io.hops.metadata.ndb.ClusterjConnector;
+import io.hops.metadata.ndb.util.LongLongCache;
 import io.hops.metadata.ndb.wrapper.HopsSession;
 
 import java.util.ArrayList;
@@ -35,6 +34,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 
 public class BlockLookUpClusterj
     implements TablesDef.BlockLookUpTableDef, BlockLookUpDataAccess<BlockLookUp> {
@@ -56,7 +56,41 @@ public class BlockLookUpClusterj
   }
 
   private ClusterjConnector connector = ClusterjConnector.getInstance();
-  private final static long NOT_FOUND_ROW = -1000L;
+  private static final INodeIdLookUps<BlockLookUpDTO> LOOKUPS =
+      new INodeIdLookUps<BlockLookUpDTO>(BlockLookUpDTO.class, TABLE_NAME) {
+        @Override
+        long getINodeId(BlockLookUpDTO dto) {
+          return dto.getINodeId();
+        }
+      };
+
+  /**
+   * Called before the storage is used, with the configuration of the
+   * storage.
+   */
+  public void setConfiguration(Properties conf) {
+    LOOKUPS.setConfiguration(conf);
+  }
+
+  /**
+   * @return the cache of the inode ids of the blocks, for its hit ratio
+   */
+  public LongLongCache getCache() {
+    return LOOKUPS.getCache();
+  }
+
+  public static void clearCache() {
+    LOOKUPS.clear();
+  }
+
+  /**
+   * Invalidate the cached inode ids of blocks whose lookup rows are written
+   * by the current transaction of the session.
+   */
+  static void invalidateCache(HopsSession session, long[] blockIds)
+      throws StorageException {
+    LOOKUPS.invalidate(session, blockIds);
+  }
 
   @Override
   public void prepare(Collection<BlockLookUp> modified,
@@ -82,6 +116,16 @@ public class BlockLookUpClusterj
 
       session.deletePersistentAll(deletions);
       session.savePersistentAll(changes);
+
+      long[] blockIds = new long[removed.size() + modified.size()];
+      int i = 0;
+      for (BlockLookUp block_lookup : removed) {
+        blockIds[i++] = block_lookup.getBlockId();
+      }
+      for (BlockLookUp block_lookup : modified) {
+        blockIds[i++] = block_lookup.getBlockId();
+      }
+      invalidateCache(session, blockIds);
     }finally {
       session.release(deletions);
       session.release(changes);
@@ -110,82 +154,30 @@ public class BlockLookUpClusterj
 
   protected static long[] readINodeIdsByBlockIds(final HopsSession session,
       final long[] blockIds) throws StorageException {
-    final List<BlockLookUpDTO> bldtos = new ArrayList<>();
-    final List<Long> inodeIds = new ArrayList<>();
-    try {
-      for (long blockId : blockIds) {
-        BlockLookUpDTO bldto =
-            session.newInstance(BlockLookUpDTO.class, blockId);
-        bldto.setINodeId(NOT_FOUND_ROW);
-        bldto = session.load(bldto);
-        bldtos.add(bldto);
-      }
-      session.flush();
-  
-      for (BlockLookUpDTO bld : bldtos) {
-        if (bld.getINodeId() != NOT_FOUND_ROW) {
-          inodeIds.add(bld.getINodeId());
-        } else {
-          BlockLookUpDTO bldn =
-              session.find(BlockLookUpDTO.class, bld.getBlockId());
-          if (bldn != null) {
-            //[M] BUG:
-            //ClusterjConnector.LOG.error("xxx: Inode doesn't exists retries for " + bld.getBlockId() + " inodeId " + bld.getINodeId() + " at index " + i);
-            inodeIds.add(bldn.getINodeId());
-            session.release(bldn);
-          } else {
-            inodeIds.add(NOT_FOUND_ROW);
-          }
-        }
-      }
-      return Longs.toArray(inodeIds);
-    }finally {
-      session.release(bldtos);
-    }
+    return LOOKUPS.read(session, blockIds);
   }
   
   @Override
   public Map<Long, List<Long>> getINodeIdsForBlockIds(final long[] blockIds) throws StorageException {
     final HopsSession session = connector.obtainSession();
-    final List<BlockLookUpDTO> bldtos = new ArrayList<>();
+    long[] inodeIds = LOOKUPS.read(session, blockIds);
     final Map<Long, List<Long>> InodeToBlockIdsMap = new HashMap<>(blockIds.length);
-    try {
-      for (long blockId : blockIds) {
-        BlockLookUpDTO bldto =
-            session.newInstance(BlockLookUpDTO.class, blockId);
-        bldto.setINodeId(NOT_FOUND_ROW);
-        bldto = session.load(bldto);
-        bldtos.add(bldto);
-      }
-      session.flush();
-  
-      for (BlockLookUpDTO bld : bldtos) {
-        if (bld.getINodeId() != NOT_FOUND_ROW) {
-          addBlockId(InodeToBlockIdsMap, bld);
-        } else {
-          BlockLookUpDTO bldn =
-              session.find(BlockLookUpDTO.class, bld.getBlockId());
-          if (bldn != null) {
-            //[M] BUG:
-            //ClusterjConnector.LOG.error("xxx: Inode doesn't exists retries for " + bld.getBlockId() + " inodeId " + bld.getINodeId() + " at index " + i);
-            addBlockId(InodeToBlockIdsMap, bld);
-            session.release(bldn);
-          } 
-        }
+    for (int i = 0; i < blockIds.length; i++) {
+      if (inodeIds[i] != INodeIdLookUps.NOT_FOUND_ROW) {
+        addBlockId(InodeToBlockIdsMap, inodeIds[i], blockIds[i]);
       }
-      return InodeToBlockIdsMap;
-    }finally {
-      session.release(bldtos);
     }
+    return InodeToBlockIdsMap;
   }
   
-  private void addBlockId(Map<Long, List<Long>> map, BlockLookUpDTO bld){
-    List<Long> blockIds = map.get(bld.getINodeId());
+  private void addBlockId(Map<Long, List<Long>> map, long inodeId,
+      long blockId){
+    List<Long> blockIds = map.get(inodeId);
     if(blockIds==null){
       blockIds = new ArrayList<>();
-      map.put(bld.getINodeId(), blockIds);
+      map.put(inodeId, blockIds);
     }
-    blockIds.add(bld.getBlockId());
+    blockIds.add(blockId);
   }
   
   protected static BlockLookUp createBlockInfo(
@@ -0,0 +1,295 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.dalimpl.hdfs;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.hdfs.entity.BlockInfo;
+import io.hops.metadata.ndb.ClusterjConnector;
+import io.hops.metadata.ndb.TransactionExecutor;
+import io.hops.metadata.ndb.util.LongPairSink;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads the blocks of a storage in pages through a two stage pipeline: the
+ * calling thread streams the block and inode ids of the replicas of the
+ * storage and cuts them in pages, a loader thread reads the blocks of a page
+ * by primary key while the next page is being scanned and hands them to the
+ * consumer. At most {@link #QUEUED_PAGES} pages wait between the stages, so
+ * the memory used depends on the page size and not on the number of blocks
+ * of the storage.
+ */
+public class BlockReportLoader {
+
+  static final Log LOG = LogFactory.getLog(BlockReportLoader.class);
+
+  public static final int DEFAULT_PAGE_SIZE = 10000;
+  static final int QUEUED_PAGES = 2;
+
+  /**
+   * Receives the blocks of a storage, one page at a time in the order of the
+   * scan, from a loader thread.
+   */
+  public interface Consumer {
+    void accept(List<BlockInfo> blocks) throws StorageException;
+  }
+
+  private static final Page END = new Page(0);
+
+  private static class Page {
+    private final long[] blockIds;
+    private final long[] inodeIds;
+    private int size = 0;
+
+    Page(int capacity) {
+      blockIds = new long[capacity];
+      inodeIds = new long[capacity];
+    }
+
+    long[] blockIds() {
+      return size == blockIds.length ? blockIds :
+          Arrays.copyOf(blockIds, size);
+    }
+
+    long[] inodeIds() {
+      return size == inodeIds.length ? inodeIds :
+          Arrays.copyOf(inodeIds, size);
+    }
+  }
+
+  private final BlockInfoClusterj blockInfos;
+  private final ClusterjConnector connector = ClusterjConnector.getInstance();
+  private final ExecutorService executor = Executors.newCachedThreadPool(
+      new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable,
+              "Block Report Loader-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  private final AtomicLong loads = new AtomicLong(0);
+  private final AtomicLong pages = new AtomicLong(0);
+  private final AtomicLong blocks = new AtomicLong(0);
+  private final AtomicLong loadNanos = new AtomicLong(0);
+  private final AtomicLong lookupNanos = new AtomicLong(0);
+  private final AtomicLong scanWaitNanos = new AtomicLong(0);
+
+  BlockReportLoader(BlockInfoClusterj blockInfos) {
+    this.blockInfos = blockInfos;
+  }
+
+  /**
+   * Hand all the blocks of a storage to the consumer. The blocks are read
+   * with committed reads outside of any transaction of the caller.
+   *
+   * @return the number of blocks
+   */
+  public long load(int storageId, int pageSize, final Consumer consumer)
+      throws StorageException {
+    if (pageSize < 1) {
+      throw new IllegalArgumentException("Page size " + pageSize);
+    }
+    long start = System.nanoTime();
+    final BlockingQueue<Page> queue = new ArrayBlockingQueue<>(QUEUED_PAGES);
+    Future<Long> lookups = executor.submit(new Callable<Long>() {
+      @Override
+      public Long call() throws StorageException, InterruptedException {
+        return lookUp(queue, consumer);
+      }
+    });
+    PageSink sink = new PageSink(queue, lookups, pageSize);
+    try {
+      ReplicaClusterj.getReplicas(storageId, sink);
+      sink.flush();
+      sink.put(END);
+    } catch (StorageException | RuntimeException e) {
+      if (!lookups.isDone()) {
+        lookups.cancel(true);
+        throw e;
+      }
+      // the scan was stopped by a failed lookup, thrown below
+    }
+    long loaded;
+    try {
+      loaded = lookups.get();
+    } catch (ExecutionException e) {
+      throw unwrap(e);
+    } catch (InterruptedException e) {
+      lookups.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new StorageException("Interrupted while loading a block report");
+    }
+    long elapsed = System.nanoTime() - start;
+    loads.incrementAndGet();
+    loadNanos.addAndGet(elapsed);
+    scanWaitNanos.addAndGet(sink.waitNanos);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Loaded the " + loaded + " blocks of storage " + storageId +
+          " in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms (" +
+          loaded * 1000000000L / Math.max(1, elapsed) + " blocks/s), the " +
+          "scan waited " + TimeUnit.NANOSECONDS.toMillis(sink.waitNanos) +
+          " ms for the lookups");
+    }
+    return loaded;
+  }
+
+  private long lookUp(BlockingQueue<Page> queue, final Consumer consumer)
+      throws StorageException, InterruptedException {
+    long loaded = 0;
+    while (true) {
+      final Page page = queue.take();
+      if (page == END) {
+        return loaded;
+      }
+      long start = System.nanoTime();
+      List<BlockInfo> found = connector.<List<BlockInfo>>readOnly(
+          new TransactionExecutor.Work<List<BlockInfo>>() {
+            @Override
+            public List<BlockInfo> run() throws StorageException {
+              return blockInfos.readBlockInfoBatch(connector.obtainSession(),
+                  page.inodeIds(), page.blockIds());
+            }
+          });
+      lookupNanos.addAndGet(System.nanoTime() - start);
+      pages.incrementAndGet();
+      blocks.addAndGet(found.size());
+      loaded += found.size();
+      consumer.accept(found);
+    }
+  }
+
+  /**
+   * Cuts the scanned ids in pages and queues them, waiting for the lookups
+   * when too many pages are queued.
+   */
+  private static class PageSink implements LongPairSink {
+    private final BlockingQueue<Page> queue;
+    private final Future<Long> lookups;
+    private final int pageSize;
+    private Page page;
+    private long waitNanos = 0;
+
+    PageSink(BlockingQueue<Page> queue, Future<Long> lookups, int pageSize) {
+      this.queue = queue;
+      this.lookups = lookups;
+      this.pageSize = pageSize;
+      this.page = new Page(pageSize);
+    }
+
+    @Override
+    public void accept(long blockId, long inodeId) throws StorageException {
+      page.blockIds[page.size] = blockId;
+      page.inodeIds[page.size] = inodeId;
+      if (++page.size == pageSize) {
+        flush();
+      }
+    }
+
+    void flush() throws StorageException {
+      if (page.size > 0) {
+        put(page);
+        page = new Page(pageSize);
+      }
+    }
+
+    void put(Page page) throws StorageException {
+      long start = System.nanoTime();
+      try {
+        while (!queue.offer(page, 100, TimeUnit.MILLISECONDS)) {
+          if (lookups.isDone()) {
+            throw new StorageException("The lookups of the block report " +
+                "failed");
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new StorageException("Interrupted while loading a block report");
+      } finally {
+        waitNanos += System.nanoTime() - start;
+      }
+    }
+  }
+
+  private static StorageException unwrap(ExecutionException e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof StorageException) {
+      return (StorageException) cause;
+    }
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    }
+    return new StorageException(cause);
+  }
+
+  /**
+   * @return the number of storages loaded
+   */
+  public long getLoads() {
+    return loads.get();
+  }
+
+  public long getPagesLoaded() {
+    return pages.get();
+  }
+
+  public long getBlocksLoaded() {
+    return blocks.get();
+  }
+
+  /**
+   * @return the blocks loaded per second of load, over all the loads
+   */
+  public long getBlocksPerSecond() {
+    return blocks.get() * 1000000000L / Math.max(1, loadNanos.get());
+  }
+
+  /**
+   * @return the time in ms spent reading the blocks of the pages
+   */
+  public long getLookupTime() {
+    return TimeUnit.NANOSECONDS.toMillis(lookupNanos.get());
+  }
+
+  /**
+   * @return the time in ms the scans waited for the lookups, high when the
+   * lookups are the bottleneck
+   */
+  public long getScanWaitTime() {
+    return TimeUnit.NANOSECONDS.toMillis(scanWaitNanos.get());
+  }
+}
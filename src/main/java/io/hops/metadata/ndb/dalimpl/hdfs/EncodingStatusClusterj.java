@@ -326,7 +326,7 @@ public class EncodingStatusClusterj implements TablesDef.EncodingStatusTableDef,
   @Override
   public int countRequestedEncodings() throws StorageException {
     return CountHelper.countWhere(TABLE_NAME,
-        STATUS + "=" + EncodingStatus.Status.ENCODING_REQUESTED.ordinal());
+        STATUS + "=?", EncodingStatus.Status.ENCODING_REQUESTED.ordinal());
   }
 
   @Override
@@ -353,7 +353,7 @@ public class EncodingStatusClusterj implements TablesDef.EncodingStatusTableDef,
   @Override
   public int countRequestedRepairs() throws StorageException {
     return CountHelper.countWhere(TABLE_NAME,
-        STATUS + "=" + EncodingStatus.Status.REPAIR_REQUESTED.ordinal());
+        STATUS + "=?", EncodingStatus.Status.REPAIR_REQUESTED.ordinal());
   }
 
   @Override
@@ -365,7 +365,7 @@ public class EncodingStatusClusterj implements TablesDef.EncodingStatusTableDef,
   @Override
   public int countActiveEncodings() throws StorageException {
     return CountHelper.countWhere(TABLE_NAME,
-        STATUS + "=" + EncodingStatus.Status.ENCODING_ACTIVE.ordinal());
+        STATUS + "=?", EncodingStatus.Status.ENCODING_ACTIVE.ordinal());
   }
 
   @Override
@@ -377,7 +377,7 @@ public class EncodingStatusClusterj implements TablesDef.EncodingStatusTableDef,
   @Override
   public int countEncoded() throws StorageException {
     return CountHelper.countWhere(TABLE_NAME,
-        STATUS + "=" + EncodingStatus.Status.ENCODED.ordinal());
+        STATUS + "=?", EncodingStatus.Status.ENCODED.ordinal());
   }
 
   @Override
@@ -389,7 +389,7 @@ public class EncodingStatusClusterj implements TablesDef.EncodingStatusTableDef,
   @Override
   public int countActiveRepairs() throws StorageException {
     return CountHelper.countWhere(TABLE_NAME,
-        STATUS + "=" + EncodingStatus.Status.REPAIR_ACTIVE.ordinal());
+        STATUS + "=?", EncodingStatus.Status.REPAIR_ACTIVE.ordinal());
   }
 
   @Override
@@ -407,7 +407,7 @@ public class EncodingStatusClusterj implements TablesDef.EncodingStatusTableDef,
 
   @Override
   public int countRequestedParityRepairs() throws StorageException {
-    return CountHelper.countWhere(TABLE_NAME, PARITY_STATUS + "=" +
+    return CountHelper.countWhere(TABLE_NAME, PARITY_STATUS + "=?",
         EncodingStatus.ParityStatus.REPAIR_REQUESTED.ordinal());
   }
 
@@ -420,7 +420,7 @@ public class EncodingStatusClusterj implements TablesDef.EncodingStatusTableDef,
 
   @Override
   public int countActiveParityRepairs() throws StorageException {
-    return CountHelper.countWhere(TABLE_NAME, PARITY_STATUS + "=" +
+    return CountHelper.countWhere(TABLE_NAME, PARITY_STATUS + "=?",
         EncodingStatus.ParityStatus.REPAIR_ACTIVE.ordinal());
   }
 
@@ -0,0 +1,235 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.dalimpl.hdfs;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.common.EntityDataAccess;
+import io.hops.metadata.hdfs.dal.BlockInfoDataAccess;
+import io.hops.metadata.hdfs.dal.CachedBlockDataAccess;
+import io.hops.metadata.hdfs.dal.CorruptReplicaDataAccess;
+import io.hops.metadata.hdfs.dal.ExcessReplicaDataAccess;
+import io.hops.metadata.hdfs.dal.InvalidateBlockDataAccess;
+import io.hops.metadata.hdfs.dal.PendingBlockDataAccess;
+import io.hops.metadata.hdfs.dal.ReplicaDataAccess;
+import io.hops.metadata.hdfs.dal.ReplicaUnderConstructionDataAccess;
+import io.hops.metadata.hdfs.dal.UnderReplicatedBlockDataAccess;
+import io.hops.metadata.hdfs.entity.BlockInfo;
+import io.hops.metadata.hdfs.entity.CachedBlock;
+import io.hops.metadata.hdfs.entity.CorruptReplica;
+import io.hops.metadata.hdfs.entity.ExcessReplica;
+import io.hops.metadata.hdfs.entity.InvalidatedBlock;
+import io.hops.metadata.hdfs.entity.PendingBlockInfo;
+import io.hops.metadata.hdfs.entity.Replica;
+import io.hops.metadata.hdfs.entity.ReplicaUnderConstruction;
+import io.hops.metadata.hdfs.entity.UnderReplicatedBlock;
+import io.hops.metadata.ndb.ClusterjConnector;
+import io.hops.metadata.ndb.TransactionExecutor;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the blocks of a set of files together with the state of their
+ * replicas: replicas, replicas under construction, invalidated, excess,
+ * corrupt, pending, under replicated and cached blocks. All these tables
+ * are partitioned by inode id, the scans of a single file are pruned to its
+ * partition.
+ * <p/>
+ * Outside of a transaction the scans run in a transaction of their own with
+ * the partition key of the first file as hint, so that it is coordinated by
+ * the data node holding that partition and the scans see the same committed
+ * state. Inside a transaction they run in it, on its session.
+ * <p/>
+ * The loader of the storage is {@code NdbStorageFactory.getFileBlockStateLoader},
+ * it reads through the data access objects of the factory.
+ */
+public class FileBlockStateLoader {
+
+  static final Log LOG = LogFactory.getLog(FileBlockStateLoader.class);
+
+  /**
+   * The rows of all the block state tables for a set of files.
+   */
+  public static class FileBlockState {
+    private List<BlockInfo> blocks;
+    private List<Replica> replicas;
+    private List<ReplicaUnderConstruction> replicasUnderConstruction;
+    private List<InvalidatedBlock> invalidatedBlocks;
+    private List<ExcessReplica> excessReplicas;
+    private List<CorruptReplica> corruptReplicas;
+    private List<PendingBlockInfo> pendingBlocks;
+    private List<UnderReplicatedBlock> underReplicatedBlocks;
+    private List<CachedBlock> cachedBlocks;
+
+    public List<BlockInfo> getBlocks() {
+      return blocks;
+    }
+
+    public List<Replica> getReplicas() {
+      return replicas;
+    }
+
+    public List<ReplicaUnderConstruction> getReplicasUnderConstruction() {
+      return replicasUnderConstruction;
+    }
+
+    public List<InvalidatedBlock> getInvalidatedBlocks() {
+      return invalidatedBlocks;
+    }
+
+    public List<ExcessReplica> getExcessReplicas() {
+      return excessReplicas;
+    }
+
+    public List<CorruptReplica> getCorruptReplicas() {
+      return corruptReplicas;
+    }
+
+    public List<PendingBlockInfo> getPendingBlocks() {
+      return pendingBlocks;
+    }
+
+    public List<UnderReplicatedBlock> getUnderReplicatedBlocks() {
+      return underReplicatedBlocks;
+    }
+
+    public List<CachedBlock> getCachedBlocks() {
+      return cachedBlocks;
+    }
+  }
+
+  private final ClusterjConnector connector = ClusterjConnector.getInstance();
+  private final BlockInfoDataAccess<BlockInfo> blockInfos;
+  private final ReplicaDataAccess<Replica> replicas;
+  private final ReplicaUnderConstructionDataAccess<ReplicaUnderConstruction>
+      replicasUc;
+  private final InvalidateBlockDataAccess<InvalidatedBlock> invalidatedBlocks;
+  private final ExcessReplicaDataAccess<ExcessReplica> excessReplicas;
+  private final CorruptReplicaDataAccess<CorruptReplica> corruptReplicas;
+  private final PendingBlockDataAccess<PendingBlockInfo> pendingBlocks;
+  private final UnderReplicatedBlockDataAccess<UnderReplicatedBlock>
+      underReplicatedBlocks;
+  private final CachedBlockDataAccess<CachedBlock> cachedBlocks;
+
+  /**
+   * @param dataAccesses
+   *     the data access objects of the storage, by data access class
+   */
+  @SuppressWarnings("unchecked")
+  public FileBlockStateLoader(Map<Class, EntityDataAccess> dataAccesses) {
+    blockInfos = (BlockInfoDataAccess<BlockInfo>)
+        dataAccesses.get(BlockInfoDataAccess.class);
+    replicas = (ReplicaDataAccess<Replica>)
+        dataAccesses.get(ReplicaDataAccess.class);
+    replicasUc = (ReplicaUnderConstructionDataAccess<ReplicaUnderConstruction>)
+        dataAccesses.get(ReplicaUnderConstructionDataAccess.class);
+    invalidatedBlocks = (InvalidateBlockDataAccess<InvalidatedBlock>)
+        dataAccesses.get(InvalidateBlockDataAccess.class);
+    excessReplicas = (ExcessReplicaDataAccess<ExcessReplica>)
+        dataAccesses.get(ExcessReplicaDataAccess.class);
+    corruptReplicas = (CorruptReplicaDataAccess<CorruptReplica>)
+        dataAccesses.get(CorruptReplicaDataAccess.class);
+    pendingBlocks = (PendingBlockDataAccess<PendingBlockInfo>)
+        dataAccesses.get(PendingBlockDataAccess.class);
+    underReplicatedBlocks =
+        (UnderReplicatedBlockDataAccess<UnderReplicatedBlock>)
+            dataAccesses.get(UnderReplicatedBlockDataAccess.class);
+    cachedBlocks = (CachedBlockDataAccess<CachedBlock>)
+        dataAccesses.get(CachedBlockDataAccess.class);
+  }
+
+  /**
+   * @return the block state of the files, empty lists if there are none
+   */
+  public FileBlockState load(final long[] inodeIds) throws StorageException {
+    if (inodeIds.length == 0) {
+      return scan(new long[0]);
+    }
+    long start = System.currentTimeMillis();
+    final boolean hint = !connector.isTransactionActive();
+    FileBlockState state = connector.getTransactionExecutor().execute(
+        "FileBlockStateLoader.load",
+        new TransactionExecutor.Work<FileBlockState>() {
+          @Override
+          public FileBlockState run() throws StorageException {
+            if (hint) {
+              // the whole primary key, only the inode id is used to route
+              connector.setPartitionKey(BlockInfoDataAccess.class,
+                  new Object[]{inodeIds[0], 0L});
+            }
+            return inodeIds.length == 1 ? scan(inodeIds[0]) : scan(inodeIds);
+          }
+        });
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Loaded the " + state.blocks.size() + " blocks of " +
+          inodeIds.length + " files in " +
+          (System.currentTimeMillis() - start) + " ms");
+    }
+    return state;
+  }
+
+  private FileBlockState scan(long inodeId) throws StorageException {
+    FileBlockState state = new FileBlockState();
+    state.blocks = blockInfos.findByInodeId(inodeId);
+    state.replicas = replicas.findReplicasByINodeId(inodeId);
+    state.replicasUnderConstruction =
+        replicasUc.findReplicaUnderConstructionByINodeId(inodeId);
+    state.invalidatedBlocks =
+        invalidatedBlocks.findInvalidatedBlocksByINodeId(inodeId);
+    state.excessReplicas = excessReplicas.findExcessReplicaByINodeId(inodeId);
+    state.corruptReplicas = corruptReplicas.findByINodeId(inodeId);
+    state.pendingBlocks = pendingBlocks.findByINodeId(inodeId);
+    state.underReplicatedBlocks = underReplicatedBlocks.findByINodeId(inodeId);
+    state.cachedBlocks = cachedBlocks.findCachedBlockByINodeId(inodeId);
+    return state;
+  }
+
+  private FileBlockState scan(long[] inodeIds) throws StorageException {
+    FileBlockState state = new FileBlockState();
+    if (inodeIds.length == 0) {
+      state.blocks = Collections.emptyList();
+      state.replicas = Collections.emptyList();
+      state.replicasUnderConstruction = Collections.emptyList();
+      state.invalidatedBlocks = Collections.emptyList();
+      state.excessReplicas = Collections.emptyList();
+      state.corruptReplicas = Collections.emptyList();
+      state.pendingBlocks = Collections.emptyList();
+      state.underReplicatedBlocks = Collections.emptyList();
+      state.cachedBlocks = Collections.emptyList();
+      return state;
+    }
+    state.blocks = blockInfos.findByInodeIds(inodeIds);
+    state.replicas = replicas.findReplicasByINodeIds(inodeIds);
+    state.replicasUnderConstruction =
+        replicasUc.findReplicaUnderConstructionByINodeIds(inodeIds);
+    state.invalidatedBlocks =
+        invalidatedBlocks.findInvalidatedBlocksByINodeIds(inodeIds);
+    state.excessReplicas =
+        excessReplicas.findExcessReplicaByINodeIds(inodeIds);
+    state.corruptReplicas = corruptReplicas.findByINodeIds(inodeIds);
+    state.pendingBlocks = pendingBlocks.findByINodeIds(inodeIds);
+    state.underReplicatedBlocks =
+        underReplicatedBlocks.findByINodeIds(inodeIds);
+    state.cachedBlocks = cachedBlocks.findCachedBlockByINodeIds(inodeIds);
+    return state;
+  }
+}
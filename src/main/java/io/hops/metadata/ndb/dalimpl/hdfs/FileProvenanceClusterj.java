@@ -18,6 +18,7 @@
  */
 package io.hops.metadata.ndb.dalimpl.hdfs;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.mysql.clusterj.annotation.Column;
 import com.mysql.clusterj.annotation.PersistenceCapable;
 import com.mysql.clusterj.annotation.PrimaryKey;
@@ -25,13 +26,16 @@ import io.hops.exception.StorageException;
 import io.hops.metadata.hdfs.TablesDef;
 import io.hops.metadata.hdfs.entity.FileProvenanceEntry;
 import io.hops.metadata.ndb.ClusterjConnector;
+import io.hops.metadata.ndb.GroupCommittable;
+import io.hops.metadata.ndb.GroupCommitter;
 import io.hops.metadata.ndb.wrapper.HopsSession;
 import java.util.ArrayList;
 import java.util.Collection;
 import io.hops.metadata.hdfs.dal.FileProvenanceDataAccess;
 
 public class FileProvenanceClusterj implements TablesDef.FileProvenanceTableDef,
-  FileProvenanceDataAccess<FileProvenanceEntry> {
+  FileProvenanceDataAccess<FileProvenanceEntry>,
+  GroupCommittable<FileProvenanceEntry> {
 
   private ClusterjConnector connector = ClusterjConnector.getInstance();
 
@@ -189,6 +193,18 @@ public class FileProvenanceClusterj implements TablesDef.FileProvenanceTableDef,
     }
   }
 
+  @Override
+  public ListenableFuture<Void> addGroupCommitted(final FileProvenanceEntry logEntry)
+      throws StorageException {
+    return connector.getGroupCommitter(TABLE_NAME).submit(
+        new GroupCommitter.Write() {
+          @Override
+          public void apply() throws StorageException {
+            add(logEntry);
+          }
+        });
+  }
+
   private ProvenanceLogEntryDto createPersistable(FileProvenanceEntry logEntry) throws StorageException {
     HopsSession session = connector.obtainSession();
     ProvenanceLogEntryDto dto = session.newInstance(ProvenanceLogEntryDto.class);
@@ -20,6 +20,7 @@ package io.hops.metadata.ndb.dalimpl.hdfs;
 
 import com.google.common.primitives.Longs;
 import com.mysql.clusterj.LockMode;
+import com.mysql.clusterj.Query;
 import com.mysql.clusterj.annotation.Column;
 import com.mysql.clusterj.annotation.Index;
 import com.mysql.clusterj.annotation.PartitionKey;
@@ -190,7 +191,6 @@ public class INodeClusterj implements TablesDef.INodeTableDef, INodeDataAccess<I
   private ClusterjConnector connector = ClusterjConnector.getInstance();
   private MysqlServerConnector mysqlConnector =
       MysqlServerConnector.getInstance();
-  private final static int NOT_FOUND_ROW = -1000;
 
   @Override
   public void prepare(Collection<INode> removed, Collection<INode> newEntries,
@@ -294,6 +294,23 @@ public class INodeClusterj implements TablesDef.INodeTableDef, INodeDataAccess<I
   @Override
   public List<INode> findInodesByParentIdFTIS(long parentId)
       throws StorageException {
+    return findInodesByParentIdFTIS(parentId, false);
+  }
+
+  /**
+   * List the children of a directory.
+   *
+   * @param childrenInParentPartition
+   *     true if the caller knows the children of the directory are not
+   *     randomly partitioned, so they are all in the partition of the parent
+   *     id and a single partition is scanned. false scans the parent id index
+   *     of all the partitions.
+   */
+  public List<INode> findInodesByParentIdFTIS(long parentId,
+      boolean childrenInParentPartition) throws StorageException {
+    if (childrenInParentPartition) {
+      return findInodesByParentIdAndPartitionIdPPIS(parentId, parentId);
+    }
     //System.out.println("*** indexScanFindInodesByParentId ");
     HopsSession session = connector.obtainSession();
 
@@ -330,6 +347,7 @@ public class INodeClusterj implements TablesDef.INodeTableDef, INodeDataAccess<I
     HopsQuery<InodeDTO> query = session.createQuery(dobj);
     query.setParameter("partitionIDParam", partitionId);
     query.setParameter("parentIDParam", parentId);
+    query.setPartitionPruned(true);
 
     List<InodeDTO> results = null;
     try {
@@ -341,6 +359,87 @@ public class INodeClusterj implements TablesDef.INodeTableDef, INodeDataAccess<I
     }
   }
 
+  /**
+   * One page of the children of a directory, in name order.
+   */
+  public static class ChildrenPage {
+    private final List<INode> inodes;
+    private final String continuationToken;
+
+    ChildrenPage(List<INode> inodes, String continuationToken) {
+      this.inodes = inodes;
+      this.continuationToken = continuationToken;
+    }
+
+    public List<INode> getINodes() {
+      return inodes;
+    }
+
+    /**
+     * @return the token to pass to get the next page, null if this is the
+     * last page
+     */
+    public String getContinuationToken() {
+      return continuationToken;
+    }
+  }
+
+  /**
+   * List the children of a directory one page at a time, so that listing a
+   * huge directory does not hold all of its children in memory. The pages
+   * come from a pruned ordered scan of the primary key, hence the children
+   * must all be in the same partition, i.e. the directory must not have
+   * randomly partitioned children.
+   *
+   * @param continuationToken
+   *     the token of the previous page, null for the first page
+   * @param pageSize
+   *     the maximum number of children returned
+   */
+  public ChildrenPage findInodesByParentIdAndPartitionIdPPIS(long parentId,
+      long partitionId, String continuationToken, int pageSize)
+      throws StorageException {
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("Invalid page size " + pageSize);
+    }
+    HopsSession session = connector.obtainSession();
+
+    HopsQueryBuilder qb = session.getQueryBuilder();
+    HopsQueryDomainType<InodeDTO> dobj =
+        qb.createQueryDefinition(InodeDTO.class);
+    HopsPredicate pred = dobj.get("partitionId").equal(dobj.param("partitionIDParam"))
+        .and(dobj.get("parentId").equal(dobj.param("parentIDParam")));
+    if (continuationToken != null) {
+      pred = pred.and(dobj.get("name").greaterThan(dobj.param("nameParam")));
+    }
+    dobj.where(pred);
+    HopsQuery<InodeDTO> query = session.createQuery(dobj);
+    query.setParameter("partitionIDParam", partitionId);
+    query.setParameter("parentIDParam", parentId);
+    if (continuationToken != null) {
+      query.setParameter("nameParam", continuationToken);
+    }
+    query.setPartitionPruned(true);
+    query.setOrdering(Query.Ordering.ASCENDING, "partitionId", "parentId",
+        "name");
+    // one more row than needed tells if there is a next page
+    query.setLimits(0, pageSize + 1L);
+
+    List<InodeDTO> results = null;
+    try {
+      results = query.getResultList();
+      List<INode> inodes = new ArrayList<>(Math.min(results.size(), pageSize));
+      for (int i = 0; i < results.size() && i < pageSize; i++) {
+        inodes.add(convert(results.get(i)));
+      }
+      String nextToken = results.size() > pageSize ?
+          inodes.get(pageSize - 1).getName() : null;
+      return new ChildrenPage(inodes, nextToken);
+    } finally {
+      session.release(results);
+    }
+  }
+
   @Override
   public List<ProjectedINode> findInodesFTISTx(
       long parentId, EntityContext.LockMode lock) throws StorageException {
@@ -440,16 +539,10 @@ public class INodeClusterj implements TablesDef.INodeTableDef, INodeDataAccess<I
     HopsSession session = connector.obtainSession();
     session.currentTransaction().begin();
     session.setLockMode(getLock(lock));
-    List<InodeDTO> dtos = new ArrayList<>();
+    List<InodeDTO> dtos = null;
     try {
-      for (int i = 0; i < names.length; i++) {
-        InodeDTO dto = session
-                .newInstance(InodeDTO.class, new Object[]{partitionIds[i], parentIds[i], names[i]});
-        dto.setId(NOT_FOUND_ROW);
-        dto = session.load(dto);
-        dtos.add(dto);
-      }
-      session.flush();
+      dtos = session.loadAll(InodeDTO.class,
+          primaryKeys(names, parentIds, partitionIds));
       List<INode> inodeList = convert(dtos);
       session.currentTransaction().commit();
       return inodeList;
@@ -479,6 +572,7 @@ public class INodeClusterj implements TablesDef.INodeTableDef, INodeDataAccess<I
       HopsQuery<InodeDTO> query = session.createQuery(dobj);
       query.setParameter("partitionIDParam", partitionId);
       query.setParameter("parentIDParam", parentId);
+      query.setPartitionPruned(true);
 
       ArrayList<ProjectedINode> resultList = new ArrayList<>();
       results = query.getResultList();
@@ -557,16 +651,10 @@ public class INodeClusterj implements TablesDef.INodeTableDef, INodeDataAccess<I
       throws StorageException {
     HopsSession session = connector.obtainSession();
 
-    List<InodeDTO> dtos = new ArrayList<>();
+    List<InodeDTO> dtos = null;
     try {
-      for (int i = 0; i < names.length; i++) {
-        InodeDTO dto = session
-                .newInstance(InodeDTO.class, new Object[]{partitionIds[i], parentIds[i], names[i]});
-        dto.setId(NOT_FOUND_ROW);
-        dto = session.load(dto);
-        dtos.add(dto);
-      }
-      session.flush();
+      dtos = session.loadAll(InodeDTO.class,
+          primaryKeys(names, parentIds, partitionIds));
       List<INode> inodeList = convert(dtos);
       return inodeList;
     } finally {
@@ -611,14 +699,14 @@ public class INodeClusterj implements TablesDef.INodeTableDef, INodeDataAccess<I
   public boolean haveFilesWithIdsBetween(long startId, long endId)
       throws StorageException {
     return MySQLQueryHelper.exists(TABLE_NAME, String
-        .format("%s<>0 and %s " + "between %d and %d", HEADER, ID, startId,
-            (endId - 1)));
+        .format("%s<>0 and %s " + "between ? and ?", HEADER, ID), startId,
+        endId - 1);
   }
   
   @Override
   public boolean haveFilesWithIdsGreaterThan(long id) throws StorageException {
     return MySQLQueryHelper.exists(TABLE_NAME,
-        String.format("%s<>0 and " + "%s>%d", HEADER, ID, id));
+        String.format("%s<>0 and " + "%s>?", HEADER, ID), id);
   }
   
   @Override
@@ -642,8 +730,8 @@ public class INodeClusterj implements TablesDef.INodeTableDef, INodeDataAccess<I
   @Override
   public void deleteInode(String inodeName) throws StorageException { // only for testing
     String query = "delete from "+TablesDef.INodeTableDef.TABLE_NAME+" where "+
-            TablesDef.INodeTableDef.NAME +" = \""+inodeName+"\"";
-    MySQLQueryHelper.execute(query);
+            TablesDef.INodeTableDef.NAME +" = ?";
+    MySQLQueryHelper.execute(query, inodeName);
   }
   
   @Override
@@ -677,6 +765,7 @@ public class INodeClusterj implements TablesDef.INodeTableDef, INodeDataAccess<I
     query.setParameter("parentIDParam", parentId);
     if(!areChildRandomlyPartitioned){
       query.setParameter("partitionIDParam", parentId);
+      query.setPartitionPruned(true);
     }
     query.setLimits(0, 1);
 
@@ -724,13 +813,27 @@ public class INodeClusterj implements TablesDef.INodeTableDef, INodeDataAccess<I
   private List<INode> convert(List<InodeDTO> list) throws StorageException {
     List<INode> inodes = new ArrayList<>();
     for (InodeDTO persistable : list) {
-      if (persistable.getId() != NOT_FOUND_ROW) {
+      if (persistable != null) {
         inodes.add(convert(persistable));
       }
     }
     return inodes;
   }
 
+  /**
+   * @return true if the partition key hint of the current transaction is
+   * the partition holding the children of parentId, i.e. the partition id
+   * of the hint is parentId
+   */
+  private static List<Object[]> primaryKeys(String[] names, long[] parentIds,
+      long[] partitionIds) {
+    List<Object[]> pks = new ArrayList<>(names.length);
+    for (int i = 0; i < names.length; i++) {
+      pks.add(new Object[]{partitionIds[i], parentIds[i], names[i]});
+    }
+    return pks;
+  }
+
 
   protected static INode convert(InodeDTO persistable) {
     INode node = new INode(persistable.getId(), persistable.getName(),
@@ -0,0 +1,182 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.dalimpl.hdfs;
+
+import com.google.common.primitives.Longs;
+import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.metrics.NdbMetrics;
+import io.hops.metadata.ndb.util.LongLongCache;
+import io.hops.metadata.ndb.wrapper.HopsSession;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Reads the inode ids of a lookup table keyed by the id of the rows of a
+ * file (block, object), through a cache of the ids read before. The ids
+ * that are not cached are read in one batch, those that batch does not find
+ * in a second one, instead of a round trip each.
+ * <p/>
+ * The writes of the lookup rows invalidate their ids when they are
+ * prepared and again once their transaction ended, the readers do not cache
+ * the ids invalidated while they were reading. Only the writes of this
+ * process invalidate the cache: an id written by another namenode can be
+ * seen late, up to the ttl of the cache, which is why the cache is disabled
+ * unless configured.
+ */
+abstract class INodeIdLookUps<T> {
+
+  public static final String CACHE_SIZE =
+      "io.hops.metadata.ndb.lookup.cache.size";
+  public static final String CACHE_TTL =
+      "io.hops.metadata.ndb.lookup.cache.ttl";
+  public static final String CACHE_MISSING_TTL =
+      "io.hops.metadata.ndb.lookup.cache.missing.ttl";
+
+  static final long NOT_FOUND_ROW = -1000L;
+
+  private final Class<T> dtoClass;
+  private final String tableName;
+  private final LongLongCache cache = new LongLongCache();
+
+  INodeIdLookUps(Class<T> dtoClass, String tableName) {
+    this.dtoClass = dtoClass;
+    this.tableName = tableName;
+  }
+
+  abstract long getINodeId(T dto);
+
+  void setConfiguration(Properties conf) {
+    cache.configure(Integer.parseInt(conf.getProperty(CACHE_SIZE, "0")),
+        Long.parseLong(conf.getProperty(CACHE_TTL, "60000")),
+        Long.parseLong(conf.getProperty(CACHE_MISSING_TTL, "1000")));
+    if (cache.isEnabled()) {
+      NdbMetrics.registerMBean(cache,
+          "io.hops.metadata.ndb:type=LookUpCache,name=" + tableName);
+    }
+  }
+
+  LongLongCache getCache() {
+    return cache;
+  }
+
+  /**
+   * @return the inode id of each id, {@link #NOT_FOUND_ROW} for the ids
+   * that have no row
+   */
+  long[] read(HopsSession session, long[] ids) throws StorageException {
+    long[] inodeIds = new long[ids.length];
+    long[] stamp = cache.isEnabled() ? cache.stamp() : null;
+    int absent = cache.get(ids, inodeIds);
+    if (absent > 0) {
+      int[] positions = new int[absent];
+      for (int i = 0, j = 0; i < ids.length; i++) {
+        if (inodeIds[i] == LongLongCache.ABSENT) {
+          positions[j++] = i;
+        }
+      }
+      int[] pending = positions.clone();
+      int notFound = load(session, ids, inodeIds, pending, absent);
+      if (notFound > 0) {
+        // a batch can miss rows that a second read finds
+        load(session, ids, inodeIds, pending, notFound);
+      }
+      for (int j = 0; j < absent; j++) {
+        int i = positions[j];
+        if (inodeIds[i] == LongLongCache.ABSENT) {
+          cache.putMissing(ids[i], stamp);
+        } else {
+          cache.put(ids[i], inodeIds[i], stamp);
+        }
+      }
+    }
+    for (int i = 0; i < inodeIds.length; i++) {
+      if (inodeIds[i] == LongLongCache.ABSENT ||
+          inodeIds[i] == LongLongCache.MISSING) {
+        inodeIds[i] = NOT_FOUND_ROW;
+      }
+    }
+    return inodeIds;
+  }
+
+  /**
+   * Read the rows of the first count positions that are still absent and
+   * move the positions of those not found to the front.
+   *
+   * @return the number of ids not found
+   */
+  private int load(HopsSession session, long[] ids, long[] inodeIds,
+      int[] positions, int count) throws StorageException {
+    long[] keys = new long[count];
+    for (int j = 0; j < count; j++) {
+      keys[j] = ids[positions[j]];
+    }
+    List<T> dtos = null;
+    try {
+      dtos = loadAll(session, keys);
+      int notFound = 0;
+      for (int j = 0; j < count; j++) {
+        T dto = dtos.get(j);
+        if (dto != null) {
+          inodeIds[positions[j]] = getINodeId(dto);
+        } else {
+          positions[notFound++] = positions[j];
+        }
+      }
+      return notFound;
+    } finally {
+      session.release(dtos);
+    }
+  }
+
+  /**
+   * @return the rows of the ids, null for those not found
+   */
+  List<T> loadAll(HopsSession session, long[] ids) throws StorageException {
+    return session.loadAll(dtoClass, Longs.asList(ids));
+  }
+
+  /**
+   * Drop the ids written by the current transaction of the session from the
+   * cache, now and once the transaction ended.
+   */
+  void invalidate(HopsSession session, final long[] ids)
+      throws StorageException {
+    if (!cache.isEnabled() || ids.length == 0) {
+      return;
+    }
+    invalidate(ids);
+    session.afterTransaction(new Runnable() {
+      @Override
+      public void run() {
+        invalidate(ids);
+      }
+    });
+  }
+
+  private void invalidate(long[] ids) {
+    for (long id : ids) {
+      cache.invalidate(id);
+    }
+  }
+
+  void clear() {
+    cache.clear();
+  }
+}
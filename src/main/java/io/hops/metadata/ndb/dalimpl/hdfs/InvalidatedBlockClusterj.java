@@ -31,17 +31,16 @@ import io.hops.metadata.hdfs.dal.InvalidateBlockDataAccess;
 import io.hops.metadata.hdfs.entity.InvalidatedBlock;
 import io.hops.metadata.ndb.ClusterjConnector;
 import io.hops.metadata.ndb.mysqlserver.MySQLQueryHelper;
+import io.hops.metadata.ndb.util.LongLongMap;
+import io.hops.metadata.ndb.util.LongPairSink;
 import io.hops.metadata.ndb.wrapper.HopsPredicate;
 import io.hops.metadata.ndb.wrapper.HopsQuery;
 import io.hops.metadata.ndb.wrapper.HopsQueryBuilder;
 import io.hops.metadata.ndb.wrapper.HopsQueryDomainType;
 import io.hops.metadata.ndb.wrapper.HopsSession;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -79,7 +78,6 @@ public class InvalidatedBlockClusterj implements
   }
 
   private ClusterjConnector connector = ClusterjConnector.getInstance();
-  private final static int NOT_FOUND_ROW = -1000;
   
   @Override
   public int countAll() throws StorageException {
@@ -120,17 +118,20 @@ public class InvalidatedBlockClusterj implements
   
   @Override
   public Map<Long, Long> findInvalidatedBlockBySidUsingMySQLServer(int storageId) throws StorageException {
-    return MySQLQueryHelper.execute(String.format("SELECT %s, %s "
-            + "FROM %s WHERE %s='%d'", BLOCK_ID, GENERATION_STAMP, TABLE_NAME, STORAGE_ID, storageId), new MySQLQueryHelper.ResultSetHandler<Map<Long,Long>>() {
-      @Override
-      public Map<Long,Long> handle(ResultSet result) throws SQLException {
-        Map<Long,Long> blockInodeMap = new HashMap<>();
-        while (result.next()) {
-          blockInodeMap.put(result.getLong(BLOCK_ID),result.getLong(GENERATION_STAMP));
-        }
-        return blockInodeMap;
-      }
-    });
+    LongLongMap blocks = new LongLongMap();
+    findInvalidatedBlockBySidUsingMySQLServer(storageId, blocks);
+    return blocks;
+  }
+
+  /**
+   * Stream the ids and generation stamps of the invalidated blocks of a
+   * storage to the sink, without holding them in memory.
+   */
+  public void findInvalidatedBlockBySidUsingMySQLServer(int storageId,
+      LongPairSink sink) throws StorageException {
+    MySQLQueryHelper.streamLongPairs(String.format("SELECT %s, %s "
+        + "FROM %s WHERE %s=?", BLOCK_ID, GENERATION_STAMP, TABLE_NAME,
+        STORAGE_ID), sink, storageId);
   }
 
   @Override
@@ -218,19 +219,14 @@ public class InvalidatedBlockClusterj implements
     } else if (currentTableSize < inodesIds.length) {
       return findAllInvalidatedBlocks();
     }
-    final List<InvalidateBlocksDTO> invBlocks =
-        new ArrayList<>();
+    final List<Object[]> pks = new ArrayList<>(blockIds.length);
+    for (int i = 0; i < blockIds.length; i++) {
+      pks.add(new Object[]{inodesIds[i], blockIds[i], storageIds[i]});
+    }
+    List<InvalidateBlocksDTO> invBlocks = null;
     HopsSession session = connector.obtainSession();
     try {
-      for (int i = 0; i < blockIds.length; i++) {
-        InvalidateBlocksDTO invTable = session
-            .newInstance(InvalidateBlocksDTO.class,
-                new Object[]{inodesIds[i], blockIds[i], storageIds[i]});
-        invTable.setGenerationStamp(NOT_FOUND_ROW);
-        invTable = session.load(invTable);
-        invBlocks.add(invTable);
-      }
-      session.flush();
+      invBlocks = session.loadAll(InvalidateBlocksDTO.class, pks);
       List<InvalidatedBlock> ivbl = createList(invBlocks);
       return ivbl;
     }finally {
@@ -293,7 +289,7 @@ public class InvalidatedBlockClusterj implements
   private List<InvalidatedBlock> createList(List<InvalidateBlocksDTO> dtoList) {
     List<InvalidatedBlock> list = new ArrayList<>();
     for (InvalidateBlocksDTO dto : dtoList) {
-      if (dto.getGenerationStamp() != NOT_FOUND_ROW) {
+      if (dto != null) {
         list.add(createReplica(dto));
       }
     }
@@ -18,6 +18,7 @@
  */
 package io.hops.metadata.ndb.dalimpl.hdfs;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.mysql.clusterj.annotation.Column;
 import com.mysql.clusterj.annotation.PersistenceCapable;
 import com.mysql.clusterj.annotation.PrimaryKey;
@@ -28,6 +29,8 @@ import io.hops.metadata.hdfs.dal.MetadataLogDataAccess;
 import io.hops.metadata.hdfs.entity.INodeMetadataLogEntry;
 import io.hops.metadata.hdfs.entity.MetadataLogEntry;
 import io.hops.metadata.ndb.ClusterjConnector;
+import io.hops.metadata.ndb.GroupCommittable;
+import io.hops.metadata.ndb.GroupCommitter;
 import io.hops.metadata.ndb.wrapper.HopsPredicate;
 import io.hops.metadata.ndb.wrapper.HopsQuery;
 import io.hops.metadata.ndb.wrapper.HopsQueryBuilder;
@@ -38,7 +41,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 
 public class MetadataLogClusterj implements TablesDef.MetadataLogTableDef,
-    MetadataLogDataAccess<MetadataLogEntry> {
+    MetadataLogDataAccess<MetadataLogEntry>,
+    GroupCommittable<MetadataLogEntry> {
 
   private ClusterjConnector connector = ClusterjConnector.getInstance();
 
@@ -135,12 +139,27 @@ public class MetadataLogClusterj implements TablesDef.MetadataLogTableDef,
 
   @Override
   public void add(MetadataLogEntry metadataLogEntry) throws StorageException {
+    add(metadataLogEntry, false);
+  }
+
+  /**
+   * @param idempotent
+   *     true to overwrite the entry if it exists and to delete the lookup
+   *     row only if it exists, so that adding the entry again has no effect
+   */
+  private void add(MetadataLogEntry metadataLogEntry, boolean idempotent)
+      throws StorageException {
     HopsSession session = connector.obtainSession();
     MetadataLogEntryDto dto = null;
     DatasetINodeLookupDTO lookupDTO = null;
+    DatasetINodeLookupDTO existing = null;
     try {
       dto = createPersistable(metadataLogEntry);
-      session.makePersistent(dto);
+      if (idempotent) {
+        session.savePersistent(dto);
+      } else {
+        session.makePersistent(dto);
+      }
       
       if(INodeMetadataLogEntry.isValidOperation(metadataLogEntry.getOperationId())) {
         lookupDTO = createLookupPersistable(metadataLogEntry);
@@ -151,15 +170,34 @@ public class MetadataLogClusterj implements TablesDef.MetadataLogTableDef,
           session.savePersistent(lookupDTO);
         } else if (iNodeMetadataLogEntry.getOperation() ==
             INodeMetadataLogEntry.Operation.Delete) {
-          session.deletePersistent(lookupDTO);
+          if (idempotent) {
+            existing = session.find(DatasetINodeLookupDTO.class,
+                metadataLogEntry.getInodeId());
+          }
+          if (!idempotent || existing != null) {
+            session.deletePersistent(lookupDTO);
+          }
         }
       }
     }finally {
       session.release(dto);
       session.release(lookupDTO);
+      session.release(existing);
     }
   }
 
+  @Override
+  public ListenableFuture<Void> addGroupCommitted(final MetadataLogEntry metadataLogEntry)
+      throws StorageException {
+    return connector.getGroupCommitter(TABLE_NAME).submit(
+        new GroupCommitter.Write() {
+          @Override
+          public void apply() throws StorageException {
+            add(metadataLogEntry, true);
+          }
+        });
+  }
+
   private MetadataLogEntryDto createPersistable(MetadataLogEntry logEntry)
       throws StorageException {
     HopsSession session = connector.obtainSession();
@@ -78,7 +78,7 @@ public class PendingBlockClusterj
   @Override
   public int countValidPendingBlocks(long timeLimit) throws StorageException {
     return MySQLQueryHelper.countUniqueWithCriterion(TABLE_NAME, String.format("%s, %s", INODE_ID, BLOCK_ID),
-        String.format("%s>%d", TIME_STAMP, timeLimit));
+        TIME_STAMP + ">?", timeLimit);
   }
   
   @Override
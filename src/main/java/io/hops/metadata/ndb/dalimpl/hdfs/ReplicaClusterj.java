@@ -18,7 +18,6 @@
  */
 package io.hops.metadata.ndb.dalimpl.hdfs;
 
-import com.google.common.collect.Sets;
 import com.google.common.primitives.Ints;
 import com.google.common.primitives.Longs;
 import com.mysql.clusterj.annotation.Column;
@@ -32,21 +31,30 @@ import io.hops.metadata.hdfs.dal.ReplicaDataAccess;
 import io.hops.metadata.hdfs.entity.Replica;
 import io.hops.metadata.ndb.ClusterjConnector;
 import io.hops.metadata.ndb.mysqlserver.MySQLQueryHelper;
+import io.hops.metadata.ndb.util.ConcurrentLongLongMap;
+import io.hops.metadata.ndb.util.EquiDepthHistogram;
+import io.hops.metadata.ndb.util.LongHashSet;
+import io.hops.metadata.ndb.util.LongLongMap;
+import io.hops.metadata.ndb.util.LongPairSink;
+import io.hops.metadata.ndb.util.LongSink;
+import io.hops.metadata.ndb.util.ReservoirSample;
 import io.hops.metadata.ndb.wrapper.HopsPredicate;
 import io.hops.metadata.ndb.wrapper.HopsQuery;
 import io.hops.metadata.ndb.wrapper.HopsQueryBuilder;
 import io.hops.metadata.ndb.wrapper.HopsQueryDomainType;
 import io.hops.metadata.ndb.wrapper.HopsSession;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class ReplicaClusterj
     implements TablesDef.ReplicaTableDef, ReplicaDataAccess<Replica> {
@@ -79,7 +87,21 @@ public class ReplicaClusterj
     void setBucketId(int hashBucket);
   }
 
+  static final Log LOG = LogFactory.getLog(ReplicaClusterj.class);
+
+  public static final String HISTOGRAM_TTL =
+      "io.hops.metadata.ndb.replica.histogram.ttl";
+  public static final String HISTOGRAM_BUCKETS =
+      "io.hops.metadata.ndb.replica.histogram.buckets";
+
   private ClusterjConnector connector = ClusterjConnector.getInstance();
+  /**
+   * The order statistics of the block ids of the storages, by storage id.
+   */
+  private final ConcurrentMap<Integer, BlockIdHistogram> histograms =
+      new ConcurrentHashMap<>();
+  private volatile long histogramTtl = 600000;
+  private volatile int histogramBuckets = 4096;
 
   @Override
   public List<Replica> findReplicasById(long blockId, long inodeId)
@@ -130,38 +152,39 @@ public class ReplicaClusterj
   @Override
   public Map<Long,Long> findBlockAndInodeIdsByStorageId(int storageId)
       throws StorageException {
+    LongLongMap map = new LongLongMap();
+    findBlockAndInodeIdsByStorageId(storageId, map);
+    return map;
+  }
+
+  /**
+   * Hand the block and inode ids of the replicas of a storage to the sink.
+   * Outside of a transaction the ids are streamed through the MySQL Server,
+   * one row at a time, without holding them in memory.
+   */
+  public void findBlockAndInodeIdsByStorageId(int storageId, LongPairSink sink)
+      throws StorageException {
+    if (!connector.isTransactionActive()) {
+      getReplicas(storageId, sink);
+      return;
+    }
+    // the reads of a transaction stay on its session
     HopsSession session = connector.obtainSession();
-    List<ReplicaDTO> res = getReplicas(session, storageId);
-    Map<Long,Long> map = new HashMap<>();
-    for(ReplicaDTO dto : res){
-      map.put(dto.getBlockId(), dto.getINodeId() );
+    List<ReplicaDTO> dtos = getReplicas(session, storageId);
+    try {
+      for (ReplicaDTO dto : dtos) {
+        sink.accept(dto.getBlockId(), dto.getINodeId());
+      }
+    } finally {
+      session.release(dtos);
     }
-    session.release(res);
-    return map;
   }
   
   @Override
   public Map<Long, Long> findBlockAndInodeIdsByStorageIdAndBucketId(
       int storageId, int bucketId) throws StorageException {
-    HopsSession session = connector.obtainSession();
-    HopsQueryBuilder qb = session.getQueryBuilder();
-    HopsQueryDomainType<ReplicaDTO> dobj =
-        qb.createQueryDefinition(ReplicaDTO.class);
-    HopsPredicate pred1 = dobj.get("storageId").equal(dobj.param
-        ("storageIdParam"));
-    HopsPredicate pred2 = dobj.get("hashBucket").equal(dobj.param
-        ("bucketIdParam"));
-    dobj.where(pred1.and(pred2));
-    HopsQuery<ReplicaDTO> query = session.createQuery(dobj);
-    query.setParameter("storageIdParam", storageId);
-    query.setParameter("bucketIdParam", bucketId);
-  
-    List<Replica> replicas = convertAndRelease(session, query.getResultList());
-    Map<Long, Long> result = new HashMap<>();
-    for (Replica replica: replicas){
-      result.put(replica.getBlockId(), replica.getInodeId());
-    }
-    return result;
+    return findBlockAndInodeIdsByStorageIdAndBucketIds(storageId,
+        Collections.singletonList(bucketId));
   }
   
   @Override
@@ -191,64 +214,111 @@ public class ReplicaClusterj
       }
       session.deletePersistentAll(deletions);
       session.savePersistentAll(changes);
+      updateHistograms(session, removed, newed);
     }finally {
       session.release(deletions);
       session.release(changes);
     }
   }
   
+  /**
+   * The returned map is safe for concurrent use, the callers share it
+   * between threads.
+   */
   @Override
   public Map<Long, Long> findBlockAndInodeIdsByStorageIdAndBucketIds(
       int sId, List<Integer> mismatchedBuckets) throws StorageException {
-    HopsSession session = connector.obtainSession();
-
-    Map<Long, Long> results = new ConcurrentHashMap<>();
-    if (mismatchedBuckets.size() > 0){
-      HopsQueryBuilder qb = session.getQueryBuilder();
-      HopsQueryDomainType<ReplicaDTO> dobj = qb.createQueryDefinition(ReplicaDTO.class);
-
-      for (int i = 0 ; i < mismatchedBuckets.size() ; i++){
-        HopsPredicate pred1 = dobj.get("storageId").equal(dobj.param("storageIdParam"));
-
-        HopsPredicate pred2 = dobj.get("bucketId").equal(dobj.param("bucketIdParam"));
-
-        dobj.where(pred1.and(pred2));
-        HopsQuery<ReplicaDTO> query = session.createQuery(dobj);
+    ConcurrentLongLongMap results = new ConcurrentLongLongMap();
+    findBlockAndInodeIdsByStorageIdAndBucketIds(sId, mismatchedBuckets,
+        results);
+    return results;
+  }
 
-        query.setParameter("storageIdParam", sId);
-        query.setParameter("bucketIdParam", mismatchedBuckets.get(i));
+  /**
+   * Hand the block and inode ids of the replicas of a storage that are in
+   * any of the buckets to the sink. All the buckets are read by a single
+   * scan, whatever their number. Outside of a transaction the ids are
+   * streamed through the MySQL Server, one row at a time.
+   */
+  public void findBlockAndInodeIdsByStorageIdAndBucketIds(int sId,
+      List<Integer> buckets, LongPairSink sink) throws StorageException {
+    if (buckets.isEmpty()) {
+      return;
+    }
+    if (!connector.isTransactionActive()) {
+      StringBuilder placeholders = new StringBuilder("?");
+      for (int i = 1; i < buckets.size(); i++) {
+        placeholders.append(",?");
+      }
+      Object[] params = new Object[buckets.size() + 1];
+      params[0] = sId;
+      for (int i = 0; i < buckets.size(); i++) {
+        params[i + 1] = buckets.get(i);
+      }
+      MySQLQueryHelper.streamLongPairs(String.format("SELECT %s, %s " +
+          "FROM %s WHERE %s=? AND %s IN (%s)", BLOCK_ID, INODE_ID, TABLE_NAME,
+          STORAGE_ID, BUCKET_ID, placeholders), sink, params);
+      return;
+    }
+    // the reads of a transaction stay on its session
+    HopsSession session = connector.obtainSession();
+    HopsQueryBuilder qb = session.getQueryBuilder();
+    HopsQueryDomainType<ReplicaDTO> dobj =
+        qb.createQueryDefinition(ReplicaDTO.class);
+    HopsPredicate pred1 =
+        dobj.get("storageId").equal(dobj.param("storageIdParam"));
+    HopsPredicate pred2 = buckets.size() == 1 ?
+        dobj.get("bucketId").equal(dobj.param("bucketIdParam")) :
+        dobj.get("bucketId").in(dobj.param("bucketIdParam"));
+    dobj.where(pred1.and(pred2));
+    HopsQuery<ReplicaDTO> query = session.createQuery(dobj);
+    query.setParameter("storageIdParam", sId);
+    query.setParameter("bucketIdParam",
+        buckets.size() == 1 ? buckets.get(0) : buckets);
 
-        List<Replica> replicas = convertAndRelease(session, query.getResultList());
-        for (Replica replica : replicas){
-          results.put(replica.getBlockId(), replica.getInodeId());
-        }
+    List<ReplicaDTO> dtos = query.getResultList();
+    try {
+      for (ReplicaDTO dto : dtos) {
+        sink.accept(dto.getBlockId(), dto.getINodeId());
       }
-      return results;
-    } else {
-      return results;
+    } finally {
+      session.release(dtos);
     }
   }
   
   @Override
   public int countAllReplicasForStorageId(int sid) throws StorageException {
     return MySQLQueryHelper.countWithCriterion(TABLE_NAME,
-        String.format("%s=%d", STORAGE_ID, sid));
+        STORAGE_ID + "=?", sid);
   }
 
   protected static Set<Long> getReplicas(int storageId) throws
       StorageException {
-    return MySQLQueryHelper.execute(String.format("SELECT %s " +
-        "FROM %s WHERE %s='%d'", BLOCK_ID, TABLE_NAME, STORAGE_ID, storageId)
-        , new MySQLQueryHelper.ResultSetHandler<Set<Long>>() {
-      @Override
-      public Set<Long> handle(ResultSet result) throws SQLException {
-        Set<Long> blocks = Sets.newHashSet();
-        while (result.next()){
-          blocks.add(result.getLong(BLOCK_ID));
-        }
-        return blocks;
-      }
-    });
+    LongHashSet blocks = new LongHashSet();
+    getReplicas(storageId, blocks);
+    return blocks;
+  }
+
+  /**
+   * Stream the block ids of the replicas of a storage to the sink through
+   * the MySQL Server.
+   */
+  protected static void getReplicas(int storageId, LongSink sink)
+      throws StorageException {
+    MySQLQueryHelper.streamLongs(String.format("SELECT %s " +
+        "FROM %s WHERE %s=?", BLOCK_ID, TABLE_NAME, STORAGE_ID), sink,
+        storageId);
+  }
+
+  /**
+   * Stream the block and inode ids of the replicas of a storage to the sink
+   * through the MySQL Server.
+   */
+  protected static void getReplicas(int storageId, LongPairSink sink)
+      throws StorageException {
+    MySQLQueryHelper.streamLongPairs(String.format("SELECT %s, %s " +
+        "FROM %s WHERE %s=?", BLOCK_ID, INODE_ID, TABLE_NAME, STORAGE_ID),
+        sink, storageId);
   }
 
   protected static List<ReplicaClusterj.ReplicaDTO> getReplicas(
@@ -297,46 +367,150 @@ public class ReplicaClusterj
     return result;
   }
 
-  @Override  
+  /**
+   * The index-th (from 1) smallest block id of the storage, read from the
+   * block id histogram of the storage instead of counting the blocks. Exact
+   * when the storage has no more blocks than the histogram has buckets,
+   * otherwise the nearest block id of the sample. maxFetchingSize is not
+   * used.
+   *
+   * @return 0 if the storage has fewer blocks than index
+   */
+  @Override
   public long findBlockIdAtIndex(int storageId, long index, int maxFetchingSize) throws StorageException{
-    HopsSession session = connector.obtainSession();
-    
-    long startId=0;
-    long nbBlocks=0;
-    long prevStartId = 0;
-    long prevNbBlocks = 0;
-    int windowSize = maxFetchingSize * 1000;
-    while (windowSize > maxFetchingSize) {
-      while (nbBlocks < index) {
-        prevStartId = startId;
-        prevNbBlocks = nbBlocks;
-        nbBlocks += countBlocksInWindow(storageId, startId, windowSize);
-        startId += windowSize;
+    EquiDepthHistogram histogram = getHistogram(storageId);
+    if (histogram == null) {
+      return 0;
+    }
+    synchronized (histogram) {
+      if (index < 1 || index > histogram.count()) {
+        return 0;
+      }
+      return histogram.valueAt(index);
+    }
+  }
+
+  /**
+   * The block ids splitting the blocks of a storage in ranges of about the
+   * same number of blocks, as {@link #findBlockIdAtIndex} would for each
+   * split, from the block id histogram of the storage.
+   *
+   * @return the splits - 1 block ids ending the first ranges, fewer if the
+   * storage has fewer blocks
+   */
+  public long[] findBlockIdSplits(int storageId, int splits)
+      throws StorageException {
+    EquiDepthHistogram histogram = getHistogram(storageId);
+    if (histogram == null) {
+      return new long[0];
+    }
+    synchronized (histogram) {
+      return histogram.splitPoints(splits);
+    }
+  }
 
+  /**
+   * Drop the block id histogram of a storage, it is rebuilt by its next use.
+   */
+  public void invalidateBlockIdHistogram(int storageId) {
+    histograms.remove(storageId);
+  }
+
+  /**
+   * The histograms are read and updated with their own lock held, they are
+   * built without any lock.
+   *
+   * @return the histogram of the block ids of the storage, built by sampling
+   * them if it is missing, dirty or older than the ttl, null if the storage
+   * has no blocks
+   */
+  private EquiDepthHistogram getHistogram(int storageId)
+      throws StorageException {
+    BlockIdHistogram entry = histograms.get(storageId);
+    long now = System.currentTimeMillis();
+    if (entry == null || now - entry.builtAt > histogramTtl ||
+        (entry.histogram != null && entry.histogram.isDirty())) {
+      ReservoirSample sample = new ReservoirSample(histogramBuckets);
+      getReplicas(storageId, sample);
+      entry = new BlockIdHistogram(sample.toHistogram(), now);
+      histograms.put(storageId, entry);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Sampled the " + sample.getCount() + " blocks of storage " +
+            storageId + " in " + (System.currentTimeMillis() - now) + " ms");
       }
-      nbBlocks = prevNbBlocks;
-      startId = prevStartId;
-      windowSize = windowSize/10;
     }
-      
-    while(nbBlocks<index){
-      List<ReplicaClusterj.ReplicaDTO> list = getReplicas(session, storageId, prevStartId, maxFetchingSize);
-      for(ReplicaDTO dto:list){
-        nbBlocks++;
-        if(nbBlocks==index){
-          return dto.getBlockId();
+    return entry.histogram;
+  }
+
+  private static class BlockIdHistogram {
+    private final EquiDepthHistogram histogram;
+    private final long builtAt;
+
+    BlockIdHistogram(EquiDepthHistogram histogram, long builtAt) {
+      this.histogram = histogram;
+      this.builtAt = builtAt;
+    }
+  }
+
+  /**
+   * Keep the histograms of the storages in line with the replicas added and
+   * removed through this namenode, once the transaction adding and removing
+   * them has committed. The changes a histogram cannot follow make it dirty
+   * and it is sampled again by its next use, the other changes are seen when
+   * the histograms expire.
+   */
+  private void updateHistograms(HopsSession session,
+      Collection<Replica> removed, Collection<Replica> newed)
+      throws StorageException {
+    if (histograms.isEmpty() || (removed.isEmpty() && newed.isEmpty())) {
+      return;
+    }
+    final List<Replica> removedReplicas = new ArrayList<>(removed);
+    final List<Replica> newReplicas = new ArrayList<>(newed);
+    session.afterCommit(new Runnable() {
+      @Override
+      public void run() {
+        for (Replica replica : removedReplicas) {
+          BlockIdHistogram entry = histograms.get(replica.getStorageId());
+          if (entry != null && entry.histogram != null) {
+            synchronized (entry.histogram) {
+              entry.histogram.remove(replica.getBlockId());
+            }
+          }
+        }
+        for (Replica replica : newReplicas) {
+          BlockIdHistogram entry = histograms.get(replica.getStorageId());
+          if (entry == null) {
+            continue;
+          }
+          if (entry.histogram == null) {
+            // the storage had no blocks, sample it again
+            histograms.remove(replica.getStorageId(), entry);
+          } else {
+            synchronized (entry.histogram) {
+              entry.histogram.add(replica.getBlockId());
+            }
+          }
         }
       }
-      startId+=maxFetchingSize;
-    }
-    return 0;
+    });
+  }
+
+  /**
+   * Called before the storage is used, with the configuration of the
+   * storage.
+   */
+  public void setConfiguration(Properties conf) {
+    histogramTtl = Long.parseLong(conf.getProperty(HISTOGRAM_TTL, "600000"));
+    histogramBuckets = Integer.parseInt(conf.getProperty(HISTOGRAM_BUCKETS,
+        "4096"));
   }
   
   private static Long countBlocksInWindow(int storageId, long from, int size) throws
       StorageException {
     Long result =  MySQLQueryHelper.executeLongAggrQuery(String.format("SELECT count(*) " +
-        "FROM %s WHERE %s='%d' and %s>='%d' and %s<=%d",TABLE_NAME, STORAGE_ID, storageId, BLOCK_ID,
-        from, BLOCK_ID, from+size));
+        "FROM %s WHERE %s=? and %s>=? and %s<=?", TABLE_NAME, STORAGE_ID, BLOCK_ID,
+        BLOCK_ID), storageId, from, from + size);
     return result;
   }
   
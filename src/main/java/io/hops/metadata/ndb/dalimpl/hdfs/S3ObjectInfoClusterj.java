@@ -73,7 +73,6 @@ public class S3ObjectInfoClusterj
   }
 
   private ClusterjConnector connector = ClusterjConnector.getInstance();
-  private final static int NOT_FOUND_ROW = -1000;
 
   @Override
   public int countAll() throws StorageException {
@@ -251,6 +250,20 @@ public class S3ObjectInfoClusterj
       session.savePersistentAll(objChanges);
       session.savePersistentAll(luChanges);
       session.savePersistentAll(delChanges);
+
+      long[] objectIds =
+          new long[removed.size() + news.size() + modified.size()];
+      int i = 0;
+      for (S3ObjectInfo s3Object : removed) {
+        objectIds[i++] = s3Object.getObjectId();
+      }
+      for (S3ObjectInfo s3Object : news) {
+        objectIds[i++] = s3Object.getObjectId();
+      }
+      for (S3ObjectInfo s3Object : modified) {
+        objectIds[i++] = s3Object.getObjectId();
+      }
+      S3ObjectLookUpClusterj.invalidateCache(session, objectIds);
     }finally {
       session.release(objDeletions);
       session.release(luDeletions);
@@ -262,17 +275,13 @@ public class S3ObjectInfoClusterj
 
   private List<S3ObjectInfo> readS3ObjectInfoBatch(final HopsSession session,
                                              final long[] inodeIds, final long[] objectIds) throws StorageException {
-    final List<DTO> dtos = new ArrayList<>();
+    final List<Object[]> pks = new ArrayList<>(objectIds.length);
+    for (int i = 0; i < objectIds.length; i++) {
+      pks.add(new Object[]{inodeIds[i], objectIds[i]});
+    }
+    List<DTO> dtos = null;
     try {
-      for (int i = 0; i < objectIds.length; i++) {
-        Object[] pk = new Object[]{inodeIds[i], objectIds[i]};
-        DTO dto =
-                session.newInstance(DTO.class, pk);
-        dto.setObjectId(NOT_FOUND_ROW);
-        dto = session.load(dto);
-        dtos.add(dto);
-      }
-      session.flush();
+      dtos = session.loadAll(DTO.class, pks);
       List<S3ObjectInfo> modelList = createS3ObjectInfoList(dtos);
       return modelList;
     }finally{
@@ -285,7 +294,7 @@ public class S3ObjectInfoClusterj
     List<S3ObjectInfo> list = new ArrayList<>();
     if (s3ObjDTOList != null) {
       for (DTO s3ObjDTO : s3ObjDTOList) {
-        if (s3ObjDTO.getObjectIndex() != NOT_FOUND_ROW) {
+        if (s3ObjDTO != null) {
           list.add(createS3ObjectInfo(s3ObjDTO));
         }
       }
@@ -1,6 +1,5 @@
 package io.hops.metadata.ndb.dalimpl.hdfs;
 
-import com.google.common.primitives.Longs;
 import com.mysql.clusterj.annotation.Column;
 import com.mysql.clusterj.annotation.PersistenceCapable;
 import com.mysql.clusterj.annotation.PrimaryKey;
@@ -9,6 +8,7 @@ import io.hops.metadata.hdfs.TablesDef;
 import io.hops.metadata.hdfs.dal.S3ObjectLookUpDataAccess;
 import io.hops.metadata.hdfs.entity.S3ObjectLookUp;
 import io.hops.metadata.ndb.ClusterjConnector;
+import io.hops.metadata.ndb.util.LongLongCache;
 import io.hops.metadata.ndb.wrapper.HopsSession;
 
 import java.util.*;
@@ -31,7 +31,41 @@ public class S3ObjectLookUpClusterj
   }
 
   private ClusterjConnector connector = ClusterjConnector.getInstance();
-  private final static long NOT_FOUND_ROW = -1000L;
+  private static final INodeIdLookUps<S3ObjectLookUpDTO> LOOKUPS =
+      new INodeIdLookUps<S3ObjectLookUpDTO>(S3ObjectLookUpDTO.class, TABLE_NAME) {
+        @Override
+        long getINodeId(S3ObjectLookUpDTO dto) {
+          return dto.getINodeId();
+        }
+      };
+
+  /**
+   * Called before the storage is used, with the configuration of the
+   * storage.
+   */
+  public void setConfiguration(Properties conf) {
+    LOOKUPS.setConfiguration(conf);
+  }
+
+  /**
+   * @return the cache of the inode ids of the objects, for its hit ratio
+   */
+  public LongLongCache getCache() {
+    return LOOKUPS.getCache();
+  }
+
+  public static void clearCache() {
+    LOOKUPS.clear();
+  }
+
+  /**
+   * Invalidate the cached inode ids of objects whose lookup rows are written
+   * by the current transaction of the session.
+   */
+  static void invalidateCache(HopsSession session, long[] objectIds)
+      throws StorageException {
+    LOOKUPS.invalidate(session, objectIds);
+  }
 
   @Override
   public S3ObjectLookUp findByObjectId(long objectId) throws StorageException {
@@ -53,35 +87,7 @@ public class S3ObjectLookUpClusterj
 
   protected static long[] readINodeIdsByObjectIds(final HopsSession session, final long[] objectIds)
     throws StorageException {
-    final List<S3ObjectLookUpDTO> dtos = new ArrayList<>();
-    final List<Long> inodeIds = new ArrayList<>();
-    try {
-      for(long objectId : objectIds) {
-        S3ObjectLookUpDTO dto = session.newInstance(S3ObjectLookUpDTO.class, objectId);
-        dto.setINodeId(NOT_FOUND_ROW);
-        dto = session.load(dto);
-        dtos.add(dto);
-      }
-      session.flush();
-
-      for(S3ObjectLookUpDTO dto : dtos) {
-        if(dto.getINodeId() != NOT_FOUND_ROW) {
-          inodeIds.add(dto.getINodeId());
-        } else {
-          S3ObjectLookUpDTO dton = session.find(S3ObjectLookUpDTO.class, dto.getObjectId());
-          if(dton != null) {
-            inodeIds.add(dton.getINodeId());
-            session.release(dton);
-          } else {
-            inodeIds.add(NOT_FOUND_ROW);
-          }
-        }
-      }
-
-      return Longs.toArray(inodeIds);
-    } finally {
-      session.release(dtos);
-    }
+    return LOOKUPS.read(session, objectIds);
   }
 
   @Override
@@ -105,6 +111,16 @@ public class S3ObjectLookUpClusterj
 
       session.deletePersistentAll(deletions);
       session.savePersistentAll(changes);
+
+      long[] objectIds = new long[removed.size() + modified.size()];
+      int i = 0;
+      for(S3ObjectLookUp model : removed) {
+        objectIds[i++] = model.getObjectId();
+      }
+      for(S3ObjectLookUp model : modified) {
+        objectIds[i++] = model.getObjectId();
+      }
+      invalidateCache(session, objectIds);
     } finally {
       session.release(deletions);
       session.release(changes);
@@ -114,43 +130,23 @@ public class S3ObjectLookUpClusterj
   @Override
   public Map<Long, List<Long>> getINodeIdsForObjectIds(long[] objectIds) throws StorageException {
     final HopsSession session = connector.obtainSession();
-    final List<S3ObjectLookUpDTO> dtos = new ArrayList<>();
+    long[] inodeIds = LOOKUPS.read(session, objectIds);
     final Map<Long, List<Long>> inodeToObjectIdsMap = new HashMap<>(objectIds.length);
-
-    try{
-      for(long objectId : objectIds) {
-        S3ObjectLookUpDTO dto = session.newInstance(S3ObjectLookUpDTO.class, objectId);
-        dto.setINodeId(NOT_FOUND_ROW);
-        dto = session.load(dto);
-        dtos.add(dto);
-      }
-      session.flush();
-
-      for(S3ObjectLookUpDTO dto : dtos) {
-        if(dto.getINodeId() != NOT_FOUND_ROW) {
-          addObjectId(inodeToObjectIdsMap, dto);
-        } else {
-          S3ObjectLookUpDTO dton = session.find(S3ObjectLookUpDTO.class, dto.getObjectId());
-          if(dton != null) {
-            addObjectId(inodeToObjectIdsMap, dton);
-            session.release(dton);
-          }
-        }
+    for(int i = 0; i < objectIds.length; i++) {
+      if(inodeIds[i] != INodeIdLookUps.NOT_FOUND_ROW) {
+        addObjectId(inodeToObjectIdsMap, inodeIds[i], objectIds[i]);
       }
-
-      return inodeToObjectIdsMap;
-    } finally {
-      session.release(dtos);
     }
+    return inodeToObjectIdsMap;
   }
 
-  private void addObjectId(Map<Long, List<Long>> map, S3ObjectLookUpDTO dto) {
-    List<Long> objectIds = map.get(dto.getINodeId());
+  private void addObjectId(Map<Long, List<Long>> map, long inodeId, long objectId) {
+    List<Long> objectIds = map.get(inodeId);
     if(objectIds == null) {
       objectIds = new ArrayList<>();
-      map.put(dto.getINodeId(), objectIds);
+      map.put(inodeId, objectIds);
     }
-    objectIds.add(dto.getObjectId());
+    objectIds.add(objectId);
   }
 
   private S3ObjectLookUp createModel(S3ObjectLookUpDTO dto) {
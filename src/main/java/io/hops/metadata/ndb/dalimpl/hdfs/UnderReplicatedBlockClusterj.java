@@ -52,18 +52,19 @@ public class UnderReplicatedBlockClusterj
   @Override
   public int countByLevel(int level) throws StorageException {
     return MySQLQueryHelper
-        .countWithCriterion(TABLE_NAME, String.format("%s=%d", LEVEL, level));
+        .countWithCriterion(TABLE_NAME, LEVEL + "=?", level);
   }
 
   @Override
   public int countLessThanALevel(int level) throws StorageException {
     return MySQLQueryHelper
-        .countWithCriterion(TABLE_NAME, String.format("%s<%d", LEVEL, level));
+        .countWithCriterion(TABLE_NAME, LEVEL + "<?", level);
   }
 
   public int countReplOneBlocks(int level) throws StorageException {
     return MySQLQueryHelper
-        .countWithCriterion(TABLE_NAME, String.format("%s=%d and %s=1", LEVEL, level, EXPECTEDREPLICAS));
+        .countWithCriterion(TABLE_NAME, LEVEL + "=? and " + EXPECTEDREPLICAS + "=1",
+            level);
   }
   
   @PersistenceCapable(table = TABLE_NAME)
@@ -76,16 +76,13 @@ public class XAttrClusterJ implements TablesDef.XAttrTableDef,
   public List<StoredXAttr> getXAttrsByPrimaryKeyBatch(
       List<StoredXAttr.PrimaryKey> pks) throws StorageException {
     HopsSession session = connector.obtainSession();
-    List<XAttrDTO> dtos = Lists.newArrayListWithExpectedSize(pks.size());
+    List<Object[]> keys = Lists.newArrayListWithExpectedSize(pks.size());
+    for (StoredXAttr.PrimaryKey pk : pks) {
+      keys.add(new Object[]{pk.getInodeId(), pk.getNamespace(), pk.getName()});
+    }
+    List<XAttrDTO> dtos = null;
     try {
-      for (StoredXAttr.PrimaryKey pk : pks) {
-        XAttrDTO dto = session.newInstance(XAttrDTO.class,
-            new Object[]{pk.getInodeId(), pk.getNamespace(), pk.getName()});
-        dto.setValue(StoredXAttr.NON_EXISTENT_XATRR_VALUE);
-        session.load(dto);
-        dtos.add(dto);
-      }
-      session.flush();
+      dtos = session.loadAll(XAttrDTO.class, keys);
       return convertAndCheck(session, dtos);
     }finally {
       session.release(dtos);
@@ -183,8 +180,7 @@ public class XAttrClusterJ implements TablesDef.XAttrTableDef,
       List<XAttrDTO> dtos) throws StorageException {
     List<StoredXAttr> results = Lists.newArrayListWithExpectedSize(dtos.size());
     for(XAttrDTO dto : dtos){
-      //check if the row exists, default value is empty string
-      if(StoredXAttr.xAttrExists(dto.getValue())) {
+      if(dto != null) {
         results.add(convert(dto));
       }
     }
@@ -18,11 +18,14 @@
  */
 package io.hops.metadata.ndb.dalimpl.yarn;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.mysql.clusterj.annotation.Column;
 import com.mysql.clusterj.annotation.PersistenceCapable;
 import com.mysql.clusterj.annotation.PrimaryKey;
 import io.hops.exception.StorageException;
 import io.hops.metadata.ndb.ClusterjConnector;
+import io.hops.metadata.ndb.GroupCommittable;
+import io.hops.metadata.ndb.GroupCommitter;
 import io.hops.metadata.ndb.wrapper.HopsSession;
 import io.hops.metadata.yarn.TablesDef;
 import static io.hops.metadata.yarn.TablesDef.AppProvenanceTableDef.SUBMIT_TIME;
@@ -33,7 +36,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 
 public class AppProvenanceClusterJ implements TablesDef.AppProvenanceTableDef,
-  AppProvenanceDataAccess<AppProvenanceEntry> {
+  AppProvenanceDataAccess<AppProvenanceEntry>,
+  GroupCommittable<AppProvenanceEntry> {
 
   private ClusterjConnector connector = ClusterjConnector.getInstance();
 
@@ -114,6 +118,18 @@ public class AppProvenanceClusterJ implements TablesDef.AppProvenanceTableDef,
     }
   }
 
+  @Override
+  public ListenableFuture<Void> addGroupCommitted(final AppProvenanceEntry entry)
+      throws StorageException {
+    return connector.getGroupCommitter(TABLE_NAME).submit(
+        new GroupCommitter.Write() {
+          @Override
+          public void apply() throws StorageException {
+            add(entry);
+          }
+        });
+  }
+
   private AppProvenanceEntryDto createPersistable(AppProvenanceEntry entry) throws StorageException {
     HopsSession session = connector.obtainSession();
     AppProvenanceEntryDto dto = session.newInstance(AppProvenanceEntryDto.class);
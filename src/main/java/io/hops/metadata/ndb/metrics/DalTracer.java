@@ -0,0 +1,389 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.metrics;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.common.EntityDataAccess;
+import io.hops.metadata.ndb.wrapper.HopsQuery;
+import io.hops.metadata.ndb.wrapper.ScanType;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per DAL method tracing. When installed every {@link EntityDataAccess}
+ * handed out by the storage factory is wrapped in a proxy that records, for
+ * each method, the number of calls, failures, rows returned, the kind of
+ * scans ({@link ScanType}) its queries ran and a latency histogram.
+ * <p/>
+ * Calls slower than the slow threshold are logged together with the plan
+ * (HopsQuery.explain()) of the scan queries they ran.
+ * <p/>
+ * Tracing can be switched on and off at runtime through JMX; when it is off
+ * the proxies only pay for reading a volatile flag.
+ * <p/>
+ * The proxies implement the interfaces of the data access, they can not be
+ * cast to its class. The methods only the class declares are reached
+ * through {@link #unwrap}, their calls are not traced.
+ */
+public class DalTracer implements DalTracerMXBean {
+
+  static final Log LOG = LogFactory.getLog(DalTracer.class);
+
+  public static final String PROPERTY_INSTALL =
+      "io.hops.metadata.ndb.dal.tracing";
+  public static final String PROPERTY_ENABLED =
+      "io.hops.metadata.ndb.dal.tracing.enabled";
+  public static final String PROPERTY_SLOW_THRESHOLD =
+      "io.hops.metadata.ndb.dal.tracing.slow.threshold";
+  public static final String MBEAN_NAME =
+      "io.hops.metadata.ndb:type=DalTracer";
+
+  private static final int MAX_QUERIES_PER_CALL = 8;
+
+  private static final DalTracer instance = new DalTracer();
+
+  private volatile boolean enabled = false;
+  private volatile long slowThresholdNanos = 100 * 1000000L;
+  private final ConcurrentMap<String, MethodStats> stats =
+      new ConcurrentHashMap<>();
+  private final ThreadLocal<CallTrace> currentCall = new ThreadLocal<>();
+
+  private DalTracer() {
+  }
+
+  public static DalTracer getInstance() {
+    return instance;
+  }
+
+  /**
+   * @return true if the DAL classes should be wrapped
+   */
+  public static boolean isInstalled(Properties conf) {
+    return Boolean.parseBoolean(conf.getProperty(PROPERTY_INSTALL, "false"));
+  }
+
+  public void configure(Properties conf) {
+    enabled = Boolean.parseBoolean(conf.getProperty(PROPERTY_ENABLED, "true"));
+    setSlowThreshold(Long.parseLong(
+        conf.getProperty(PROPERTY_SLOW_THRESHOLD, "100")));
+    NdbMetrics.registerMBean(this, MBEAN_NAME);
+  }
+
+  /**
+   * Wrap the data access in a tracing proxy implementing all its interfaces.
+   */
+  public EntityDataAccess wrap(EntityDataAccess dataAccess) {
+    Set<Class<?>> interfaces = new LinkedHashSet<>();
+    for (Class<?> cls = dataAccess.getClass(); cls != null;
+         cls = cls.getSuperclass()) {
+      interfaces.addAll(Arrays.asList(cls.getInterfaces()));
+    }
+    return (EntityDataAccess) Proxy.newProxyInstance(
+        dataAccess.getClass().getClassLoader(),
+        interfaces.toArray(new Class<?>[interfaces.size()]),
+        new TracingHandler(dataAccess));
+  }
+
+  /**
+   * @return the data access behind a tracing proxy, the data access itself
+   * if it is not one
+   */
+  public static EntityDataAccess unwrap(EntityDataAccess dataAccess) {
+    if (Proxy.isProxyClass(dataAccess.getClass())) {
+      InvocationHandler handler = Proxy.getInvocationHandler(dataAccess);
+      if (handler instanceof TracingHandler) {
+        return ((TracingHandler) handler).target;
+      }
+    }
+    return dataAccess;
+  }
+
+  /**
+   * Called by HopsSession for every query created, so that the plan of the
+   * queries of a slow call can be logged.
+   */
+  public void queryCreated(HopsQuery<?> query) {
+    if (!enabled) {
+      return;
+    }
+    CallTrace call = currentCall.get();
+    if (call != null && call.queries.size() < MAX_QUERIES_PER_CALL) {
+      call.queries.add(query);
+    }
+  }
+
+  public MethodStats getStats(String method) {
+    return stats.get(method);
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  @Override
+  public long getSlowThreshold() {
+    return slowThresholdNanos / 1000000L;
+  }
+
+  @Override
+  public void setSlowThreshold(long millis) {
+    this.slowThresholdNanos = millis * 1000000L;
+  }
+
+  @Override
+  public Map<String, Long> getCallCounts() {
+    Map<String, Long> result = new HashMap<>();
+    for (Map.Entry<String, MethodStats> e : stats.entrySet()) {
+      result.put(e.getKey(), e.getValue().latency.snapshot().getCount());
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> getFailureCounts() {
+    Map<String, Long> result = new HashMap<>();
+    for (Map.Entry<String, MethodStats> e : stats.entrySet()) {
+      result.put(e.getKey(), e.getValue().failures.get());
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> getRowsReturned() {
+    Map<String, Long> result = new HashMap<>();
+    for (Map.Entry<String, MethodStats> e : stats.entrySet()) {
+      result.put(e.getKey(), e.getValue().rows.get());
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> getScanCounts() {
+    Map<String, Long> result = new HashMap<>();
+    for (Map.Entry<String, MethodStats> e : stats.entrySet()) {
+      for (ScanType scanType : ScanType.values()) {
+        long count = e.getValue().getScans(scanType);
+        if (count > 0) {
+          result.put(e.getKey() + ":" + scanType, count);
+        }
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> get99thPercentileLatencies() {
+    Map<String, Long> result = new HashMap<>();
+    for (Map.Entry<String, MethodStats> e : stats.entrySet()) {
+      result.put(e.getKey(),
+          e.getValue().latency.snapshot().get99thPercentile() / 1000);
+    }
+    return result;
+  }
+
+  @Override
+  public long getLatencyAtPercentile(String method, double percentile) {
+    MethodStats methodStats = stats.get(method);
+    return methodStats == null ? 0 :
+        methodStats.latency.snapshot().getValueAtPercentile(percentile) / 1000;
+  }
+
+  @Override
+  public void reset() {
+    stats.clear();
+  }
+
+  private MethodStats statsFor(String name) {
+    MethodStats methodStats = stats.get(name);
+    if (methodStats == null) {
+      methodStats = new MethodStats();
+      MethodStats existing = stats.putIfAbsent(name, methodStats);
+      if (existing != null) {
+        methodStats = existing;
+      }
+    }
+    return methodStats;
+  }
+
+  private static long countRows(Object result) {
+    if (result == null) {
+      return 0;
+    } else if (result instanceof Collection) {
+      return ((Collection) result).size();
+    } else if (result instanceof Map) {
+      return ((Map) result).size();
+    } else if (result.getClass().isArray()) {
+      return java.lang.reflect.Array.getLength(result);
+    } else {
+      return 1;
+    }
+  }
+
+  private static void recordScans(MethodStats methodStats, CallTrace call) {
+    for (int i = 0; i < call.queries.size(); i++) {
+      try {
+        ScanType scanType = call.queries.get(i).getScanType();
+        call.scanTypes.add(scanType);
+        methodStats.scans.incrementAndGet(scanType.ordinal());
+      } catch (StorageException | RuntimeException e) {
+        call.scanTypes.add(null);
+      }
+    }
+  }
+
+  private void logSlowCall(String name, Object[] args, long elapsed,
+      Object result, CallTrace call) {
+    StringBuilder sb = new StringBuilder("Slow DAL operation ").append(name)
+        .append(" took ").append(elapsed / 1000000L).append(" ms, rows ")
+        .append(countRows(result));
+    if (args != null) {
+      sb.append(", args ").append(Arrays.deepToString(args));
+    }
+    for (int i = 0; i < call.queries.size(); i++) {
+      HopsQuery<?> query = call.queries.get(i);
+      try {
+        sb.append("\n  ").append(call.scanTypes.get(i)).append(" query plan ")
+            .append(query.explain());
+      } catch (StorageException | RuntimeException e) {
+        sb.append("\n  query plan not available: ").append(e.getMessage());
+      }
+    }
+    LOG.warn(sb.toString());
+  }
+
+  /**
+   * Statistics of one DAL method. Latencies are in nanoseconds.
+   */
+  public static class MethodStats {
+    private final LatencyHistogram latency = new LatencyHistogram(true);
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLongArray scans =
+        new AtomicLongArray(ScanType.values().length);
+
+    public HistogramSnapshot getLatency() {
+      return latency.snapshot();
+    }
+
+    public long getRows() {
+      return rows.get();
+    }
+
+    public long getFailures() {
+      return failures.get();
+    }
+
+    public long getScans(ScanType scanType) {
+      return scans.get(scanType.ordinal());
+    }
+  }
+
+  private static class CallTrace {
+    private final List<HopsQuery<?>> queries = new ArrayList<>(2);
+    private final List<ScanType> scanTypes = new ArrayList<>(2);
+  }
+
+  private class TracingHandler implements InvocationHandler {
+    private final EntityDataAccess target;
+    private final String prefix;
+    private final ConcurrentMap<Method, String> names =
+        new ConcurrentHashMap<>();
+
+    TracingHandler(EntityDataAccess target) {
+      this.target = target;
+      Class<?> cls = target.getClass();
+      while (cls.isAnonymousClass()) {
+        cls = cls.getSuperclass();
+      }
+      this.prefix = cls.getSimpleName() + ".";
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      if (!enabled || method.getDeclaringClass() == Object.class) {
+        return invokeTarget(method, args);
+      }
+      String name = names.get(method);
+      if (name == null) {
+        name = prefix + method.getName();
+        names.put(method, name);
+      }
+      MethodStats methodStats = statsFor(name);
+      CallTrace previous = currentCall.get();
+      CallTrace call = new CallTrace();
+      currentCall.set(call);
+      long start = System.nanoTime();
+      try {
+        Object result = invokeTarget(method, args);
+        long elapsed = System.nanoTime() - start;
+        methodStats.latency.record(elapsed);
+        methodStats.rows.addAndGet(countRows(result));
+        recordScans(methodStats, call);
+        if (elapsed >= slowThresholdNanos) {
+          logSlowCall(name, args, elapsed, result, call);
+        }
+        return result;
+      } catch (Throwable t) {
+        methodStats.latency.record(System.nanoTime() - start);
+        methodStats.failures.incrementAndGet();
+        throw t;
+      } finally {
+        if (previous == null) {
+          currentCall.remove();
+        } else {
+          currentCall.set(previous);
+        }
+      }
+    }
+
+    private Object invokeTarget(Method method, Object[] args)
+        throws Throwable {
+      try {
+        return method.invoke(target, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+}
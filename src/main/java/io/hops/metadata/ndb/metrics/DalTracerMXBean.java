@@ -0,0 +1,57 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the per DAL method statistics, registered as
+ * {@value DalTracer#MBEAN_NAME}. Latencies are in microseconds.
+ */
+public interface DalTracerMXBean {
+
+  boolean isEnabled();
+
+  void setEnabled(boolean enabled);
+
+  /**
+   * @return the threshold in ms above which calls are logged
+   */
+  long getSlowThreshold();
+
+  void setSlowThreshold(long millis);
+
+  Map<String, Long> getCallCounts();
+
+  Map<String, Long> getFailureCounts();
+
+  Map<String, Long> getRowsReturned();
+
+  /**
+   * @return the number of queries run per method and scan type, keyed by
+   * method:scanType
+   */
+  Map<String, Long> getScanCounts();
+
+  Map<String, Long> get99thPercentileLatencies();
+
+  long getLatencyAtPercentile(String method, double percentile);
+
+  void reset();
+}
@@ -0,0 +1,59 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.metrics;
+
+import io.hops.exception.ForeignKeyConstraintViolationException;
+import io.hops.exception.OutOfDBExtentsException;
+import io.hops.exception.TransientDeadLockException;
+import io.hops.exception.TransientStorageException;
+import io.hops.exception.TupleAlreadyExistedException;
+import io.hops.exception.UniqueKeyConstraintViolationException;
+
+/**
+ * Classification of the storage failures, as done by
+ * {@link io.hops.metadata.ndb.wrapper.HopsExceptionHelper#wrap}.
+ */
+public enum FailureType {
+  TRANSIENT,
+  DEADLOCK,
+  TUPLE_EXISTS,
+  FOREIGN_KEY_VIOLATION,
+  UNIQUE_KEY_VIOLATION,
+  OUT_OF_DB_EXTENTS,
+  OTHER;
+
+  public static FailureType of(Throwable e) {
+    // TransientDeadLockException is a TransientStorageException, check it first
+    if (e instanceof TransientDeadLockException) {
+      return DEADLOCK;
+    } else if (e instanceof TransientStorageException) {
+      return TRANSIENT;
+    } else if (e instanceof TupleAlreadyExistedException) {
+      return TUPLE_EXISTS;
+    } else if (e instanceof ForeignKeyConstraintViolationException) {
+      return FOREIGN_KEY_VIOLATION;
+    } else if (e instanceof UniqueKeyConstraintViolationException) {
+      return UNIQUE_KEY_VIOLATION;
+    } else if (e instanceof OutOfDBExtentsException) {
+      return OUT_OF_DB_EXTENTS;
+    } else {
+      return OTHER;
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.metrics;
+
+import io.hops.exception.StorageException;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Default registry, keeps one {@link LatencyHistogram} per operation and a
+ * failure counter per operation and {@link FailureType}.
+ * <p/>
+ * In low overhead mode the clock is never read, only the number of
+ * operations and failures is counted.
+ */
+public class HistogramMetricsRegistry implements MetricsRegistry {
+
+  private static final int NB_FAILURE_TYPES = FailureType.values().length;
+
+  private final boolean lowOverhead;
+  private final LatencyHistogram[] latencies;
+  private final AtomicLongArray failures;
+
+  public HistogramMetricsRegistry(boolean lowOverhead) {
+    this.lowOverhead = lowOverhead;
+    Operation[] operations = Operation.values();
+    latencies = new LatencyHistogram[operations.length];
+    for (Operation operation : operations) {
+      latencies[operation.ordinal()] = new LatencyHistogram(!lowOverhead);
+    }
+    failures = new AtomicLongArray(operations.length * NB_FAILURE_TYPES);
+  }
+
+  @Override
+  public long startTimer() {
+    return lowOverhead ? 0 : System.nanoTime();
+  }
+
+  @Override
+  public void stopTimer(Operation operation, long start) {
+    latencies[operation.ordinal()]
+        .record(lowOverhead ? 0 : System.nanoTime() - start);
+  }
+
+  @Override
+  public void recordFailure(Operation operation, StorageException e) {
+    failures.incrementAndGet(
+        operation.ordinal() * NB_FAILURE_TYPES + FailureType.of(e).ordinal());
+  }
+
+  @Override
+  public MetricsSnapshot snapshot() {
+    Map<Operation, HistogramSnapshot> latencySnapshots =
+        new EnumMap<>(Operation.class);
+    Map<Operation, Map<FailureType, Long>> failureSnapshots =
+        new EnumMap<>(Operation.class);
+    for (Operation operation : Operation.values()) {
+      latencySnapshots.put(operation, latencies[operation.ordinal()].snapshot());
+      Map<FailureType, Long> opFailures = new EnumMap<>(FailureType.class);
+      for (FailureType type : FailureType.values()) {
+        long count = failures.get(
+            operation.ordinal() * NB_FAILURE_TYPES + type.ordinal());
+        if (count > 0) {
+          opFailures.put(type, count);
+        }
+      }
+      failureSnapshots.put(operation, opFailures);
+    }
+    return new MetricsSnapshot(latencySnapshots, failureSnapshots);
+  }
+
+  @Override
+  public void reset() {
+    for (LatencyHistogram histogram : latencies) {
+      histogram.reset();
+    }
+    for (int i = 0; i < failures.length(); i++) {
+      failures.set(i, 0);
+    }
+  }
+}
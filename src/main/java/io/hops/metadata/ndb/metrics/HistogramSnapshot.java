@@ -0,0 +1,93 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.metrics;
+
+/**
+ * Point in time copy of a {@link LatencyHistogram}. All values are in
+ * nanoseconds.
+ */
+public class HistogramSnapshot {
+
+  private final long count;
+  private final long sum;
+  private final long max;
+  private final long[] buckets;
+  private final long bucketsTotal;
+
+  HistogramSnapshot(long count, long sum, long max, long[] buckets) {
+    this.count = count;
+    this.sum = sum;
+    this.max = max;
+    this.buckets = buckets;
+    long total = 0;
+    for (long bucket : buckets) {
+      total += bucket;
+    }
+    this.bucketsTotal = total;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  public double getMean() {
+    return count == 0 ? 0 : (double) sum / count;
+  }
+
+  /**
+   * @param percentile
+   *     between 0 and 100
+   * @return the value below which the given percentile of the recorded
+   * values fall, or 0 if the distribution is not tracked
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (bucketsTotal == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil((percentile / 100.0) * bucketsTotal);
+    rank = Math.max(1, Math.min(rank, bucketsTotal));
+    long seen = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      seen += buckets[i];
+      if (seen >= rank) {
+        return Math.min(LatencyHistogram.bucketUpperBound(i), max);
+      }
+    }
+    return max;
+  }
+
+  public long getMedian() {
+    return getValueAtPercentile(50);
+  }
+
+  public long get99thPercentile() {
+    return getValueAtPercentile(99);
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + count + ", mean=" + (long) getMean() + "ns, p50=" +
+        getMedian() + "ns, p99=" + get99thPercentile() + "ns, p999=" +
+        getValueAtPercentile(99.9) + "ns, max=" + max + "ns";
+  }
+}
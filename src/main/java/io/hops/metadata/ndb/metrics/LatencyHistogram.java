@@ -0,0 +1,110 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free, fixed size latency histogram in the spirit of HdrHistogram.
+ * <p/>
+ * Values are kept in log-linear buckets: every power of two is split in 16
+ * linear sub buckets, which bounds the relative error of a reported value to
+ * about 6%. The bucket array is allocated once, recording a value is a handful
+ * of atomic increments and never allocates.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+  private static final int NB_BUCKETS =
+      (64 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS + SUB_BUCKETS;
+
+  private final boolean trackDistribution;
+  private final AtomicLongArray buckets;
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * @param trackDistribution
+   *     if false only the count, sum and max of the values are kept
+   */
+  public LatencyHistogram(boolean trackDistribution) {
+    this.trackDistribution = trackDistribution;
+    this.buckets = new AtomicLongArray(trackDistribution ? NB_BUCKETS : 0);
+  }
+
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long currentMax;
+    while (value > (currentMax = max.get())) {
+      if (max.compareAndSet(currentMax, value)) {
+        break;
+      }
+    }
+    if (trackDistribution) {
+      buckets.incrementAndGet(bucketIndex(value));
+    }
+  }
+
+  public void reset() {
+    for (int i = 0; i < buckets.length(); i++) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  public HistogramSnapshot snapshot() {
+    long[] counts = new long[buckets.length()];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = buckets.get(i);
+    }
+    return new HistogramSnapshot(count.get(), sum.get(), max.get(), counts);
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - (SUB_BUCKET_BITS - 1);
+    int mantissa = (int) (value >>> shift);
+    return shift * HALF_SUB_BUCKETS + mantissa;
+  }
+
+  /**
+   * @return the highest value that falls into the given bucket
+   */
+  static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / HALF_SUB_BUCKETS - 1;
+    long mantissa = index % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+    return ((mantissa + 1) << shift) - 1;
+  }
+}
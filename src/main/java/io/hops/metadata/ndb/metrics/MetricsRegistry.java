@@ -0,0 +1,68 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.metrics;
+
+import io.hops.exception.StorageException;
+
+/**
+ * Collects latencies and failures of the operations done by the ClusterJ
+ * connector. Implementations must be thread safe and should not allocate
+ * when recording.
+ * <p/>
+ * Typical usage
+ * <pre>
+ *   long start = metrics.startTimer();
+ *   try {
+ *     ...
+ *   } catch (StorageException e) {
+ *     metrics.recordFailure(Operation.COMMIT, e);
+ *     throw e;
+ *   } finally {
+ *     metrics.stopTimer(Operation.COMMIT, start);
+ *   }
+ * </pre>
+ */
+public interface MetricsRegistry {
+
+  enum Operation {
+    BEGIN,
+    COMMIT,
+    ROLLBACK,
+    FLUSH,
+    SESSION_ACQUIRE,
+    SESSION_CREATE,
+    // from ClusterjConnector.commitAsync to the completion of the commit
+    ASYNC_COMMIT,
+    // one batch transaction of a GroupCommitter
+    GROUP_COMMIT
+  }
+
+  /**
+   * @return the start time to pass to {@link #stopTimer}
+   */
+  long startTimer();
+
+  void stopTimer(Operation operation, long start);
+
+  void recordFailure(Operation operation, StorageException e);
+
+  MetricsSnapshot snapshot();
+
+  void reset();
+}
@@ -0,0 +1,96 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.metrics;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Point in time copy of the metrics of a {@link MetricsRegistry}.
+ */
+public class MetricsSnapshot {
+
+  private final Map<MetricsRegistry.Operation, HistogramSnapshot> latencies;
+  private final Map<MetricsRegistry.Operation, Map<FailureType, Long>> failures;
+
+  public MetricsSnapshot(
+      Map<MetricsRegistry.Operation, HistogramSnapshot> latencies,
+      Map<MetricsRegistry.Operation, Map<FailureType, Long>> failures) {
+    this.latencies = Collections.unmodifiableMap(latencies);
+    this.failures = Collections.unmodifiableMap(failures);
+  }
+
+  public static MetricsSnapshot empty() {
+    return new MetricsSnapshot(
+        new EnumMap<MetricsRegistry.Operation, HistogramSnapshot>(
+            MetricsRegistry.Operation.class),
+        new EnumMap<MetricsRegistry.Operation, Map<FailureType, Long>>(
+            MetricsRegistry.Operation.class));
+  }
+
+  /**
+   * @return the latencies of the operation or null if it is not tracked
+   */
+  public HistogramSnapshot getLatency(MetricsRegistry.Operation operation) {
+    return latencies.get(operation);
+  }
+
+  public Map<MetricsRegistry.Operation, HistogramSnapshot> getLatencies() {
+    return latencies;
+  }
+
+  public long getFailures(MetricsRegistry.Operation operation,
+      FailureType type) {
+    Map<FailureType, Long> opFailures = failures.get(operation);
+    if (opFailures == null) {
+      return 0;
+    }
+    Long count = opFailures.get(type);
+    return count == null ? 0 : count;
+  }
+
+  /**
+   * @return the number of failures of the given type, all operations
+   * together
+   */
+  public long getFailures(FailureType type) {
+    long total = 0;
+    for (MetricsRegistry.Operation operation : failures.keySet()) {
+      total += getFailures(operation, type);
+    }
+    return total;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<MetricsRegistry.Operation, HistogramSnapshot> e :
+        latencies.entrySet()) {
+      sb.append(e.getKey()).append(": ").append(e.getValue()).append("\n");
+    }
+    for (FailureType type : FailureType.values()) {
+      long count = getFailures(type);
+      if (count > 0) {
+        sb.append(type).append(" failures: ").append(count).append("\n");
+      }
+    }
+    return sb.toString();
+  }
+}
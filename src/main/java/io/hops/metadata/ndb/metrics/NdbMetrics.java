@@ -0,0 +1,158 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.metrics;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Creates the configured {@link MetricsRegistry} and exposes it over JMX.
+ * <p/>
+ * The registry is chosen with {@value #PROPERTY_METRICS}: "none", "counters"
+ * (low overhead, no latencies), "histogram" (default) or the class name of a
+ * {@link MetricsRegistry} implementation with a no argument constructor.
+ */
+public class NdbMetrics implements NdbMetricsMXBean {
+
+  static final Log LOG = LogFactory.getLog(NdbMetrics.class);
+
+  public static final String PROPERTY_METRICS = "io.hops.metadata.ndb.metrics";
+  public static final String MBEAN_NAME =
+      "io.hops.metadata.ndb:type=ConnectorMetrics";
+
+  private final MetricsRegistry registry;
+
+  private NdbMetrics(MetricsRegistry registry) {
+    this.registry = registry;
+  }
+
+  public static MetricsRegistry create(Properties conf) {
+    String type = conf.getProperty(PROPERTY_METRICS, "histogram").trim();
+    if (type.equals("none")) {
+      return NoOpMetricsRegistry.INSTANCE;
+    } else if (type.equals("counters")) {
+      return new HistogramMetricsRegistry(true);
+    } else if (type.equals("histogram")) {
+      return new HistogramMetricsRegistry(false);
+    }
+    try {
+      return (MetricsRegistry) Class.forName(type).newInstance();
+    } catch (ClassNotFoundException | InstantiationException |
+        IllegalAccessException | ClassCastException e) {
+      LOG.warn("Could not instantiate the metrics registry " + type +
+          ", metrics are disabled", e);
+      return NoOpMetricsRegistry.INSTANCE;
+    }
+  }
+
+  /**
+   * Register the registry in the platform MBean server, replacing any
+   * previously registered one.
+   */
+  public static void registerMBean(MetricsRegistry registry) {
+    registerMBean(new NdbMetrics(registry), MBEAN_NAME);
+  }
+
+  public static void registerMBean(Object mbean, String objectName) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(objectName);
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(mbean, name);
+    } catch (Exception e) {
+      LOG.warn("Could not register the MBean " + objectName, e);
+    }
+  }
+
+  @Override
+  public Map<String, Long> getOperationCounts() {
+    Map<String, Long> result = new HashMap<>();
+    for (Map.Entry<MetricsRegistry.Operation, HistogramSnapshot> e :
+        registry.snapshot().getLatencies().entrySet()) {
+      result.put(e.getKey().name(), e.getValue().getCount());
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> getMeanLatencies() {
+    Map<String, Long> result = new HashMap<>();
+    for (Map.Entry<MetricsRegistry.Operation, HistogramSnapshot> e :
+        registry.snapshot().getLatencies().entrySet()) {
+      result.put(e.getKey().name(), toMicros((long) e.getValue().getMean()));
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> get99thPercentileLatencies() {
+    Map<String, Long> result = new HashMap<>();
+    for (Map.Entry<MetricsRegistry.Operation, HistogramSnapshot> e :
+        registry.snapshot().getLatencies().entrySet()) {
+      result.put(e.getKey().name(), toMicros(e.getValue().get99thPercentile()));
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> getMaxLatencies() {
+    Map<String, Long> result = new HashMap<>();
+    for (Map.Entry<MetricsRegistry.Operation, HistogramSnapshot> e :
+        registry.snapshot().getLatencies().entrySet()) {
+      result.put(e.getKey().name(), toMicros(e.getValue().getMax()));
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> getFailureCounts() {
+    MetricsSnapshot snapshot = registry.snapshot();
+    Map<String, Long> result = new HashMap<>();
+    for (FailureType type : FailureType.values()) {
+      result.put(type.name(), snapshot.getFailures(type));
+    }
+    return result;
+  }
+
+  @Override
+  public long getLatencyAtPercentile(String operation, double percentile) {
+    HistogramSnapshot latency = registry.snapshot()
+        .getLatency(MetricsRegistry.Operation.valueOf(operation));
+    return latency == null ? 0 :
+        toMicros(latency.getValueAtPercentile(percentile));
+  }
+
+  @Override
+  public void reset() {
+    registry.reset();
+  }
+
+  private static long toMicros(long nanos) {
+    return nanos / 1000;
+  }
+}
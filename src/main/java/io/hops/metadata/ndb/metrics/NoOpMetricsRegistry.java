@@ -0,0 +1,54 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.metrics;
+
+import io.hops.exception.StorageException;
+
+/**
+ * Registry used when metrics are disabled.
+ */
+public class NoOpMetricsRegistry implements MetricsRegistry {
+
+  public static final NoOpMetricsRegistry INSTANCE = new NoOpMetricsRegistry();
+
+  private NoOpMetricsRegistry() {
+  }
+
+  @Override
+  public long startTimer() {
+    return 0;
+  }
+
+  @Override
+  public void stopTimer(Operation operation, long start) {
+  }
+
+  @Override
+  public void recordFailure(Operation operation, StorageException e) {
+  }
+
+  @Override
+  public MetricsSnapshot snapshot() {
+    return MetricsSnapshot.empty();
+  }
+
+  @Override
+  public void reset() {
+  }
+}
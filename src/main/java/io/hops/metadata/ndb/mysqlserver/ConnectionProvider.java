@@ -0,0 +1,36 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.mysqlserver;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Where {@link MysqlServerConnector} gets its connections from, the pool of
+ * connections to the MySQL Server unless another backend installed its own
+ * with {@link MysqlServerConnector#setConnectionProvider}.
+ */
+public interface ConnectionProvider {
+
+  /**
+   * @return a connection for the calling thread, closed by the connector
+   * once the request is done
+   */
+  Connection getConnection() throws SQLException;
+}
@@ -31,4 +31,10 @@ public class Constants {
       "io.hops.metadata.ndb.mysqlserver.username";
   public static final String PROPERTY_MYSQL_PASSWORD =
       "io.hops.metadata.ndb.mysqlserver.password";
+  public static final String PROPERTY_MYSQL_CACHE_PREPARED_STATEMENTS =
+      "io.hops.metadata.ndb.mysqlserver.cache_prepared_statements";
+  public static final String PROPERTY_MYSQL_PREPARED_STATEMENT_CACHE_SIZE =
+      "io.hops.metadata.ndb.mysqlserver.prepared_statement_cache_size";
+  public static final String PROPERTY_MYSQL_COUNT_CACHE_TTL =
+      "io.hops.metadata.ndb.mysqlserver.count.cache.ttl";
 }
@@ -19,16 +19,12 @@
 package io.hops.metadata.ndb.mysqlserver;
 
 import io.hops.exception.StorageException;
-
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
- * This class is to do count operations using Mysql Server.
+ * This class is to do count operations using Mysql Server, through
+ * {@link MySQLQueryHelper}.
  */
 public class CountHelper {
   static final Log LOG = LogFactory.getLog(CountHelper.class);
@@ -37,29 +33,27 @@ public class CountHelper {
   public static final String COUNT_QUERY_UNIQUE =
       "select count(distinct %s) from %s";
   public static final String COUNT_WHERE = "select count(*) from %s where %s";
-  
-  private static MysqlServerConnector connector =
-      MysqlServerConnector.getInstance();
 
-  public static int countWhere(String tableName, String condition)
-      throws StorageException {
+  /**
+   * @param condition
+   *     the where clause, with a '?' for each of the params
+   */
+  public static int countWhere(String tableName, String condition,
+      Object... params) throws StorageException {
     String query = String.format(COUNT_WHERE, tableName, condition);
-    return count(query);
+    return count(query, params);
   }
 
   /**
    * Counts the number of rows in a given table.
-   * <p/>
-   * This creates and closes connection in every request.
    *
    * @param tableName
    * @return Total number of rows a given table.
    * @throws StorageException
+   * @see MySQLQueryHelper#countAll(String)
    */
   public static int countAll(String tableName) throws StorageException {
-    // TODO[H]: Is it good to create and close connections in every call?
-    String query = String.format(COUNT_QUERY, tableName);
-    return count(query);
+    return MySQLQueryHelper.countAll(tableName);
   }
   
   public static int countAllUnique(String tableName, String columnName)
@@ -68,39 +62,9 @@ public class CountHelper {
     return count(query);
   }
   
-  private static int count(String query) throws StorageException {
-    PreparedStatement s = null;
-    ResultSet result = null;
-    try {
-      Connection conn = connector.obtainSession();
-      s = conn.prepareStatement(query);
-      result = s.executeQuery();
-      if (result.next()) {
-        return result.getInt(1);
-      } else {
-        throw new StorageException(
-            String.format("Count result set is empty. Query: %s", query));
-      }
-    } catch (SQLException ex) {
-      throw new StorageException(ex);
-    } finally {
-
-      if (s != null) {
-        try {
-          s.close();
-        } catch (SQLException ex) {
-          LOG.warn("Exception when closing the PrepareStatement", ex);
-        }
-      }
-      if (result != null) {
-        try {
-          result.close();
-        } catch (SQLException ex) {
-          LOG.warn("Exception when closing the ResultSet", ex);
-        }
-      }
-      connector.closeSession();
-    }
+  private static int count(String query, Object... params)
+      throws StorageException {
+    return MySQLQueryHelper.executeIntAggrQuery(query, params);
   }
 
   /**
@@ -113,12 +77,12 @@ public class CountHelper {
    *     E.g. criterion="id > 100".
    * @return
    */
-  public static int countWithCriterion(String tableName, String criterion)
-      throws StorageException {
+  public static int countWithCriterion(String tableName, String criterion,
+      Object... params) throws StorageException {
     StringBuilder queryBuilder =
         new StringBuilder(String.format(COUNT_QUERY, tableName)).
             append(" where ").
             append(criterion);
-    return count(queryBuilder.toString());
+    return count(queryBuilder.toString(), params);
   }
 }
@@ -20,16 +20,29 @@ package io.hops.metadata.ndb.mysqlserver;
 
 import com.mysql.jdbc.exceptions.MySQLIntegrityConstraintViolationException;
 import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.metrics.HistogramSnapshot;
+import io.hops.metadata.ndb.metrics.LatencyHistogram;
+import io.hops.metadata.ndb.util.LongPairSink;
+import io.hops.metadata.ndb.util.LongSink;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * This class is to do count operations using Mysql Server.
+ * <p/>
+ * The values of the queries are given as bind variables, the '?' of the
+ * query, so that the text of a query does not change from one call to the
+ * next: the connections of {@link MysqlServerConnector} cache the prepared
+ * statements by their text, and the latencies are kept per query text.
  */
 public class MySQLQueryHelper {
   static final Log LOG = LogFactory.getLog(MySQLQueryHelper.class);
@@ -42,23 +55,44 @@ public class MySQLQueryHelper {
   public static final String MIN = "select min(%s) from %s";
   public static final String MAX = "select max(%s) from %s";
   
+  /**
+   * Above this many distinct queries the latencies are kept under
+   * {@link #OTHER_STATEMENTS}, for the callers still inlining their values.
+   */
+  private static final int MAX_TRACKED_STATEMENTS = 1000;
+  public static final String OTHER_STATEMENTS = "other";
+
   private static MysqlServerConnector connector =
       MysqlServerConnector.getInstance();
+  private static final ConcurrentMap<String, LatencyHistogram> latencies =
+      new ConcurrentHashMap<>();
 
   /**
    * Counts the number of rows in a given table.
    * <p/>
-   * This creates and closes connection in every request.
+   * The connection is borrowed from the pool of {@link MysqlServerConnector}
+   * for the time of the request, the statement is cached by the connection.
    *
    * @param tableName
    * @return Total number of rows a given table.
    * @throws io.hops.exception.StorageException
+   * @see #estimateCount(String)
    */
   public static int countAll(String tableName) throws StorageException {
-    // TODO[H]: Is it good to create and close connections in every call?
     String query = String.format(COUNT_QUERY, tableName);
     return executeIntAggrQuery(query);
   }
+
+  /**
+   * Estimates the number of rows in a given table without scanning it, for
+   * the callers that can do with a value up to the ttl of
+   * {@link RowCountEstimator} old.
+   *
+   * @see RowCountEstimator#estimate(String)
+   */
+  public static long estimateCount(String tableName) throws StorageException {
+    return RowCountEstimator.getInstance().estimate(tableName);
+  }
   
   public static int countAllUnique(String tableName, String columnName)
       throws StorageException {
@@ -76,46 +110,47 @@ public class MySQLQueryHelper {
    *     E.g. criterion="id > 100".
    * @return
    */
-  public static int countWithCriterion(String tableName, String criterion)
-      throws StorageException {
+  public static int countWithCriterion(String tableName, String criterion,
+      Object... params) throws StorageException {
     StringBuilder queryBuilder =
         new StringBuilder(String.format(COUNT_QUERY, tableName)).
             append(" where ").
             append(criterion);
-    return executeIntAggrQuery(queryBuilder.toString());
+    return executeIntAggrQuery(queryBuilder.toString(), params);
   }
   
-  public static int countUniqueWithCriterion(String tableName, String columnNames, String criterion)
-      throws StorageException {
+  public static int countUniqueWithCriterion(String tableName, String columnNames, String criterion,
+      Object... params) throws StorageException {
     StringBuilder queryBuilder =
         new StringBuilder(String.format(COUNT_QUERY_UNIQUE, columnNames, tableName)).
             append(" where ").
             append(criterion);
-    return executeIntAggrQuery(queryBuilder.toString());
+    return executeIntAggrQuery(queryBuilder.toString(), params);
   }
   
-  public static boolean exists(String tableName, String criterion)
-      throws StorageException {
+  public static boolean exists(String tableName, String criterion,
+      Object... params) throws StorageException {
     StringBuilder query =
         new StringBuilder(String.format(SELECT_EXISTS_QUERY, tableName));
     query.append(" where ").append(criterion);
-    return executeBooleanQuery(String.format(SELECT_EXISTS, query.toString()));
+    return executeBooleanQuery(String.format(SELECT_EXISTS, query.toString()),
+        params);
   }
 
-  public static long minLong(String tableName, String column, String criterion)
-      throws StorageException {
+  public static long minLong(String tableName, String column, String criterion,
+      Object... params) throws StorageException {
     StringBuilder query =
         new StringBuilder(String.format(MIN, column, tableName));
     query.append(" where ").append(criterion);
-    return executeLongAggrQuery(query.toString());
+    return executeLongAggrQuery(query.toString(), params);
   }
   
-  public static long maxLong(String tableName, String column, String criterion)
-      throws StorageException {
+  public static long maxLong(String tableName, String column, String criterion,
+      Object... params) throws StorageException {
     StringBuilder query =
         new StringBuilder(String.format(MAX, column, tableName));
     query.append(" where ").append(criterion);
-    return executeLongAggrQuery(query.toString());
+    return executeLongAggrQuery(query.toString(), params);
   }
 
   public static long maxLong(String tableName, String column)
@@ -125,7 +160,7 @@ public class MySQLQueryHelper {
     return executeLongAggrQuery(query.toString());
   }
   
-  public static int executeIntAggrQuery(final String query)
+  public static int executeIntAggrQuery(final String query, Object... params)
       throws StorageException {
     return execute(query, new ResultSetHandler<Integer>() {
       @Override
@@ -136,10 +171,10 @@ public class MySQLQueryHelper {
         }
         return result.getInt(1);
       }
-    });
+    }, params);
   }
   
-    public static long executeLongAggrQuery(final String query)
+    public static long executeLongAggrQuery(final String query, Object... params)
       throws StorageException {
     return execute(query, new ResultSetHandler<Long>() {
       @Override
@@ -150,11 +185,11 @@ public class MySQLQueryHelper {
         }
         return result.getLong(1);
       }
-    });
+    }, params);
   }
     
-  private static boolean executeBooleanQuery(final String query)
-      throws StorageException {
+  private static boolean executeBooleanQuery(final String query,
+      Object... params) throws StorageException {
     return execute(query, new ResultSetHandler<Boolean>() {
       @Override
       public Boolean handle(ResultSet result) throws SQLException, StorageException {
@@ -164,14 +199,16 @@ public class MySQLQueryHelper {
         }
         return result.getBoolean(1);
       }
-    });
+    }, params);
   }
 
-  public static int execute(String query) throws StorageException {
+  public static int execute(String query, Object... params)
+      throws StorageException {
     PreparedStatement s = null;
+    long start = System.nanoTime();
     try {
       Connection conn = connector.obtainSession();
-      s = conn.prepareStatement(query);
+      s = prepare(conn, query, params);
       return s.executeUpdate();
     } catch (SQLException ex) {
       throw HopsSQLExceptionHelper.wrap(ex);
@@ -184,6 +221,7 @@ public class MySQLQueryHelper {
         }
       }
       connector.closeSession();
+      record(query, start);
     }
   }
 
@@ -191,13 +229,81 @@ public class MySQLQueryHelper {
     R handle(ResultSet result) throws SQLException, StorageException;
   }
 
-  public static <R> R execute(String query, ResultSetHandler<R> handler)
-      throws StorageException {
+  public static <R> R execute(String query, ResultSetHandler<R> handler,
+      Object... params) throws StorageException {
+    return execute(query, handler, false, params);
+  }
+
+  /**
+   * Run a query whose result is streamed: the driver reads the rows from the
+   * server as the handler moves through the result instead of buffering all
+   * of them first, so the memory used does not grow with the size of the
+   * result. The handler must not run other queries on the MySQL Server, the
+   * connection is busy until the whole result is read.
+   */
+  public static <R> R executeStreaming(String query,
+      ResultSetHandler<R> handler, Object... params) throws StorageException {
+    return execute(query, handler, true, params);
+  }
+
+  /**
+   * Stream the first column of the rows of a query to the sink.
+   *
+   * @return the number of rows
+   */
+  public static int streamLongs(String query, final LongSink sink,
+      Object... params) throws StorageException {
+    return executeStreaming(query, new ResultSetHandler<Integer>() {
+      @Override
+      public Integer handle(ResultSet result)
+          throws SQLException, StorageException {
+        int rows = 0;
+        while (result.next()) {
+          sink.accept(result.getLong(1));
+          rows++;
+        }
+        return rows;
+      }
+    }, params);
+  }
+
+  /**
+   * Stream the first two columns of the rows of a query to the sink.
+   *
+   * @return the number of rows
+   */
+  public static int streamLongPairs(String query, final LongPairSink sink,
+      Object... params) throws StorageException {
+    return executeStreaming(query, new ResultSetHandler<Integer>() {
+      @Override
+      public Integer handle(ResultSet result)
+          throws SQLException, StorageException {
+        int rows = 0;
+        while (result.next()) {
+          sink.accept(result.getLong(1), result.getLong(2));
+          rows++;
+        }
+        return rows;
+      }
+    }, params);
+  }
+
+  private static <R> R execute(String query, ResultSetHandler<R> handler,
+      boolean streaming, Object... params) throws StorageException {
+    long start = System.nanoTime();
     try {
       PreparedStatement s = null;
       try {
         Connection conn = connector.obtainSession();
-        s = conn.prepareStatement(query);
+        if (streaming) {
+          s = conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY,
+              ResultSet.CONCUR_READ_ONLY);
+          // Connector/J streams the rows one at a time with this fetch size
+          s.setFetchSize(Integer.MIN_VALUE);
+          bind(s, params);
+        } else {
+          s = prepare(conn, query, params);
+        }
         ResultSet result = s.executeQuery();
         return handler.handle(result);
       } catch (SQLException ex) {
@@ -208,10 +314,64 @@ public class MySQLQueryHelper {
         }
 
         connector.closeSession();
+        record(query, start);
       }
     } catch (SQLException ex) {
       throw new StorageException(ex);
     }
   }
 
+  /**
+   * Prepare the statement and bind its variables. Closing the statement
+   * returns it to the statement cache of the connection.
+   */
+  private static PreparedStatement prepare(Connection conn, String query,
+      Object... params) throws SQLException {
+    PreparedStatement s = conn.prepareStatement(query);
+    bind(s, params);
+    return s;
+  }
+
+  private static void bind(PreparedStatement s, Object... params)
+      throws SQLException {
+    for (int i = 0; i < params.length; i++) {
+      s.setObject(i + 1, params[i]);
+    }
+  }
+
+  private static void record(String query, long startNanos) {
+    long nanos = System.nanoTime() - startNanos;
+    LatencyHistogram histogram = latencies.get(query);
+    if (histogram == null) {
+      String key = query;
+      if (latencies.size() >= MAX_TRACKED_STATEMENTS) {
+        key = OTHER_STATEMENTS;
+        histogram = latencies.get(OTHER_STATEMENTS);
+      }
+      if (histogram == null) {
+        histogram = new LatencyHistogram(true);
+        LatencyHistogram existing = latencies.putIfAbsent(key, histogram);
+        if (existing != null) {
+          histogram = existing;
+        }
+      }
+    }
+    histogram.record(nanos);
+  }
+
+  /**
+   * @return the latencies in nanoseconds of the queries run through this
+   * class, keyed by query text
+   */
+  public static Map<String, HistogramSnapshot> getStatementLatencies() {
+    Map<String, HistogramSnapshot> result = new HashMap<>();
+    for (Map.Entry<String, LatencyHistogram> e : latencies.entrySet()) {
+      result.put(e.getKey(), e.getValue().snapshot());
+    }
+    return result;
+  }
+
+  public static void resetStatementLatencies() {
+    latencies.clear();
+  }
 }
@@ -36,6 +36,10 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -55,6 +59,7 @@ public class MysqlServerConnector implements StorageConnector<Connection> {
    */
   private static volatile HikariDataSource connectionPool;
   private ThreadLocal<Connection> connection = new ThreadLocal<>();
+  private volatile ConnectionProvider connectionProvider = null;
 
   public static MysqlServerConnector getInstance() {
     return instance;
@@ -63,6 +68,24 @@ public class MysqlServerConnector implements StorageConnector<Connection> {
   @Override
   public void setConfiguration(Properties conf) throws StorageException {
     this.conf = conf;
+    RowCountEstimator.getInstance().setConfiguration(conf);
+  }
+
+  /**
+   * Serve the connections from the given provider instead of the pool of
+   * connections to the MySQL Server, for the backends that are not MySQL
+   * Cluster.
+   */
+  public void setConnectionProvider(ConnectionProvider connectionProvider) {
+    this.connectionProvider = connectionProvider;
+  }
+
+  /**
+   * @return the provider set by {@link #setConnectionProvider}, null if the
+   * connections come from the pool
+   */
+  public ConnectionProvider getConnectionProvider() {
+    return connectionProvider;
   }
 
   private void initializeConnectionPool(Properties conf) {
@@ -81,6 +104,18 @@ public class MysqlServerConnector implements StorageConnector<Connection> {
             io.hops.metadata.ndb.mysqlserver.Constants.PROPERTY_MYSQL_USERNAME));
     config.addDataSourceProperty("password", conf.getProperty(
             io.hops.metadata.ndb.mysqlserver.Constants.PROPERTY_MYSQL_PASSWORD));
+    if (Boolean.parseBoolean(conf.getProperty(
+        io.hops.metadata.ndb.mysqlserver.Constants.PROPERTY_MYSQL_CACHE_PREPARED_STATEMENTS,
+        "true"))) {
+      // the statements are cached per physical connection, closeSession only
+      // returns the connection to the pool so they outlive it
+      config.addDataSourceProperty("cachePrepStmts", "true");
+      config.addDataSourceProperty("useServerPrepStmts", "true");
+      config.addDataSourceProperty("prepStmtCacheSize", conf.getProperty(
+          io.hops.metadata.ndb.mysqlserver.Constants.PROPERTY_MYSQL_PREPARED_STATEMENT_CACHE_SIZE,
+          "250"));
+      config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+    }
 
     connectionPool = new HikariDataSource(config);
   }
@@ -89,9 +124,10 @@ public class MysqlServerConnector implements StorageConnector<Connection> {
   public Connection obtainSession() throws StorageException {
     Connection conn = connection.get();
     if (conn == null) {
-      HikariDataSource connectionPool = getConnectionPool();
+      ConnectionProvider provider = connectionProvider;
       try {
-        conn = connectionPool.getConnection();
+        conn = provider != null ? provider.getConnection() :
+            getConnectionPool().getConnection();
         connection.set(conn);
       } catch (SQLException ex) {
         throw HopsSQLExceptionHelper.wrap(ex);
@@ -159,19 +195,7 @@ public class MysqlServerConnector implements StorageConnector<Connection> {
             }
           }
         } else {
-          int nbrows = 0;
-          do {
-            PreparedStatement s = null;
-            try {
-             String query = "delete from " + tableName + " limit 1000";
-             s = conn.prepareStatement(query);
-             nbrows = s.executeUpdate();
-            } finally {
-              if (s != null) {
-                s.close();
-              }
-            }
-          } while (nbrows > 0);
+          deleteAll(conn, tableName);
         }
       } else {
         PreparedStatement s = null;
@@ -190,6 +214,58 @@ public class MysqlServerConnector implements StorageConnector<Connection> {
     }
   }
   
+  /**
+   * Delete all the rows of a partition of a table, 1000 rows per
+   * transaction.
+   */
+  public static void truncatePartition(String tableName, String partition)
+          throws StorageException, SQLException {
+    MysqlServerConnector connector = MysqlServerConnector.getInstance();
+    try {
+      deleteAll(connector.obtainSession(),
+          tableName + " partition (" + partition + ")");
+    } finally {
+      connector.closeSession();
+    }
+  }
+
+  private static void deleteAll(Connection conn, String from)
+          throws SQLException {
+    int nbrows = 0;
+    do {
+      PreparedStatement s = null;
+      try {
+        String query = "delete from " + from + " limit 1000";
+        s = conn.prepareStatement(query);
+        nbrows = s.executeUpdate();
+      } finally {
+        if (s != null) {
+          s.close();
+        }
+      }
+    } while (nbrows > 0);
+  }
+
+  /**
+   * @return the names of the partitions of a table of the database
+   */
+  public static List<String> getPartitions(String tableName)
+          throws StorageException {
+    return MySQLQueryHelper.execute("SELECT partition_name FROM " +
+            "information_schema.partitions WHERE table_schema = database() " +
+            "AND table_name = ? AND partition_name IS NOT NULL",
+        new MySQLQueryHelper.ResultSetHandler<List<String>>() {
+          @Override
+          public List<String> handle(ResultSet result) throws SQLException {
+            List<String> partitions = new ArrayList<>();
+            while (result.next()) {
+              partitions.add(result.getString(1));
+            }
+            return partitions;
+          }
+        }, tableName);
+  }
+
   @Override
   public void returnSession(boolean error) throws StorageException {
     throw new UnsupportedOperationException("Not supported yet.");
@@ -322,4 +398,33 @@ public class MysqlServerConnector implements StorageConnector<Connection> {
           }
         });
   }
+
+  /**
+   * Estimate the number of rows of the tables of the database from the
+   * fragment statistics of the data nodes, without scanning them. A fragment
+   * is counted once per replica, hence the division by the average number of
+   * replicas of the fragments of a table.
+   *
+   * @return the estimated number of rows by table name
+   */
+  public static Map<String, Long> getRowCounts() throws StorageException {
+    return MySQLQueryHelper.execute("SELECT " +
+            "SUBSTRING_INDEX(fq_name, '/', -1) AS table_name, " +
+            "SUM(fixed_elem_count) * COUNT(DISTINCT fragment_num) / COUNT(*) " +
+            "AS row_count FROM ndbinfo.memory_per_fragment " +
+            "WHERE type = 'User table' AND fq_name LIKE CONCAT(database(), '/def/%') " +
+            "GROUP BY fq_name",
+        new MySQLQueryHelper.ResultSetHandler<Map<String, Long>>() {
+          @Override
+          public Map<String, Long> handle(ResultSet result)
+              throws SQLException {
+            Map<String, Long> counts = new HashMap<>();
+            while (result.next()) {
+              counts.put(result.getString("table_name"),
+                  result.getLong("row_count"));
+            }
+            return counts;
+          }
+        });
+  }
 }
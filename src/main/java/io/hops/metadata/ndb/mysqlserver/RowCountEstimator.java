@@ -0,0 +1,99 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.mysqlserver;
+
+import io.hops.exception.StorageException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Estimated number of rows of the tables, from the fragment statistics of
+ * the data nodes ({@link MysqlServerConnector#getRowCounts()}) instead of a
+ * count(*) scanning the whole table. The statistics of all the tables are
+ * read in one query and kept for ttl ms, so an estimate misses the rows
+ * added and removed in the last ttl ms. The cached statistics are only
+ * dropped when the tables are emptied.
+ * <p/>
+ * The estimates are served by {@link MySQLQueryHelper#estimateCount} only,
+ * {@link MySQLQueryHelper#countAll} always counts the rows.
+ */
+public class RowCountEstimator {
+  static final Log LOG = LogFactory.getLog(RowCountEstimator.class);
+  private final static RowCountEstimator instance = new RowCountEstimator();
+
+  private volatile long ttl = 60000;
+  private volatile Map<String, Long> rowCounts = null;
+  private volatile long loadedAt = 0;
+
+  public static RowCountEstimator getInstance() {
+    return instance;
+  }
+
+  void setConfiguration(Properties conf) {
+    ttl = Long.parseLong(conf.getProperty(
+        Constants.PROPERTY_MYSQL_COUNT_CACHE_TTL, "60000"));
+    invalidate();
+  }
+
+  /**
+   * @return the estimated number of rows of a table, at most ttl ms old. The
+   * tables the data nodes have no statistics for are counted exactly.
+   */
+  public long estimate(String tableName) throws StorageException {
+    Long count = getRowCounts().get(tableName);
+    if (count == null) {
+      return MySQLQueryHelper.countAll(tableName);
+    }
+    return count;
+  }
+
+  /**
+   * Drop the cached statistics, the next estimate reads them again. Called
+   * when the tables are emptied.
+   */
+  public void invalidate() {
+    rowCounts = null;
+  }
+
+  private Map<String, Long> getRowCounts() throws StorageException {
+    Map<String, Long> counts = rowCounts;
+    if (counts != null && System.currentTimeMillis() - loadedAt < ttl) {
+      return counts;
+    }
+    synchronized (this) {
+      counts = rowCounts;
+      if (counts == null || System.currentTimeMillis() - loadedAt >= ttl) {
+        long start = System.currentTimeMillis();
+        counts = Collections.unmodifiableMap(
+            MysqlServerConnector.getRowCounts());
+        loadedAt = System.currentTimeMillis();
+        rowCounts = counts;
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Read the row counts of " + counts.size() + " tables in " +
+              (loadedAt - start) + " ms");
+        }
+      }
+      return counts;
+    }
+  }
+}
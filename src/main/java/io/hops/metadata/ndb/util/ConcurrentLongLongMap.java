@@ -0,0 +1,297 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.util;
+
+import io.hops.exception.StorageException;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A thread safe long to long map: the keys are spread over segments, each a
+ * {@link LongLongMap} guarded by its own lock, so that the entries are not
+ * boxed and the threads using different segments do not wait for each
+ * other. For the DAL methods returning a Map<Long, Long> their callers
+ * share between threads.
+ * <p/>
+ * The iterators are weakly consistent: they return the entries of a segment
+ * as they were when the iteration reached it, and never throw
+ * {@link java.util.ConcurrentModificationException}.
+ */
+public class ConcurrentLongLongMap extends AbstractMap<Long, Long>
+    implements ConcurrentMap<Long, Long>, LongPairSink {
+
+  private static final int SEGMENT_BITS = 4;
+
+  private final LongLongMap[] segments = new LongLongMap[1 << SEGMENT_BITS];
+  private Set<Map.Entry<Long, Long>> entrySet = null;
+
+  public ConcurrentLongLongMap() {
+    this(0);
+  }
+
+  /**
+   * @param expectedSize
+   *     the number of entries the map holds without growing
+   */
+  public ConcurrentLongLongMap(int expectedSize) {
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new LongLongMap(expectedSize / segments.length);
+    }
+  }
+
+  /**
+   * The segment is chosen by the high bits of a hash other than the one of
+   * {@link LongLongMap}, which places the keys by its low bits.
+   */
+  private LongLongMap segment(long key) {
+    return segments[(int) ((key * 0xC2B2AE3D27D4EB4FL) >>> (64 -
+        SEGMENT_BITS))];
+  }
+
+  @Override
+  public void accept(long key, long value) {
+    put(key, value);
+  }
+
+  /**
+   * @return true if the key was not in the map
+   */
+  public boolean put(long key, long value) {
+    LongLongMap segment = segment(key);
+    synchronized (segment) {
+      return segment.put(key, value);
+    }
+  }
+
+  /**
+   * @return the value of the key, missing if it is not in the map
+   */
+  public long get(long key, long missing) {
+    LongLongMap segment = segment(key);
+    synchronized (segment) {
+      return segment.get(key, missing);
+    }
+  }
+
+  public boolean containsKey(long key) {
+    LongLongMap segment = segment(key);
+    synchronized (segment) {
+      return segment.containsKey(key);
+    }
+  }
+
+  /**
+   * @return true if the key was in the map
+   */
+  public boolean remove(long key) {
+    LongLongMap segment = segment(key);
+    synchronized (segment) {
+      return segment.remove(key);
+    }
+  }
+
+  /**
+   * Hand all the entries to the sink, without boxing them, one segment at a
+   * time with its lock held.
+   */
+  public void forEach(LongPairSink sink) throws StorageException {
+    for (LongLongMap segment : segments) {
+      synchronized (segment) {
+        segment.forEach(sink);
+      }
+    }
+  }
+
+  @Override
+  public int size() {
+    int size = 0;
+    for (LongLongMap segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public void clear() {
+    for (LongLongMap segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  @Override
+  public Long get(Object key) {
+    if (!(key instanceof Long)) {
+      return null;
+    }
+    LongLongMap segment = segment((Long) key);
+    synchronized (segment) {
+      return segment.get(key);
+    }
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof Long && containsKey(((Long) key).longValue());
+  }
+
+  @Override
+  public Long put(Long key, Long value) {
+    LongLongMap segment = segment(key);
+    synchronized (segment) {
+      return segment.put(key, value);
+    }
+  }
+
+  @Override
+  public Long remove(Object key) {
+    if (!(key instanceof Long)) {
+      return null;
+    }
+    LongLongMap segment = segment((Long) key);
+    synchronized (segment) {
+      return segment.remove(key);
+    }
+  }
+
+  @Override
+  public Long putIfAbsent(Long key, Long value) {
+    LongLongMap segment = segment(key);
+    synchronized (segment) {
+      Long previous = segment.get(key);
+      if (previous == null) {
+        segment.put(key.longValue(), value.longValue());
+      }
+      return previous;
+    }
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    if (!(key instanceof Long) || !(value instanceof Long)) {
+      return false;
+    }
+    LongLongMap segment = segment((Long) key);
+    synchronized (segment) {
+      if (value.equals(segment.get(key))) {
+        return segment.remove(((Long) key).longValue());
+      }
+      return false;
+    }
+  }
+
+  @Override
+  public boolean replace(Long key, Long oldValue, Long newValue) {
+    LongLongMap segment = segment(key);
+    synchronized (segment) {
+      if (oldValue.equals(segment.get(key))) {
+        segment.put(key.longValue(), newValue.longValue());
+        return true;
+      }
+      return false;
+    }
+  }
+
+  @Override
+  public Long replace(Long key, Long value) {
+    LongLongMap segment = segment(key);
+    synchronized (segment) {
+      Long previous = segment.get(key);
+      if (previous != null) {
+        segment.put(key.longValue(), value.longValue());
+      }
+      return previous;
+    }
+  }
+
+  @Override
+  public Set<Map.Entry<Long, Long>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new AbstractSet<Map.Entry<Long, Long>>() {
+        @Override
+        public Iterator<Map.Entry<Long, Long>> iterator() {
+          return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+          return ConcurrentLongLongMap.this.size();
+        }
+
+        @Override
+        public void clear() {
+          ConcurrentLongLongMap.this.clear();
+        }
+      };
+    }
+    return entrySet;
+  }
+
+  /**
+   * Copies the entries of a segment when it reaches it, the removals go to
+   * the map.
+   */
+  private class EntryIterator implements Iterator<Map.Entry<Long, Long>> {
+    private int segment = 0;
+    private List<Map.Entry<Long, Long>> entries = new ArrayList<>();
+    private int pos = 0;
+    private Map.Entry<Long, Long> last = null;
+
+    @Override
+    public boolean hasNext() {
+      while (pos == entries.size() && segment < segments.length) {
+        LongLongMap next = segments[segment++];
+        synchronized (next) {
+          entries = new ArrayList<>(next.entrySet());
+        }
+        pos = 0;
+      }
+      return pos < entries.size();
+    }
+
+    @Override
+    public Map.Entry<Long, Long> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      last = entries.get(pos++);
+      return last;
+    }
+
+    @Override
+    public void remove() {
+      if (last == null) {
+        throw new IllegalStateException();
+      }
+      ConcurrentLongLongMap.this.remove(last.getKey());
+      last = null;
+    }
+  }
+}
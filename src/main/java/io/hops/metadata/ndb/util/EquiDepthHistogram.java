@@ -0,0 +1,221 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.util;
+
+import java.util.Arrays;
+
+/**
+ * Order statistics of a set of longs, such as the block ids of a storage.
+ * <p/>
+ * When the sample it is built from holds all the values the histogram keeps
+ * them in a sorted array, the ranks are exact and stay exact through
+ * {@link #add} and {@link #remove}.
+ * <p/>
+ * Otherwise it is an equi-depth histogram: the lower bounds of the buckets
+ * and the number of values of each bucket in a Fenwick tree, so that the
+ * value of a rank and the updates take O(log buckets). The value of a rank
+ * is the bound nearest to it, so that only values of the sample are
+ * returned. For a uniform sample the ranks are then off by less than
+ * 1.36 * count / sqrt(buckets) with probability 0.95 (the Kolmogorov-Smirnov
+ * bound), 2.1% of the values with 4096 buckets. Values added above the
+ * largest value are counted in the last bucket. The other changes cannot be
+ * placed among the sampled values, they make the histogram dirty and it
+ * should be built again.
+ * <p/>
+ * Not thread safe, except for {@link #isDirty()}.
+ */
+public class EquiDepthHistogram {
+
+  // the values, when the sample holds all of them
+  private long[] values;
+  private int size;
+  private final int capacity;
+
+  private final long[] bounds;
+  private final long[] counts;
+  private final long[] tree;
+  private long max;
+  private long total = 0;
+
+  private volatile boolean dirty = false;
+
+  /**
+   * @param sortedSample
+   *     a sorted sample of the values, not empty
+   * @param min
+   *     the smallest of the values
+   * @param max
+   *     the largest of the values
+   * @param total
+   *     the number of values
+   */
+  public EquiDepthHistogram(long[] sortedSample, long min, long max,
+      long total) {
+    int buckets = sortedSample.length;
+    if (buckets == 0) {
+      throw new IllegalArgumentException("Empty sample");
+    }
+    if (buckets >= total) {
+      values = distinct(sortedSample);
+      size = values.length;
+      capacity = 2 * buckets;
+      bounds = null;
+      counts = null;
+      tree = null;
+      return;
+    }
+    capacity = 0;
+    bounds = Arrays.copyOf(sortedSample, buckets);
+    bounds[0] = Math.min(min, bounds[0]);
+    counts = new long[buckets];
+    tree = new long[buckets + 1];
+    this.max = Math.max(max, bounds[buckets - 1]);
+    for (int i = 0; i < buckets; i++) {
+      add(i, total * (i + 1) / buckets - total * i / buckets);
+    }
+  }
+
+  /**
+   * @return the number of values
+   */
+  public long count() {
+    return values != null ? size : total;
+  }
+
+  /**
+   * @return true if the ranks are exact
+   */
+  public boolean isExact() {
+    return values != null;
+  }
+
+  /**
+   * @return true if the histogram was changed in a way it cannot follow and
+   * should be built again
+   */
+  public boolean isDirty() {
+    return dirty;
+  }
+
+  public void add(long value) {
+    if (values != null) {
+      int pos = Arrays.binarySearch(values, 0, size, value);
+      if (pos >= 0) {
+        return;
+      }
+      pos = -pos - 1;
+      if (size == values.length) {
+        values = Arrays.copyOf(values, Math.max(1, 2 * size));
+      }
+      System.arraycopy(values, pos, values, pos + 1, size - pos);
+      values[pos] = value;
+      size++;
+      if (size > capacity) {
+        // larger than the sample it was built from, sample it again
+        dirty = true;
+      }
+    } else if (value > max) {
+      max = value;
+      add(counts.length - 1, 1);
+    } else {
+      dirty = true;
+    }
+  }
+
+  public void remove(long value) {
+    if (values != null) {
+      int pos = Arrays.binarySearch(values, 0, size, value);
+      if (pos >= 0) {
+        System.arraycopy(values, pos + 1, values, pos, size - pos - 1);
+        size--;
+      }
+    } else if (value >= bounds[0] && value <= max) {
+      dirty = true;
+    }
+  }
+
+  /**
+   * @param rank
+   *     between 1 and {@link #count()}
+   * @return the rank-th smallest value, one of the values of the sample if
+   * the histogram is not exact
+   * @throws IllegalArgumentException
+   *     if the rank is out of range
+   */
+  public long valueAt(long rank) {
+    if (rank < 1 || rank > count()) {
+      throw new IllegalArgumentException("Rank " + rank + " out of [1, " +
+          count() + "]");
+    }
+    if (values != null) {
+      return values[(int) rank - 1];
+    }
+    // the largest prefix of buckets holding less than rank values
+    int bucket = 0;
+    long before = 0;
+    for (int step = Integer.highestOneBit(counts.length); step > 0;
+         step >>= 1) {
+      int next = bucket + step;
+      if (next <= counts.length && before + tree[next] < rank) {
+        bucket = next;
+        before += tree[next];
+      }
+    }
+    long offset = rank - before - 1;
+    if (2 * offset >= counts[bucket] && bucket + 1 < bounds.length) {
+      return bounds[bucket + 1];
+    }
+    return bounds[bucket];
+  }
+
+  /**
+   * @return the values splitting the values in parts of equal size, parts - 1
+   * of them
+   */
+  public long[] splitPoints(int parts) {
+    if (parts < 1) {
+      throw new IllegalArgumentException("Parts " + parts);
+    }
+    long total = count();
+    long[] points = new long[Math.max(0, (int) Math.min(parts - 1, total))];
+    for (int i = 0; i < points.length; i++) {
+      points[i] = valueAt(Math.max(1, total * (i + 1) / parts));
+    }
+    return points;
+  }
+
+  private static long[] distinct(long[] sorted) {
+    int n = 0;
+    long[] distinct = new long[sorted.length];
+    for (int i = 0; i < sorted.length; i++) {
+      if (i == 0 || sorted[i] != sorted[i - 1]) {
+        distinct[n++] = sorted[i];
+      }
+    }
+    return Arrays.copyOf(distinct, n);
+  }
+
+  private void add(int bucket, long delta) {
+    counts[bucket] += delta;
+    total += delta;
+    for (int i = bucket + 1; i < tree.length; i += i & -i) {
+      tree[i] += delta;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.util;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A set of longs stored as the keys of a {@link LongLongMap}, for the DAL
+ * methods returning a Set<Long>.
+ * <p/>
+ * Not thread safe.
+ */
+public class LongHashSet extends AbstractSet<Long> implements LongSink {
+
+  private final LongLongMap map;
+
+  public LongHashSet() {
+    map = new LongLongMap();
+  }
+
+  public LongHashSet(int expectedSize) {
+    map = new LongLongMap(expectedSize);
+  }
+
+  @Override
+  public void accept(long value) {
+    add(value);
+  }
+
+  public boolean add(long value) {
+    return map.put(value, 0);
+  }
+
+  public boolean contains(long value) {
+    return map.containsKey(value);
+  }
+
+  public boolean remove(long value) {
+    return map.remove(value);
+  }
+
+  @Override
+  public boolean add(Long value) {
+    return add(value.longValue());
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return map.containsKey(o);
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    return o instanceof Long && remove(((Long) o).longValue());
+  }
+
+  @Override
+  public Iterator<Long> iterator() {
+    final Iterator<Map.Entry<Long, Long>> entries = map.entrySet().iterator();
+    return new Iterator<Long>() {
+      @Override
+      public boolean hasNext() {
+        return entries.hasNext();
+      }
+
+      @Override
+      public Long next() {
+        return entries.next().getKey();
+      }
+
+      @Override
+      public void remove() {
+        entries.remove();
+      }
+    };
+  }
+
+  @Override
+  public int size() {
+    return map.size();
+  }
+
+  @Override
+  public void clear() {
+    map.clear();
+  }
+}
@@ -0,0 +1,314 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded long to long cache, thread safe, that also remembers the keys
+ * known to have no value. The entries are kept in primitive arrays, 4 ways
+ * per set: a key can only be in the 4 slots of the set its hash selects, and
+ * a new key replaces the entry of the set that expires first. Entries are
+ * dropped once their time to live has passed, the keys with no value
+ * usually live much shorter than the others.
+ * <p/>
+ * A cache of capacity 0 is disabled: it caches nothing and every get is a
+ * miss.
+ * <p/>
+ * A reader that loads the values it did not find takes a {@link #stamp()}
+ * before reading them and puts them with it: the values of the keys
+ * invalidated in the meantime are not cached, as the reader may have read
+ * them before the write that invalidated them.
+ */
+public class LongLongCache implements LongLongCacheMXBean {
+
+  /**
+   * Returned by {@link #get} for the keys that are not cached.
+   */
+  public static final long ABSENT = Long.MIN_VALUE;
+  /**
+   * Returned by {@link #get} for the keys cached as having no value.
+   */
+  public static final long MISSING = Long.MIN_VALUE + 1;
+
+  private static final int WAYS = 4;
+  private static final int LOCKS = 64;
+
+  private static class Table {
+    private final long[] keys;
+    private final long[] values;
+    /**
+     * Expiry time of the slot in ms, 0 for the empty slots.
+     */
+    private final long[] expiries;
+    private final int setMask;
+
+    Table(int capacity) {
+      int sets = capacity == 0 ? 0 :
+          Integer.highestOneBit(Math.max(1, (capacity - 1) / WAYS)) << 1;
+      keys = new long[sets * WAYS];
+      values = new long[sets * WAYS];
+      expiries = new long[sets * WAYS];
+      setMask = sets - 1;
+    }
+  }
+
+  private final Object[] locks = new Object[LOCKS];
+  /**
+   * Number of invalidations per lock.
+   */
+  private final AtomicLongArray stamps = new AtomicLongArray(LOCKS);
+  private volatile Table table = new Table(0);
+  private volatile long ttl = 0;
+  private volatile long missingTtl = 0;
+
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong missingHits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong evictions = new AtomicLong(0);
+  private final AtomicLong invalidations = new AtomicLong(0);
+
+  public LongLongCache() {
+    for (int i = 0; i < LOCKS; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  /**
+   * Resize the cache, dropping its entries.
+   *
+   * @param capacity
+   *     the number of entries, rounded up to a power of two. 0 disables the
+   *     cache
+   * @param ttl
+   *     time in ms the values are cached
+   * @param missingTtl
+   *     time in ms the keys with no value are cached, 0 to not cache them
+   */
+  public void configure(int capacity, long ttl, long missingTtl) {
+    if (capacity < 0 || ttl < 0 || missingTtl < 0) {
+      throw new IllegalArgumentException("Capacity " + capacity + ", ttl " +
+          ttl + ", missing ttl " + missingTtl);
+    }
+    this.ttl = ttl;
+    this.missingTtl = missingTtl;
+    this.table = new Table(ttl == 0 ? 0 : capacity);
+  }
+
+  public boolean isEnabled() {
+    return table.keys.length > 0;
+  }
+
+  @Override
+  public int getCapacity() {
+    return table.keys.length;
+  }
+
+  private static int set(Table table, long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & table.setMask;
+  }
+
+  private Object lock(int set) {
+    return locks[set & (LOCKS - 1)];
+  }
+
+  /**
+   * @return the state of the invalidations, to pass to the puts of the
+   * values read after this call
+   */
+  public long[] stamp() {
+    long[] stamp = new long[LOCKS];
+    for (int i = 0; i < LOCKS; i++) {
+      stamp[i] = stamps.get(i);
+    }
+    return stamp;
+  }
+
+  /**
+   * Look up the keys in the cache.
+   *
+   * @param values
+   *     receives the value of each key, {@link #MISSING} or {@link #ABSENT}
+   * @return the number of keys that were not cached
+   */
+  public int get(long[] keys, long[] values) {
+    Table table = this.table;
+    if (table.keys.length == 0) {
+      for (int i = 0; i < keys.length; i++) {
+        values[i] = ABSENT;
+      }
+      misses.addAndGet(keys.length);
+      return keys.length;
+    }
+    long now = System.currentTimeMillis();
+    int hit = 0;
+    int missing = 0;
+    for (int i = 0; i < keys.length; i++) {
+      values[i] = get(table, keys[i], now);
+      if (values[i] == MISSING) {
+        missing++;
+      } else if (values[i] != ABSENT) {
+        hit++;
+      }
+    }
+    int absent = keys.length - hit - missing;
+    hits.addAndGet(hit);
+    missingHits.addAndGet(missing);
+    misses.addAndGet(absent);
+    return absent;
+  }
+
+  private long get(Table table, long key, long now) {
+    int set = set(table, key);
+    int first = set * WAYS;
+    synchronized (lock(set)) {
+      for (int slot = first; slot < first + WAYS; slot++) {
+        if (table.expiries[slot] != 0 && table.keys[slot] == key) {
+          if (table.expiries[slot] > now) {
+            return table.values[slot];
+          }
+          table.expiries[slot] = 0;
+          return ABSENT;
+        }
+      }
+    }
+    return ABSENT;
+  }
+
+  public void put(long key, long value) {
+    put(key, value, ttl, null);
+  }
+
+  /**
+   * Cache the value unless the key was invalidated since the stamp was
+   * taken.
+   */
+  public void put(long key, long value, long[] stamp) {
+    put(key, value, ttl, stamp);
+  }
+
+  /**
+   * Remember that the key has no value.
+   */
+  public void putMissing(long key) {
+    putMissing(key, null);
+  }
+
+  /**
+   * Remember that the key has no value, unless it was invalidated since the
+   * stamp was taken.
+   */
+  public void putMissing(long key, long[] stamp) {
+    if (missingTtl > 0) {
+      put(key, MISSING, missingTtl, stamp);
+    }
+  }
+
+  private void put(long key, long value, long ttl, long[] stamp) {
+    if (value == ABSENT) {
+      throw new IllegalArgumentException("Value " + value + " is reserved");
+    }
+    Table table = this.table;
+    if (table.keys.length == 0) {
+      return;
+    }
+    long expiry = System.currentTimeMillis() + ttl;
+    int set = set(table, key);
+    int first = set * WAYS;
+    synchronized (lock(set)) {
+      if (stamp != null &&
+          stamps.get(set & (LOCKS - 1)) != stamp[set & (LOCKS - 1)]) {
+        return;
+      }
+      int victim = first;
+      for (int slot = first; slot < first + WAYS; slot++) {
+        if (table.expiries[slot] != 0 && table.keys[slot] == key) {
+          victim = slot;
+          break;
+        }
+        if (table.expiries[slot] < table.expiries[victim]) {
+          victim = slot;
+        }
+      }
+      if (table.expiries[victim] != 0 && table.keys[victim] != key) {
+        evictions.incrementAndGet();
+      }
+      table.keys[victim] = key;
+      table.values[victim] = value;
+      table.expiries[victim] = expiry;
+    }
+  }
+
+  public void invalidate(long key) {
+    Table table = this.table;
+    if (table.keys.length == 0) {
+      return;
+    }
+    int set = set(table, key);
+    int first = set * WAYS;
+    synchronized (lock(set)) {
+      stamps.incrementAndGet(set & (LOCKS - 1));
+      for (int slot = first; slot < first + WAYS; slot++) {
+        if (table.keys[slot] == key) {
+          table.expiries[slot] = 0;
+        }
+      }
+    }
+    invalidations.incrementAndGet();
+  }
+
+  public void clear() {
+    Table table = this.table;
+    this.table = new Table(table.keys.length);
+  }
+
+  @Override
+  public long getHits() {
+    return hits.get();
+  }
+
+  @Override
+  public long getMissingHits() {
+    return missingHits.get();
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.get();
+  }
+
+  @Override
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  @Override
+  public long getInvalidations() {
+    return invalidations.get();
+  }
+
+  @Override
+  public double getHitRatio() {
+    long answered = hits.get() + missingHits.get();
+    long total = answered + misses.get();
+    return total == 0 ? 0 : (double) answered / total;
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.util;
+
+/**
+ * JMX view of a {@link LongLongCache}.
+ */
+public interface LongLongCacheMXBean {
+
+  /**
+   * @return the number of entries the cache can hold, 0 when disabled
+   */
+  int getCapacity();
+
+  /**
+   * @return the lookups answered with a cached value
+   */
+  long getHits();
+
+  /**
+   * @return the lookups answered with a key cached as having no value
+   */
+  long getMissingHits();
+
+  /**
+   * @return the lookups of keys that were not cached
+   */
+  long getMisses();
+
+  /**
+   * @return the entries replaced by a new key before they expired
+   */
+  long getEvictions();
+
+  long getInvalidations();
+
+  /**
+   * @return the share of the lookups answered by the cache, with or without
+   * a value
+   */
+  double getHitRatio();
+}
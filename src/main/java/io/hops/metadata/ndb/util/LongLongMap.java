@@ -0,0 +1,379 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.util;
+
+import io.hops.exception.StorageException;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A long to long hash map with open addressing (linear probing) over two
+ * arrays, about 16 bytes per entry at most 3/4 full instead of the ~80 bytes
+ * of an entry of a HashMap<Long, Long>. The primitive methods never box, the
+ * {@link Map} methods box the keys and values they are given or return, so
+ * that the map can be handed to the callers of the DAL as a Map<Long, Long>.
+ * <p/>
+ * Not thread safe.
+ */
+public class LongLongMap extends AbstractMap<Long, Long>
+    implements LongPairSink {
+
+  private static final int MIN_CAPACITY = 16;
+  private static final long FREE = 0;
+
+  private long[] keys;
+  private long[] values;
+  /**
+   * Key 0 marks the free slots, its entry is kept aside.
+   */
+  private boolean hasFreeKey = false;
+  private long freeKeyValue;
+  private int size = 0;
+  private int mask;
+  private int maxFill;
+  private Set<Map.Entry<Long, Long>> entrySet = null;
+
+  public LongLongMap() {
+    this(MIN_CAPACITY);
+  }
+
+  /**
+   * @param expectedSize
+   *     the number of entries the map holds without growing
+   */
+  public LongLongMap(int expectedSize) {
+    allocate(capacityFor(expectedSize));
+  }
+
+  private static int capacityFor(int expectedSize) {
+    long needed = Math.max(MIN_CAPACITY, (long) expectedSize * 4 / 3 + 1);
+    if (needed > 1 << 30) {
+      throw new IllegalArgumentException("Too many entries " + expectedSize);
+    }
+    return Integer.highestOneBit((int) needed - 1) << 1;
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new long[capacity];
+    mask = capacity - 1;
+    maxFill = capacity / 4 * 3;
+  }
+
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private int slot(long key) {
+    int pos = hash(key) & mask;
+    while (keys[pos] != FREE) {
+      if (keys[pos] == key) {
+        return pos;
+      }
+      pos = (pos + 1) & mask;
+    }
+    return -pos - 1;
+  }
+
+  @Override
+  public void accept(long key, long value) {
+    put(key, value);
+  }
+
+  /**
+   * @return true if the key was not in the map
+   */
+  public boolean put(long key, long value) {
+    if (key == FREE) {
+      boolean added = !hasFreeKey;
+      if (added) {
+        hasFreeKey = true;
+        size++;
+      }
+      freeKeyValue = value;
+      return added;
+    }
+    int pos = slot(key);
+    if (pos >= 0) {
+      values[pos] = value;
+      return false;
+    }
+    pos = -pos - 1;
+    keys[pos] = key;
+    values[pos] = value;
+    if (++size > maxFill) {
+      rehash(keys.length * 2);
+    }
+    return true;
+  }
+
+  /**
+   * @return the value of the key, missing if it is not in the map
+   */
+  public long get(long key, long missing) {
+    if (key == FREE) {
+      return hasFreeKey ? freeKeyValue : missing;
+    }
+    int pos = slot(key);
+    return pos >= 0 ? values[pos] : missing;
+  }
+
+  public boolean containsKey(long key) {
+    return key == FREE ? hasFreeKey : slot(key) >= 0;
+  }
+
+  /**
+   * @return true if the key was in the map
+   */
+  public boolean remove(long key) {
+    if (key == FREE) {
+      boolean removed = hasFreeKey;
+      if (removed) {
+        hasFreeKey = false;
+        size--;
+      }
+      return removed;
+    }
+    int pos = slot(key);
+    if (pos < 0) {
+      return false;
+    }
+    size--;
+    shiftKeys(pos, null);
+    return true;
+  }
+
+  /**
+   * Close the gap left at pos by a removal, moving back the entries of the
+   * probe chain that follows it.
+   *
+   * @param wrapped
+   *     if not null, receives the entries moved from the start of the table
+   *     to its end
+   */
+  private void shiftKeys(int pos, List<long[]> wrapped) {
+    int last;
+    while (true) {
+      last = pos;
+      pos = (pos + 1) & mask;
+      long key;
+      while (true) {
+        key = keys[pos];
+        if (key == FREE) {
+          keys[last] = FREE;
+          return;
+        }
+        int home = hash(key) & mask;
+        if (last <= pos ? last >= home || home > pos :
+            last >= home && home > pos) {
+          break;
+        }
+        pos = (pos + 1) & mask;
+      }
+      if (wrapped != null && pos < last) {
+        wrapped.add(new long[]{key, values[pos]});
+      }
+      keys[last] = key;
+      values[last] = values[pos];
+    }
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    long[] oldValues = values;
+    allocate(capacity);
+    for (int i = 0; i < oldKeys.length; i++) {
+      long key = oldKeys[i];
+      if (key != FREE) {
+        int pos = hash(key) & mask;
+        while (keys[pos] != FREE) {
+          pos = (pos + 1) & mask;
+        }
+        keys[pos] = key;
+        values[pos] = oldValues[i];
+      }
+    }
+  }
+
+  /**
+   * Hand all the entries to the sink, without boxing them.
+   */
+  public void forEach(LongPairSink sink) throws StorageException {
+    if (hasFreeKey) {
+      sink.accept(FREE, freeKeyValue);
+    }
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != FREE) {
+        sink.accept(keys[i], values[i]);
+      }
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void clear() {
+    if (size > 0) {
+      Arrays.fill(keys, FREE);
+      hasFreeKey = false;
+      size = 0;
+    }
+  }
+
+  @Override
+  public Long get(Object key) {
+    if (!(key instanceof Long)) {
+      return null;
+    }
+    long k = (Long) key;
+    if (k == FREE) {
+      return hasFreeKey ? freeKeyValue : null;
+    }
+    int pos = slot(k);
+    return pos >= 0 ? values[pos] : null;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof Long && containsKey(((Long) key).longValue());
+  }
+
+  @Override
+  public Long put(Long key, Long value) {
+    Long previous = get(key);
+    put(key.longValue(), value.longValue());
+    return previous;
+  }
+
+  @Override
+  public Long remove(Object key) {
+    Long previous = get(key);
+    if (previous != null) {
+      remove(((Long) key).longValue());
+    }
+    return previous;
+  }
+
+  @Override
+  public Set<Map.Entry<Long, Long>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new AbstractSet<Map.Entry<Long, Long>>() {
+        @Override
+        public Iterator<Map.Entry<Long, Long>> iterator() {
+          return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+
+        @Override
+        public void clear() {
+          LongLongMap.this.clear();
+        }
+      };
+    }
+    return entrySet;
+  }
+
+  /**
+   * Walks the table from its end so that the entries moved back by a
+   * removal are either already returned or, when they wrap around from the
+   * start of the table, kept aside and returned at the end.
+   */
+  private class EntryIterator implements Iterator<Map.Entry<Long, Long>> {
+    private int pos = keys.length;
+    private int last = -1;
+    private boolean freeKeyPending = hasFreeKey;
+    private boolean lastFreeKey = false;
+    private List<long[]> wrapped = null;
+    private int wrappedPos = 0;
+    private long[] lastWrapped = null;
+
+    @Override
+    public boolean hasNext() {
+      if (freeKeyPending) {
+        return true;
+      }
+      for (int i = pos - 1; i >= 0; i--) {
+        if (keys[i] != FREE) {
+          return true;
+        }
+      }
+      return wrapped != null && wrappedPos < wrapped.size();
+    }
+
+    @Override
+    public Map.Entry<Long, Long> next() {
+      last = -1;
+      lastFreeKey = false;
+      lastWrapped = null;
+      if (freeKeyPending) {
+        freeKeyPending = false;
+        lastFreeKey = true;
+        return new SimpleImmutableEntry<>(FREE, freeKeyValue);
+      }
+      while (--pos >= 0) {
+        if (keys[pos] != FREE) {
+          last = pos;
+          return new SimpleImmutableEntry<>(keys[pos], values[pos]);
+        }
+      }
+      pos = 0;
+      if (wrapped != null && wrappedPos < wrapped.size()) {
+        lastWrapped = wrapped.get(wrappedPos++);
+        return new SimpleImmutableEntry<>(lastWrapped[0], lastWrapped[1]);
+      }
+      throw new NoSuchElementException();
+    }
+
+    @Override
+    public void remove() {
+      if (lastFreeKey) {
+        LongLongMap.this.remove(FREE);
+        lastFreeKey = false;
+      } else if (lastWrapped != null) {
+        LongLongMap.this.remove(lastWrapped[0]);
+        lastWrapped = null;
+      } else if (last >= 0) {
+        if (wrapped == null) {
+          wrapped = new ArrayList<>(2);
+        }
+        size--;
+        shiftKeys(last, wrapped);
+        last = -1;
+      } else {
+        throw new IllegalStateException();
+      }
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A uniform sample of fixed size of the values given to it, along with their
+ * number, smallest and largest, in one pass and constant memory.
+ * <p/>
+ * Not thread safe.
+ */
+public class ReservoirSample implements LongSink {
+
+  private final long[] sample;
+  private final Random random;
+  private long count = 0;
+  private long min = Long.MAX_VALUE;
+  private long max = Long.MIN_VALUE;
+
+  public ReservoirSample(int size) {
+    this(size, new Random());
+  }
+
+  public ReservoirSample(int size, Random random) {
+    this.sample = new long[size];
+    this.random = random;
+  }
+
+  @Override
+  public void accept(long value) {
+    if (count < sample.length) {
+      sample[(int) count] = value;
+    } else {
+      long pos = (long) (random.nextDouble() * (count + 1));
+      if (pos < sample.length) {
+        sample[(int) pos] = value;
+      }
+    }
+    count++;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getMin() {
+    return min;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  /**
+   * @return the values of the sample in ascending order, all the values if
+   * there were no more than the size of the sample
+   */
+  public long[] getSortedSample() {
+    long[] sorted = Arrays.copyOf(sample, (int) Math.min(count, sample.length));
+    Arrays.sort(sorted);
+    return sorted;
+  }
+
+  /**
+   * @return an histogram of the values, null if there were none
+   */
+  public EquiDepthHistogram toHistogram() {
+    if (count == 0) {
+      return null;
+    }
+    return new EquiDepthHistogram(getSortedSample(), min, max, count);
+  }
+}
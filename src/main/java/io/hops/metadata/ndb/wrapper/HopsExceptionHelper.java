@@ -60,6 +60,38 @@ public class HopsExceptionHelper {
     return false;
   }
 
+  /**
+   * @return true if the failure, or one of its causes, comes from the
+   * connection to the cluster: a node failure, a lost or failed send or
+   * receive, rather than from the operation itself
+   */
+  public static boolean isConnectionFailure(Throwable failure) {
+    for (Throwable e = failure; e != null; e = e.getCause()) {
+      if (e instanceof ClusterJDatastoreException) {
+        ClusterJDatastoreException de = (ClusterJDatastoreException) e;
+        int classification = de.getClassification();
+        if (classification == ClusterJDatastoreException.Classification.NodeShutdown.value ||
+            classification == ClusterJDatastoreException.Classification.NodeRecoveryError.value ||
+            classification == ClusterJDatastoreException.Classification.UnknownResultError.value) {
+          return true;
+        }
+        switch (de.getCode()) {
+          case 4008: // receive from the data nodes failed
+          case 4009: // cluster failure
+          case 4010: // node failure caused abort of transaction
+          case 4025: // node failure caused abort of transaction
+          case 4027: // node failure caused abort of transaction
+          case 4028: // node failure caused abort of transaction
+          case 4031: // node failure caused abort of transaction
+          case 4033: // send to the data nodes failed
+            return true;
+          default:
+        }
+      }
+    }
+    return false;
+  }
+
   private static boolean isTupleAlreadyExisted(ClusterJException e) {
     return isExceptionContains(e, 630);
   }
@@ -28,9 +28,32 @@ import java.util.Map;
 
 public class HopsQuery<E> {
   private final Query<E> query;
+  private final HopsSession session;
+  private boolean partitionPruned = false;
 
   public HopsQuery(Query<E> query) {
+    this(query, null);
+  }
+
+  HopsQuery(Query<E> query, HopsSession session) {
     this.query = query;
+    this.session = session;
+  }
+
+  /**
+   * Declare that the predicate of the query binds all the partition key
+   * columns of the table with equalities, so that NDB scans a single
+   * partition. Only used to report the {@link #getScanType scan type}.
+   */
+  public void setPartitionPruned(boolean partitionPruned) {
+    this.partitionPruned = partitionPruned;
+  }
+
+  /**
+   * @return how NDB executes the query with the parameters currently set
+   */
+  public ScanType getScanType() throws StorageException {
+    return ScanType.of(explain(), partitionPruned);
   }
 
   public void setParameter(String s, Object o) throws StorageException {
@@ -50,6 +73,9 @@ public class HopsQuery<E> {
   }
 
   public int deletePersistentAll() throws StorageException {
+    if (session != null) {
+      session.checkWritable();
+    }
     try {
       return query.deletePersistentAll();
     } catch (ClusterJException e) {
@@ -25,11 +25,20 @@ import com.mysql.clusterj.Session;
 import com.mysql.clusterj.Transaction;
 import com.mysql.clusterj.query.QueryBuilder;
 import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.metrics.DalTracer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 public class HopsSession {
   private final Session session;
   private LockMode lockMode = LockMode.READ_COMMITTED;
+  private Class<?> partitionKeyClass = null;
+  private Object partitionKey = null;
+  private boolean readOnly = false;
+  private boolean accessed = true;
+  private List<Runnable> afterTransaction = null;
+  private List<Runnable> afterCommit = null;
 
   public HopsSession(Session session) {
     this.session = session;
@@ -46,16 +55,20 @@ public class HopsSession {
 
   public <T> HopsQuery<T> createQuery(HopsQueryDomainType<T> queryDefinition)
       throws StorageException {
+    access(null, null);
     try {
       Query<T> query =
           session.createQuery(queryDefinition.getQueryDomainType());
-      return new HopsQuery<>(query);
+      HopsQuery<T> hopsQuery = new HopsQuery<>(query, this);
+      DalTracer.getInstance().queryCreated(hopsQuery);
+      return hopsQuery;
     } catch (ClusterJException e) {
       throw HopsExceptionHelper.wrap(e);
     }
   }
 
   public <T> T find(Class<T> aClass, Object o) throws StorageException {
+    access(aClass, o);
     try {
       return session.find(aClass, o);
     } catch (ClusterJException e) {
@@ -72,6 +85,7 @@ public class HopsSession {
   }
 
   public <T> T newInstance(Class<T> aClass, Object o) throws StorageException {
+    access(aClass, o);
     try {
       return session.newInstance(aClass, o);
     } catch (ClusterJException e) {
@@ -80,6 +94,8 @@ public class HopsSession {
   }
 
   public <T> T makePersistent(T t) throws StorageException {
+    access(null, null);
+    checkWritable();
     try {
       return session.makePersistent(t);
     } catch (ClusterJException e) {
@@ -88,6 +104,7 @@ public class HopsSession {
   }
 
   public <T> T load(T t) throws StorageException {
+    access(null, null);
     try {
       return session.load(t);
     } catch (ClusterJException e) {
@@ -103,7 +120,46 @@ public class HopsSession {
     }
   }
 
+  /**
+   * Read the rows of a table by primary key, all of them in a single round
+   * trip. A key is the primary key value itself for single column keys and
+   * an Object[] of the key columns otherwise, as for
+   * {@link #newInstance(Class, Object)}.
+   *
+   * @return one element per key in the order of the keys, null for the keys
+   * that have no row. The instances that were found have to be released by
+   * the caller.
+   */
+  public <T> List<T> loadAll(Class<T> aClass, List<?> keys)
+      throws StorageException {
+    List<T> dtos = new ArrayList<>(keys.size());
+    boolean loaded = false;
+    try {
+      for (Object key : keys) {
+        T dto = newInstance(aClass, key);
+        dtos.add(dto);
+        load(dto);
+      }
+      flush();
+      for (int i = 0; i < dtos.size(); i++) {
+        T dto = dtos.get(i);
+        if (!Boolean.TRUE.equals(found(dto))) {
+          release(dto);
+          dtos.set(i, null);
+        }
+      }
+      loaded = true;
+      return dtos;
+    } finally {
+      if (!loaded) {
+        release(dtos);
+      }
+    }
+  }
+
   public void persist(Object o) throws StorageException {
+    access(null, null);
+    checkWritable();
     try {
       session.persist(o);
     } catch (ClusterJException e) {
@@ -113,6 +169,8 @@ public class HopsSession {
 
   public Iterable<?> makePersistentAll(Iterable<?> iterable)
       throws StorageException {
+    access(null, null);
+    checkWritable();
     try {
       return session.makePersistentAll(iterable);
     } catch (ClusterJException e) {
@@ -122,6 +180,8 @@ public class HopsSession {
 
   public <T> void deletePersistent(Class<T> aClass, Object o)
       throws StorageException {
+    access(aClass, o);
+    checkWritable();
     try {
       session.deletePersistent(aClass, o);
     } catch (ClusterJException e) {
@@ -130,6 +190,8 @@ public class HopsSession {
   }
 
   public void deletePersistent(Object o) throws StorageException {
+    access(null, null);
+    checkWritable();
     try {
       session.deletePersistent(o);
     } catch (ClusterJException e) {
@@ -138,6 +200,8 @@ public class HopsSession {
   }
 
   public void remove(Object o) throws StorageException {
+    access(null, null);
+    checkWritable();
     try {
       session.remove(o);
     } catch (ClusterJException e) {
@@ -146,6 +210,8 @@ public class HopsSession {
   }
 
   public <T> int deletePersistentAll(Class<T> aClass) throws StorageException {
+    access(null, null);
+    checkWritable();
     try {
       return session.deletePersistentAll(aClass);
     } catch (ClusterJException e) {
@@ -155,6 +221,8 @@ public class HopsSession {
 
   public void deletePersistentAll(Iterable<?> iterable)
       throws StorageException {
+    access(null, null);
+    checkWritable();
     try {
       session.deletePersistentAll(iterable);
     } catch (ClusterJException e) {
@@ -163,6 +231,8 @@ public class HopsSession {
   }
 
   public void updatePersistent(Object o) throws StorageException {
+    access(null, null);
+    checkWritable();
     try {
       session.updatePersistent(o);
     } catch (ClusterJException e) {
@@ -172,6 +242,8 @@ public class HopsSession {
 
   public void updatePersistentAll(Iterable<?> iterable)
       throws StorageException {
+    access(null, null);
+    checkWritable();
     try {
       session.updatePersistentAll(iterable);
     } catch (ClusterJException e) {
@@ -180,6 +252,8 @@ public class HopsSession {
   }
 
   public <T> T savePersistent(T t) throws StorageException {
+    access(null, null);
+    checkWritable();
     try {
       return session.savePersistent(t);
     } catch (ClusterJException e) {
@@ -189,6 +263,8 @@ public class HopsSession {
 
   public Iterable<?> savePersistentAll(Iterable<?> iterable)
       throws StorageException {
+    access(null, null);
+    checkWritable();
     try {
       return session.savePersistentAll(iterable);
     } catch (ClusterJException e) {
@@ -236,9 +312,144 @@ public class HopsSession {
     } catch (ClusterJException e) {
       throw HopsExceptionHelper.wrap(e);
     }
+    rememberPartitionKey(aClass, o);
+  }
+
+  /**
+   * @return the key given to the last {@link #setPartitionKey} call of the
+   * current transaction if it was made for this class, null otherwise
+   */
+  public Object getPartitionKey(Class<?> aClass) {
+    return aClass == partitionKeyClass ? partitionKey : null;
+  }
+
+  /**
+   * Forget the partition key hint, called when a transaction begins.
+   */
+  public void clearPartitionKey() {
+    rememberPartitionKey(null, null);
+    accessed = false;
+  }
+
+  /**
+   * Called by the operations. On the first one of a transaction, count how
+   * the transaction is placed and give it the hint of the primary key
+   * accessed, if it has none and automatic hints apply to the class.
+   *
+   * @param aClass
+   *     the class of a primary key access, null for the other operations
+   */
+  private void access(Class<?> aClass, Object key) throws StorageException {
+    if (accessed) {
+      return;
+    }
+    accessed = true;
+    if (!currentTransaction().isActive()) {
+      return;
+    }
+    PartitionHints hints = PartitionHints.getInstance();
+    if (partitionKeyClass != null) {
+      hints.hinted(false);
+    } else if (aClass != null && hints.isHintable(aClass)) {
+      setPartitionKey(aClass, key);
+      hints.hinted(true);
+    } else {
+      hints.unhinted();
+    }
+  }
+
+  /**
+   * Run the action once the current transaction of the session has been
+   * committed or rolled back by the connector, right away if there is no
+   * active transaction.
+   */
+  public void afterTransaction(Runnable action) throws StorageException {
+    if (!currentTransaction().isActive()) {
+      action.run();
+      return;
+    }
+    if (afterTransaction == null) {
+      afterTransaction = new ArrayList<>();
+    }
+    afterTransaction.add(action);
+  }
+
+  /**
+   * Run the action once the current transaction of the session has been
+   * committed by the connector, right away if there is no active
+   * transaction. The action is dropped if the transaction is rolled back or
+   * fails to commit.
+   */
+  public void afterCommit(Runnable action) throws StorageException {
+    if (!currentTransaction().isActive()) {
+      action.run();
+      return;
+    }
+    if (afterCommit == null) {
+      afterCommit = new ArrayList<>();
+    }
+    afterCommit.add(action);
+  }
+
+  /**
+   * Run the actions registered with {@link #afterTransaction}, and those
+   * registered with {@link #afterCommit} if the transaction committed.
+   * Called by the connector when a transaction of the session ends.
+   */
+  public void transactionEnded(boolean committed) {
+    List<Runnable> actions = afterTransaction;
+    List<Runnable> commitActions = afterCommit;
+    afterTransaction = null;
+    afterCommit = null;
+    if (committed && commitActions != null) {
+      for (Runnable action : commitActions) {
+        action.run();
+      }
+    }
+    if (actions != null) {
+      for (Runnable action : actions) {
+        action.run();
+      }
+    }
+  }
+
+  /**
+   * In read only mode the session runs committed reads outside of any
+   * transaction, the writes and the locking reads fail right away instead
+   * of reaching the database.
+   */
+  public void setReadOnly(boolean readOnly) {
+    this.readOnly = readOnly;
+  }
+
+  public boolean isReadOnly() {
+    return readOnly;
+  }
+
+  /**
+   * @throws StorageException
+   *     if the session is read only
+   */
+  public void checkWritable() throws StorageException {
+    if (readOnly) {
+      throw new StorageException("Write attempted in a read only session");
+    }
+  }
+
+  protected void checkLockMode(LockMode lockMode) throws StorageException {
+    if (readOnly && lockMode != LockMode.READ_COMMITTED) {
+      throw new StorageException("Lock mode " + lockMode +
+          " requested in a read only session");
+    }
+  }
+
+  protected void rememberPartitionKey(Class<?> aClass, Object o) {
+    partitionKeyClass = aClass;
+    partitionKey = o;
   }
 
   public void setLockMode(LockMode lockMode) throws StorageException {
+    checkLockMode(lockMode);
     try {
       session.setLockMode(lockMode);
       this.lockMode = lockMode;
@@ -248,6 +459,7 @@ public class HopsSession {
   }
 
   public void markModified(Object o, String s) throws StorageException {
+    checkWritable();
     try {
       session.markModified(o, s);
     } catch (ClusterJException e) {
@@ -277,7 +489,9 @@ public class HopsSession {
     try {
       if(t!=null){
         for(T dto : t)  {
-          session.release(dto);
+          if(dto!=null){
+            session.release(dto);
+          }
         }
       }
     } catch (ClusterJException e) {
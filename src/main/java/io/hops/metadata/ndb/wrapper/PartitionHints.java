@@ -0,0 +1,110 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Placement of the transactions on the data nodes. A transaction is started
+ * on the data node owning the partition of its partition key hint; without
+ * a hint when its first operation runs it starts on any data node, most of
+ * the time not the owner of the rows it uses.
+ * <p/>
+ * When automatic hints are enabled, a transaction with no hint whose first
+ * operation is a primary key access to one of the hintable classes gets the
+ * hint of that key.
+ */
+public class PartitionHints implements PartitionHintsMXBean {
+
+  public static final String MBEAN_NAME =
+      "io.hops.metadata.ndb:type=PartitionHints";
+
+  private static final PartitionHints instance = new PartitionHints();
+
+  private volatile Set<Class<?>> hintable = Collections.emptySet();
+  private final AtomicLong explicit = new AtomicLong(0);
+  private final AtomicLong automatic = new AtomicLong(0);
+  private final AtomicLong unhinted = new AtomicLong(0);
+
+  private PartitionHints() {
+  }
+
+  public static PartitionHints getInstance() {
+    return instance;
+  }
+
+  /**
+   * @param hintable
+   *     the DTO classes a hint can be derived from, empty to disable the
+   *     automatic hints
+   */
+  public void setHintable(Set<Class<?>> hintable) {
+    this.hintable = hintable;
+  }
+
+  boolean isHintable(Class<?> aClass) {
+    return hintable.contains(aClass);
+  }
+
+  void hinted(boolean auto) {
+    if (auto) {
+      automatic.incrementAndGet();
+    } else {
+      explicit.incrementAndGet();
+    }
+  }
+
+  void unhinted() {
+    unhinted.incrementAndGet();
+  }
+
+  /**
+   * @return the number of transactions placed by a hint of the caller
+   */
+  @Override
+  public long getExplicitlyHinted() {
+    return explicit.get();
+  }
+
+  /**
+   * @return the number of transactions placed by an automatic hint
+   */
+  @Override
+  public long getAutomaticallyHinted() {
+    return automatic.get();
+  }
+
+  /**
+   * @return the number of transactions started without a hint, likely on a
+   * data node that does not own their data
+   */
+  @Override
+  public long getUnhinted() {
+    return unhinted.get();
+  }
+
+  @Override
+  public void reset() {
+    explicit.set(0);
+    automatic.set(0);
+    unhinted.set(0);
+  }
+}
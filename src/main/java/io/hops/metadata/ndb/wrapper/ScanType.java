@@ -0,0 +1,62 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper;
+
+import com.mysql.clusterj.Query;
+
+import java.util.Map;
+
+/**
+ * How NDB executes a query.
+ */
+public enum ScanType {
+  /**
+   * Lookup of a single row by primary or unique key.
+   */
+  PRIMARY_KEY,
+  /**
+   * Ordered index scan restricted to the partition holding the rows, the
+   * predicate binds the partition key columns.
+   */
+  PRUNED_INDEX_SCAN,
+  /**
+   * Ordered index scan sent to every partition.
+   */
+  FULL_INDEX_SCAN,
+  /**
+   * Scan of the whole table on every partition.
+   */
+  TABLE_SCAN;
+
+  /**
+   * @param plan the plan of a query, see {@link HopsQuery#explain()}
+   * @param pruned whether the predicate of the query binds the partition key
+   */
+  static ScanType of(Map<String, Object> plan, boolean pruned) {
+    Object scanType = plan.get(Query.SCAN_TYPE);
+    if (Query.SCAN_TYPE_PRIMARY_KEY.equals(scanType) ||
+        Query.SCAN_TYPE_UNIQUE_KEY.equals(scanType)) {
+      return PRIMARY_KEY;
+    } else if (Query.SCAN_TYPE_INDEX_SCAN.equals(scanType)) {
+      return pruned ? PRUNED_INDEX_SCAN : FULL_INDEX_SCAN;
+    } else {
+      return TABLE_SCAN;
+    }
+  }
+}
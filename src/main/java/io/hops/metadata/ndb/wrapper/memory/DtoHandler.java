@@ -0,0 +1,131 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper.memory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The state of a DTO instance: the values of its columns, which of them
+ * were set since it was created or loaded, and whether its last load found
+ * a row.
+ */
+class DtoHandler implements InvocationHandler {
+
+  private final TableMapping mapping;
+  private final Map<String, Object> values;
+  private final Set<String> modified = new HashSet<>();
+  private Boolean found = null;
+
+  private DtoHandler(TableMapping mapping, Map<String, Object> values) {
+    this.mapping = mapping;
+    this.values = values;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <T> T newInstance(TableMapping mapping, Map<String, Object> row) {
+    Class<?> type = mapping.getType();
+    return (T) Proxy.newProxyInstance(type.getClassLoader(),
+        new Class<?>[]{type}, new DtoHandler(mapping,
+            row == null ? new HashMap<String, Object>() :
+                new HashMap<>(row)));
+  }
+
+  static DtoHandler of(Object instance) {
+    if (instance != null && Proxy.isProxyClass(instance.getClass())) {
+      InvocationHandler handler = Proxy.getInvocationHandler(instance);
+      if (handler instanceof DtoHandler) {
+        return (DtoHandler) handler;
+      }
+    }
+    throw new IllegalArgumentException(instance +
+        " was not created by an in-memory session");
+  }
+
+  TableMapping getMapping() {
+    return mapping;
+  }
+
+  Map<String, Object> getValues() {
+    return values;
+  }
+
+  Set<String> getModified() {
+    return modified;
+  }
+
+  void set(String column, Object value) {
+    values.put(column, Values.convert(value, mapping.columnType(column)));
+    modified.add(column);
+  }
+
+  void markModified(String column) {
+    modified.add(column);
+  }
+
+  /**
+   * Overwrite the instance with a row read from the store.
+   */
+  void load(Map<String, Object> row) {
+    values.clear();
+    values.putAll(row);
+    modified.clear();
+    found = true;
+  }
+
+  void notFound() {
+    found = false;
+  }
+
+  Boolean getFound() {
+    return found;
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) {
+    String column = mapping.getterColumn(method);
+    if (column != null) {
+      Class<?> type = method.getReturnType();
+      Object value = values.get(column);
+      return value == null ? Values.defaultValue(type) :
+          Values.convert(value, type);
+    }
+    column = mapping.setterColumn(method);
+    if (column != null) {
+      set(column, args[0]);
+      return null;
+    }
+    String name = method.getName();
+    if (name.equals("equals") && args != null && args.length == 1) {
+      return proxy == args[0];
+    }
+    if (name.equals("hashCode") && args == null) {
+      return System.identityHashCode(proxy);
+    }
+    if (name.equals("toString") && args == null) {
+      return mapping.getTable() + values;
+    }
+    throw new UnsupportedOperationException(method.toString());
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper.memory;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.wrapper.HopsPredicate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A node of the where clause of a query.
+ */
+class MemoryPredicate extends HopsPredicate {
+
+  enum Kind {
+    EQUAL, GREATER_THAN, GREATER_EQUAL, LESS_THAN, LESS_EQUAL, IN, LIKE,
+    IS_NULL, IS_NOT_NULL, AND, OR, NOT
+  }
+
+  private final Kind kind;
+  private final MemoryPredicateOperand left;
+  private final MemoryPredicateOperand right;
+  private final List<MemoryPredicate> children;
+
+  private MemoryPredicate(Kind kind, MemoryPredicateOperand left,
+      MemoryPredicateOperand right, List<MemoryPredicate> children) {
+    super(null);
+    this.kind = kind;
+    this.left = left;
+    this.right = right;
+    this.children = children;
+  }
+
+  static MemoryPredicate compare(Kind kind, MemoryPredicateOperand left,
+      MemoryPredicateOperand right) {
+    return new MemoryPredicate(kind, left, right, null);
+  }
+
+  static MemoryPredicate and(MemoryPredicate a, MemoryPredicate b) {
+    return new MemoryPredicate(Kind.AND, null, null, Arrays.asList(a, b));
+  }
+
+  static MemoryPredicate or(MemoryPredicate a, MemoryPredicate b) {
+    return new MemoryPredicate(Kind.OR, null, null, Arrays.asList(a, b));
+  }
+
+  @Override
+  public HopsPredicate or(HopsPredicate predicate) {
+    return or(this, (MemoryPredicate) predicate);
+  }
+
+  @Override
+  public HopsPredicate and(HopsPredicate predicate) {
+    return and(this, (MemoryPredicate) predicate);
+  }
+
+  @Override
+  public HopsPredicate not() {
+    return new MemoryPredicate(Kind.NOT, null, null,
+        Arrays.asList(this));
+  }
+
+  boolean matches(Map<String, Object> row, Map<String, Object> params)
+      throws StorageException {
+    switch (kind) {
+      case AND:
+        for (MemoryPredicate child : children) {
+          if (!child.matches(row, params)) {
+            return false;
+          }
+        }
+        return true;
+      case OR:
+        for (MemoryPredicate child : children) {
+          if (child.matches(row, params)) {
+            return true;
+          }
+        }
+        return false;
+      case NOT:
+        return !children.get(0).matches(row, params);
+      case IS_NULL:
+        return left.value(row, params) == null;
+      case IS_NOT_NULL:
+        return left.value(row, params) != null;
+      default:
+    }
+    Object a = left.value(row, params);
+    Object b = right.value(row, params);
+    if (a == null || b == null) {
+      return false;
+    }
+    switch (kind) {
+      case EQUAL:
+        return Values.equal(a, b);
+      case GREATER_THAN:
+        return Values.compare(a, b) > 0;
+      case GREATER_EQUAL:
+        return Values.compare(a, b) >= 0;
+      case LESS_THAN:
+        return Values.compare(a, b) < 0;
+      case LESS_EQUAL:
+        return Values.compare(a, b) <= 0;
+      case IN:
+        for (Object v : Values.toList(b)) {
+          if (Values.equal(a, v)) {
+            return true;
+          }
+        }
+        return false;
+      case LIKE:
+        return Values.likePattern(b.toString()).matcher(a.toString())
+            .matches();
+      default:
+        throw new IllegalStateException(kind.toString());
+    }
+  }
+
+  /**
+   * The values a column is restricted to by an equal or in condition on a
+   * parameter, at the top level of the where clause.
+   *
+   * @return null if the column can take any value
+   */
+  List<Object> keyValues(String column, Map<String, Object> params)
+      throws StorageException {
+    if (kind == Kind.AND) {
+      for (MemoryPredicate child : children) {
+        List<Object> values = child.keyValues(column, params);
+        if (values != null) {
+          return values;
+        }
+      }
+      return null;
+    }
+    if ((kind != Kind.EQUAL && kind != Kind.IN) ||
+        !column.equals(left.getColumn()) || right.getParam() == null) {
+      return null;
+    }
+    Object value = right.value(null, params);
+    if (value == null) {
+      return null;
+    }
+    if (kind == Kind.EQUAL) {
+      List<Object> values = new ArrayList<>(1);
+      values.add(value);
+      return values;
+    }
+    return Values.toList(value);
+  }
+
+  /**
+   * @return true if the column is restricted by a condition at the top level
+   * of the where clause, i.e. an index on it could be used
+   */
+  boolean restricts(String column) {
+    if (kind == Kind.AND) {
+      for (MemoryPredicate child : children) {
+        if (child.restricts(column)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    return kind != Kind.OR && kind != Kind.NOT && kind != Kind.LIKE &&
+        kind != Kind.IS_NOT_NULL && column.equals(left.getColumn());
+  }
+}
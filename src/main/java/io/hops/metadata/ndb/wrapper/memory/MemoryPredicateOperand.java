@@ -0,0 +1,134 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper.memory;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.wrapper.HopsPredicate;
+import io.hops.metadata.ndb.wrapper.HopsPredicateOperand;
+
+import java.util.Map;
+
+/**
+ * A column of the queried table or a named query parameter.
+ */
+class MemoryPredicateOperand extends HopsPredicateOperand {
+
+  private final String column;
+  private final String param;
+
+  private MemoryPredicateOperand(String column, String param) {
+    super(null);
+    this.column = column;
+    this.param = param;
+  }
+
+  static MemoryPredicateOperand column(String column) {
+    return new MemoryPredicateOperand(column, null);
+  }
+
+  static MemoryPredicateOperand param(String name) {
+    return new MemoryPredicateOperand(null, name);
+  }
+
+  String getColumn() {
+    return column;
+  }
+
+  String getParam() {
+    return param;
+  }
+
+  Object value(Map<String, Object> row, Map<String, Object> params)
+      throws StorageException {
+    if (column != null) {
+      return row.get(column);
+    }
+    if (!params.containsKey(param)) {
+      throw new StorageException("Parameter " + param + " is not bound");
+    }
+    return params.get(param);
+  }
+
+  private static MemoryPredicateOperand of(HopsPredicateOperand operand) {
+    return (MemoryPredicateOperand) operand;
+  }
+
+  @Override
+  public HopsPredicate equal(HopsPredicateOperand predicateOperand) {
+    return MemoryPredicate.compare(MemoryPredicate.Kind.EQUAL, this,
+        of(predicateOperand));
+  }
+
+  @Override
+  public HopsPredicate greaterThan(HopsPredicateOperand predicateOperand) {
+    return MemoryPredicate.compare(MemoryPredicate.Kind.GREATER_THAN, this,
+        of(predicateOperand));
+  }
+
+  @Override
+  public HopsPredicate greaterEqual(HopsPredicateOperand predicateOperand) {
+    return MemoryPredicate.compare(MemoryPredicate.Kind.GREATER_EQUAL, this,
+        of(predicateOperand));
+  }
+
+  @Override
+  public HopsPredicate lessThan(HopsPredicateOperand predicateOperand) {
+    return MemoryPredicate.compare(MemoryPredicate.Kind.LESS_THAN, this,
+        of(predicateOperand));
+  }
+
+  @Override
+  public HopsPredicate lessEqual(HopsPredicateOperand predicateOperand) {
+    return MemoryPredicate.compare(MemoryPredicate.Kind.LESS_EQUAL, this,
+        of(predicateOperand));
+  }
+
+  @Override
+  public HopsPredicate between(HopsPredicateOperand predicateOperand,
+      HopsPredicateOperand predicateOperand1) {
+    return MemoryPredicate.and(
+        MemoryPredicate.compare(MemoryPredicate.Kind.GREATER_EQUAL, this,
+            of(predicateOperand)),
+        MemoryPredicate.compare(MemoryPredicate.Kind.LESS_EQUAL, this,
+            of(predicateOperand1)));
+  }
+
+  @Override
+  public HopsPredicate in(HopsPredicateOperand predicateOperand) {
+    return MemoryPredicate.compare(MemoryPredicate.Kind.IN, this,
+        of(predicateOperand));
+  }
+
+  @Override
+  public HopsPredicate like(HopsPredicateOperand predicateOperand) {
+    return MemoryPredicate.compare(MemoryPredicate.Kind.LIKE, this,
+        of(predicateOperand));
+  }
+
+  @Override
+  public HopsPredicate isNull() {
+    return MemoryPredicate.compare(MemoryPredicate.Kind.IS_NULL, this, null);
+  }
+
+  @Override
+  public HopsPredicate isNotNull() {
+    return MemoryPredicate.compare(MemoryPredicate.Kind.IS_NOT_NULL, this,
+        null);
+  }
+}
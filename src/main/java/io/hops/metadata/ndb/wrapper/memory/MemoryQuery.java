@@ -0,0 +1,252 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper.memory;
+
+import com.mysql.clusterj.Query;
+import com.mysql.clusterj.Results;
+import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.wrapper.HopsQuery;
+import io.hops.metadata.ndb.wrapper.memory.MemoryTable.RowKey;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A query on a {@link MemoryStore}.
+ * <p/>
+ * The access path is chosen the way NDB chooses it for the primary key: if
+ * the where clause binds every primary key column with equal or in
+ * conditions the rows are read by primary key, if it binds a prefix of the
+ * primary key only the matching ranges of the sorted table are scanned,
+ * otherwise the whole table is scanned. The other conditions are applied
+ * as filters. Secondary indexes are not maintained, {@link #explain} still
+ * reports them as NDB would use them.
+ */
+class MemoryQuery<E> extends HopsQuery<E> {
+
+  // above this many key combinations a scan is cheaper
+  private static final int MAX_KEYS = 10000;
+
+  private final MemorySession session;
+  private final TableMapping mapping;
+  private final MemoryTable table;
+  private final MemoryPredicate predicate;
+  private final List<String> paramOrder;
+  private final Map<String, Object> params = new HashMap<>();
+  private long skip = 0;
+  private long limit = Long.MAX_VALUE;
+  private Query.Ordering ordering = null;
+  private String[] orderingColumns = null;
+
+  MemoryQuery(MemorySession session, MemoryQueryDomainType<E> domainType) {
+    super(null);
+    this.session = session;
+    this.mapping = domainType.getMapping();
+    this.table = session.getStore().table(mapping);
+    this.predicate = domainType.getPredicate();
+    this.paramOrder = new ArrayList<>(domainType.getParams());
+  }
+
+  @Override
+  public void setParameter(String s, Object o) {
+    params.put(s, o);
+  }
+
+  @Override
+  public List<E> getResultList() throws StorageException {
+    List<Map<String, Object>> rows = rows();
+    List<E> result = new ArrayList<>(rows.size());
+    for (Map<String, Object> row : rows) {
+      result.add(DtoHandler.<E>newInstance(mapping, row));
+    }
+    return result;
+  }
+
+  @Override
+  public int deletePersistentAll() throws StorageException {
+    List<Map<String, Object>> rows = rows();
+    for (Map<String, Object> row : rows) {
+      session.delete(table, row);
+    }
+    return rows.size();
+  }
+
+  @Override
+  public Results<E> execute(Object o) throws StorageException {
+    return execute(new Object[]{o});
+  }
+
+  @Override
+  public Results<E> execute(Object... objects) throws StorageException {
+    for (int i = 0; i < objects.length && i < paramOrder.size(); i++) {
+      params.put(paramOrder.get(i), objects[i]);
+    }
+    return results(getResultList());
+  }
+
+  @Override
+  public Results<E> execute(Map<String, ?> map) throws StorageException {
+    params.putAll(map);
+    return results(getResultList());
+  }
+
+  @Override
+  public Map<String, Object> explain() throws StorageException {
+    Map<String, Object> explain = new HashMap<>();
+    if (keyPrefix() != null) {
+      boolean pk = keyPrefix().size() == table.getPrimaryKey().size();
+      explain.put(Query.SCAN_TYPE, pk ? Query.SCAN_TYPE_PRIMARY_KEY :
+          Query.SCAN_TYPE_INDEX_SCAN);
+      explain.put(Query.INDEX_USED, "PRIMARY");
+      return explain;
+    }
+    if (predicate != null) {
+      for (Map.Entry<String, String> index : mapping.getIndexes().entrySet()) {
+        if (predicate.restricts(index.getValue())) {
+          explain.put(Query.SCAN_TYPE, Query.SCAN_TYPE_INDEX_SCAN);
+          explain.put(Query.INDEX_USED, index.getKey());
+          return explain;
+        }
+      }
+    }
+    explain.put(Query.SCAN_TYPE, Query.SCAN_TYPE_TABLE_SCAN);
+    return explain;
+  }
+
+  @Override
+  public void setLimits(long l, long l1) {
+    this.skip = l;
+    this.limit = l1;
+  }
+
+  @Override
+  public void setOrdering(Query.Ordering ordering, String... strings)
+      throws StorageException {
+    this.ordering = ordering;
+    this.orderingColumns = new String[strings.length];
+    for (int i = 0; i < strings.length; i++) {
+      orderingColumns[i] = mapping.column(strings[i]);
+    }
+  }
+
+  /**
+   * The values the where clause allows for the longest prefix of the
+   * primary key, one list per column, null if it does not restrict the
+   * first primary key column.
+   */
+  private List<List<Object>> keyPrefix() throws StorageException {
+    if (predicate == null) {
+      return null;
+    }
+    List<List<Object>> prefix = new ArrayList<>();
+    long combinations = 1;
+    for (String column : table.getPrimaryKey()) {
+      List<Object> values = predicate.keyValues(column, params);
+      if (values == null) {
+        break;
+      }
+      TreeSet<Object> distinct = new TreeSet<>(new Comparator<Object>() {
+        @Override
+        public int compare(Object a, Object b) {
+          return Values.compare(a, b);
+        }
+      });
+      distinct.addAll(values);
+      combinations *= Math.max(1, distinct.size());
+      if (combinations > MAX_KEYS) {
+        break;
+      }
+      prefix.add(new ArrayList<>(distinct));
+    }
+    return prefix.isEmpty() ? null : prefix;
+  }
+
+  private List<Map<String, Object>> rows() throws StorageException {
+    List<List<Object>> prefix = keyPrefix();
+    List<Map<String, Object>> rows;
+    if (prefix == null) {
+      rows = session.scan(table, null, null, predicate, params);
+    } else {
+      List<Object[]> keys = new ArrayList<>();
+      combine(prefix, 0, new Object[prefix.size()], keys);
+      if (prefix.size() == table.getPrimaryKey().size()) {
+        List<RowKey> rowKeys = new ArrayList<>(keys.size());
+        for (Object[] key : keys) {
+          rowKeys.add(new RowKey(key));
+        }
+        rows = session.lookup(table, rowKeys, predicate, params);
+      } else {
+        rows = new ArrayList<>();
+        for (Object[] key : keys) {
+          rows.addAll(session.scan(table, new RowKey(key, -1),
+              new RowKey(key, 1), predicate, params));
+        }
+      }
+    }
+    if (ordering != null && orderingColumns.length > 0) {
+      final boolean descending = ordering == Query.Ordering.DESCENDING;
+      Collections.sort(rows, new Comparator<Map<String, Object>>() {
+        @Override
+        public int compare(Map<String, Object> a, Map<String, Object> b) {
+          for (String column : orderingColumns) {
+            int c = Values.compare(a.get(column), b.get(column));
+            if (c != 0) {
+              return descending ? -c : c;
+            }
+          }
+          return 0;
+        }
+      });
+    }
+    if (skip > 0 || limit < rows.size()) {
+      int from = (int) Math.min(skip, rows.size());
+      int to = (int) Math.min(rows.size(), from + Math.min(limit,
+          Integer.MAX_VALUE));
+      rows = new ArrayList<>(rows.subList(from, to));
+    }
+    return rows;
+  }
+
+  private static void combine(List<List<Object>> prefix, int column,
+      Object[] current, List<Object[]> keys) {
+    if (column == prefix.size()) {
+      keys.add(current.clone());
+      return;
+    }
+    for (Object value : prefix.get(column)) {
+      current[column] = value;
+      combine(prefix, column + 1, current, keys);
+    }
+  }
+
+  private static <E> Results<E> results(final List<E> list) {
+    return new Results<E>() {
+      @Override
+      public Iterator<E> iterator() {
+        return list.iterator();
+      }
+    };
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper.memory;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.wrapper.HopsPredicate;
+import io.hops.metadata.ndb.wrapper.HopsPredicateOperand;
+import io.hops.metadata.ndb.wrapper.HopsQueryDefinition;
+
+class MemoryQueryDefinition<E> extends HopsQueryDefinition<E> {
+
+  private final MemoryQueryDomainType<E> domainType;
+
+  MemoryQueryDefinition(MemoryQueryDomainType<E> domainType) {
+    super(null);
+    this.domainType = domainType;
+  }
+
+  @Override
+  public HopsQueryDefinition<E> where(HopsPredicate predicate) {
+    return domainType.where(predicate);
+  }
+
+  @Override
+  public HopsPredicateOperand param(String s) {
+    return domainType.param(s);
+  }
+
+  @Override
+  public HopsPredicate not(HopsPredicate predicate) throws StorageException {
+    return domainType.not(predicate);
+  }
+}
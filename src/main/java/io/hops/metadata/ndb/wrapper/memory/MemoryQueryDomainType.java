@@ -0,0 +1,86 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper.memory;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.wrapper.HopsPredicate;
+import io.hops.metadata.ndb.wrapper.HopsPredicateOperand;
+import io.hops.metadata.ndb.wrapper.HopsQueryDefinition;
+import io.hops.metadata.ndb.wrapper.HopsQueryDomainType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class MemoryQueryDomainType<E> extends HopsQueryDomainType<E> {
+
+  private final TableMapping mapping;
+  private final List<String> params = new ArrayList<>();
+  private MemoryPredicate predicate = null;
+
+  MemoryQueryDomainType(TableMapping mapping) {
+    super(null);
+    this.mapping = mapping;
+  }
+
+  TableMapping getMapping() {
+    return mapping;
+  }
+
+  MemoryPredicate getPredicate() {
+    return predicate;
+  }
+
+  /**
+   * The parameters in the order they were declared, which is the order of
+   * the values given to execute(Object...).
+   */
+  List<String> getParams() {
+    return params;
+  }
+
+  @Override
+  public HopsPredicateOperand get(String s) throws StorageException {
+    return MemoryPredicateOperand.column(mapping.column(s));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Class<E> getType() {
+    return (Class<E>) mapping.getType();
+  }
+
+  @Override
+  public HopsQueryDefinition<E> where(HopsPredicate predicate) {
+    this.predicate = (MemoryPredicate) predicate;
+    return new MemoryQueryDefinition<>(this);
+  }
+
+  @Override
+  public HopsPredicateOperand param(String s) {
+    if (!params.contains(s)) {
+      params.add(s);
+    }
+    return MemoryPredicateOperand.param(s);
+  }
+
+  @Override
+  public HopsPredicate not(HopsPredicate predicate) {
+    return ((MemoryPredicate) predicate).not();
+  }
+}
@@ -0,0 +1,434 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper.memory;
+
+import com.mysql.clusterj.LockMode;
+import io.hops.exception.StorageException;
+import io.hops.exception.TupleAlreadyExistedException;
+import io.hops.metadata.ndb.metrics.DalTracer;
+import io.hops.metadata.ndb.wrapper.HopsQuery;
+import io.hops.metadata.ndb.wrapper.HopsQueryBuilder;
+import io.hops.metadata.ndb.wrapper.HopsQueryDomainType;
+import io.hops.metadata.ndb.wrapper.HopsSession;
+import io.hops.metadata.ndb.wrapper.HopsTransaction;
+import io.hops.metadata.ndb.wrapper.memory.MemoryTable.RowKey;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * A {@link HopsSession} working on a {@link MemoryStore} instead of NDB.
+ * <p/>
+ * Operations run outside of a transaction are committed one by one, as
+ * ClusterJ does in auto-commit mode. Unlike ClusterJ, operations are not
+ * deferred until the next flush: a load, a write or a constraint violation
+ * takes effect or fails immediately, flush does nothing.
+ */
+public class MemorySession extends HopsSession {
+
+  private enum Write {
+    INSERT, UPDATE, SAVE, DELETE
+  }
+
+  private final MemoryStore store;
+  private final MemoryTransaction transaction = new MemoryTransaction();
+  private LockMode lockMode = LockMode.READ_COMMITTED;
+  private boolean closed = false;
+
+  MemorySession(MemoryStore store) {
+    super(null);
+    this.store = store;
+  }
+
+  MemoryStore getStore() {
+    return store;
+  }
+
+  MemoryTransaction getTransaction() {
+    return transaction;
+  }
+
+  @Override
+  public HopsQueryBuilder getQueryBuilder() {
+    return new MemoryQueryBuilder(store);
+  }
+
+  @Override
+  public <T> HopsQuery<T> createQuery(HopsQueryDomainType<T> queryDefinition)
+      throws StorageException {
+    MemoryQuery<T> query =
+        new MemoryQuery<>(this, (MemoryQueryDomainType<T>) queryDefinition);
+    DalTracer.getInstance().queryCreated(query);
+    return query;
+  }
+
+  @Override
+  public <T> T find(Class<T> aClass, Object o) throws StorageException {
+    TableMapping mapping = store.mapping(aClass);
+    Map<String, Object> row =
+        read(store.table(mapping), new RowKey(mapping.key(o)));
+    return row == null ? null : DtoHandler.<T>newInstance(mapping, row);
+  }
+
+  @Override
+  public <T> T newInstance(Class<T> aClass) throws StorageException {
+    return DtoHandler.newInstance(store.mapping(aClass), null);
+  }
+
+  @Override
+  public <T> T newInstance(Class<T> aClass, Object o) throws StorageException {
+    TableMapping mapping = store.mapping(aClass);
+    T instance = DtoHandler.newInstance(mapping, null);
+    DtoHandler handler = DtoHandler.of(instance);
+    Object[] key = mapping.key(o);
+    for (int i = 0; i < key.length; i++) {
+      handler.set(mapping.getPrimaryKey().get(i), key[i]);
+    }
+    return instance;
+  }
+
+  @Override
+  public <T> T makePersistent(T t) throws StorageException {
+    write(t, Write.INSERT);
+    return t;
+  }
+
+  @Override
+  public <T> T load(T t) throws StorageException {
+    DtoHandler handler = DtoHandler.of(t);
+    MemoryTable table = store.table(handler.getMapping());
+    Map<String, Object> row = read(table, table.keyOf(handler.getValues()));
+    if (row == null) {
+      handler.notFound();
+    } else {
+      handler.load(row);
+    }
+    return t;
+  }
+
+  @Override
+  public Boolean found(Object o) {
+    return DtoHandler.of(o).getFound();
+  }
+
+  @Override
+  public void persist(Object o) throws StorageException {
+    write(o, Write.INSERT);
+  }
+
+  @Override
+  public Iterable<?> makePersistentAll(Iterable<?> iterable)
+      throws StorageException {
+    for (Object o : iterable) {
+      write(o, Write.INSERT);
+    }
+    return iterable;
+  }
+
+  @Override
+  public <T> void deletePersistent(Class<T> aClass, Object o)
+      throws StorageException {
+    TableMapping mapping = store.mapping(aClass);
+    delete(store.table(mapping), new RowKey(mapping.key(o)));
+  }
+
+  @Override
+  public void deletePersistent(Object o) throws StorageException {
+    write(o, Write.DELETE);
+  }
+
+  @Override
+  public void remove(Object o) throws StorageException {
+    write(o, Write.DELETE);
+  }
+
+  @Override
+  public <T> int deletePersistentAll(Class<T> aClass) throws StorageException {
+    MemoryTable table = store.table(store.mapping(aClass));
+    Iterator<Map.Entry<RowKey, Map<String, Object>>> rows =
+        rows(table, null, null);
+    List<RowKey> keys = new ArrayList<>();
+    while (rows.hasNext()) {
+      keys.add(rows.next().getKey());
+    }
+    for (RowKey key : keys) {
+      delete(table, key);
+    }
+    return keys.size();
+  }
+
+  @Override
+  public void deletePersistentAll(Iterable<?> iterable)
+      throws StorageException {
+    for (Object o : iterable) {
+      write(o, Write.DELETE);
+    }
+  }
+
+  @Override
+  public void updatePersistent(Object o) throws StorageException {
+    write(o, Write.UPDATE);
+  }
+
+  @Override
+  public void updatePersistentAll(Iterable<?> iterable)
+      throws StorageException {
+    for (Object o : iterable) {
+      write(o, Write.UPDATE);
+    }
+  }
+
+  @Override
+  public <T> T savePersistent(T t) throws StorageException {
+    write(t, Write.SAVE);
+    return t;
+  }
+
+  @Override
+  public Iterable<?> savePersistentAll(Iterable<?> iterable)
+      throws StorageException {
+    for (Object o : iterable) {
+      write(o, Write.SAVE);
+    }
+    return iterable;
+  }
+
+  @Override
+  public HopsTransaction currentTransaction() {
+    return transaction;
+  }
+
+  @Override
+  public void close() throws StorageException {
+    if (transaction.isActive()) {
+      transaction.rollback();
+    }
+    closed = true;
+  }
+
+  @Override
+  public boolean isClosed() {
+    return closed;
+  }
+
+  @Override
+  public void flush() {
+    //operations are not deferred
+  }
+
+  @Override
+  public void setPartitionKey(Class<?> aClass, Object o)
+      throws StorageException {
+    //rows are not distributed, only check the key is valid
+    store.mapping(aClass).key(o);
+    rememberPartitionKey(aClass, o);
+  }
+
+  @Override
+  public void setLockMode(LockMode lockMode) throws StorageException {
+    checkLockMode(lockMode);
+    this.lockMode = lockMode;
+  }
+
+  @Override
+  public void markModified(Object o, String s) throws StorageException {
+    checkWritable();
+    DtoHandler handler = DtoHandler.of(o);
+    handler.markModified(handler.getMapping().column(s));
+  }
+
+  @Override
+  public String unloadSchema(Class<?> aClass) throws StorageException {
+    return store.mapping(aClass).getTable();
+  }
+
+  @Override
+  public <T> void release(T t) {
+  }
+
+  @Override
+  public <T> void release(Collection<T> t) {
+  }
+
+  @Override
+  public LockMode getCurrentLockMode() {
+    return lockMode;
+  }
+
+  /**
+   * Read a row with the lock mode of the session. Outside of a transaction
+   * the read is a committed read, a lock would be released right away.
+   */
+  private Map<String, Object> read(MemoryTable table, RowKey key)
+      throws StorageException {
+    if (transaction.isActive()) {
+      return transaction.read(table, key, lockMode);
+    }
+    return table.get(key);
+  }
+
+  private void delete(MemoryTable table, RowKey key) throws StorageException {
+    checkWritable();
+    boolean implicit = !transaction.isActive();
+    if (implicit) {
+      transaction.begin();
+    }
+    try {
+      transaction.write(table, key, null);
+      if (implicit) {
+        transaction.commit();
+      }
+    } catch (StorageException | RuntimeException e) {
+      if (implicit && transaction.isActive()) {
+        transaction.rollback();
+      }
+      throw e;
+    }
+  }
+
+  private void write(Object instance, Write kind) throws StorageException {
+    checkWritable();
+    DtoHandler handler = DtoHandler.of(instance);
+    MemoryTable table = store.table(handler.getMapping());
+    RowKey key = table.keyOf(handler.getValues());
+    boolean implicit = !transaction.isActive();
+    if (implicit) {
+      transaction.begin();
+    }
+    try {
+      Map<String, Object> current =
+          transaction.read(table, key, LockMode.EXCLUSIVE);
+      Map<String, Object> row;
+      switch (kind) {
+        case INSERT:
+          if (current != null) {
+            throw new TupleAlreadyExistedException("Tuple already existed " +
+                "when attempting to insert " + key + " in " + table.getName());
+          }
+          row = new HashMap<>(handler.getValues());
+          break;
+        case UPDATE:
+          if (current == null) {
+            throw new StorageException("Tuple did not exist: " + key +
+                " in " + table.getName());
+          }
+          row = merge(current, handler);
+          break;
+        case SAVE:
+          row = current == null ? new HashMap<>(handler.getValues()) :
+              merge(current, handler);
+          break;
+        default:
+          row = null;
+      }
+      transaction.write(table, key, row);
+      if (implicit) {
+        transaction.commit();
+      }
+    } catch (StorageException | RuntimeException e) {
+      if (implicit && transaction.isActive()) {
+        transaction.rollback();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Like ClusterJ, an update only writes the columns that were set.
+   */
+  private static Map<String, Object> merge(Map<String, Object> current,
+      DtoHandler handler) {
+    Map<String, Object> row = new HashMap<>(current);
+    for (String column : handler.getModified()) {
+      row.put(column, handler.getValues().get(column));
+    }
+    return row;
+  }
+
+  /**
+   * The rows of a key range as seen by the current transaction, locked
+   * according to the lock mode of the session. Null bounds scan the whole
+   * table.
+   */
+  List<Map<String, Object>> scan(MemoryTable table, RowKey from, RowKey to,
+      MemoryPredicate filter, Map<String, Object> params)
+      throws StorageException {
+    boolean active = transaction.isActive();
+    Iterator<Map.Entry<RowKey, Map<String, Object>>> rows =
+        rows(table, from, to);
+    List<Map<String, Object>> result = new ArrayList<>();
+    while (rows.hasNext()) {
+      Map.Entry<RowKey, Map<String, Object>> e = rows.next();
+      Map<String, Object> row = e.getValue();
+      if (filter != null && !filter.matches(row, params)) {
+        continue;
+      }
+      if (active && lockMode != LockMode.READ_COMMITTED) {
+        //the row may have changed while we were waiting for the lock
+        row = transaction.read(table, e.getKey(), lockMode);
+        if (row == null || (filter != null && !filter.matches(row, params))) {
+          continue;
+        }
+      }
+      result.add(row);
+    }
+    return result;
+  }
+
+  /**
+   * The rows of a key range as seen by the current transaction, in key
+   * order, null bounds for the whole table. The committed rows are read
+   * through a weakly consistent view of the table instead of a copy.
+   */
+  private Iterator<Map.Entry<RowKey, Map<String, Object>>> rows(
+      MemoryTable table, RowKey from, RowKey to) {
+    NavigableMap<RowKey, Map<String, Object>> committed =
+        from == null ? table.all() : table.range(from, to);
+    if (transaction.isActive()) {
+      return transaction.overlay(table, from, to, committed);
+    }
+    return committed.entrySet().iterator();
+  }
+
+  /**
+   * Read the rows of a list of primary keys, skipping the missing ones.
+   */
+  List<Map<String, Object>> lookup(MemoryTable table, List<RowKey> keys,
+      MemoryPredicate filter, Map<String, Object> params)
+      throws StorageException {
+    List<Map<String, Object>> result = new ArrayList<>();
+    for (RowKey key : keys) {
+      Map<String, Object> row = read(table, key);
+      if (row != null && (filter == null || filter.matches(row, params))) {
+        result.add(row);
+      }
+    }
+    return result;
+  }
+
+  void delete(MemoryTable table, Map<String, Object> row)
+      throws StorageException {
+    delete(table, table.keyOf(row));
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper.memory;
+
+import io.hops.metadata.ndb.mysqlserver.MysqlServerConnector;
+import io.hops.metadata.ndb.wrapper.HopsSession;
+import io.hops.metadata.ndb.wrapper.HopsSessionFactory;
+
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Serves {@link MemorySession}s on the process wide {@link MemoryStore}
+ * instead of sessions connected to MySQL Cluster. Selected with
+ * io.hops.metadata.ndb.backend=memory, meant for tests, benchmarks and
+ * profiling of the DAL without a cluster. The queries that go through the
+ * MySQL server (counts, streamed scans, truncations) are answered from the
+ * same store by {@link MemorySqlServer}.
+ */
+public class MemorySessionFactory extends HopsSessionFactory {
+
+  public static final String BACKEND = "io.hops.metadata.ndb.backend";
+  public static final String LOCK_TIMEOUT =
+      "io.hops.metadata.ndb.memory.lock.timeout";
+
+  private final MemoryStore store;
+
+  public MemorySessionFactory(Properties conf) {
+    super(null);
+    this.store = MemoryStore.getInstance();
+    store.enable(Long.parseLong(conf.getProperty(LOCK_TIMEOUT, "1200")));
+    MysqlServerConnector.getInstance().setConnectionProvider(
+        new MemorySqlServer(store));
+  }
+
+  public static boolean isSelected(Properties conf) {
+    return "memory".equalsIgnoreCase(conf.getProperty(BACKEND, "ndb"));
+  }
+
+  @Override
+  public HopsSession getSession() {
+    return new MemorySession(store);
+  }
+
+  @Override
+  public HopsSession getSession(Map map) {
+    return new MemorySession(store);
+  }
+
+  @Override
+  public void close() {
+  }
+}
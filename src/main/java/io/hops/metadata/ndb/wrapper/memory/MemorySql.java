@@ -0,0 +1,690 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper.memory;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.wrapper.memory.MemoryTable.RowKey;
+
+import java.sql.SQLException;
+import java.sql.SQLSyntaxErrorException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A statement of the SQL the DAL sends to the MySQL Server, parsed to run on
+ * a {@link MemoryStore}.
+ * <p/>
+ * Only the statements the DAL uses are understood: a select of columns,
+ * count(*), count(distinct ...), min(), max() or exists(select ...) from one
+ * table, a delete from one table and truncate table. The where clause
+ * combines comparisons, in, between, like and is null with and, or and
+ * parentheses; the values are '?' or literals; a limit can end a select or a
+ * delete. The tables of the information_schema and ndbinfo databases are
+ * empty.
+ */
+final class MemorySql {
+
+  enum Kind {
+    SELECT, DELETE, TRUNCATE, EMPTY
+  }
+
+  private enum Function {
+    COLUMN, COUNT, COUNT_DISTINCT, MIN, MAX, EXISTS
+  }
+
+  private static final Pattern SYSTEM_TABLES = Pattern.compile(
+      "\\bfrom\\s+`?(information_schema|ndbinfo)`?\\.",
+      Pattern.CASE_INSENSITIVE);
+
+  private static final class Item {
+    private final Function function;
+    private final List<String> columns;
+    private final String label;
+
+    Item(Function function, List<String> columns, String label) {
+      this.function = function;
+      this.columns = columns;
+      this.label = label;
+    }
+  }
+
+  private final String sql;
+  private Kind kind;
+  private String table;
+  private final List<Item> items = new ArrayList<>();
+  private MemoryPredicate where;
+  private String limit;
+  private MemorySql exists;
+  private final Map<String, Object> literals = new HashMap<>();
+  private int params = 0;
+
+  // parser state
+  private List<String> tokens;
+  private int pos;
+
+  private MemorySql(String sql) {
+    this.sql = sql;
+  }
+
+  static MemorySql parse(String sql) throws SQLException {
+    MemorySql statement = new MemorySql(sql);
+    if (SYSTEM_TABLES.matcher(sql).find()) {
+      statement.kind = Kind.EMPTY;
+      statement.params = count(sql, '?');
+      return statement;
+    }
+    statement.tokens = tokenize(sql);
+    statement.pos = 0;
+    statement.statement();
+    statement.tokens = null;
+    return statement;
+  }
+
+  Kind getKind() {
+    return kind;
+  }
+
+  /**
+   * @return the number of '?' of the statement
+   */
+  int getParameterCount() {
+    return params;
+  }
+
+  /**
+   * The result of a select: the labels of its columns and its rows, read
+   * from the committed rows of the table as the iteration goes.
+   */
+  static final class Result {
+    private final List<String> labels;
+    private final Iterator<Object[]> rows;
+
+    Result(List<String> labels, Iterator<Object[]> rows) {
+      this.labels = labels;
+      this.rows = rows;
+    }
+
+    List<String> getLabels() {
+      return labels;
+    }
+
+    Iterator<Object[]> getRows() {
+      return rows;
+    }
+  }
+
+  Result query(MemoryStore store, Object[] values) throws StorageException {
+    List<String> labels = new ArrayList<>(items.size());
+    for (Item item : items) {
+      labels.add(item.label);
+    }
+    if (kind == Kind.EMPTY) {
+      return new Result(labels, Collections.<Object[]>emptyIterator());
+    }
+    if (kind != Kind.SELECT) {
+      throw new StorageException("Not a query: " + sql);
+    }
+    Map<String, Object> bound = bind(values);
+    if (items.get(0).function == Function.COLUMN) {
+      return new Result(labels, project(scan(store, bound)));
+    }
+    Object[] row = new Object[items.size()];
+    for (int i = 0; i < row.length; i++) {
+      row[i] = aggregate(store, items.get(i), bound, values);
+    }
+    return new Result(labels,
+        Collections.singletonList(row).iterator());
+  }
+
+  /**
+   * Run a delete or a truncate table. The rows are deleted at once, without
+   * taking the locks of the rows.
+   *
+   * @return the number of rows deleted
+   */
+  int update(MemoryStore store, Object[] values) throws StorageException {
+    if (kind == Kind.TRUNCATE) {
+      store.truncate(table);
+      return 0;
+    }
+    if (kind != Kind.DELETE) {
+      throw new StorageException("Not an update: " + sql);
+    }
+    Map<String, Object> bound = bind(values);
+    MemoryTable memoryTable = store.table(table);
+    if (memoryTable == null) {
+      return 0;
+    }
+    long max = limit(bound);
+    List<RowKey> deleted = new ArrayList<>();
+    for (Map.Entry<RowKey, Map<String, Object>> row :
+        memoryTable.all().entrySet()) {
+      if (deleted.size() >= max) {
+        break;
+      }
+      if (where == null || where.matches(row.getValue(), bound)) {
+        deleted.add(row.getKey());
+      }
+    }
+    for (RowKey key : deleted) {
+      memoryTable.apply(key, null);
+    }
+    return deleted.size();
+  }
+
+  private Map<String, Object> bind(Object[] values) throws StorageException {
+    if (values.length < params) {
+      throw new StorageException("Parameter " + (values.length + 1) +
+          " of " + sql + " is not bound");
+    }
+    Map<String, Object> bound = new HashMap<>(literals);
+    for (int i = 0; i < params; i++) {
+      bound.put(param(i), values[i]);
+    }
+    return bound;
+  }
+
+  private long limit(Map<String, Object> bound) {
+    if (limit == null) {
+      return Long.MAX_VALUE;
+    }
+    return ((Number) bound.get(limit)).longValue();
+  }
+
+  private Iterator<Map<String, Object>> scan(MemoryStore store,
+      final Map<String, Object> bound) {
+    MemoryTable memoryTable = store.table(table);
+    if (memoryTable == null) {
+      return Collections.<Map<String, Object>>emptyIterator();
+    }
+    final Iterator<Map<String, Object>> rows =
+        memoryTable.all().values().iterator();
+    final long max = limit(bound);
+    return new Iterator<Map<String, Object>>() {
+      private Map<String, Object> next = null;
+      private long returned = 0;
+
+      @Override
+      public boolean hasNext() {
+        while (next == null && returned < max && rows.hasNext()) {
+          Map<String, Object> row = rows.next();
+          try {
+            if (where == null || where.matches(row, bound)) {
+              next = row;
+            }
+          } catch (StorageException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+        return next != null;
+      }
+
+      @Override
+      public Map<String, Object> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Map<String, Object> row = next;
+        next = null;
+        returned++;
+        return row;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  private Iterator<Object[]> project(
+      final Iterator<Map<String, Object>> rows) {
+    return new Iterator<Object[]>() {
+      @Override
+      public boolean hasNext() {
+        return rows.hasNext();
+      }
+
+      @Override
+      public Object[] next() {
+        Map<String, Object> row = rows.next();
+        Object[] values = new Object[items.size()];
+        for (int i = 0; i < values.length; i++) {
+          values[i] = row.get(items.get(i).columns.get(0));
+        }
+        return values;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  private Object aggregate(MemoryStore store, Item item,
+      Map<String, Object> bound, Object[] values) throws StorageException {
+    if (item.function == Function.EXISTS) {
+      return exists.scan(store, exists.bind(values)).hasNext();
+    }
+    Iterator<Map<String, Object>> rows = scan(store, bound);
+    long count = 0;
+    Set<List<Object>> distinct = new HashSet<>();
+    Object extreme = null;
+    while (rows.hasNext()) {
+      Map<String, Object> row = rows.next();
+      switch (item.function) {
+        case COUNT:
+          count++;
+          break;
+        case COUNT_DISTINCT:
+          List<Object> key = new ArrayList<>(item.columns.size());
+          boolean hasNull = false;
+          for (String column : item.columns) {
+            Object value = row.get(column);
+            hasNull |= value == null;
+            key.add(normalize(value));
+          }
+          if (!hasNull) {
+            distinct.add(key);
+          }
+          break;
+        default:
+          Object value = row.get(item.columns.get(0));
+          if (value != null && (extreme == null ||
+              (item.function == Function.MIN ?
+                  Values.compare(value, extreme) < 0 :
+                  Values.compare(value, extreme) > 0))) {
+            extreme = value;
+          }
+      }
+    }
+    switch (item.function) {
+      case COUNT:
+        return count;
+      case COUNT_DISTINCT:
+        return (long) distinct.size();
+      default:
+        return extreme;
+    }
+  }
+
+  private static Object normalize(Object value) {
+    if (value instanceof Integer || value instanceof Short ||
+        value instanceof Byte) {
+      return ((Number) value).longValue();
+    }
+    if (value instanceof byte[]) {
+      return Arrays.toString((byte[]) value);
+    }
+    return value;
+  }
+
+  private static String param(int index) {
+    return "?" + (index + 1);
+  }
+
+  // ---------------------------------------------------------------- parser
+
+  private void statement() throws SQLException {
+    if (accept("select")) {
+      select();
+    } else if (accept("delete")) {
+      kind = Kind.DELETE;
+      expect("from");
+      table();
+      tail();
+    } else if (accept("truncate")) {
+      kind = Kind.TRUNCATE;
+      accept("table");
+      table = name(next());
+    } else {
+      throw unsupported();
+    }
+    if (pos < tokens.size()) {
+      throw unsupported();
+    }
+  }
+
+  private void select() throws SQLException {
+    kind = Kind.SELECT;
+    if (peek("exists")) {
+      next();
+      expect("(");
+      expect("select");
+      exists = new MemorySql(sql);
+      exists.tokens = tokens;
+      exists.pos = pos;
+      exists.params = params;
+      exists.select();
+      pos = exists.pos;
+      params = exists.params;
+      literals.putAll(exists.literals);
+      exists.tokens = null;
+      expect(")");
+      items.add(new Item(Function.EXISTS, Collections.<String>emptyList(),
+          "exists"));
+      return;
+    }
+    do {
+      items.add(item());
+    } while (accept(","));
+    boolean columns = items.get(0).function == Function.COLUMN;
+    for (Item item : items) {
+      if ((item.function == Function.COLUMN) != columns) {
+        throw unsupported();
+      }
+    }
+    expect("from");
+    table();
+    tail();
+  }
+
+  private Item item() throws SQLException {
+    String token = next();
+    if (token.equals("*")) {
+      return new Item(Function.COLUMN, Collections.<String>emptyList(), "*");
+    }
+    Function function = null;
+    List<String> columns = new ArrayList<>();
+    if (peek("(")) {
+      next();
+      String name = token.toLowerCase(Locale.ENGLISH);
+      if (name.equals("count")) {
+        if (accept("*")) {
+          function = Function.COUNT;
+        } else {
+          expect("distinct");
+          function = Function.COUNT_DISTINCT;
+          do {
+            columns.add(name(next()));
+          } while (accept(","));
+        }
+      } else if (name.equals("min") || name.equals("max")) {
+        function = name.equals("min") ? Function.MIN : Function.MAX;
+        columns.add(name(next()));
+      } else {
+        throw unsupported();
+      }
+      expect(")");
+    } else {
+      function = Function.COLUMN;
+      columns.add(name(token));
+    }
+    String label = function == Function.COLUMN ? columns.get(0) : token;
+    if (accept("as")) {
+      label = name(next());
+    }
+    return new Item(function, columns, label);
+  }
+
+  private void table() throws SQLException {
+    table = name(next());
+    if (accept("partition")) {
+      // the rows of the memory backend are not partitioned
+      expect("(");
+      next();
+      expect(")");
+    }
+  }
+
+  private void tail() throws SQLException {
+    if (accept("where")) {
+      where = or();
+    }
+    if (accept("limit")) {
+      limit = value();
+    }
+  }
+
+  private MemoryPredicate or() throws SQLException {
+    MemoryPredicate predicate = and();
+    while (accept("or")) {
+      predicate = MemoryPredicate.or(predicate, and());
+    }
+    return predicate;
+  }
+
+  private MemoryPredicate and() throws SQLException {
+    MemoryPredicate predicate = condition();
+    while (accept("and")) {
+      predicate = MemoryPredicate.and(predicate, condition());
+    }
+    return predicate;
+  }
+
+  private MemoryPredicate condition() throws SQLException {
+    if (accept("(")) {
+      MemoryPredicate predicate = or();
+      expect(")");
+      return predicate;
+    }
+    MemoryPredicateOperand column = MemoryPredicateOperand.column(
+        name(next()));
+    if (accept("is")) {
+      boolean not = accept("not");
+      expect("null");
+      return (MemoryPredicate) (not ? column.isNotNull() : column.isNull());
+    }
+    boolean not = accept("not");
+    if (accept("in")) {
+      expect("(");
+      MemoryPredicate predicate = null;
+      do {
+        MemoryPredicate one = not ? notEqual(column, operand()) :
+            (MemoryPredicate) column.equal(operand());
+        predicate = predicate == null ? one : not ?
+            MemoryPredicate.and(predicate, one) :
+            MemoryPredicate.or(predicate, one);
+      } while (accept(","));
+      expect(")");
+      return predicate;
+    }
+    if (accept("between")) {
+      MemoryPredicateOperand from = operand();
+      expect("and");
+      MemoryPredicateOperand to = operand();
+      return not ? MemoryPredicate.or(
+          (MemoryPredicate) column.lessThan(from),
+          (MemoryPredicate) column.greaterThan(to)) :
+          (MemoryPredicate) column.between(from, to);
+    }
+    if (accept("like")) {
+      MemoryPredicate like = (MemoryPredicate) column.like(operand());
+      return not ? (MemoryPredicate) like.not() : like;
+    }
+    if (not) {
+      throw unsupported();
+    }
+    String op = next();
+    if (op.equals("<") && accept(">")) {
+      op = "<>";
+    } else if ((op.equals("<") || op.equals(">") || op.equals("!")) &&
+        accept("=")) {
+      op = op + "=";
+    }
+    MemoryPredicateOperand value = operand();
+    switch (op) {
+      case "=":
+        return (MemoryPredicate) column.equal(value);
+      case "<>":
+      case "!=":
+        return notEqual(column, value);
+      case "<":
+        return (MemoryPredicate) column.lessThan(value);
+      case "<=":
+        return (MemoryPredicate) column.lessEqual(value);
+      case ">":
+        return (MemoryPredicate) column.greaterThan(value);
+      case ">=":
+        return (MemoryPredicate) column.greaterEqual(value);
+      default:
+        throw unsupported();
+    }
+  }
+
+  /**
+   * Less or greater, so that a null value matches neither like in SQL.
+   */
+  private static MemoryPredicate notEqual(MemoryPredicateOperand column,
+      MemoryPredicateOperand value) {
+    return MemoryPredicate.or((MemoryPredicate) column.lessThan(value),
+        (MemoryPredicate) column.greaterThan(value));
+  }
+
+  private MemoryPredicateOperand operand() throws SQLException {
+    return MemoryPredicateOperand.param(value());
+  }
+
+  /**
+   * @return the name of the parameter holding the value
+   */
+  private String value() throws SQLException {
+    String token = next();
+    if (token.equals("?")) {
+      return param(params++);
+    }
+    Object literal;
+    char first = token.charAt(0);
+    if (first == '\'' || first == '"') {
+      literal = token.substring(1);
+    } else if (token.equals("-") || Character.isDigit(first)) {
+      String number = token.equals("-") ? "-" + next() : token;
+      try {
+        literal = number.contains(".") ? (Object) Double.valueOf(number) :
+            (Object) Long.valueOf(number);
+      } catch (NumberFormatException e) {
+        throw unsupported();
+      }
+    } else {
+      throw unsupported();
+    }
+    String name = "'" + literals.size();
+    literals.put(name, literal);
+    return name;
+  }
+
+  private static String name(String token) {
+    int dot = token.lastIndexOf('.');
+    return (dot < 0 ? token : token.substring(dot + 1)).replace("`", "");
+  }
+
+  private boolean peek(String token) {
+    return pos < tokens.size() && tokens.get(pos).equalsIgnoreCase(token);
+  }
+
+  private boolean accept(String token) {
+    if (peek(token)) {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+
+  private void expect(String token) throws SQLException {
+    if (!accept(token)) {
+      throw unsupported();
+    }
+  }
+
+  private String next() throws SQLException {
+    if (pos >= tokens.size()) {
+      throw unsupported();
+    }
+    return tokens.get(pos++);
+  }
+
+  private SQLException unsupported() {
+    return new SQLSyntaxErrorException("Not supported by the memory " +
+        "backend: " + sql);
+  }
+
+  /**
+   * Split a statement in words, numbers, symbols and string literals. A
+   * string literal is kept with its opening quote only, unescaped.
+   */
+  private static List<String> tokenize(String sql) throws SQLException {
+    List<String> tokens = new ArrayList<>();
+    int i = 0;
+    while (i < sql.length()) {
+      char c = sql.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (c == '\'' || c == '"') {
+        StringBuilder literal = new StringBuilder().append(c);
+        int j = i + 1;
+        while (true) {
+          if (j >= sql.length()) {
+            throw new SQLSyntaxErrorException("Unterminated string: " + sql);
+          }
+          char d = sql.charAt(j);
+          if (d == '\\' && j + 1 < sql.length()) {
+            literal.append(sql.charAt(j + 1));
+            j += 2;
+          } else if (d == c && j + 1 < sql.length() &&
+              sql.charAt(j + 1) == c) {
+            literal.append(c);
+            j += 2;
+          } else if (d == c) {
+            j++;
+            break;
+          } else {
+            literal.append(d);
+            j++;
+          }
+        }
+        tokens.add(literal.toString());
+        i = j;
+      } else if (Character.isLetterOrDigit(c) || c == '_' || c == '`') {
+        int j = i;
+        while (j < sql.length() && (Character.isLetterOrDigit(sql.charAt(j))
+            || sql.charAt(j) == '_' || sql.charAt(j) == '`' ||
+            sql.charAt(j) == '.' || sql.charAt(j) == '$')) {
+          j++;
+        }
+        tokens.add(sql.substring(i, j));
+        i = j;
+      } else {
+        tokens.add(String.valueOf(c));
+        i++;
+      }
+    }
+    return tokens;
+  }
+
+  private static int count(String sql, char c) {
+    int n = 0;
+    for (int i = 0; i < sql.length(); i++) {
+      if (sql.charAt(i) == c) {
+        n++;
+      }
+    }
+    return n;
+  }
+}
@@ -0,0 +1,308 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper.memory;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.mysqlserver.ConnectionProvider;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Serves the JDBC connections of the MySQL Server connector from a
+ * {@link MemoryStore}, so that the queries the DAL runs through the MySQL
+ * Server (counts, streamed scans, deletes, truncations) run on the memory
+ * backend too, with the same code as on MySQL Cluster. Installed by
+ * {@link MemorySessionFactory}.
+ * <p/>
+ * The connections only implement what the DAL uses of JDBC: prepared
+ * statements with bind variables and forward only result sets. The
+ * statements they understand are described in {@link MemorySql}. As on the
+ * MySQL Server, the reads see the committed rows only and the statements
+ * run outside of the transactions of the sessions.
+ */
+public class MemorySqlServer implements ConnectionProvider {
+
+  private static final int MAX_CACHED_STATEMENTS = 1000;
+
+  private final MemoryStore store;
+  private final ConcurrentMap<String, MemorySql> statements =
+      new ConcurrentHashMap<>();
+
+  MemorySqlServer(MemoryStore store) {
+    this.store = store;
+  }
+
+  @Override
+  public Connection getConnection() {
+    return proxy(Connection.class, new ConnectionHandler());
+  }
+
+  private MemorySql parse(String sql) throws SQLException {
+    MemorySql statement = statements.get(sql);
+    if (statement == null) {
+      statement = MemorySql.parse(sql);
+      if (statements.size() < MAX_CACHED_STATEMENTS) {
+        statements.putIfAbsent(sql, statement);
+      }
+    }
+    return statement;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return (T) Proxy.newProxyInstance(MemorySqlServer.class.getClassLoader(),
+        new Class<?>[]{type}, handler);
+  }
+
+  /**
+   * Dispatches the calls of a proxy to the methods of the handler with the
+   * same name and arity, the other calls are not supported.
+   */
+  private abstract static class Handler implements InvocationHandler {
+    protected boolean closed = false;
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      Object[] arguments = args == null ? new Object[0] : args;
+      switch (method.getName()) {
+        case "equals":
+          return proxy == arguments[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return getClass().getSimpleName() + "@" +
+              Integer.toHexString(System.identityHashCode(proxy));
+        case "close":
+          closed = true;
+          return null;
+        case "isClosed":
+          return closed;
+        default:
+      }
+      if (closed) {
+        throw new SQLException(method.getName() + " called after close");
+      }
+      try {
+        return handle(method, arguments);
+      } catch (StorageException e) {
+        throw new SQLException(e.getMessage(), e);
+      } catch (IllegalStateException e) {
+        if (e.getCause() instanceof StorageException) {
+          throw new SQLException(e.getCause().getMessage(), e.getCause());
+        }
+        throw e;
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    abstract Object handle(Method method, Object[] args) throws Exception;
+
+    static SQLException unsupported(Method method) {
+      return new SQLFeatureNotSupportedException(method.getName() +
+          " is not supported by the memory backend");
+    }
+  }
+
+  private class ConnectionHandler extends Handler {
+    private boolean autoCommit = true;
+
+    @Override
+    Object handle(Method method, Object[] args) throws Exception {
+      switch (method.getName()) {
+        case "prepareStatement":
+          return proxy(PreparedStatement.class,
+              new StatementHandler(parse((String) args[0])));
+        case "getAutoCommit":
+          return autoCommit;
+        case "setAutoCommit":
+          autoCommit = (Boolean) args[0];
+          return null;
+        case "commit":
+        case "rollback":
+        case "clearWarnings":
+          return null;
+        case "getWarnings":
+          return null;
+        case "isValid":
+          return true;
+        default:
+          throw unsupported(method);
+      }
+    }
+  }
+
+  private class StatementHandler extends Handler {
+    private final MemorySql statement;
+    private final List<Object> params = new ArrayList<>();
+
+    StatementHandler(MemorySql statement) {
+      this.statement = statement;
+    }
+
+    @Override
+    Object handle(Method method, Object[] args) throws Exception {
+      String name = method.getName();
+      if (name.startsWith("set") && args.length >= 2 &&
+          args[0] instanceof Integer) {
+        int index = (Integer) args[0];
+        while (params.size() < index) {
+          params.add(null);
+        }
+        params.set(index - 1, name.equals("setNull") ? null : args[1]);
+        return null;
+      }
+      switch (name) {
+        case "setFetchSize":
+        case "setMaxRows":
+        case "setQueryTimeout":
+        case "setEscapeProcessing":
+        case "setPoolable":
+          return null;
+        case "clearParameters":
+          params.clear();
+          return null;
+        case "executeQuery":
+          if (args.length > 0) {
+            throw unsupported(method);
+          }
+          return proxy(ResultSet.class, new ResultSetHandler(
+              statement.query(store, params.toArray())));
+        case "executeUpdate":
+          if (args.length > 0) {
+            throw unsupported(method);
+          }
+          return statement.update(store, params.toArray());
+        default:
+          throw unsupported(method);
+      }
+    }
+  }
+
+  private static class ResultSetHandler extends Handler {
+    private final List<String> labels;
+    private final Iterator<Object[]> rows;
+    private Object[] row = null;
+    private boolean wasNull = false;
+
+    ResultSetHandler(MemorySql.Result result) {
+      this.labels = result.getLabels();
+      this.rows = result.getRows();
+    }
+
+    @Override
+    Object handle(Method method, Object[] args) throws Exception {
+      String name = method.getName();
+      switch (name) {
+        case "next":
+          row = rows.hasNext() ? rows.next() : null;
+          return row != null;
+        case "wasNull":
+          return wasNull;
+        case "setFetchSize":
+        case "clearWarnings":
+          return null;
+        case "getWarnings":
+          return null;
+        case "findColumn":
+          return column(args[0]) + 1;
+        default:
+      }
+      if (!name.startsWith("get") || args.length != 1) {
+        throw unsupported(method);
+      }
+      if (row == null) {
+        throw new SQLException("No current row");
+      }
+      Object value = row[column(args[0])];
+      wasNull = value == null;
+      return convert(value, method.getReturnType(), method);
+    }
+
+    private int column(Object column) throws SQLException {
+      if (column instanceof Integer) {
+        int index = (Integer) column;
+        if (index < 1 || index > labels.size()) {
+          throw new SQLException("Column index " + index + " out of range");
+        }
+        return index - 1;
+      }
+      for (int i = 0; i < labels.size(); i++) {
+        if (labels.get(i).equalsIgnoreCase((String) column)) {
+          return i;
+        }
+      }
+      throw new SQLException("Column " + column + " not found");
+    }
+
+    private static Object convert(Object value, Class<?> type, Method method)
+        throws SQLException {
+      if (type == Object.class) {
+        return value;
+      }
+      if (type == String.class) {
+        return value == null ? null : value instanceof byte[] ?
+            new String((byte[]) value) : value.toString();
+      }
+      if (type == byte[].class) {
+        return value;
+      }
+      if (type == boolean.class) {
+        return value instanceof Boolean ? value :
+            value != null && ((Number) value).longValue() != 0;
+      }
+      Number number = value == null ? 0 : value instanceof Boolean ?
+          ((Boolean) value ? 1 : 0) : value instanceof String ?
+          Double.valueOf((String) value) : (Number) value;
+      if (type == long.class) {
+        return number.longValue();
+      }
+      if (type == int.class) {
+        return number.intValue();
+      }
+      if (type == short.class) {
+        return number.shortValue();
+      }
+      if (type == byte.class) {
+        return number.byteValue();
+      }
+      if (type == double.class) {
+        return number.doubleValue();
+      }
+      if (type == float.class) {
+        return number.floatValue();
+      }
+      throw unsupported(method);
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper.memory;
+
+import io.hops.exception.StorageException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The in-process database behind {@link MemorySessionFactory}: one
+ * {@link MemoryTable} per table, created the first time a DTO interface
+ * mapped to it is used.
+ * <p/>
+ * The order of the columns of composite primary keys is read from the
+ * schema.sql shipped with this jar.
+ */
+public class MemoryStore {
+
+  static final Log LOG = LogFactory.getLog(MemoryStore.class);
+
+  private static final MemoryStore instance = new MemoryStore();
+  private static final Pattern CREATE_TABLE = Pattern.compile(
+      "CREATE TABLE (?:IF NOT EXISTS )?`([^`]+)`", Pattern.CASE_INSENSITIVE);
+  private static final Pattern PRIMARY_KEY = Pattern.compile(
+      "PRIMARY KEY \\(([^)]*)\\)", Pattern.CASE_INSENSITIVE);
+
+  private final ConcurrentMap<String, MemoryTable> tables =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<Class<?>, TableMapping> mappings =
+      new ConcurrentHashMap<>();
+  private volatile Map<String, List<String>> schemaKeys = null;
+  private volatile boolean enabled = false;
+  private volatile long lockTimeout = 1200;
+
+  public static MemoryStore getInstance() {
+    return instance;
+  }
+
+  /**
+   * @return true if sessions are served by this store instead of NDB
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  void enable(long lockTimeout) {
+    this.lockTimeout = lockTimeout;
+    this.enabled = true;
+  }
+
+  /**
+   * Delete all the rows of a table, if it exists.
+   */
+  public void truncate(String tableName) {
+    MemoryTable table = tables.get(tableName);
+    if (table != null) {
+      table.truncate();
+    }
+  }
+
+  /**
+   * @return the number of rows of a table, 0 if it was never used
+   */
+  public int size(String tableName) {
+    MemoryTable table = tables.get(tableName);
+    return table == null ? 0 : table.size();
+  }
+
+  /**
+   * @return the table with the given name, null if no DTO mapped to it was
+   * used yet
+   */
+  MemoryTable table(String tableName) {
+    return tables.get(tableName);
+  }
+
+  TableMapping mapping(Class<?> type) throws StorageException {
+    TableMapping mapping = mappings.get(type);
+    if (mapping == null) {
+      mapping = new TableMapping(type, getSchemaKeys());
+      TableMapping existing = mappings.putIfAbsent(type, mapping);
+      if (existing != null) {
+        mapping = existing;
+      }
+    }
+    return mapping;
+  }
+
+  MemoryTable table(TableMapping mapping) {
+    MemoryTable table = tables.get(mapping.getTable());
+    if (table == null) {
+      MemoryTable created = new MemoryTable(mapping.getTable(),
+          mapping.getPrimaryKey(), mapping.getPartitionKey(), lockTimeout);
+      table = tables.putIfAbsent(mapping.getTable(), created);
+      if (table == null) {
+        table = created;
+      }
+    }
+    return table;
+  }
+
+  private Map<String, List<String>> getSchemaKeys() {
+    if (schemaKeys == null) {
+      synchronized (this) {
+        if (schemaKeys == null) {
+          schemaKeys = loadSchemaKeys();
+        }
+      }
+    }
+    return schemaKeys;
+  }
+
+  private static Map<String, List<String>> loadSchemaKeys() {
+    Map<String, List<String>> keys = new HashMap<>();
+    InputStream in = MemoryStore.class.getClassLoader()
+        .getResourceAsStream("schema.sql");
+    if (in == null) {
+      LOG.warn("schema.sql not found, composite keys follow the order of " +
+          "the DTO annotations");
+      return keys;
+    }
+    StringBuilder schema = new StringBuilder();
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(in, "UTF-8"))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        schema.append(line).append('\n');
+      }
+    } catch (IOException e) {
+      LOG.warn("Could not read schema.sql", e);
+      return keys;
+    }
+    Matcher table = CREATE_TABLE.matcher(schema);
+    List<Integer> starts = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    while (table.find()) {
+      starts.add(table.end());
+      names.add(table.group(1));
+    }
+    for (int i = 0; i < names.size(); i++) {
+      int end = i + 1 < starts.size() ? starts.get(i + 1) : schema.length();
+      Matcher pk = PRIMARY_KEY.matcher(schema.subSequence(starts.get(i), end));
+      if (pk.find()) {
+        List<String> columns = new ArrayList<>();
+        for (String column : pk.group(1).split(",")) {
+          columns.add(column.replace("`", "").trim());
+        }
+        keys.put(names.get(i), columns);
+      }
+    }
+    return keys;
+  }
+}
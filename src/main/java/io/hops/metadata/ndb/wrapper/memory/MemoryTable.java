@@ -0,0 +1,276 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper.memory;
+
+import io.hops.exception.StorageException;
+import io.hops.exception.TransientDeadLockException;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The committed rows of a table, sorted by primary key, and the row locks
+ * held by the transactions working on it.
+ * <p/>
+ * Rows are maps from column name to value so that all the DTO interfaces
+ * mapped to the same table share them. Committed rows are never modified in
+ * place, a commit replaces them.
+ */
+class MemoryTable {
+
+  /**
+   * A primary key, or a prefix of it used as a scan bound. A prefix sorts
+   * before (tie < 0) or after (tie > 0) all the keys it is a prefix of.
+   */
+  static final class RowKey implements Comparable<RowKey> {
+    private final Object[] values;
+    private final int tie;
+
+    RowKey(Object[] values) {
+      this(values, 0);
+    }
+
+    RowKey(Object[] values, int tie) {
+      this.values = values;
+      this.tie = tie;
+    }
+
+    Object[] getValues() {
+      return values;
+    }
+
+    @Override
+    public int compareTo(RowKey o) {
+      int n = Math.min(values.length, o.values.length);
+      for (int i = 0; i < n; i++) {
+        int c = Values.compare(values[i], o.values[i]);
+        if (c != 0) {
+          return c;
+        }
+      }
+      if (values.length == o.values.length) {
+        return Integer.compare(tie, o.tie);
+      }
+      return values.length < o.values.length ? (tie != 0 ? tie : -1) :
+          (o.tie != 0 ? -o.tie : 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof RowKey && compareTo((RowKey) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      int h = tie;
+      for (Object v : values) {
+        h = 31 * h + (v instanceof Number ?
+            Long.valueOf(((Number) v).longValue()).hashCode() :
+            (v instanceof byte[] ? Arrays.hashCode((byte[]) v) :
+                (v == null ? 0 : v.hashCode())));
+      }
+      return h;
+    }
+
+    @Override
+    public String toString() {
+      return Arrays.deepToString(values);
+    }
+  }
+
+  /**
+   * Shared/exclusive lock on one row. A lock that becomes free is retired
+   * and removed from the table, waiters then retry with a new one.
+   */
+  private static final class RowLock {
+    private MemoryTransaction exclusive;
+    private final Set<MemoryTransaction> shared = new HashSet<>();
+    private boolean retired;
+  }
+
+  private final String name;
+  private final List<String> primaryKey;
+  private final String partitionKey;
+  private final ConcurrentSkipListMap<RowKey, Map<String, Object>> rows =
+      new ConcurrentSkipListMap<>();
+  private final ConcurrentMap<RowKey, RowLock> locks =
+      new ConcurrentHashMap<>();
+  private final long lockTimeout;
+
+  private final AtomicLong primaryKeyReads = new AtomicLong();
+  private final AtomicLong indexScans = new AtomicLong();
+  private final AtomicLong tableScans = new AtomicLong();
+
+  MemoryTable(String name, List<String> primaryKey, String partitionKey,
+      long lockTimeout) {
+    this.name = name;
+    this.primaryKey = primaryKey;
+    this.partitionKey = partitionKey;
+    this.lockTimeout = lockTimeout;
+  }
+
+  String getName() {
+    return name;
+  }
+
+  List<String> getPrimaryKey() {
+    return primaryKey;
+  }
+
+  String getPartitionKey() {
+    return partitionKey;
+  }
+
+  RowKey keyOf(Map<String, Object> row) throws StorageException {
+    Object[] values = new Object[primaryKey.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = row.get(primaryKey.get(i));
+      if (values[i] == null) {
+        throw new StorageException("Primary key column " + primaryKey.get(i) +
+            " of " + name + " is not set");
+      }
+    }
+    return new RowKey(values);
+  }
+
+  Map<String, Object> get(RowKey key) {
+    primaryKeyReads.incrementAndGet();
+    return rows.get(key);
+  }
+
+  NavigableMap<RowKey, Map<String, Object>> range(RowKey from, RowKey to) {
+    indexScans.incrementAndGet();
+    return rows.subMap(from, true, to, true);
+  }
+
+  NavigableMap<RowKey, Map<String, Object>> all() {
+    tableScans.incrementAndGet();
+    return rows;
+  }
+
+  void apply(RowKey key, Map<String, Object> row) {
+    if (row == null) {
+      rows.remove(key);
+    } else {
+      rows.put(key, row);
+    }
+  }
+
+  int size() {
+    return rows.size();
+  }
+
+  void truncate() {
+    rows.clear();
+  }
+
+  long getPrimaryKeyReads() {
+    return primaryKeyReads.get();
+  }
+
+  long getIndexScans() {
+    return indexScans.get();
+  }
+
+  long getTableScans() {
+    return tableScans.get();
+  }
+
+  /**
+   * Lock a row for the transaction, waiting up to the lock timeout for the
+   * conflicting locks to be released. Like NDB, a lock wait that times out
+   * is reported as a deadlock.
+   *
+   * @return true if the lock was acquired by this call, false if the
+   * transaction already held it
+   */
+  boolean lock(MemoryTransaction tx, RowKey key, boolean exclusive)
+      throws StorageException {
+    long deadline = System.nanoTime() +
+        TimeUnit.MILLISECONDS.toNanos(lockTimeout);
+    while (true) {
+      RowLock lock = locks.get(key);
+      if (lock == null) {
+        RowLock created = new RowLock();
+        lock = locks.putIfAbsent(key, created);
+        if (lock == null) {
+          lock = created;
+        }
+      }
+      synchronized (lock) {
+        while (!lock.retired) {
+          if (lock.exclusive == tx ||
+              (!exclusive && lock.shared.contains(tx))) {
+            return false;
+          }
+          boolean free = lock.exclusive == null && (!exclusive ||
+              lock.shared.isEmpty() ||
+              (lock.shared.size() == 1 && lock.shared.contains(tx)));
+          if (free) {
+            boolean upgrade = exclusive && lock.shared.remove(tx);
+            if (exclusive) {
+              lock.exclusive = tx;
+            } else {
+              lock.shared.add(tx);
+            }
+            return !upgrade;
+          }
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            throw new TransientDeadLockException("Time-out in NDB, probably " +
+                "caused by deadlock: row " + key + " of " + name);
+          }
+          try {
+            TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException(e);
+          }
+        }
+      }
+    }
+  }
+
+  void unlock(MemoryTransaction tx, RowKey key) {
+    RowLock lock = locks.get(key);
+    if (lock == null) {
+      return;
+    }
+    synchronized (lock) {
+      if (lock.exclusive == tx) {
+        lock.exclusive = null;
+      }
+      lock.shared.remove(tx);
+      if (lock.exclusive == null && lock.shared.isEmpty()) {
+        lock.retired = true;
+        locks.remove(key, lock);
+      }
+      lock.notifyAll();
+    }
+  }
+}
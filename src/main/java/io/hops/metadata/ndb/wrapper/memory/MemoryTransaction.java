@@ -0,0 +1,270 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper.memory;
+
+import com.mysql.clusterj.LockMode;
+import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.wrapper.HopsTransaction;
+import io.hops.metadata.ndb.wrapper.memory.MemoryTable.RowKey;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * A transaction of a {@link MemorySession}.
+ * <p/>
+ * Writes take an exclusive lock on their row and are buffered until the
+ * commit, reads see the writes of their own transaction and the last
+ * committed version of the other rows. Reads made with
+ * {@link LockMode#SHARED} or {@link LockMode#EXCLUSIVE} lock the rows they
+ * return until the end of the transaction, {@link LockMode#READ_COMMITTED}
+ * reads do not lock anything and never wait, as in NDB.
+ */
+class MemoryTransaction extends HopsTransaction {
+
+  private static final Map<String, Object> DELETED =
+      Collections.unmodifiableMap(new HashMap<String, Object>());
+
+  private static final class HeldLock {
+    private final MemoryTable table;
+    private final RowKey key;
+
+    HeldLock(MemoryTable table, RowKey key) {
+      this.table = table;
+      this.key = key;
+    }
+  }
+
+  private boolean active = false;
+  private boolean rollbackOnly = false;
+  private final Map<MemoryTable, NavigableMap<RowKey, Map<String, Object>>>
+      writes = new LinkedHashMap<>();
+  private final List<HeldLock> locks = new ArrayList<>();
+
+  MemoryTransaction() {
+    super(null);
+  }
+
+  @Override
+  public void begin() throws StorageException {
+    if (active) {
+      throw new StorageException("Transaction already active");
+    }
+    active = true;
+    rollbackOnly = false;
+  }
+
+  @Override
+  public void commit() throws StorageException {
+    if (!active) {
+      throw new StorageException("Transaction not active");
+    }
+    if (rollbackOnly) {
+      rollback();
+      throw new StorageException("Transaction was set to rollback only");
+    }
+    for (Map.Entry<MemoryTable, NavigableMap<RowKey, Map<String, Object>>> e :
+        writes.entrySet()) {
+      for (Map.Entry<RowKey, Map<String, Object>> w :
+          e.getValue().entrySet()) {
+        e.getKey().apply(w.getKey(),
+            w.getValue() == DELETED ? null : w.getValue());
+      }
+    }
+    end();
+  }
+
+  @Override
+  public void rollback() throws StorageException {
+    if (!active) {
+      throw new StorageException("Transaction not active");
+    }
+    end();
+  }
+
+  @Override
+  public boolean isActive() {
+    return active;
+  }
+
+  @Override
+  public void setRollbackOnly() {
+    rollbackOnly = true;
+  }
+
+  @Override
+  public boolean getRollbackOnly() {
+    return rollbackOnly;
+  }
+
+  private void end() {
+    writes.clear();
+    for (HeldLock lock : locks) {
+      lock.table.unlock(this, lock.key);
+    }
+    locks.clear();
+    active = false;
+  }
+
+  private void lock(MemoryTable table, RowKey key, boolean exclusive)
+      throws StorageException {
+    if (table.lock(this, key, exclusive)) {
+      locks.add(new HeldLock(table, key));
+    }
+  }
+
+  /**
+   * Lock a row as required by the lock mode of a read.
+   */
+  void lockForRead(MemoryTable table, RowKey key, LockMode mode)
+      throws StorageException {
+    if (mode == LockMode.SHARED) {
+      lock(table, key, false);
+    } else if (mode == LockMode.EXCLUSIVE) {
+      lock(table, key, true);
+    }
+  }
+
+  /**
+   * @return the row as seen by this transaction, null if it does not exist
+   */
+  Map<String, Object> read(MemoryTable table, RowKey key, LockMode mode)
+      throws StorageException {
+    lockForRead(table, key, mode);
+    NavigableMap<RowKey, Map<String, Object>> own = writes.get(table);
+    if (own != null) {
+      Map<String, Object> row = own.get(key);
+      if (row != null) {
+        return row == DELETED ? null : row;
+      }
+    }
+    return table.get(key);
+  }
+
+  /**
+   * Buffer the new version of a row, null to delete it.
+   */
+  void write(MemoryTable table, RowKey key, Map<String, Object> row)
+      throws StorageException {
+    lock(table, key, true);
+    NavigableMap<RowKey, Map<String, Object>> own = writes.get(table);
+    if (own == null) {
+      own = new TreeMap<>();
+      writes.put(table, own);
+    }
+    own.put(key, row == null ? DELETED : row);
+  }
+
+  /**
+   * The committed rows of a key range with the writes of this transaction
+   * overlaid, in key order, null bounds for the whole table. The committed
+   * rows are iterated through the given view of the table, not copied.
+   */
+  Iterator<Map.Entry<RowKey, Map<String, Object>>> overlay(MemoryTable table,
+      RowKey from, RowKey to,
+      NavigableMap<RowKey, Map<String, Object>> committed) {
+    NavigableMap<RowKey, Map<String, Object>> own = writes.get(table);
+    if (own != null && from != null) {
+      own = own.subMap(from, true, to, true);
+    }
+    if (own == null || own.isEmpty()) {
+      return committed.entrySet().iterator();
+    }
+    return new Overlay(committed.entrySet().iterator(),
+        own.entrySet().iterator());
+  }
+
+  /**
+   * Merges the committed rows and the writes of a transaction, both sorted
+   * by key. A write replaces the committed row with the same key, deleted
+   * rows are skipped.
+   */
+  private static class Overlay
+      implements Iterator<Map.Entry<RowKey, Map<String, Object>>> {
+    private final Iterator<Map.Entry<RowKey, Map<String, Object>>> committed;
+    private final Iterator<Map.Entry<RowKey, Map<String, Object>>> own;
+    private Map.Entry<RowKey, Map<String, Object>> nextCommitted;
+    private Map.Entry<RowKey, Map<String, Object>> nextOwn;
+    private Map.Entry<RowKey, Map<String, Object>> next;
+
+    Overlay(Iterator<Map.Entry<RowKey, Map<String, Object>>> committed,
+        Iterator<Map.Entry<RowKey, Map<String, Object>>> own) {
+      this.committed = committed;
+      this.own = own;
+      this.nextCommitted = advance(committed);
+      this.nextOwn = advance(own);
+      this.next = compute();
+    }
+
+    private static Map.Entry<RowKey, Map<String, Object>> advance(
+        Iterator<Map.Entry<RowKey, Map<String, Object>>> it) {
+      return it.hasNext() ? it.next() : null;
+    }
+
+    private Map.Entry<RowKey, Map<String, Object>> compute() {
+      while (nextCommitted != null || nextOwn != null) {
+        int order = nextOwn == null ? -1 : nextCommitted == null ? 1 :
+            nextCommitted.getKey().compareTo(nextOwn.getKey());
+        Map.Entry<RowKey, Map<String, Object>> entry;
+        if (order < 0) {
+          entry = nextCommitted;
+          nextCommitted = advance(committed);
+          return entry;
+        }
+        if (order == 0) {
+          nextCommitted = advance(committed);
+        }
+        entry = nextOwn;
+        nextOwn = advance(own);
+        if (entry.getValue() != DELETED) {
+          return entry;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Map.Entry<RowKey, Map<String, Object>> next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      Map.Entry<RowKey, Map<String, Object>> entry = next;
+      next = compute();
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper.memory;
+
+import com.mysql.clusterj.annotation.Column;
+import com.mysql.clusterj.annotation.Index;
+import com.mysql.clusterj.annotation.PartitionKey;
+import com.mysql.clusterj.annotation.PersistenceCapable;
+import com.mysql.clusterj.annotation.PrimaryKey;
+import io.hops.exception.StorageException;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How a DTO interface maps to a table: the column behind every property, the
+ * primary key and the indexes, read from the ClusterJ annotations the same
+ * way ClusterJ does (the property of getFooBar is fooBar and its column is
+ * fooBar unless {@link Column} says otherwise).
+ */
+class TableMapping {
+
+  private final Class<?> type;
+  private final String table;
+  private final Map<String, String> propertyToColumn = new HashMap<>();
+  private final Map<String, Class<?>> columnTypes = new HashMap<>();
+  private final Map<Method, String> getters = new HashMap<>();
+  private final Map<Method, String> setters = new HashMap<>();
+  private final List<String> primaryKey;
+  private final String partitionKey;
+  // index name -> first column of the index
+  private final Map<String, String> indexes = new LinkedHashMap<>();
+
+  TableMapping(Class<?> type, Map<String, List<String>> schemaKeys)
+      throws StorageException {
+    this.type = type;
+    PersistenceCapable pc = type.getAnnotation(PersistenceCapable.class);
+    if (pc == null) {
+      throw new StorageException(type.getName() + " is not persistence capable");
+    }
+    this.table = pc.table();
+    List<String> declaredKey = new ArrayList<>();
+    for (Method m : type.getMethods()) {
+      String name = m.getName();
+      if (name.startsWith("get") && m.getParameterTypes().length == 0) {
+        String property = property(name);
+        Column column = m.getAnnotation(Column.class);
+        String columnName = column != null && !column.name().isEmpty() ?
+            column.name() : property;
+        propertyToColumn.put(property, columnName);
+        columnTypes.put(columnName, m.getReturnType());
+        getters.put(m, columnName);
+        if (m.getAnnotation(PrimaryKey.class) != null) {
+          declaredKey.add(columnName);
+        }
+        Index index = m.getAnnotation(Index.class);
+        if (index != null) {
+          indexes.put(index.name(), columnName);
+        }
+      }
+    }
+    for (Method m : type.getMethods()) {
+      String name = m.getName();
+      if (name.startsWith("set") && m.getParameterTypes().length == 1) {
+        String column = propertyToColumn.get(property(name));
+        if (column != null) {
+          setters.put(m, column);
+        }
+      }
+    }
+    this.primaryKey = Collections.unmodifiableList(
+        keyOrder(declaredKey, schemaKeys.get(table)));
+    PartitionKey pk = type.getAnnotation(PartitionKey.class);
+    this.partitionKey = pk != null && !pk.column().isEmpty() ? pk.column() :
+        (primaryKey.isEmpty() ? null : primaryKey.get(0));
+  }
+
+  /**
+   * The order of the columns of a composite key is the order of the table
+   * definition, which is what keys given as Object[] follow. Fall back to
+   * the order of the annotations when the table is not in the schema.
+   */
+  private List<String> keyOrder(List<String> declared,
+      List<String> schema) {
+    List<String> ordered = match(declared, schema);
+    return ordered != null ? ordered : annotatedOrder(declared);
+  }
+
+  /**
+   * @return the declared columns in the given order, null if they are not
+   * the same columns
+   */
+  private static List<String> match(List<String> declared,
+      List<String> order) {
+    if (order == null || order.size() != declared.size()) {
+      return null;
+    }
+    List<String> ordered = new ArrayList<>(order.size());
+    for (String column : order) {
+      String match = null;
+      for (String d : declared) {
+        if (d.equalsIgnoreCase(column)) {
+          match = d;
+        }
+      }
+      if (match == null) {
+        return null;
+      }
+      ordered.add(match);
+    }
+    return ordered;
+  }
+
+  /**
+   * The key columns listed by a {@link PrimaryKey} on the type if any.
+   * Otherwise the partition key column comes first and the other key
+   * columns follow by name, reflection does not keep the order the getters
+   * are declared in.
+   */
+  private List<String> annotatedOrder(List<String> columns) {
+    PrimaryKey typeKey = type.getAnnotation(PrimaryKey.class);
+    if (typeKey != null) {
+      List<String> ordered = match(columns, Arrays.asList(typeKey.columns()));
+      if (ordered != null) {
+        return ordered;
+      }
+    }
+    PartitionKey pk = type.getAnnotation(PartitionKey.class);
+    final String partitionColumn = pk == null ? "" : pk.column();
+    List<String> sorted = new ArrayList<>(columns);
+    Collections.sort(sorted, new Comparator<String>() {
+      @Override
+      public int compare(String a, String b) {
+        boolean aFirst = a.equalsIgnoreCase(partitionColumn);
+        boolean bFirst = b.equalsIgnoreCase(partitionColumn);
+        if (aFirst != bFirst) {
+          return aFirst ? -1 : 1;
+        }
+        return a.compareTo(b);
+      }
+    });
+    return sorted;
+  }
+
+  private static String property(String accessor) {
+    String p = accessor.substring(3);
+    return Character.toLowerCase(p.charAt(0)) + p.substring(1);
+  }
+
+  Class<?> getType() {
+    return type;
+  }
+
+  String getTable() {
+    return table;
+  }
+
+  List<String> getPrimaryKey() {
+    return primaryKey;
+  }
+
+  String getPartitionKey() {
+    return partitionKey;
+  }
+
+  Map<String, String> getIndexes() {
+    return indexes;
+  }
+
+  String getterColumn(Method m) {
+    return getters.get(m);
+  }
+
+  String setterColumn(Method m) {
+    return setters.get(m);
+  }
+
+  Class<?> columnType(String column) {
+    return columnTypes.get(column);
+  }
+
+  String column(String property) throws StorageException {
+    String column = propertyToColumn.get(property);
+    if (column == null) {
+      throw new StorageException("Unknown property " + property + " of " +
+          type.getName());
+    }
+    return column;
+  }
+
+  /**
+   * The primary key given to find, newInstance or setPartitionKey as a
+   * single value or an Object[] in key order.
+   */
+  Object[] key(Object key) throws StorageException {
+    Object[] values = key instanceof Object[] ? (Object[]) key :
+        new Object[]{key};
+    if (values.length != primaryKey.size()) {
+      throw new StorageException("Wrong number of key columns for " + table +
+          ": " + values.length + " instead of " + primaryKey.size());
+    }
+    Object[] converted = new Object[values.length];
+    for (int i = 0; i < values.length; i++) {
+      converted[i] = Values.convert(values[i],
+          columnTypes.get(primaryKey.get(i)));
+    }
+    return converted;
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper.memory;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Comparison of column values the way NDB compares them: numbers by value
+ * whatever their boxed type, strings lexicographically, binary columns byte
+ * by byte and null before anything else.
+ */
+final class Values {
+
+  private Values() {
+  }
+
+  @SuppressWarnings("unchecked")
+  static int compare(Object a, Object b) {
+    if (a == b) {
+      return 0;
+    }
+    if (a == null) {
+      return -1;
+    }
+    if (b == null) {
+      return 1;
+    }
+    if (a instanceof Number && b instanceof Number) {
+      if (isIntegral(a) && isIntegral(b)) {
+        long x = ((Number) a).longValue();
+        long y = ((Number) b).longValue();
+        return x < y ? -1 : (x == y ? 0 : 1);
+      }
+      return Double.compare(((Number) a).doubleValue(),
+          ((Number) b).doubleValue());
+    }
+    if (a instanceof byte[] && b instanceof byte[]) {
+      byte[] x = (byte[]) a;
+      byte[] y = (byte[]) b;
+      for (int i = 0; i < Math.min(x.length, y.length); i++) {
+        if (x[i] != y[i]) {
+          return (x[i] & 0xff) - (y[i] & 0xff);
+        }
+      }
+      return x.length - y.length;
+    }
+    if (a instanceof Boolean && b instanceof Number) {
+      return compare((Boolean) a ? 1 : 0, b);
+    }
+    if (a instanceof Number && b instanceof Boolean) {
+      return compare(a, (Boolean) b ? 1 : 0);
+    }
+    if (a.getClass() != b.getClass()) {
+      return a.toString().compareTo(b.toString());
+    }
+    return ((Comparable<Object>) a).compareTo(b);
+  }
+
+  static boolean equal(Object a, Object b) {
+    if (a instanceof byte[] && b instanceof byte[]) {
+      return Arrays.equals((byte[]) a, (byte[]) b);
+    }
+    return compare(a, b) == 0;
+  }
+
+  private static boolean isIntegral(Object o) {
+    return o instanceof Long || o instanceof Integer || o instanceof Short ||
+        o instanceof Byte;
+  }
+
+  /**
+   * The values of an in() parameter, given as a collection or an array.
+   */
+  static List<Object> toList(Object param) {
+    if (param instanceof Collection) {
+      return new ArrayList<Object>((Collection<?>) param);
+    }
+    if (param != null && param.getClass().isArray()) {
+      int length = Array.getLength(param);
+      List<Object> list = new ArrayList<>(length);
+      for (int i = 0; i < length; i++) {
+        list.add(Array.get(param, i));
+      }
+      return list;
+    }
+    List<Object> list = new ArrayList<>(1);
+    list.add(param);
+    return list;
+  }
+
+  /**
+   * Translate a SQL like pattern (% and _ wildcards, \ escape) to a regular
+   * expression.
+   */
+  static Pattern likePattern(String like) {
+    StringBuilder regex = new StringBuilder();
+    StringBuilder literal = new StringBuilder();
+    for (int i = 0; i < like.length(); i++) {
+      char c = like.charAt(i);
+      if (c == '\\' && i + 1 < like.length()) {
+        literal.append(like.charAt(++i));
+      } else if (c == '%' || c == '_') {
+        if (literal.length() > 0) {
+          regex.append(Pattern.quote(literal.toString()));
+          literal.setLength(0);
+        }
+        regex.append(c == '%' ? ".*" : ".");
+      } else {
+        literal.append(c);
+      }
+    }
+    if (literal.length() > 0) {
+      regex.append(Pattern.quote(literal.toString()));
+    }
+    return Pattern.compile(regex.toString(), Pattern.DOTALL);
+  }
+
+  /**
+   * Convert a number to the type of the property it is assigned to, keys and
+   * parameters are often given as Integer for long columns.
+   */
+  static Object convert(Object value, Class<?> type) {
+    if (!(value instanceof Number)) {
+      return value;
+    }
+    Number n = (Number) value;
+    if (type == long.class || type == Long.class) {
+      return n.longValue();
+    }
+    if (type == int.class || type == Integer.class) {
+      return n.intValue();
+    }
+    if (type == short.class || type == Short.class) {
+      return n.shortValue();
+    }
+    if (type == byte.class || type == Byte.class) {
+      return n.byteValue();
+    }
+    if (type == float.class || type == Float.class) {
+      return n.floatValue();
+    }
+    if (type == double.class || type == Double.class) {
+      return n.doubleValue();
+    }
+    return value;
+  }
+
+  /**
+   * The value a column of the given java type has when it was never set.
+   */
+  static Object defaultValue(Class<?> type) {
+    if (!type.isPrimitive()) {
+      return null;
+    }
+    if (type == boolean.class) {
+      return false;
+    }
+    if (type == long.class) {
+      return 0L;
+    }
+    if (type == int.class) {
+      return 0;
+    }
+    if (type == short.class) {
+      return (short) 0;
+    }
+    if (type == byte.class) {
+      return (byte) 0;
+    }
+    if (type == float.class) {
+      return 0f;
+    }
+    if (type == double.class) {
+      return 0d;
+    }
+    if (type == char.class) {
+      return (char) 0;
+    }
+    return null;
+  }
+}
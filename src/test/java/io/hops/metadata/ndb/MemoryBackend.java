@@ -0,0 +1,64 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.wrapper.memory.MemorySessionFactory;
+import io.hops.metadata.ndb.wrapper.memory.MemoryStore;
+
+import java.util.Properties;
+
+/**
+ * Configures the connector, once per JVM, to serve its sessions from the
+ * in-memory backend, for the tests of the DAL classes.
+ */
+public class MemoryBackend {
+
+  private static boolean started = false;
+
+  private MemoryBackend() {
+  }
+
+  public static synchronized ClusterjConnector start()
+      throws StorageException {
+    ClusterjConnector connector = ClusterjConnector.getInstance();
+    if (!started) {
+      Properties conf = new Properties();
+      conf.setProperty(MemorySessionFactory.BACKEND, "memory");
+      conf.setProperty(MemorySessionFactory.LOCK_TIMEOUT, "100");
+      conf.setProperty("io.hops.session.pool.size", "4");
+      conf.setProperty("io.hops.session.reuse.count", "2147483647");
+      conf.setProperty("io.hops.metadata.ndb.metrics", "counters");
+      connector.setConfiguration(conf);
+      started = true;
+    }
+    return connector;
+  }
+
+  /**
+   * Empty the tables, and return the session of the calling thread to the
+   * pool.
+   */
+  public static void truncate(String... tables) throws StorageException {
+    for (String table : tables) {
+      MemoryStore.getInstance().truncate(table);
+    }
+    ClusterjConnector.getInstance().returnSession(false);
+  }
+}
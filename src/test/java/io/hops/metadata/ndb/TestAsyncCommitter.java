@@ -0,0 +1,180 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.metrics.NoOpMetricsRegistry;
+import io.hops.metadata.ndb.wrapper.memory.MemorySessionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestAsyncCommitter {
+
+  private DBSessionProvider provider;
+  private AsyncCommitter committer = null;
+
+  @Before
+  public void setup() throws StorageException {
+    Properties conf = new Properties();
+    conf.setProperty(MemorySessionFactory.BACKEND, "memory");
+    conf.setProperty(MemorySessionFactory.LOCK_TIMEOUT, "100");
+    provider = new DBSessionProvider(conf, Integer.MAX_VALUE, 4, 4, 1000,
+        NoOpMetricsRegistry.INSTANCE);
+  }
+
+  @After
+  public void tearDown() throws StorageException {
+    if (committer != null) {
+      committer.stop();
+    }
+    provider.stop();
+  }
+
+  private DBSession begin() throws StorageException {
+    DBSession session = provider.getSession();
+    session.getSession().currentTransaction().begin();
+    return session;
+  }
+
+  private static Throwable failure(ListenableFuture<Void> future)
+      throws Exception {
+    try {
+      future.get(10, TimeUnit.SECONDS);
+    } catch (ExecutionException e) {
+      return e.getCause();
+    }
+    fail("The commit should fail");
+    return null;
+  }
+
+  @Test
+  public void testCommit() throws Exception {
+    committer = new AsyncCommitter(provider, NoOpMetricsRegistry.INSTANCE, 2,
+        10);
+    DBSession session = begin();
+    final AtomicBoolean committed = new AtomicBoolean(false);
+    session.getSession().afterCommit(new Runnable() {
+      @Override
+      public void run() {
+        committed.set(true);
+      }
+    });
+    int idle = provider.getAvailableSessions();
+    committer.commit(session).get(10, TimeUnit.SECONDS);
+    assertTrue(committed.get());
+    assertEquals("the session is back in the pool", idle + 1,
+        provider.getAvailableSessions());
+  }
+
+  @Test
+  public void testFailedCommit() throws Exception {
+    committer = new AsyncCommitter(provider, NoOpMetricsRegistry.INSTANCE, 2,
+        10);
+    DBSession session = begin();
+    session.getSession().currentTransaction().setRollbackOnly();
+    final AtomicBoolean ended = new AtomicBoolean(false);
+    session.getSession().afterTransaction(new Runnable() {
+      @Override
+      public void run() {
+        ended.set(true);
+      }
+    });
+    assertTrue(failure(committer.commit(session)) instanceof
+        StorageException);
+    assertTrue(ended.get());
+    // the session is closed, the pool may have opened another one since
+    for (int i = provider.getAvailableSessions(); i > 0; i--) {
+      assertNotSame(session, provider.getSession());
+    }
+  }
+
+  @Test
+  public void testFailedHook() throws Exception {
+    committer = new AsyncCommitter(provider, NoOpMetricsRegistry.INSTANCE, 2,
+        10);
+    DBSession session = begin();
+    final RuntimeException hookFailure = new IllegalStateException("hook");
+    session.getSession().afterCommit(new Runnable() {
+      @Override
+      public void run() {
+        throw hookFailure;
+      }
+    });
+    int idle = provider.getAvailableSessions();
+    assertSame(hookFailure, failure(committer.commit(session)));
+    assertEquals("the session is back in the pool", idle + 1,
+        provider.getAvailableSessions());
+  }
+
+  @Test
+  public void testCommitInCallerWhenQueueFull() throws Exception {
+    committer = new AsyncCommitter(provider, NoOpMetricsRegistry.INSTANCE, 1,
+        1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    DBSession blocking = begin();
+    blocking.getSession().afterCommit(new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        Uninterruptibles.awaitUninterruptibly(release);
+      }
+    });
+    ListenableFuture<Void> first = committer.commit(blocking);
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    ListenableFuture<Void> queued = committer.commit(begin());
+    assertFalse(queued.isDone());
+
+    DBSession session = begin();
+    final AtomicReference<Thread> committedBy = new AtomicReference<>();
+    session.getSession().afterCommit(new Runnable() {
+      @Override
+      public void run() {
+        committedBy.set(Thread.currentThread());
+      }
+    });
+    ListenableFuture<Void> third = committer.commit(session);
+    assertTrue("committed before the call returned", third.isDone());
+    assertSame(Thread.currentThread(), committedBy.get());
+
+    release.countDown();
+    first.get(10, TimeUnit.SECONDS);
+    queued.get(10, TimeUnit.SECONDS);
+    // the futures complete before the committer thread is idle again
+    committer.stop();
+    assertEquals(0, committer.getPendingCommits());
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.wrapper.HopsSession;
+import io.hops.metadata.ndb.wrapper.HopsSessionFactory;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestClusterConnections {
+
+  private static final long RETRY_DELAY = 200;
+
+  private static class Factory extends HopsSessionFactory {
+    private boolean failing = false;
+
+    Factory() {
+      super(null);
+    }
+
+    @Override
+    public HopsSession getSession() throws StorageException {
+      if (failing) {
+        throw new StorageException("Cluster failure");
+      }
+      return new HopsSession(null);
+    }
+  }
+
+  private static ClusterConnections connections(Factory... factories) {
+    return new ClusterConnections(factories, new String[factories.length],
+        RETRY_DELAY);
+  }
+
+  private static void failures(ClusterConnections connections,
+      int connection, int times) {
+    for (int i = 0; i < times; i++) {
+      connections.failed(connection);
+    }
+  }
+
+  @Test
+  public void testExcludedAfterConsecutiveFailures() {
+    ClusterConnections connections = connections(new Factory(),
+        new Factory());
+    failures(connections, 0, 2);
+    assertTrue(connections.getStats().get(0).isAvailable());
+    failures(connections, 0, 1);
+    assertFalse(connections.getStats().get(0).isAvailable());
+    assertEquals(3, connections.getStats().get(0).getFailures());
+    for (int i = 0; i < 4; i++) {
+      assertEquals(1, connections.next());
+    }
+  }
+
+  @Test
+  public void testSuccessResetsFailures() {
+    ClusterConnections connections = connections(new Factory(),
+        new Factory());
+    failures(connections, 0, 2);
+    connections.succeeded(0);
+    failures(connections, 0, 2);
+    assertTrue(connections.getStats().get(0).isAvailable());
+    assertEquals(4, connections.getStats().get(0).getFailures());
+  }
+
+  @Test
+  public void testRecoversAfterDelay() throws InterruptedException {
+    ClusterConnections connections = connections(new Factory(),
+        new Factory());
+    failures(connections, 1, 3);
+    assertFalse(connections.getStats().get(1).isAvailable());
+    Thread.sleep(RETRY_DELAY + 50);
+    assertTrue(connections.getStats().get(1).isAvailable());
+    boolean used = false;
+    for (int i = 0; i < 2; i++) {
+      used |= connections.next() == 1;
+    }
+    assertTrue(used);
+  }
+
+  @Test
+  public void testAllExcludedKeepRoundRobin() {
+    ClusterConnections connections = connections(new Factory(),
+        new Factory());
+    failures(connections, 0, 3);
+    failures(connections, 1, 3);
+    boolean[] used = new boolean[2];
+    for (int i = 0; i < 2; i++) {
+      used[connections.next()] = true;
+    }
+    assertTrue(used[0] && used[1]);
+  }
+
+  @Test
+  public void testSingleConnectionNeverExcluded() {
+    ClusterConnections connections = connections(new Factory());
+    failures(connections, 0, 10);
+    assertTrue(connections.getStats().get(0).isAvailable());
+    assertEquals(0, connections.next());
+  }
+
+  @Test
+  public void testFailedSessionCreationCounts() throws StorageException {
+    Factory failing = new Factory();
+    failing.failing = true;
+    ClusterConnections connections = connections(failing, new Factory());
+    for (int i = 0; i < 3; i++) {
+      try {
+        connections.openSession(0);
+        fail("The session should not be created");
+      } catch (StorageException e) {
+        // expected
+      }
+    }
+    assertFalse(connections.getStats().get(0).isAvailable());
+    assertEquals(0, connections.getStats().get(0).getOpenSessions());
+    connections.openSession(1);
+    assertEquals(1, connections.getStats().get(1).getOpenSessions());
+  }
+}
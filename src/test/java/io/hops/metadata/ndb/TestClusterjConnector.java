@@ -0,0 +1,148 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.hdfs.entity.Replica;
+import io.hops.metadata.ndb.dalimpl.hdfs.ReplicaClusterj;
+import io.hops.metadata.ndb.wrapper.HopsSession;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestClusterjConnector {
+
+  private ClusterjConnector connector;
+  private ReplicaClusterj replicas;
+
+  @Before
+  public void setup() throws StorageException {
+    connector = MemoryBackend.start();
+    MemoryBackend.truncate(ReplicaClusterj.TABLE_NAME);
+    replicas = new ReplicaClusterj();
+    connector.beginTransaction();
+    replicas.prepare(Collections.<Replica>emptyList(),
+        Arrays.asList(new Replica(1, 10, 1, 0)),
+        Collections.<Replica>emptyList());
+    connector.commit();
+  }
+
+  /**
+   * @return the session the pool hands out next to the calling thread, i.e.
+   * the last one it returned unless that one was discarded
+   */
+  private HopsSession nextSession() throws StorageException {
+    HopsSession session = connector.obtainSession();
+    connector.returnSession(false);
+    return session;
+  }
+
+  @Test
+  public void testReadOnly() throws StorageException {
+    final HopsSession[] used = new HopsSession[1];
+    int found = connector.readOnly(new TransactionExecutor.Work<Integer>() {
+      @Override
+      public Integer run() throws StorageException {
+        assertTrue(connector.isReadOnly());
+        used[0] = connector.obtainSession();
+        // nested reads join the read only mode
+        return connector.readOnly(new TransactionExecutor.Work<Integer>() {
+          @Override
+          public Integer run() throws StorageException {
+            assertSame(used[0], connector.obtainSession());
+            return replicas.findReplicasById(10, 1).size();
+          }
+        });
+      }
+    });
+    assertEquals(1, found);
+    assertFalse(connector.isReadOnly());
+    assertSame("the session is back in the pool", used[0], nextSession());
+  }
+
+  @Test
+  public void testWriteKeepsSession() throws StorageException {
+    final HopsSession[] used = new HopsSession[1];
+    try {
+      connector.readOnly(new TransactionExecutor.Work<Void>() {
+        @Override
+        public Void run() throws StorageException {
+          used[0] = connector.obtainSession();
+          replicas.prepare(Collections.<Replica>emptyList(),
+              Arrays.asList(new Replica(1, 20, 1, 0)),
+              Collections.<Replica>emptyList());
+          return null;
+        }
+      });
+      fail("writes are not allowed in read only mode");
+    } catch (StorageException e) {
+      assertTrue(e.getMessage().contains("read only"));
+    }
+    assertFalse(connector.isReadOnly());
+    assertSame("a failed write does not discard the session", used[0],
+        nextSession());
+  }
+
+  @Test
+  public void testFailedReadKeepsSession() throws StorageException {
+    final HopsSession[] used = new HopsSession[1];
+    final StorageException failure = new StorageException("read");
+    try {
+      connector.readOnly(new TransactionExecutor.Work<Void>() {
+        @Override
+        public Void run() throws StorageException {
+          used[0] = connector.obtainSession();
+          throw failure;
+        }
+      });
+      fail();
+    } catch (StorageException e) {
+      assertSame(failure, e);
+    }
+    assertSame("only connection failures discard the session", used[0],
+        nextSession());
+  }
+
+  @Test
+  public void testReadOnlyInTransaction() throws StorageException {
+    connector.beginTransaction();
+    try {
+      connector.readOnly(new TransactionExecutor.Work<Void>() {
+        @Override
+        public Void run() {
+          fail("the work must not run inside a transaction");
+          return null;
+        }
+      });
+      fail();
+    } catch (StorageException e) {
+      assertTrue(e.getMessage().contains("inside a transaction"));
+    } finally {
+      connector.commit();
+    }
+  }
+}
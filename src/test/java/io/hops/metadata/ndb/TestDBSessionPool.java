@@ -0,0 +1,124 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestDBSessionPool {
+
+  private DBSession newSession(DBSessionPool pool) {
+    assertTrue(pool.reserve());
+    DBSession session = new DBSession(null, Integer.MAX_VALUE);
+    pool.add(session);
+    return session;
+  }
+
+  @Test
+  public void testUpperBound() {
+    DBSessionPool pool = new DBSessionPool(2);
+    newSession(pool);
+    newSession(pool);
+    assertFalse(pool.reserve());
+    assertEquals(2, pool.getTotal());
+    assertEquals(2, pool.getIdle());
+  }
+
+  @Test
+  public void testThreadAffinity() {
+    DBSessionPool pool = new DBSessionPool(4);
+    for (int i = 0; i < 4; i++) {
+      newSession(pool);
+    }
+    DBSession first = pool.poll();
+    pool.offer(first);
+    for (int i = 0; i < 10; i++) {
+      DBSession session = pool.poll();
+      assertSame(first, session);
+      pool.offer(session);
+    }
+    assertEquals(4, pool.getIdle());
+  }
+
+  @Test
+  public void testNoSessionHandedOutTwice() {
+    DBSessionPool pool = new DBSessionPool(3);
+    for (int i = 0; i < 3; i++) {
+      newSession(pool);
+    }
+    DBSession s = pool.poll();
+    pool.offer(s);
+    Set<DBSession> borrowed = new HashSet<>();
+    for (int i = 0; i < 3; i++) {
+      DBSession session = pool.poll();
+      assertNotNull(session);
+      assertTrue(borrowed.add(session));
+    }
+    assertNull(pool.poll());
+    assertEquals(0, pool.getIdle());
+  }
+
+  @Test
+  public void testTimedPoll() throws InterruptedException {
+    final DBSessionPool pool = new DBSessionPool(1);
+    newSession(pool);
+    final DBSession session = pool.poll();
+    assertNull(pool.poll(10, TimeUnit.MILLISECONDS));
+
+    Thread returner = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          return;
+        }
+        pool.offer(session);
+      }
+    };
+    returner.start();
+    assertSame(session, pool.poll(10, TimeUnit.SECONDS));
+    returner.join();
+  }
+
+  @Test
+  public void testRemoveAndDrain() {
+    DBSessionPool pool = new DBSessionPool(2);
+    newSession(pool);
+    newSession(pool);
+    DBSession session = pool.poll();
+    pool.remove(session);
+    assertEquals(1, pool.getTotal());
+    assertTrue(pool.reserve());
+    pool.release();
+    assertEquals(1, pool.drain().size());
+    assertEquals(0, pool.getTotal());
+    assertNull(pool.poll());
+  }
+}
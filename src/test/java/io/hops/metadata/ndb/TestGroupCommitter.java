@@ -0,0 +1,156 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.dalimpl.hdfs.MetadataLogClusterj;
+import io.hops.metadata.ndb.metrics.DalTracer;
+import io.hops.metadata.ndb.metrics.NoOpMetricsRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestGroupCommitter {
+
+  private ClusterjConnector connector;
+
+  @Before
+  public void setup() throws StorageException {
+    connector = MemoryBackend.start();
+  }
+
+  private GroupCommitter newCommitter(long windowMs, int maxBatchSize) {
+    return new GroupCommitter("test", connector, NoOpMetricsRegistry.INSTANCE,
+        windowMs, maxBatchSize);
+  }
+
+  /**
+   * Counts its applications, fails the first ones.
+   */
+  private class CountingWrite implements GroupCommitter.Write {
+    private final AtomicInteger applied = new AtomicInteger(0);
+    private final int failures;
+
+    CountingWrite(int failures) {
+      this.failures = failures;
+    }
+
+    @Override
+    public void apply() throws StorageException {
+      assertTrue(connector.isTransactionActive());
+      if (applied.incrementAndGet() <= failures) {
+        throw new StorageException("Write failed");
+      }
+    }
+  }
+
+  private static void await(ListenableFuture<Void> future)
+      throws InterruptedException, ExecutionException {
+    try {
+      future.get(10, TimeUnit.SECONDS);
+    } catch (TimeoutException e) {
+      fail("The write was not committed");
+    }
+  }
+
+  @Test
+  public void testBatchOnSize() throws Exception {
+    GroupCommitter committer = newCommitter(60000, 4);
+    List<ListenableFuture<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      futures.add(committer.submit(new CountingWrite(0)));
+    }
+    for (ListenableFuture<Void> future : futures) {
+      await(future);
+    }
+    assertEquals(1, committer.getBatchesCommitted());
+    assertEquals(4, committer.getWritesCommitted());
+    committer.stop();
+  }
+
+  @Test
+  public void testFailedBatchRetriedOneByOne() throws Exception {
+    GroupCommitter committer = newCommitter(60000, 3);
+    CountingWrite ok = new CountingWrite(0);
+    CountingWrite flaky = new CountingWrite(1);
+    CountingWrite failing = new CountingWrite(Integer.MAX_VALUE);
+    ListenableFuture<Void> okFuture = committer.submit(ok);
+    ListenableFuture<Void> flakyFuture = committer.submit(flaky);
+    ListenableFuture<Void> failingFuture = committer.submit(failing);
+    await(okFuture);
+    await(flakyFuture);
+    try {
+      failingFuture.get(10, TimeUnit.SECONDS);
+      fail("The failing write should fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof StorageException);
+    }
+    // applied in the batch, then again on its own
+    assertEquals(2, ok.applied.get());
+    assertEquals(2, flaky.applied.get());
+    assertEquals(1, committer.getFailedBatches());
+    assertEquals(2, committer.getWritesCommitted());
+    committer.stop();
+  }
+
+  @Test
+  public void testStopCommitsQueuedWrites() throws Exception {
+    GroupCommitter committer = newCommitter(60000, 100);
+    List<ListenableFuture<Void>> futures = new ArrayList<>();
+    List<CountingWrite> writes = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      CountingWrite write = new CountingWrite(0);
+      writes.add(write);
+      futures.add(committer.submit(write));
+    }
+    long start = System.currentTimeMillis();
+    committer.stop();
+    assertTrue(System.currentTimeMillis() - start < 10000);
+    for (ListenableFuture<Void> future : futures) {
+      assertTrue(future.isDone());
+      future.get();
+    }
+    for (CountingWrite write : writes) {
+      assertEquals(1, write.applied.get());
+    }
+    try {
+      committer.submit(new CountingWrite(0));
+      fail("A stopped committer should not accept writes");
+    } catch (StorageException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testGroupCommittableThroughTracer() {
+    Object log = DalTracer.getInstance().wrap(new MetadataLogClusterj());
+    assertTrue(log instanceof GroupCommittable);
+  }
+}
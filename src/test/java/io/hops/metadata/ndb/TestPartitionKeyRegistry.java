@@ -0,0 +1,80 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.hdfs.TablesDef;
+import io.hops.metadata.hdfs.dal.INodeDataAccess;
+import io.hops.metadata.hdfs.dal.ReplicaDataAccess;
+import io.hops.metadata.hdfs.dal.StorageIdMapDataAccess;
+import io.hops.metadata.hdfs.dal.VariableDataAccess;
+import io.hops.metadata.ndb.dalimpl.hdfs.INodeClusterj;
+import io.hops.metadata.ndb.dalimpl.hdfs.ReplicaClusterj;
+import io.hops.metadata.ndb.dalimpl.hdfs.VariableClusterj;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestPartitionKeyRegistry {
+
+  private final PartitionKeyRegistry registry = new PartitionKeyRegistry();
+
+  @Test
+  public void testPartitionColumn() throws StorageException {
+    assertSame(ReplicaClusterj.ReplicaDTO.class,
+        registry.getDto(ReplicaDataAccess.class));
+    assertEquals(TablesDef.ReplicaTableDef.INODE_ID,
+        registry.getPartitionColumn(ReplicaDataAccess.class));
+    assertSame(INodeClusterj.InodeDTO.class,
+        registry.getDto(INodeDataAccess.class));
+    assertEquals(TablesDef.INodeTableDef.PARTITION_ID,
+        registry.getPartitionColumn(INodeDataAccess.class));
+  }
+
+  @Test
+  public void testWholePrimaryKey() throws StorageException {
+    assertSame(VariableClusterj.VariableDTO.class,
+        registry.getDto(VariableDataAccess.class));
+    assertNull("no @PartitionKey",
+        registry.getPartitionColumn(VariableDataAccess.class));
+  }
+
+  @Test
+  public void testUnregistered() {
+    assertNull(registry.getPartitionColumn(StorageIdMapDataAccess.class));
+    try {
+      registry.getDto(StorageIdMapDataAccess.class);
+      fail();
+    } catch (StorageException e) {
+      assertTrue(e.getMessage().contains(
+          StorageIdMapDataAccess.class.getName()));
+    }
+  }
+
+  @Test
+  public void testDtos() {
+    assertTrue(registry.getDtos().contains(ReplicaClusterj.ReplicaDTO.class));
+    assertTrue(registry.getDtos().contains(
+        VariableClusterj.VariableDTO.class));
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import io.hops.metadata.common.EntityDataAccess;
+import io.hops.metadata.hdfs.TablesDef;
+import io.hops.metadata.hdfs.dal.GroupDataAccess;
+import io.hops.metadata.hdfs.dal.INodeDataAccess;
+import io.hops.metadata.hdfs.dal.UserDataAccess;
+import io.hops.metadata.hdfs.dal.UserGroupDataAccess;
+import io.hops.metadata.ndb.mysqlserver.ConnectionProvider;
+import io.hops.metadata.ndb.mysqlserver.MysqlServerConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestTableTruncator {
+
+  private static final String USERS = TablesDef.UsersTableDef.TABLE_NAME;
+  private static final String GROUPS = TablesDef.GroupsTableDef.TABLE_NAME;
+  private static final String USERS_GROUPS =
+      TablesDef.UsersGroupsTableDef.TABLE_NAME;
+  private static final String INODES = TablesDef.INodeTableDef.TABLE_NAME;
+
+  private static final List<Class<? extends EntityDataAccess>> DATA_ACCESSES =
+      Arrays.<Class<? extends EntityDataAccess>>asList(UserDataAccess.class,
+          GroupDataAccess.class, UserGroupDataAccess.class,
+          INodeDataAccess.class);
+
+  /**
+   * The statements run on the connections, in order, the partitions of the
+   * users table listed as p0 and p1 and the other tables not partitioned.
+   */
+  private final List<String> statements =
+      Collections.synchronizedList(new ArrayList<String>());
+  private ConnectionProvider previous;
+
+  @Before
+  public void setup() {
+    previous = MysqlServerConnector.getInstance().getConnectionProvider();
+    MysqlServerConnector.getInstance().setConnectionProvider(
+        new ConnectionProvider() {
+          @Override
+          public Connection getConnection() {
+            return proxy(Connection.class, new InvocationHandler() {
+              @Override
+              public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("prepareStatement")) {
+                  return statement((String) args[0]);
+                }
+                return null;
+              }
+            });
+          }
+        });
+  }
+
+  @After
+  public void tearDown() {
+    MysqlServerConnector.getInstance().setConnectionProvider(previous);
+  }
+
+  private PreparedStatement statement(final String sql) {
+    final List<Object> params = new ArrayList<>();
+    return proxy(PreparedStatement.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+          case "setObject":
+          case "setString":
+            params.add(args[1]);
+            return null;
+          case "executeQuery":
+            List<String> partitions = sql.contains("information_schema") &&
+                params.equals(Collections.<Object>singletonList(USERS)) ?
+                Arrays.asList("p0", "p1") : Collections.<String>emptyList();
+            statements.add(sql + " " + params);
+            return resultSet(partitions.iterator());
+          case "executeUpdate":
+            statements.add(sql);
+            return 0;
+          default:
+            return null;
+        }
+      }
+    });
+  }
+
+  private static ResultSet resultSet(final Iterator<String> rows) {
+    return proxy(ResultSet.class, new InvocationHandler() {
+      private String row;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+          case "next":
+            row = rows.hasNext() ? rows.next() : null;
+            return row != null;
+          case "getString":
+            return row;
+          default:
+            return null;
+        }
+      }
+    });
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return (T) Proxy.newProxyInstance(TestTableTruncator.class.getClassLoader(),
+        new Class<?>[]{type}, handler);
+  }
+
+  private int last(String prefix) {
+    int last = -1;
+    for (int i = 0; i < statements.size(); i++) {
+      if (statements.get(i).startsWith(prefix)) {
+        last = i;
+      }
+    }
+    return last;
+  }
+
+  private int first(String prefix) {
+    for (int i = 0; i < statements.size(); i++) {
+      if (statements.get(i).startsWith(prefix)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Test
+  public void testWavesAndPartitions() throws Exception {
+    TableTruncator truncator = new TableTruncator(4);
+    truncator.truncate(false, DATA_ACCESSES, "extra_table");
+
+    Collection<String> executed = new HashSet<>(statements);
+    assertTrue(statements.toString(), executed.containsAll(Arrays.asList(
+        "delete from " + USERS + " partition (p0) limit 1000",
+        "delete from " + USERS + " partition (p1) limit 1000",
+        "delete from " + GROUPS + " limit 1000",
+        "truncate table " + USERS_GROUPS,
+        "truncate table " + INODES,
+        "truncate table extra_table")));
+    assertFalse("the tables with foreign keys are never truncated",
+        executed.contains("truncate table " + USERS) ||
+            executed.contains("truncate table " + GROUPS));
+    assertTrue("the partitions are read with the table name bound",
+        executed.contains("SELECT partition_name FROM " +
+            "information_schema.partitions WHERE table_schema = database() " +
+            "AND table_name = ? AND partition_name IS NOT NULL [" + USERS +
+            "]"));
+
+    // the table referencing the users and groups is emptied first
+    int referencing = last("truncate table " + USERS_GROUPS);
+    assertTrue(statements.toString(),
+        referencing < first("SELECT partition_name"));
+    assertTrue(referencing < first("delete from " + USERS + " "));
+    assertTrue(referencing < first("delete from " + GROUPS + " "));
+    assertEquals(5, truncator.getTruncationTimes().size());
+  }
+
+  @Test
+  public void testTransactional() throws Exception {
+    TableTruncator truncator = new TableTruncator(2);
+    truncator.truncate(true, DATA_ACCESSES);
+
+    assertTrue(statements.toString(), statements.containsAll(Arrays.asList(
+        "delete from " + USERS_GROUPS + " limit 1000",
+        "delete from " + INODES + " limit 1000",
+        "delete from " + USERS + " partition (p0) limit 1000")));
+    assertEquals(-1, first("truncate table"));
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.hdfs.entity.Replica;
+import io.hops.metadata.ndb.dalimpl.hdfs.ReplicaClusterj;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestTransactionContext {
+
+  private ClusterjConnector connector;
+  private ReplicaClusterj replicas;
+  private ExecutorService executor;
+
+  @Before
+  public void setup() throws StorageException {
+    connector = MemoryBackend.start();
+    MemoryBackend.truncate(ReplicaClusterj.TABLE_NAME);
+    replicas = new ReplicaClusterj();
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * @return the session bound to the calling thread, if any, leaving the
+   * binding as it is
+   */
+  private DBSession bound() {
+    DBSession session = connector.bind(null);
+    connector.unbind(session);
+    return session;
+  }
+
+  private Callable<Void> insert(final long blockId) {
+    return new Callable<Void>() {
+      @Override
+      public Void call() throws StorageException {
+        assertNotNull(bound());
+        replicas.prepare(Collections.<Replica>emptyList(),
+            Arrays.asList(new Replica(1, blockId, 1, 0)),
+            Collections.<Replica>emptyList());
+        return null;
+      }
+    };
+  }
+
+  private Callable<Integer> count(final long blockId) {
+    return new Callable<Integer>() {
+      @Override
+      public Integer call() throws StorageException {
+        return replicas.findReplicasById(blockId, 1).size();
+      }
+    };
+  }
+
+  private <T> T onOtherThread(Callable<T> callable) throws Exception {
+    try {
+      return executor.submit(callable).get();
+    } catch (ExecutionException e) {
+      throw (Exception) e.getCause();
+    }
+  }
+
+  private int committedCount(long blockId) throws StorageException {
+    connector.beginTransaction();
+    try {
+      return replicas.findReplicasById(blockId, 1).size();
+    } finally {
+      connector.commit();
+    }
+  }
+
+  @Test
+  public void testCommitOnAnotherThread() throws Exception {
+    final TransactionContext tx = connector.beginTransactionContext();
+    assertNull("the context is not bound to the thread beginning it",
+        bound());
+    tx.call(insert(10));
+    assertNull(bound());
+
+    int seen = onOtherThread(new Callable<Integer>() {
+      @Override
+      public Integer call() throws Exception {
+        int seen = tx.call(count(10));
+        assertNull("the binding is cleared after the call", bound());
+        tx.commit();
+        assertNull("the binding is cleared after the commit", bound());
+        return seen;
+      }
+    });
+    assertEquals("the writes of the first thread are seen by the second",
+        1, seen);
+    assertFalse(tx.isActive());
+    assertEquals(1, committedCount(10));
+  }
+
+  @Test
+  public void testRollbackOnAnotherThread() throws Exception {
+    final TransactionContext tx = connector.beginTransactionContext();
+    tx.call(insert(20));
+    onOtherThread(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        tx.rollback();
+        assertNull(bound());
+        return null;
+      }
+    });
+    assertFalse(tx.isActive());
+    assertEquals(0, committedCount(20));
+  }
+
+  @Test
+  public void testPreviousBindingRestored() throws Exception {
+    connector.beginTransaction();
+    try {
+      DBSession own = bound();
+      assertNotNull(own);
+      TransactionContext tx = connector.beginTransactionContext();
+      tx.call(insert(30));
+      assertSame("the context runs on a session of its own", own, bound());
+      tx.commit();
+      assertSame(own, bound());
+    } finally {
+      connector.commit();
+    }
+    assertEquals(1, committedCount(30));
+  }
+
+  @Test
+  public void testClosedContext() throws Exception {
+    TransactionContext tx = connector.beginTransactionContext();
+    tx.commit();
+    try {
+      tx.call(count(10));
+      fail();
+    } catch (StorageException e) {
+      assertTrue(e.getMessage().contains("closed"));
+    }
+    try {
+      tx.commit();
+      fail();
+    } catch (StorageException e) {
+      assertTrue(e.getMessage().contains("closed"));
+    }
+  }
+
+  @Test
+  public void testFailedCallKeepsContextUsable() throws Exception {
+    final TransactionContext tx = connector.beginTransactionContext();
+    final StorageException failure = new StorageException("call");
+    try {
+      tx.call(new Callable<Void>() {
+        @Override
+        public Void call() throws StorageException {
+          throw failure;
+        }
+      });
+      fail();
+    } catch (StorageException e) {
+      assertSame(failure, e);
+    }
+    assertNull(bound());
+    onOtherThread(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        tx.call(insert(40));
+        tx.commit();
+        return null;
+      }
+    });
+    assertEquals(1, committedCount(40));
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb;
+
+import io.hops.exception.StorageException;
+import io.hops.exception.TransientStorageException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestTransactionExecutor {
+
+  private static final String OPERATION = "test";
+  private static final String TABLE = "test_table";
+
+  private ClusterjConnector connector;
+
+  @Before
+  public void setup() throws StorageException {
+    connector = MemoryBackend.start();
+  }
+
+  private TransactionExecutor newExecutor(long baseDelay, long maxDelay,
+      double contentionThreshold, int maxRetrying) {
+    Properties conf = new Properties();
+    conf.setProperty(TransactionExecutor.PROPERTY_MAX_RETRIES, "3");
+    conf.setProperty(TransactionExecutor.PROPERTY_BASE_DELAY,
+        Long.toString(baseDelay));
+    conf.setProperty(TransactionExecutor.PROPERTY_MAX_DELAY,
+        Long.toString(maxDelay));
+    conf.setProperty(TransactionExecutor.PROPERTY_CONTENTION_THRESHOLD,
+        Double.toString(contentionThreshold));
+    conf.setProperty(TransactionExecutor.PROPERTY_CONTENTION_MAX_RETRYING,
+        Integer.toString(maxRetrying));
+    return new TransactionExecutor(connector, conf);
+  }
+
+  /**
+   * Aborts its first attempts with a transient error.
+   */
+  private class AbortingWork implements TransactionExecutor.Work<String> {
+    private final AtomicInteger attempts = new AtomicInteger(0);
+    private final int aborts;
+    private TransientStorageException lastAbort;
+
+    AbortingWork(int aborts) {
+      this.aborts = aborts;
+    }
+
+    @Override
+    public String run() throws StorageException {
+      assertTrue(connector.isTransactionActive());
+      if (attempts.incrementAndGet() <= aborts) {
+        lastAbort = new TransientStorageException("Aborted " + attempts);
+        throw lastAbort;
+      }
+      return "done";
+    }
+  }
+
+  @Test
+  public void testDelayBounds() {
+    TransactionExecutor executor = newExecutor(10, 1000, 0.3, 8);
+    for (int retry = 1; retry <= 40; retry++) {
+      long delay = Math.min(10L << Math.min(retry - 1, 30), 1000);
+      for (int i = 0; i < 100; i++) {
+        long d = executor.getDelay(retry, 0);
+        assertTrue(d >= delay / 2 && d <= delay);
+      }
+    }
+    // stretched by the abort rate, at most ten times
+    for (int i = 0; i < 100; i++) {
+      long d = executor.getDelay(1, 0.5);
+      assertTrue(d >= 10 && d <= 20);
+      d = executor.getDelay(10, 1);
+      assertTrue(d >= 5000 && d <= 10000);
+    }
+  }
+
+  @Test
+  public void testDelayJitter() {
+    TransactionExecutor executor = newExecutor(10, 1000, 0.3, 8);
+    Set<Long> delays = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      delays.add(executor.getDelay(7, 0));
+    }
+    assertTrue(delays.size() > 1);
+  }
+
+  @Test
+  public void testRetriedUntilCommitted() throws StorageException {
+    TransactionExecutor executor = newExecutor(1, 2, 1, 8);
+    AbortingWork work = new AbortingWork(2);
+    assertEquals("done", executor.execute(OPERATION, TABLE, work));
+    assertEquals(3, work.attempts.get());
+    assertEquals(2, executor.getRetries(OPERATION));
+    assertEquals(2, executor.getAborts(OPERATION));
+    assertEquals(1L, (long) executor.getCallCounts().get(OPERATION));
+    assertEquals(0L, (long) executor.getFailureCounts().get(OPERATION));
+    assertTrue(executor.getAbortRate(TABLE) > 0);
+  }
+
+  @Test
+  public void testGivesUpAfterMaxRetries() {
+    TransactionExecutor executor = newExecutor(1, 2, 1, 8);
+    AbortingWork work = new AbortingWork(Integer.MAX_VALUE);
+    try {
+      executor.execute(OPERATION, work);
+      fail("The work should fail");
+    } catch (StorageException e) {
+      assertSame(work.lastAbort, e);
+    }
+    assertEquals(4, work.attempts.get());
+    assertEquals(3, executor.getRetries(OPERATION));
+    assertEquals(1L, (long) executor.getFailureCounts().get(OPERATION));
+  }
+
+  @Test
+  public void testNonTransientNotRetried() {
+    TransactionExecutor executor = newExecutor(1, 2, 1, 8);
+    final AtomicInteger attempts = new AtomicInteger(0);
+    try {
+      executor.execute(OPERATION, new TransactionExecutor.Work<Void>() {
+        @Override
+        public Void run() throws StorageException {
+          attempts.incrementAndGet();
+          throw new StorageException("Failed");
+        }
+      });
+      fail("The work should fail");
+    } catch (StorageException e) {
+      assertEquals("Failed", e.getMessage());
+    }
+    assertEquals(1, attempts.get());
+    assertEquals(0, executor.getRetries(OPERATION));
+  }
+
+  @Test
+  public void testThrottledRethrowsLastAbort() {
+    // every table is contended and no retry is allowed on it
+    TransactionExecutor executor = newExecutor(1, 2, 0, 0);
+    AbortingWork work = new AbortingWork(1);
+    try {
+      executor.execute(OPERATION, TABLE, work);
+      fail("The retry should be throttled");
+    } catch (StorageException e) {
+      assertSame(work.lastAbort, e);
+    }
+    assertEquals(1, work.attempts.get());
+    assertEquals(1L, (long) executor.getThrottledCounts().get(OPERATION));
+    assertEquals(1L, (long) executor.getFailureCounts().get(OPERATION));
+  }
+
+  @Test
+  public void testJoinsActiveTransaction() throws StorageException {
+    TransactionExecutor executor = newExecutor(1, 2, 1, 8);
+    AbortingWork work = new AbortingWork(1);
+    connector.beginTransaction();
+    try {
+      executor.execute(OPERATION, work);
+      fail("The work should not be retried");
+    } catch (TransientStorageException e) {
+      assertSame(work.lastAbort, e);
+    } finally {
+      connector.rollback();
+    }
+    assertEquals(1, work.attempts.get());
+    assertEquals(0, executor.getRetries(OPERATION));
+  }
+}
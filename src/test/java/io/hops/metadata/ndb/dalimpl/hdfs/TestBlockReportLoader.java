@@ -0,0 +1,195 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.dalimpl.hdfs;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.hdfs.entity.BlockInfo;
+import io.hops.metadata.hdfs.entity.Replica;
+import io.hops.metadata.ndb.ClusterjConnector;
+import io.hops.metadata.ndb.MemoryBackend;
+import io.hops.metadata.ndb.wrapper.HopsSession;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestBlockReportLoader {
+
+  private static final int STORAGE = 1;
+  private static final int OTHER_STORAGE = 2;
+  private static final int EMPTY_STORAGE = 3;
+  private static final int BLOCKS = 5;
+
+  private ClusterjConnector connector;
+  private BlockInfoClusterj blocks;
+
+  private static class Pages implements BlockReportLoader.Consumer {
+    private final List<Integer> sizes = new ArrayList<>();
+    private final Set<Long> blockIds = new HashSet<>();
+
+    @Override
+    public void accept(List<BlockInfo> page) {
+      sizes.add(page.size());
+      for (BlockInfo block : page) {
+        blockIds.add(block.getBlockId());
+      }
+    }
+  }
+
+  @Before
+  public void setup() throws StorageException {
+    connector = MemoryBackend.start();
+    MemoryBackend.truncate(BlockInfoClusterj.TABLE_NAME,
+        BlockLookUpClusterj.TABLE_NAME, ReplicaClusterj.TABLE_NAME);
+    blocks = new BlockInfoClusterj();
+    List<BlockInfo> newBlocks = new ArrayList<>();
+    List<Replica> newReplicas = new ArrayList<>();
+    for (long blockId = 1; blockId <= BLOCKS; blockId++) {
+      long inodeId = 100 + blockId;
+      newBlocks.add(new BlockInfo(blockId, 0, inodeId, 1024, 1, 0, 0, 0, 0, 0,
+          0));
+      newReplicas.add(new Replica(STORAGE, blockId, inodeId, 0));
+    }
+    newBlocks.add(new BlockInfo(50, 0, 150, 1024, 1, 0, 0, 0, 0, 0, 0));
+    newReplicas.add(new Replica(OTHER_STORAGE, 50, 150, 0));
+
+    connector.beginTransaction();
+    blocks.prepare(Collections.<BlockInfo>emptyList(), newBlocks,
+        Collections.<BlockInfo>emptyList());
+    new ReplicaClusterj().prepare(Collections.<Replica>emptyList(),
+        newReplicas, Collections.<Replica>emptyList());
+    connector.commit();
+  }
+
+  private Pages load(int storageId, int pageSize) throws StorageException {
+    Pages pages = new Pages();
+    assertEquals(pages.blockIds.size(),
+        blocks.findBlockInfosByStorageId(storageId, pageSize, pages));
+    return pages;
+  }
+
+  private static void assertPages(Pages pages, Integer... sizes) {
+    List<Integer> expected = new ArrayList<>();
+    Collections.addAll(expected, sizes);
+    assertEquals(expected, pages.sizes);
+    assertEquals(BLOCKS, pages.blockIds.size());
+    for (long blockId = 1; blockId <= BLOCKS; blockId++) {
+      assertTrue(pages.blockIds.contains(blockId));
+    }
+  }
+
+  @Test
+  public void testPageCutting() throws StorageException {
+    assertPages(load(STORAGE, 1), 1, 1, 1, 1, 1);
+    assertPages(load(STORAGE, 2), 2, 2, 1);
+    assertPages(load(STORAGE, BLOCKS), BLOCKS);
+    assertPages(load(STORAGE, BLOCKS + 1), BLOCKS);
+    assertEquals(1, load(OTHER_STORAGE, 1).blockIds.size());
+  }
+
+  @Test
+  public void testEmptyStorage() throws StorageException {
+    Pages pages = load(EMPTY_STORAGE, 1);
+    assertTrue("the end of the scan is not handed to the consumer",
+        pages.sizes.isEmpty());
+    assertTrue(blocks.findBlockInfosByStorageId(EMPTY_STORAGE).isEmpty());
+  }
+
+  @Test
+  public void testUnpagedLoads() throws StorageException {
+    assertEquals(BLOCKS, blocks.findBlockInfosByStorageId(STORAGE).size());
+    connector.beginTransaction();
+    try {
+      assertEquals(BLOCKS, blocks.findBlockInfosByStorageId(STORAGE).size());
+    } finally {
+      connector.commit();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidPageSize() throws StorageException {
+    load(STORAGE, 0);
+  }
+
+  @Test
+  public void testConsumerFailure() throws StorageException {
+    final StorageException failure = new StorageException("consumer");
+    final List<Integer> calls = new ArrayList<>();
+    try {
+      // pages of one block so that the scan waits for the failed consumer
+      blocks.findBlockInfosByStorageId(STORAGE, 1,
+          new BlockReportLoader.Consumer() {
+            @Override
+            public void accept(List<BlockInfo> page) throws StorageException {
+              calls.add(page.size());
+              throw failure;
+            }
+          });
+      fail();
+    } catch (StorageException e) {
+      assertSame(failure, e);
+    }
+    assertEquals(1, calls.size());
+    assertEquals(BLOCKS, load(STORAGE, 2).blockIds.size());
+  }
+
+  @Test
+  public void testLookupFailure() throws StorageException {
+    final StorageException failure = new StorageException("lookup");
+    BlockReportLoader loader = new BlockReportLoader(new BlockInfoClusterj() {
+      @Override
+      List<BlockInfo> readBlockInfoBatch(HopsSession session, long[] inodeIds,
+          long[] blockIds) throws StorageException {
+        throw failure;
+      }
+    });
+    Pages pages = new Pages();
+    try {
+      loader.load(STORAGE, 1, pages);
+      fail();
+    } catch (StorageException e) {
+      assertSame(failure, e);
+    }
+    assertTrue(pages.sizes.isEmpty());
+    assertEquals(0, loader.getLoads());
+    assertFalse(connector.isTransactionActive());
+  }
+
+  @Test
+  public void testStatistics() throws StorageException {
+    BlockReportLoader loader = blocks.getBlockReportLoader();
+    long loads = loader.getLoads();
+    long pages = loader.getPagesLoaded();
+    long loaded = loader.getBlocksLoaded();
+    load(STORAGE, 2);
+    assertEquals(loads + 1, loader.getLoads());
+    assertEquals(pages + 3, loader.getPagesLoaded());
+    assertEquals(loaded + BLOCKS, loader.getBlocksLoaded());
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.dalimpl.hdfs;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.common.EntityDataAccess;
+import io.hops.metadata.hdfs.dal.BlockInfoDataAccess;
+import io.hops.metadata.hdfs.dal.CachedBlockDataAccess;
+import io.hops.metadata.hdfs.dal.CorruptReplicaDataAccess;
+import io.hops.metadata.hdfs.dal.ExcessReplicaDataAccess;
+import io.hops.metadata.hdfs.dal.InvalidateBlockDataAccess;
+import io.hops.metadata.hdfs.dal.PendingBlockDataAccess;
+import io.hops.metadata.hdfs.dal.ReplicaDataAccess;
+import io.hops.metadata.hdfs.dal.ReplicaUnderConstructionDataAccess;
+import io.hops.metadata.hdfs.dal.UnderReplicatedBlockDataAccess;
+import io.hops.metadata.hdfs.entity.BlockInfo;
+import io.hops.metadata.hdfs.entity.Replica;
+import io.hops.metadata.ndb.ClusterjConnector;
+import io.hops.metadata.ndb.MemoryBackend;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestFileBlockStateLoader {
+
+  private ClusterjConnector connector;
+  private BlockInfoClusterj blocks;
+  private ReplicaClusterj replicas;
+  private FileBlockStateLoader loader;
+
+  @Before
+  public void setup() throws StorageException {
+    connector = MemoryBackend.start();
+    MemoryBackend.truncate(BlockInfoClusterj.TABLE_NAME,
+        BlockLookUpClusterj.TABLE_NAME, ReplicaClusterj.TABLE_NAME);
+    blocks = new BlockInfoClusterj();
+    replicas = new ReplicaClusterj();
+    Map<Class, EntityDataAccess> dataAccesses = new HashMap<>();
+    dataAccesses.put(BlockInfoDataAccess.class, blocks);
+    dataAccesses.put(ReplicaDataAccess.class, replicas);
+    dataAccesses.put(ReplicaUnderConstructionDataAccess.class,
+        new ReplicaUnderConstructionClusterj());
+    dataAccesses.put(InvalidateBlockDataAccess.class,
+        new InvalidatedBlockClusterj());
+    dataAccesses.put(ExcessReplicaDataAccess.class,
+        new ExcessReplicaClusterj());
+    dataAccesses.put(CorruptReplicaDataAccess.class,
+        new CorruptReplicaClusterj());
+    dataAccesses.put(PendingBlockDataAccess.class, new PendingBlockClusterj());
+    dataAccesses.put(UnderReplicatedBlockDataAccess.class,
+        new UnderReplicatedBlockClusterj());
+    dataAccesses.put(CachedBlockDataAccess.class, new CachedBlockClusterJ());
+    loader = new FileBlockStateLoader(dataAccesses);
+
+    connector.beginTransaction();
+    blocks.prepare(Collections.<BlockInfo>emptyList(), Arrays.asList(
+        block(1, 11), block(1, 12), block(2, 21), block(3, 31)),
+        Collections.<BlockInfo>emptyList());
+    replicas.prepare(Collections.<Replica>emptyList(), Arrays.asList(
+        new Replica(1, 11, 1, 0), new Replica(2, 11, 1, 0),
+        new Replica(1, 21, 2, 0)), Collections.<Replica>emptyList());
+    connector.commit();
+  }
+
+  private static BlockInfo block(long inodeId, long blockId) {
+    return new BlockInfo(blockId, 0, inodeId, 1024, 1, 0, 0, 0, 0, 0, 0);
+  }
+
+  private static void assertState(FileBlockStateLoader.FileBlockState state,
+      int blocks, int replicas) {
+    assertEquals(blocks, state.getBlocks().size());
+    assertEquals(replicas, state.getReplicas().size());
+    assertTrue(state.getReplicasUnderConstruction().isEmpty());
+    assertTrue(state.getInvalidatedBlocks().isEmpty());
+    assertTrue(state.getExcessReplicas().isEmpty());
+    assertTrue(state.getCorruptReplicas().isEmpty());
+    assertTrue(state.getPendingBlocks().isEmpty());
+    assertTrue(state.getUnderReplicatedBlocks().isEmpty());
+    assertTrue(state.getCachedBlocks().isEmpty());
+  }
+
+  @Test
+  public void testLoadOutsideTransaction() throws StorageException {
+    assertState(loader.load(new long[]{1}), 2, 2);
+    assertState(loader.load(new long[]{1, 2, 4}), 3, 3);
+    assertState(loader.load(new long[]{4}), 0, 0);
+    assertState(loader.load(new long[0]), 0, 0);
+    assertTrue(!connector.isTransactionActive());
+  }
+
+  @Test
+  public void testLoadInTransaction() throws StorageException {
+    connector.beginTransaction();
+    try {
+      assertState(loader.load(new long[]{2}), 1, 1);
+      assertState(loader.load(new long[]{2, 3}), 2, 1);
+      assertTrue("the loads join the transaction",
+          connector.isTransactionActive());
+    } finally {
+      connector.commit();
+    }
+  }
+}
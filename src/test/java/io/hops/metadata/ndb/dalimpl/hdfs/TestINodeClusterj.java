@@ -0,0 +1,163 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.dalimpl.hdfs;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.hdfs.entity.INode;
+import io.hops.metadata.ndb.ClusterjConnector;
+import io.hops.metadata.ndb.MemoryBackend;
+import io.hops.metadata.ndb.wrapper.HopsSession;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestINodeClusterj {
+
+  private ClusterjConnector connector;
+  private final INodeClusterj inodes = new INodeClusterj();
+
+  @Before
+  public void setup() throws StorageException {
+    connector = MemoryBackend.start();
+    MemoryBackend.truncate(INodeClusterj.TABLE_NAME);
+    connector.beginTransaction();
+    // the children of 1 are in its partition, those of 2 are randomly
+    // partitioned
+    add(11, 1, 1, "a");
+    add(12, 1, 1, "b");
+    add(21, 2, 7, "c");
+    add(22, 2, 9, "d");
+    // a directory with five children and a neighbour in its partition
+    for (int i = 0; i < 5; i++) {
+      add(30 + i, 3, 3, "n" + i);
+    }
+    add(40, 4, 3, "m");
+    connector.commit();
+  }
+
+  private void add(long id, long parentId, long partitionId, String name)
+      throws StorageException {
+    HopsSession session = connector.obtainSession();
+    INodeClusterj.InodeDTO dto =
+        session.newInstance(INodeClusterj.InodeDTO.class);
+    dto.setId(id);
+    dto.setParentId(parentId);
+    dto.setPartitionId(partitionId);
+    dto.setName(name);
+    session.savePersistent(dto);
+    session.release(dto);
+  }
+
+  private static List<String> names(List<INode> inodes) {
+    List<String> names = new ArrayList<>();
+    for (INode inode : inodes) {
+      names.add(inode.getName());
+    }
+    Collections.sort(names);
+    return names;
+  }
+
+  @Test
+  public void testChildrenInParentPartition() throws StorageException {
+    assertEquals(Arrays.asList("a", "b"),
+        names(inodes.findInodesByParentIdFTIS(1, true)));
+    assertEquals(Arrays.asList("a", "b"),
+        names(inodes.findInodesByParentIdFTIS(1, false)));
+    connector.returnSession(false);
+  }
+
+  @Test
+  public void testRandomlyPartitionedChildren() throws StorageException {
+    assertEquals(Arrays.asList("c", "d"),
+        names(inodes.findInodesByParentIdFTIS(2)));
+    // the pruned scan only sees the partition of the parent id
+    assertEquals(Collections.<String>emptyList(),
+        names(inodes.findInodesByParentIdFTIS(2, true)));
+    connector.returnSession(false);
+  }
+
+  @Test
+  public void testPartitionHintDoesNotPrune() throws StorageException {
+    connector.beginTransaction();
+    // a transaction pinned to partition 2, e.g. by reading the directory
+    connector.obtainSession().setPartitionKey(INodeClusterj.InodeDTO.class,
+        new Object[]{2L, 2L, "c"});
+    assertEquals(Arrays.asList("c", "d"),
+        names(inodes.findInodesByParentIdFTIS(2)));
+    connector.commit();
+  }
+
+  /**
+   * @return the names of the children of 3, page by page
+   */
+  private List<List<String>> pages(int pageSize) throws StorageException {
+    List<List<String>> pages = new ArrayList<>();
+    String token = null;
+    do {
+      INodeClusterj.ChildrenPage page =
+          inodes.findInodesByParentIdAndPartitionIdPPIS(3, 3, token, pageSize);
+      List<String> names = new ArrayList<>();
+      for (INode inode : page.getINodes()) {
+        names.add(inode.getName());
+      }
+      pages.add(names);
+      token = page.getContinuationToken();
+    } while (token != null);
+    return pages;
+  }
+
+  @Test
+  public void testChildrenPages() throws StorageException {
+    assertEquals(Arrays.asList(Arrays.asList("n0"), Arrays.asList("n1"),
+        Arrays.asList("n2"), Arrays.asList("n3"), Arrays.asList("n4")),
+        pages(1));
+    assertEquals(Arrays.asList(Arrays.asList("n0", "n1"),
+        Arrays.asList("n2", "n3"), Arrays.asList("n4")), pages(2));
+    // a full last page ends the listing, no empty page follows
+    assertEquals(Collections.singletonList(
+        Arrays.asList("n0", "n1", "n2", "n3", "n4")), pages(5));
+    assertEquals(Collections.singletonList(
+        Arrays.asList("n0", "n1", "n2", "n3", "n4")), pages(6));
+    connector.returnSession(false);
+  }
+
+  @Test
+  public void testEmptyChildrenPage() throws StorageException {
+    INodeClusterj.ChildrenPage page =
+        inodes.findInodesByParentIdAndPartitionIdPPIS(5, 5, null, 2);
+    assertEquals(0, page.getINodes().size());
+    assertEquals(null, page.getContinuationToken());
+    // the token of the last child
+    page = inodes.findInodesByParentIdAndPartitionIdPPIS(3, 3, "n4", 2);
+    assertEquals(0, page.getINodes().size());
+    assertEquals(null, page.getContinuationToken());
+    connector.returnSession(false);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidPageSize() throws StorageException {
+    inodes.findInodesByParentIdAndPartitionIdPPIS(3, 3, null, 0);
+  }
+}
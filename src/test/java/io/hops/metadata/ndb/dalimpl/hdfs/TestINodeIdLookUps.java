@@ -0,0 +1,133 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.dalimpl.hdfs;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.hdfs.entity.BlockInfo;
+import io.hops.metadata.ndb.ClusterjConnector;
+import io.hops.metadata.ndb.MemoryBackend;
+import io.hops.metadata.ndb.util.LongLongCache;
+import io.hops.metadata.ndb.wrapper.HopsSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TestINodeIdLookUps {
+
+  private static final long NOT_FOUND = INodeIdLookUps.NOT_FOUND_ROW;
+
+  private ClusterjConnector connector;
+  private final BlockInfoClusterj blocks = new BlockInfoClusterj();
+  private final BlockLookUpClusterj lookUps = new BlockLookUpClusterj();
+
+  @Before
+  public void setup() throws StorageException {
+    connector = MemoryBackend.start();
+    MemoryBackend.truncate(BlockInfoClusterj.TABLE_NAME,
+        BlockLookUpClusterj.TABLE_NAME);
+    Properties conf = new Properties();
+    conf.setProperty(INodeIdLookUps.CACHE_SIZE, "1024");
+    conf.setProperty(INodeIdLookUps.CACHE_MISSING_TTL, "60000");
+    lookUps.setConfiguration(conf);
+    write(Collections.<BlockInfo>emptyList(),
+        Arrays.asList(block(1, 11), block(1, 12), block(2, 21)));
+  }
+
+  @After
+  public void tearDown() {
+    lookUps.setConfiguration(new Properties());
+  }
+
+  private static BlockInfo block(long inodeId, long blockId) {
+    return new BlockInfo(blockId, 0, inodeId, 1024, 1, 0, 0, 0, 0, 0, 0);
+  }
+
+  private void write(List<BlockInfo> removed, List<BlockInfo> news)
+      throws StorageException {
+    connector.beginTransaction();
+    blocks.prepare(removed, news, Collections.<BlockInfo>emptyList());
+    connector.commit();
+  }
+
+  @Test
+  public void testReadThroughCache() throws StorageException {
+    long[] blockIds = {11, 21, 99};
+    long[] expected = {1, 2, NOT_FOUND};
+    assertArrayEquals(expected, lookUps.findINodeIdsByBlockIds(blockIds));
+    LongLongCache cache = lookUps.getCache();
+    assertEquals(3, cache.getMisses());
+    assertArrayEquals(expected, lookUps.findINodeIdsByBlockIds(blockIds));
+    assertEquals(3, cache.getMisses());
+    assertEquals(2, cache.getHits());
+    assertEquals(1, cache.getMissingHits());
+  }
+
+  @Test
+  public void testInvalidatedByBlockWrites() throws StorageException {
+    long[] blockIds = {11, 99};
+    assertArrayEquals(new long[]{1, NOT_FOUND},
+        lookUps.findINodeIdsByBlockIds(blockIds));
+    write(Arrays.asList(block(1, 11)), Arrays.asList(block(3, 99)));
+    assertEquals("invalidated when prepared and once committed", 4,
+        lookUps.getCache().getInvalidations());
+    assertArrayEquals(new long[]{NOT_FOUND, 3},
+        lookUps.findINodeIdsByBlockIds(blockIds));
+  }
+
+  @Test
+  public void testMissesReadInTwoBatches() throws StorageException {
+    final List<Integer> batches = new ArrayList<>();
+    INodeIdLookUps<BlockLookUpClusterj.BlockLookUpDTO> lookUps =
+        new INodeIdLookUps<BlockLookUpClusterj.BlockLookUpDTO>(
+            BlockLookUpClusterj.BlockLookUpDTO.class, "test") {
+          @Override
+          long getINodeId(BlockLookUpClusterj.BlockLookUpDTO dto) {
+            return dto.getINodeId();
+          }
+
+          @Override
+          List<BlockLookUpClusterj.BlockLookUpDTO> loadAll(
+              HopsSession session, long[] ids) throws StorageException {
+            batches.add(ids.length);
+            List<BlockLookUpClusterj.BlockLookUpDTO> dtos =
+                super.loadAll(session, ids);
+            if (batches.size() == 1) {
+              // the first batch misses a row
+              session.release(dtos.get(0));
+              dtos.set(0, null);
+            }
+            return dtos;
+          }
+        };
+    long[] inodeIds = lookUps.read(connector.obtainSession(),
+        new long[]{11, 12, 99});
+    assertArrayEquals(new long[]{1, 1, NOT_FOUND}, inodeIds);
+    assertEquals(Arrays.asList(3, 2), batches);
+    connector.returnSession(false);
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.dalimpl.hdfs;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.hdfs.entity.Replica;
+import io.hops.metadata.ndb.ClusterjConnector;
+import io.hops.metadata.ndb.MemoryBackend;
+import io.hops.metadata.ndb.util.LongPairSink;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestReplicaClusterj {
+
+  private static final int STORAGE = 1;
+
+  private ClusterjConnector connector;
+  private ReplicaClusterj replicas;
+
+  @Before
+  public void setup() throws StorageException {
+    connector = MemoryBackend.start();
+    MemoryBackend.truncate(ReplicaClusterj.TABLE_NAME);
+    replicas = new ReplicaClusterj();
+    List<Replica> news = new ArrayList<>();
+    for (long blockId = 10; blockId <= 50; blockId += 10) {
+      news.add(replica(blockId));
+    }
+    connector.beginTransaction();
+    replicas.prepare(Collections.<Replica>emptyList(), news,
+        Collections.<Replica>emptyList());
+    connector.commit();
+  }
+
+  private static Replica replica(long blockId) {
+    return new Replica(STORAGE, blockId, 1, 0);
+  }
+
+  private void prepare(List<Replica> removed, List<Replica> news)
+      throws StorageException {
+    replicas.prepare(removed, news, Collections.<Replica>emptyList());
+  }
+
+  @Test
+  public void testHistogramUpdatedOnCommit() throws StorageException {
+    assertEquals(10, replicas.findBlockIdAtIndex(STORAGE, 1, 0));
+    connector.beginTransaction();
+    prepare(Arrays.asList(replica(10)), Arrays.asList(replica(5)));
+    // not applied before the commit
+    assertEquals(10, replicas.findBlockIdAtIndex(STORAGE, 1, 0));
+    connector.commit();
+    assertEquals(5, replicas.findBlockIdAtIndex(STORAGE, 1, 0));
+    assertEquals(20, replicas.findBlockIdAtIndex(STORAGE, 2, 0));
+  }
+
+  @Test
+  public void testHistogramNotUpdatedOnRollback() throws StorageException {
+    assertEquals(10, replicas.findBlockIdAtIndex(STORAGE, 1, 0));
+    connector.beginTransaction();
+    prepare(Arrays.asList(replica(10)), Arrays.asList(replica(5)));
+    connector.rollback();
+    assertEquals(10, replicas.findBlockIdAtIndex(STORAGE, 1, 0));
+    assertEquals(50, replicas.findBlockIdAtIndex(STORAGE, 5, 0));
+    assertEquals(0, replicas.findBlockIdAtIndex(STORAGE, 6, 0));
+  }
+
+  @Test
+  public void testSampledHistogramReturnsBlockIds() throws StorageException {
+    Properties conf = new Properties();
+    conf.setProperty(ReplicaClusterj.HISTOGRAM_BUCKETS, "2");
+    replicas.setConfiguration(conf);
+    List<Long> blockIds = new ArrayList<>(Arrays.asList(10L, 20L, 30L, 40L,
+        50L));
+    for (long index = 1; index <= 5; index++) {
+      long blockId = replicas.findBlockIdAtIndex(STORAGE, index, 0);
+      assertTrue(index + ": " + blockId, blockIds.contains(blockId));
+    }
+    connector.beginTransaction();
+    prepare(Arrays.asList(replica(30)), Arrays.asList(replica(25)));
+    connector.commit();
+    blockIds.remove(30L);
+    blockIds.add(25L);
+    for (long index = 1; index <= 5; index++) {
+      long blockId = replicas.findBlockIdAtIndex(STORAGE, index, 0);
+      assertTrue(index + ": " + blockId, blockIds.contains(blockId));
+    }
+  }
+
+  @Test
+  public void testBucketIdsMapIsConcurrent() throws StorageException {
+    Map<Long, Long> ids = replicas.findBlockAndInodeIdsByStorageIdAndBucketIds(
+        STORAGE, Arrays.asList(0, 1));
+    assertTrue(ids instanceof ConcurrentMap);
+    assertEquals(5, ids.size());
+    assertEquals(Long.valueOf(1), ids.get(30L));
+    assertTrue(replicas.findBlockAndInodeIdsByStorageIdAndBucketIds(STORAGE,
+        Collections.<Integer>emptyList()).isEmpty());
+    assertTrue(replicas.findBlockAndInodeIdsByStorageIdAndBucketIds(STORAGE,
+        Arrays.asList(1)).isEmpty());
+  }
+
+  @Test
+  public void testBucketIdsStreamed() throws StorageException {
+    connector.beginTransaction();
+    replicas.prepare(Collections.<Replica>emptyList(), Arrays.asList(
+        new Replica(STORAGE, 60, 6, 2), new Replica(STORAGE, 70, 7, 3),
+        new Replica(STORAGE + 1, 80, 8, 2)), Collections.<Replica>emptyList());
+    connector.commit();
+
+    // through the MySQL Server outside of a transaction, ClusterJ inside
+    for (boolean inTransaction : new boolean[]{false, true}) {
+      if (inTransaction) {
+        connector.beginTransaction();
+      }
+      final Map<Long, Long> ids = new HashMap<>();
+      replicas.findBlockAndInodeIdsByStorageIdAndBucketIds(STORAGE,
+          Arrays.asList(2, 3), new LongPairSink() {
+            @Override
+            public void accept(long blockId, long inodeId) {
+              ids.put(blockId, inodeId);
+            }
+          });
+      if (inTransaction) {
+        connector.commit();
+      }
+      assertEquals(2, ids.size());
+      assertEquals(Long.valueOf(6), ids.get(60L));
+      assertEquals(Long.valueOf(7), ids.get(70L));
+    }
+  }
+
+  @Test
+  public void testStorageIdsInAndOutOfTransaction() throws StorageException {
+    Map<Long, Long> ids = replicas.findBlockAndInodeIdsByStorageId(STORAGE);
+    assertEquals(5, ids.size());
+    assertEquals(Long.valueOf(1), ids.get(50L));
+
+    connector.beginTransaction();
+    try {
+      prepare(Collections.<Replica>emptyList(), Arrays.asList(replica(60)));
+      // a transaction sees its own writes
+      assertEquals(6, replicas.findBlockAndInodeIdsByStorageId(STORAGE)
+          .size());
+    } finally {
+      connector.rollback();
+    }
+    assertEquals(5, replicas.findBlockAndInodeIdsByStorageId(STORAGE).size());
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.metrics;
+
+import io.hops.metadata.common.EntityDataAccess;
+import io.hops.metadata.hdfs.dal.INodeDataAccess;
+import io.hops.metadata.ndb.dalimpl.hdfs.INodeClusterj;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestDalTracer {
+
+  @Test
+  public void testUnwrap() {
+    INodeClusterj inodes = new INodeClusterj();
+    EntityDataAccess traced = DalTracer.getInstance().wrap(inodes);
+    assertTrue(traced instanceof INodeDataAccess);
+    assertFalse(traced instanceof INodeClusterj);
+    assertSame(inodes, DalTracer.unwrap(traced));
+    assertSame(inodes, DalTracer.unwrap(inodes));
+  }
+}
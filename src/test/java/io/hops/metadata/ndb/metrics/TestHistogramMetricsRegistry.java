@@ -0,0 +1,119 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.metrics;
+
+import io.hops.exception.ForeignKeyConstraintViolationException;
+import io.hops.exception.OutOfDBExtentsException;
+import io.hops.exception.StorageException;
+import io.hops.exception.TransientDeadLockException;
+import io.hops.exception.TransientStorageException;
+import io.hops.exception.TupleAlreadyExistedException;
+import io.hops.exception.UniqueKeyConstraintViolationException;
+import io.hops.metadata.ndb.metrics.MetricsRegistry.Operation;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestHistogramMetricsRegistry {
+
+  private static final long MILLI = 1000000;
+
+  @Test
+  public void testLatencies() {
+    HistogramMetricsRegistry registry = new HistogramMetricsRegistry(false);
+    registry.stopTimer(Operation.COMMIT, registry.startTimer() - 2 * MILLI);
+    registry.stopTimer(Operation.COMMIT, registry.startTimer());
+    HistogramSnapshot commits =
+        registry.snapshot().getLatency(Operation.COMMIT);
+    assertEquals(2, commits.getCount());
+    assertTrue(commits.getMax() >= 2 * MILLI);
+    assertTrue(commits.get99thPercentile() >= 2 * MILLI);
+    assertEquals(0, registry.snapshot().getLatency(Operation.BEGIN)
+        .getCount());
+  }
+
+  @Test
+  public void testCounters() {
+    MetricsRegistry registry = NdbMetrics.create(
+        conf(NdbMetrics.PROPERTY_METRICS, "counters"));
+    assertTrue(registry instanceof HistogramMetricsRegistry);
+    assertEquals("the clock is not read", 0, registry.startTimer());
+    registry.stopTimer(Operation.BEGIN, 12345);
+    registry.stopTimer(Operation.BEGIN, registry.startTimer());
+    HistogramSnapshot begins = registry.snapshot().getLatency(Operation.BEGIN);
+    assertEquals(2, begins.getCount());
+    assertEquals(0, begins.getMax());
+    assertEquals(0, begins.get99thPercentile());
+  }
+
+  @Test
+  public void testCreate() {
+    assertTrue(NdbMetrics.create(new Properties()) instanceof
+        HistogramMetricsRegistry);
+    assertEquals(NoOpMetricsRegistry.INSTANCE,
+        NdbMetrics.create(conf(NdbMetrics.PROPERTY_METRICS, "none")));
+    assertEquals("unknown classes disable the metrics",
+        NoOpMetricsRegistry.INSTANCE,
+        NdbMetrics.create(conf(NdbMetrics.PROPERTY_METRICS, "no.Such")));
+  }
+
+  @Test
+  public void testFailureClassification() {
+    HistogramMetricsRegistry registry = new HistogramMetricsRegistry(true);
+    registry.recordFailure(Operation.COMMIT,
+        new TransientDeadLockException("deadlock"));
+    registry.recordFailure(Operation.COMMIT,
+        new TransientStorageException("timeout"));
+    registry.recordFailure(Operation.COMMIT,
+        new TupleAlreadyExistedException("exists"));
+    registry.recordFailure(Operation.COMMIT,
+        new ForeignKeyConstraintViolationException("fk"));
+    registry.recordFailure(Operation.COMMIT,
+        new UniqueKeyConstraintViolationException("uk"));
+    registry.recordFailure(Operation.COMMIT,
+        new OutOfDBExtentsException("full"));
+    registry.recordFailure(Operation.COMMIT, new StorageException("other"));
+    registry.recordFailure(Operation.FLUSH,
+        new TransientDeadLockException("deadlock"));
+
+    MetricsSnapshot snapshot = registry.snapshot();
+    for (FailureType type : FailureType.values()) {
+      assertEquals(type.name(), 1,
+          snapshot.getFailures(Operation.COMMIT, type));
+    }
+    assertEquals(1, snapshot.getFailures(Operation.FLUSH,
+        FailureType.DEADLOCK));
+    assertEquals("a deadlock is not counted as transient too", 0,
+        snapshot.getFailures(Operation.FLUSH, FailureType.TRANSIENT));
+    assertEquals(2, snapshot.getFailures(FailureType.DEADLOCK));
+    assertEquals(0, snapshot.getFailures(Operation.BEGIN, FailureType.OTHER));
+
+    registry.reset();
+    assertEquals(0, registry.snapshot().getFailures(FailureType.DEADLOCK));
+  }
+
+  private static Properties conf(String key, String value) {
+    Properties conf = new Properties();
+    conf.setProperty(key, value);
+    return conf;
+  }
+}
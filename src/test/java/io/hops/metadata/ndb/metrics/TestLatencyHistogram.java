@@ -0,0 +1,108 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLatencyHistogram {
+
+  @Test
+  public void testBucketBoundaries() {
+    for (long value = 0; value < 32; value++) {
+      assertEquals("small values have buckets of their own", value,
+          LatencyHistogram.bucketUpperBound(
+              LatencyHistogram.bucketIndex(value)));
+    }
+    int last = LatencyHistogram.bucketIndex(Long.MAX_VALUE);
+    assertEquals(Long.MAX_VALUE, LatencyHistogram.bucketUpperBound(last));
+    for (int i = 0; i < last; i++) {
+      long upper = LatencyHistogram.bucketUpperBound(i);
+      assertEquals(i, LatencyHistogram.bucketIndex(upper));
+      assertEquals("the buckets are contiguous", i + 1,
+          LatencyHistogram.bucketIndex(upper + 1));
+      long lower = i == 0 ? 0 : LatencyHistogram.bucketUpperBound(i - 1) + 1;
+      assertTrue("bucket " + i + " is too wide",
+          upper - lower <= Math.max(0, lower / 16));
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram(true);
+    for (long value = 1; value <= 1000; value++) {
+      histogram.record(value);
+    }
+    HistogramSnapshot snapshot = histogram.snapshot();
+    assertEquals(1000, snapshot.getCount());
+    assertEquals(1000, snapshot.getMax());
+    assertEquals(500.5, snapshot.getMean(), 0.001);
+    assertBetween(500, 500 * 17 / 16, snapshot.getMedian());
+    assertBetween(990, 1000, snapshot.get99thPercentile());
+    assertEquals(1, snapshot.getValueAtPercentile(0));
+    assertEquals("capped by the max", 1000,
+        snapshot.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void testExactSmallValues() {
+    LatencyHistogram histogram = new LatencyHistogram(true);
+    histogram.record(3);
+    histogram.record(3);
+    histogram.record(7);
+    histogram.record(-5);
+    HistogramSnapshot snapshot = histogram.snapshot();
+    assertEquals(4, snapshot.getCount());
+    assertEquals("negative values count as 0", 0,
+        snapshot.getValueAtPercentile(25));
+    assertEquals(3, snapshot.getMedian());
+    assertEquals(7, snapshot.get99thPercentile());
+  }
+
+  @Test
+  public void testCountsOnly() {
+    LatencyHistogram histogram = new LatencyHistogram(false);
+    histogram.record(100);
+    histogram.record(300);
+    HistogramSnapshot snapshot = histogram.snapshot();
+    assertEquals(2, snapshot.getCount());
+    assertEquals(200, snapshot.getMean(), 0.001);
+    assertEquals(300, snapshot.getMax());
+    assertEquals("no distribution", 0, snapshot.getMedian());
+  }
+
+  @Test
+  public void testReset() {
+    LatencyHistogram histogram = new LatencyHistogram(true);
+    histogram.record(1000);
+    histogram.reset();
+    HistogramSnapshot snapshot = histogram.snapshot();
+    assertEquals(0, snapshot.getCount());
+    assertEquals(0, snapshot.getMax());
+    assertEquals(0, snapshot.getMedian());
+    assertEquals(0, snapshot.getMean(), 0);
+  }
+
+  private static void assertBetween(long low, long high, long value) {
+    assertTrue(value + " not in [" + low + ", " + high + "]",
+        value >= low && value <= high);
+  }
+}
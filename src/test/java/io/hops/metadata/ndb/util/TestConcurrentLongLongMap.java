@@ -0,0 +1,130 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestConcurrentLongLongMap {
+
+  @Test
+  public void testAgainstHashMap() {
+    Random random = new Random(42);
+    ConcurrentLongLongMap map = new ConcurrentLongLongMap();
+    Map<Long, Long> expected = new HashMap<>();
+    for (int i = 0; i < 100000; i++) {
+      long key = random.nextInt(2000) - 10;
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(key), map.remove((Object) key));
+      } else {
+        Long value = random.nextLong();
+        assertEquals(expected.put(key, value), map.put((Long) key, value));
+      }
+    }
+    assertEquals(expected, map);
+    assertEquals(map, expected);
+  }
+
+  @Test
+  public void testConcurrentMapOperations() {
+    ConcurrentLongLongMap map = new ConcurrentLongLongMap(4);
+    assertNull(map.putIfAbsent(0L, 1L));
+    assertEquals(Long.valueOf(1), map.putIfAbsent(0L, 2L));
+    assertFalse(map.replace(0L, 2L, 3L));
+    assertTrue(map.replace(0L, 1L, 3L));
+    assertNull(map.replace(5L, 1L));
+    assertEquals(Long.valueOf(3), map.replace(0L, 4L));
+    assertFalse(map.remove(0L, 3L));
+    assertTrue(map.remove(0L, 4L));
+    assertTrue(map.isEmpty());
+  }
+
+  @Test
+  public void testIteratorRemove() {
+    ConcurrentLongLongMap map = new ConcurrentLongLongMap();
+    for (long key = 0; key < 1000; key++) {
+      map.put(key, key);
+    }
+    Iterator<Map.Entry<Long, Long>> it = map.entrySet().iterator();
+    int seen = 0;
+    while (it.hasNext()) {
+      Map.Entry<Long, Long> e = it.next();
+      seen++;
+      if (e.getKey() % 2 == 0) {
+        it.remove();
+      }
+      if (e.getKey() < 1000) {
+        // additions do not break the iteration
+        map.put(e.getKey() + 1000, 0);
+      }
+    }
+    assertTrue(seen >= 1000);
+    for (long key = 0; key < 1000; key++) {
+      assertEquals(key % 2 != 0, map.containsKey(key));
+    }
+  }
+
+  @Test
+  public void testConcurrentUpdates() throws Exception {
+    final ConcurrentLongLongMap map = new ConcurrentLongLongMap();
+    final int threads = 4;
+    final int keys = 50000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      Future<?>[] futures = new Future<?>[threads];
+      for (int t = 0; t < threads; t++) {
+        final int thread = t;
+        futures[t] = executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            for (long key = thread; key < keys; key += threads) {
+              map.put(key, key * 2);
+            }
+            for (long key = thread; key < keys; key += 2 * threads) {
+              assertTrue(map.remove(key));
+            }
+            return null;
+          }
+        });
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(keys / 2, map.size());
+    for (long key = 0; key < keys; key++) {
+      assertEquals(key % 8 < 4 ? -1 : key * 2, map.get(key, -1));
+    }
+  }
+}
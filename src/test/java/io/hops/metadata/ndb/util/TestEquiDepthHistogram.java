@@ -0,0 +1,119 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestEquiDepthHistogram {
+
+  @Test
+  public void testExactWhenSampleHoldsAllValues() {
+    ReservoirSample sample = new ReservoirSample(100);
+    for (long v = 10; v <= 500; v += 10) {
+      sample.accept(v);
+    }
+    EquiDepthHistogram histogram = sample.toHistogram();
+    assertEquals(50, histogram.count());
+    assertEquals(10, histogram.valueAt(1));
+    assertEquals(250, histogram.valueAt(25));
+    assertEquals(500, histogram.valueAt(50));
+    assertArrayEquals(new long[]{120, 250, 370},
+        histogram.splitPoints(4));
+
+    histogram.add(5);
+    histogram.remove(250);
+    assertEquals(50, histogram.count());
+    assertEquals(5, histogram.valueAt(1));
+    assertEquals(260, histogram.valueAt(26));
+  }
+
+  @Test
+  public void testAddBetweenBounds() {
+    EquiDepthHistogram histogram = new EquiDepthHistogram(
+        new long[]{10, 20, 30}, 10, 30, 3);
+    assertTrue(histogram.isExact());
+    histogram.add(11);
+    assertEquals(4, histogram.count());
+    assertArrayEquals(new long[]{10, 11, 20, 30}, new long[]{
+        histogram.valueAt(1), histogram.valueAt(2), histogram.valueAt(3),
+        histogram.valueAt(4)});
+    histogram.add(11);
+    histogram.remove(15);
+    assertEquals("a value is counted once, one never added is not removed",
+        4, histogram.count());
+    histogram.remove(10);
+    assertEquals(11, histogram.valueAt(1));
+    assertFalse(histogram.isDirty());
+  }
+
+  @Test
+  public void testExactHistogramGrowsDirty() {
+    EquiDepthHistogram histogram = new EquiDepthHistogram(
+        new long[]{1, 2}, 1, 2, 2);
+    histogram.add(3);
+    histogram.add(4);
+    assertFalse(histogram.isDirty());
+    histogram.add(5);
+    assertTrue("larger than twice its sample", histogram.isDirty());
+    assertEquals(5, histogram.valueAt(5));
+  }
+
+  @Test
+  public void testSampledValuesOnly() {
+    EquiDepthHistogram histogram = new EquiDepthHistogram(
+        new long[]{10, 20, 30}, 10, 35, 6);
+    assertFalse(histogram.isExact());
+    for (long rank = 1; rank <= 6; rank++) {
+      long value = histogram.valueAt(rank);
+      assertTrue("rank " + rank + " is " + value,
+          value == 10 || value == 20 || value == 30);
+    }
+    histogram.add(40);
+    histogram.remove(50);
+    assertEquals(7, histogram.count());
+    assertFalse(histogram.isDirty());
+    histogram.remove(20);
+    assertTrue(histogram.isDirty());
+  }
+
+  @Test
+  public void testSampledRanks() {
+    int values = 1000000;
+    int buckets = 4096;
+    ReservoirSample sample = new ReservoirSample(buckets, new Random(1));
+    for (long v = 0; v < values; v++) {
+      sample.accept(v * 3);
+    }
+    EquiDepthHistogram histogram = sample.toHistogram();
+    for (long rank = 1; rank <= values; rank += 9973) {
+      long error = Math.abs(histogram.valueAt(rank) / 3 - (rank - 1));
+      // the largest deviation of a sample of this size is below
+      // 2 * values / sqrt(buckets) with probability 0.9999
+      assertTrue("rank " + rank + " off by " + error,
+          error < 2 * values / Math.sqrt(buckets));
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestLongLongCache {
+
+  @Test
+  public void testLookUps() {
+    LongLongCache cache = new LongLongCache();
+    long[] keys = {1, -2, 3};
+    long[] values = new long[keys.length];
+    assertFalse(cache.isEnabled());
+    cache.put(1, 10);
+    assertEquals(3, cache.get(keys, values));
+
+    cache.configure(64, 60000, 60000);
+    cache.put(1, 10);
+    cache.putMissing(-2);
+    assertEquals(1, cache.get(keys, values));
+    assertEquals(10, values[0]);
+    assertEquals(LongLongCache.MISSING, values[1]);
+    assertEquals(LongLongCache.ABSENT, values[2]);
+
+    cache.invalidate(1);
+    assertEquals(2, cache.get(keys, values));
+    assertEquals(LongLongCache.ABSENT, values[0]);
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getMissingHits());
+    assertEquals(6, cache.getMisses());
+    assertEquals(1, cache.getInvalidations());
+  }
+
+  @Test
+  public void testBounded() {
+    LongLongCache cache = new LongLongCache();
+    cache.configure(1024, 60000, 0);
+    for (long key = 0; key < 100000; key++) {
+      cache.put(key, key + 1);
+      cache.putMissing(-key);
+    }
+    assertEquals(1024, cache.getCapacity());
+    long[] keys = new long[100000];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = i;
+    }
+    long[] values = new long[keys.length];
+    int absent = cache.get(keys, values);
+    assertTrue(keys.length - absent <= cache.getCapacity());
+    assertEquals(100000 - 1024, cache.getEvictions());
+    for (int i = 0; i < keys.length; i++) {
+      assertTrue(values[i] == LongLongCache.ABSENT || values[i] == i + 1);
+    }
+  }
+
+  @Test
+  public void testStaleValuesNotCached() {
+    LongLongCache cache = new LongLongCache();
+    cache.configure(64, 60000, 60000);
+    long[] stamp = cache.stamp();
+    // written and invalidated while the reader was reading
+    cache.invalidate(1);
+    cache.put(1, 10, stamp);
+    cache.putMissing(2, stamp);
+    long[] values = new long[1];
+    assertEquals(1, cache.get(new long[]{1}, values));
+    cache.put(1, 11, cache.stamp());
+    assertEquals(0, cache.get(new long[]{1}, values));
+    assertEquals(11, values[0]);
+  }
+}
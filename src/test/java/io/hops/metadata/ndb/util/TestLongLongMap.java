@@ -0,0 +1,100 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestLongLongMap {
+
+  @Test
+  public void testPrimitiveOperations() {
+    LongLongMap map = new LongLongMap(2);
+    assertTrue(map.put(0, 7));
+    assertTrue(map.put(-1, 8));
+    assertFalse(map.put(0, 9));
+    for (long key = 1; key <= 1000; key++) {
+      map.put(key, key * 2);
+    }
+    assertEquals(1002, map.size());
+    assertEquals(9, map.get(0, -1));
+    assertEquals(8, map.get(-1, -1));
+    assertEquals(2000, map.get(1000, -1));
+    assertEquals(-1, map.get(1001, -1));
+    assertTrue(map.remove(0));
+    assertFalse(map.remove(0));
+    assertNull(map.get((Object) 0L));
+    assertEquals(Long.valueOf(4), map.get((Object) 2L));
+  }
+
+  @Test
+  public void testAgainstHashMap() {
+    Random random = new Random(42);
+    LongLongMap map = new LongLongMap();
+    Map<Long, Long> expected = new HashMap<>();
+    for (int i = 0; i < 100000; i++) {
+      // a small key space so that the probe chains collide and wrap
+      long key = random.nextInt(2000) - 10;
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(key), map.remove((Object) key));
+      } else {
+        Long value = random.nextLong();
+        assertEquals(expected.put(key, value), map.put((Long) key, value));
+      }
+    }
+    assertEquals(expected, map);
+    assertEquals(map, expected);
+  }
+
+  @Test
+  public void testIteratorRemove() {
+    Random random = new Random(7);
+    for (int round = 0; round < 500; round++) {
+      // 95 entries in 128 slots, the probe chains often wrap around
+      LongLongMap map = new LongLongMap(72);
+      Map<Long, Long> expected = new HashMap<>();
+      for (int i = 0; i < 95; i++) {
+        long key = random.nextLong();
+        map.put(key, i);
+        expected.put(key, (long) i);
+      }
+      Map<Long, Long> seen = new HashMap<>();
+      Iterator<Map.Entry<Long, Long>> it = map.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<Long, Long> e = it.next();
+        assertNull("returned twice", seen.put(e.getKey(), e.getValue()));
+        if (random.nextBoolean()) {
+          it.remove();
+          expected.remove(e.getKey());
+        }
+      }
+      assertEquals(95, seen.size());
+      assertEquals(expected, map);
+    }
+  }
+}
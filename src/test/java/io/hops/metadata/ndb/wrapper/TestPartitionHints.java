@@ -0,0 +1,144 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper;
+
+import com.mysql.clusterj.Session;
+import com.mysql.clusterj.Transaction;
+import io.hops.exception.StorageException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestPartitionHints {
+
+  private interface HintableDTO {
+  }
+
+  private interface OtherDTO {
+  }
+
+  private final PartitionHints hints = PartitionHints.getInstance();
+  /** the keys given to the setPartitionKey calls of the ClusterJ session */
+  private final List<Object> hinted = new ArrayList<>();
+  private boolean active = true;
+  private HopsSession session;
+
+  @Before
+  public void setup() {
+    hints.setHintable(Collections.<Class<?>>singleton(HintableDTO.class));
+    hints.reset();
+    session = new HopsSession(proxy(Session.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+          case "currentTransaction":
+            return proxy(Transaction.class, new InvocationHandler() {
+              @Override
+              public Object invoke(Object proxy, Method method,
+                  Object[] args) {
+                return method.getName().equals("isActive") ? active : null;
+              }
+            });
+          case "setPartitionKey":
+            hinted.add(args[1]);
+            return null;
+          default:
+            return null;
+        }
+      }
+    }));
+    // a transaction begins
+    session.clearPartitionKey();
+  }
+
+  @After
+  public void tearDown() {
+    hints.setHintable(Collections.<Class<?>>emptySet());
+    hints.reset();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return (T) Proxy.newProxyInstance(TestPartitionHints.class
+        .getClassLoader(), new Class<?>[]{type}, handler);
+  }
+
+  @Test
+  public void testFirstPrimaryKeyAccessHints() throws StorageException {
+    session.find(HintableDTO.class, 5L);
+    session.find(HintableDTO.class, 6L);
+    assertEquals("only the first access hints", Collections.singletonList(5L),
+        hinted);
+    assertEquals(5L, session.getPartitionKey(HintableDTO.class));
+    assertEquals(1, hints.getAutomaticallyHinted());
+    assertEquals(0, hints.getUnhinted());
+
+    session.clearPartitionKey();
+    session.newInstance(HintableDTO.class, 7L);
+    assertEquals(7L, session.getPartitionKey(HintableDTO.class));
+    assertEquals(2, hints.getAutomaticallyHinted());
+  }
+
+  @Test
+  public void testExplicitHint() throws StorageException {
+    session.setPartitionKey(HintableDTO.class, 1L);
+    session.find(HintableDTO.class, 2L);
+    assertEquals(Collections.singletonList(1L), hinted);
+    assertEquals(1, hints.getExplicitlyHinted());
+    assertEquals(0, hints.getAutomaticallyHinted());
+  }
+
+  @Test
+  public void testUnhinted() throws StorageException {
+    session.find(OtherDTO.class, 1L);
+    assertNull(session.getPartitionKey(OtherDTO.class));
+
+    session.clearPartitionKey();
+    session.load(new Object());
+    session.find(HintableDTO.class, 1L);
+    assertTrue("the first operation is not a primary key access",
+        hinted.isEmpty());
+    assertEquals(2, hints.getUnhinted());
+
+    hints.setHintable(Collections.<Class<?>>emptySet());
+    session.clearPartitionKey();
+    session.find(HintableDTO.class, 1L);
+    assertTrue("automatic hints are disabled", hinted.isEmpty());
+    assertEquals(3, hints.getUnhinted());
+  }
+
+  @Test
+  public void testNoTransaction() throws StorageException {
+    active = false;
+    session.find(HintableDTO.class, 1L);
+    assertTrue(hinted.isEmpty());
+    assertEquals(0, hints.getUnhinted() + hints.getAutomaticallyHinted());
+  }
+}
@@ -0,0 +1,340 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper.memory;
+
+import com.mysql.clusterj.LockMode;
+import com.mysql.clusterj.Query;
+import com.mysql.clusterj.annotation.Column;
+import com.mysql.clusterj.annotation.PartitionKey;
+import com.mysql.clusterj.annotation.PersistenceCapable;
+import com.mysql.clusterj.annotation.PrimaryKey;
+import io.hops.exception.StorageException;
+import io.hops.exception.TransientDeadLockException;
+import io.hops.exception.TupleAlreadyExistedException;
+import io.hops.metadata.ndb.wrapper.HopsPredicate;
+import io.hops.metadata.ndb.wrapper.HopsQuery;
+import io.hops.metadata.ndb.wrapper.HopsQueryBuilder;
+import io.hops.metadata.ndb.wrapper.HopsQueryDomainType;
+import io.hops.metadata.ndb.wrapper.HopsSession;
+import io.hops.metadata.ndb.wrapper.ScanType;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestMemorySession {
+
+  private static final String TABLE = "test_memory_blocks";
+
+  @PersistenceCapable(table = TABLE)
+  @PartitionKey(column = "inode_id")
+  public interface BlockDTO {
+    @PrimaryKey
+    @Column(name = "inode_id")
+    long getINodeId();
+    void setINodeId(long iNodeId);
+
+    @PrimaryKey
+    @Column(name = "block_id")
+    long getBlockId();
+    void setBlockId(long blockId);
+
+    @Column(name = "num_bytes")
+    long getNumBytes();
+    void setNumBytes(long numBytes);
+
+    @Column(name = "client")
+    String getClient();
+    void setClient(String client);
+  }
+
+  @PersistenceCapable(table = "test_memory_keys")
+  @PartitionKey(column = "b")
+  public interface KeyDTO {
+    @PrimaryKey
+    @Column(name = "c")
+    long getC();
+    void setC(long c);
+
+    @PrimaryKey
+    @Column(name = "a")
+    long getA();
+    void setA(long a);
+
+    @PrimaryKey
+    @Column(name = "b")
+    long getB();
+    void setB(long b);
+  }
+
+  private MemorySessionFactory factory;
+
+  @Before
+  public void setup() {
+    Properties conf = new Properties();
+    conf.setProperty(MemorySessionFactory.LOCK_TIMEOUT, "100");
+    factory = new MemorySessionFactory(conf);
+    MemoryStore.getInstance().truncate(TABLE);
+  }
+
+  private void insert(HopsSession session, long inodeId, long blockId,
+      String client) throws StorageException {
+    BlockDTO dto = session.newInstance(BlockDTO.class);
+    dto.setINodeId(inodeId);
+    dto.setBlockId(blockId);
+    dto.setNumBytes(blockId * 10);
+    dto.setClient(client);
+    session.makePersistent(dto);
+  }
+
+  @Test
+  public void testPrimaryKeyOperations() throws StorageException {
+    HopsSession session = factory.getSession();
+    insert(session, 1, 10, "a");
+    try {
+      insert(session, 1, 10, "b");
+      fail("duplicate primary key");
+    } catch (TupleAlreadyExistedException e) {
+      //expected
+    }
+    BlockDTO found = session.find(BlockDTO.class, new Object[]{1, 10});
+    assertNotNull(found);
+    assertEquals(100, found.getNumBytes());
+    assertEquals("a", found.getClient());
+
+    BlockDTO missing = session.newInstance(BlockDTO.class, new Object[]{1, 11});
+    missing.setNumBytes(-1000);
+    session.load(missing);
+    assertFalse(session.found(missing));
+    assertEquals(-1000, missing.getNumBytes());
+
+    BlockDTO update = session.newInstance(BlockDTO.class, new Object[]{1L, 10L});
+    update.setNumBytes(5);
+    session.updatePersistent(update);
+    found = session.find(BlockDTO.class, new Object[]{1L, 10L});
+    assertEquals(5, found.getNumBytes());
+    assertEquals("only the columns that were set are updated", "a",
+        found.getClient());
+
+    session.deletePersistent(BlockDTO.class, new Object[]{1L, 10L});
+    assertNull(session.find(BlockDTO.class, new Object[]{1L, 10L}));
+  }
+
+  @Test
+  public void testLoadAll() throws StorageException {
+    HopsSession session = factory.getSession();
+    insert(session, 1, 10, "a");
+    insert(session, 1, 12, "b");
+    insert(session, 2, 20, "c");
+
+    List<BlockDTO> dtos = session.loadAll(BlockDTO.class, Arrays.asList(
+        new Object[]{2L, 20L}, new Object[]{1L, 11L}, new Object[]{1L, 10L},
+        new Object[]{3L, 30L}));
+    assertEquals(4, dtos.size());
+    assertEquals("c", dtos.get(0).getClient());
+    assertNull(dtos.get(1));
+    assertEquals("a", dtos.get(2).getClient());
+    assertNull(dtos.get(3));
+    session.release(dtos);
+  }
+
+  @Test
+  public void testReadOnly() throws StorageException {
+    HopsSession session = factory.getSession();
+    insert(session, 1, 10, "a");
+    session.setReadOnly(true);
+    assertNotNull(session.find(BlockDTO.class, new Object[]{1L, 10L}));
+    try {
+      insert(session, 1, 11, "b");
+      fail("writes are rejected in read only mode");
+    } catch (StorageException e) {
+      //expected
+    }
+    try {
+      session.setLockMode(LockMode.EXCLUSIVE);
+      fail("locking reads are rejected in read only mode");
+    } catch (StorageException e) {
+      //expected
+    }
+    session.setReadOnly(false);
+    session.deletePersistent(BlockDTO.class, new Object[]{1L, 10L});
+    assertEquals(0, MemoryStore.getInstance().size(TABLE));
+  }
+
+  @Test
+  public void testQueries() throws StorageException {
+    HopsSession session = factory.getSession();
+    for (long inode = 1; inode <= 5; inode++) {
+      for (long block = 1; block <= 4; block++) {
+        insert(session, inode, inode * 100 + block, "client" + block);
+      }
+    }
+    HopsQueryBuilder qb = session.getQueryBuilder();
+    HopsQueryDomainType<BlockDTO> dobj =
+        qb.createQueryDefinition(BlockDTO.class);
+    HopsPredicate inInodes = dobj.get("iNodeId").in(dobj.param("inodes"));
+    HopsPredicate like = dobj.get("client").like(dobj.param("pattern"));
+    dobj.where(inInodes.and(like.not()));
+    HopsQuery<BlockDTO> query = session.createQuery(dobj);
+    query.setParameter("inodes", Arrays.asList(2L, 4L, 9L));
+    query.setParameter("pattern", "%1");
+    query.setOrdering(Query.Ordering.DESCENDING, "blockId");
+    List<BlockDTO> blocks = query.getResultList();
+    assertEquals(6, blocks.size());
+    assertEquals(404, blocks.get(0).getBlockId());
+    assertEquals(202, blocks.get(5).getBlockId());
+    assertEquals(Query.SCAN_TYPE_INDEX_SCAN,
+        query.explain().get(Query.SCAN_TYPE));
+    assertEquals(ScanType.FULL_INDEX_SCAN, query.getScanType());
+    query.setPartitionPruned(true);
+    assertEquals(ScanType.PRUNED_INDEX_SCAN, query.getScanType());
+
+    dobj = qb.createQueryDefinition(BlockDTO.class);
+    dobj.where(dobj.get("numBytes").between(dobj.param("from"),
+        dobj.param("to")));
+    query = session.createQuery(dobj);
+    query.setParameter("from", 3010);
+    query.setParameter("to", 4020);
+    query.setLimits(1, 100);
+    assertEquals(Query.SCAN_TYPE_TABLE_SCAN,
+        query.explain().get(Query.SCAN_TYPE));
+    assertEquals(ScanType.TABLE_SCAN, query.getScanType());
+    assertEquals(5, query.getResultList().size());
+    query.setLimits(0, 100);
+    assertEquals(6, query.deletePersistentAll());
+    assertEquals(14, MemoryStore.getInstance().size(TABLE));
+  }
+
+  @Test
+  public void testTransactionIsolation() throws StorageException {
+    HopsSession writer = factory.getSession();
+    HopsSession reader = factory.getSession();
+    writer.currentTransaction().begin();
+    insert(writer, 1, 1, "a");
+    assertNotNull(writer.find(BlockDTO.class, new Object[]{1, 1}));
+    assertNull(reader.find(BlockDTO.class, new Object[]{1, 1}));
+    writer.currentTransaction().rollback();
+    assertNull(writer.find(BlockDTO.class, new Object[]{1, 1}));
+
+    writer.currentTransaction().begin();
+    insert(writer, 1, 1, "a");
+    writer.currentTransaction().commit();
+    assertNotNull(reader.find(BlockDTO.class, new Object[]{1, 1}));
+  }
+
+  @Test
+  public void testRowLocks() throws StorageException {
+    HopsSession session = factory.getSession();
+    insert(session, 1, 1, "a");
+    HopsSession first = factory.getSession();
+    HopsSession second = factory.getSession();
+
+    first.currentTransaction().begin();
+    first.setLockMode(LockMode.SHARED);
+    first.find(BlockDTO.class, new Object[]{1, 1});
+    second.currentTransaction().begin();
+    second.setLockMode(LockMode.SHARED);
+    assertNotNull("shared locks are compatible",
+        second.find(BlockDTO.class, new Object[]{1, 1}));
+    second.currentTransaction().commit();
+
+    second.currentTransaction().begin();
+    second.setLockMode(LockMode.EXCLUSIVE);
+    try {
+      second.find(BlockDTO.class, new Object[]{1, 1});
+      fail("the row is share locked by the first transaction");
+    } catch (TransientDeadLockException e) {
+      //expected
+    }
+    second.currentTransaction().rollback();
+
+    second.currentTransaction().begin();
+    second.setLockMode(LockMode.READ_COMMITTED);
+    assertNotNull("committed reads do not wait for locks",
+        second.find(BlockDTO.class, new Object[]{1, 1}));
+    second.currentTransaction().commit();
+
+    first.currentTransaction().commit();
+    second.currentTransaction().begin();
+    second.setLockMode(LockMode.EXCLUSIVE);
+    assertNotNull(second.find(BlockDTO.class, new Object[]{1, 1}));
+    assertTrue(second.currentTransaction().isActive());
+    second.currentTransaction().commit();
+  }
+
+  @Test
+  public void testScanSeesOwnWrites() throws StorageException {
+    HopsSession session = factory.getSession();
+    for (long block = 10; block <= 40; block += 10) {
+      insert(session, 1, block, "a");
+    }
+    HopsSession other = factory.getSession();
+    session.currentTransaction().begin();
+    insert(session, 1, 25, "a");
+    session.deletePersistent(BlockDTO.class, new Object[]{1L, 20L});
+    BlockDTO update = session.newInstance(BlockDTO.class, new Object[]{1L, 30L});
+    update.setClient("b");
+    session.updatePersistent(update);
+
+    HopsQueryBuilder qb = session.getQueryBuilder();
+    HopsQueryDomainType<BlockDTO> dobj =
+        qb.createQueryDefinition(BlockDTO.class);
+    dobj.where(dobj.get("client").like(dobj.param("pattern")));
+    HopsQuery<BlockDTO> query = session.createQuery(dobj);
+    query.setParameter("pattern", "%");
+    List<BlockDTO> blocks = query.getResultList();
+    assertEquals(4, blocks.size());
+    long[] expected = {10, 25, 30, 40};
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], blocks.get(i).getBlockId());
+    }
+    assertEquals("b", blocks.get(2).getClient());
+
+    assertEquals(4, session.deletePersistentAll(BlockDTO.class));
+    assertEquals(0, session.createQuery(dobj).getResultList().size());
+    assertNotNull("not committed yet",
+        other.find(BlockDTO.class, new Object[]{1L, 20L}));
+    session.currentTransaction().commit();
+    assertEquals(0, MemoryStore.getInstance().size(TABLE));
+  }
+
+  @Test
+  public void testKeyOrderWithoutSchema() throws StorageException {
+    MemoryStore.getInstance().truncate("test_memory_keys");
+    HopsSession session = factory.getSession();
+    KeyDTO dto = session.newInstance(KeyDTO.class);
+    dto.setA(1);
+    dto.setB(2);
+    dto.setC(3);
+    session.makePersistent(dto);
+    // the partition key first, then the other key columns by name
+    KeyDTO found = session.find(KeyDTO.class, new Object[]{2L, 1L, 3L});
+    assertNotNull(found);
+    assertEquals(3, found.getC());
+  }
+}
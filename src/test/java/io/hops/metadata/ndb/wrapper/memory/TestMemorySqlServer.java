@@ -0,0 +1,198 @@
+/*
+ * Hops Database abstraction layer for storing the hops metadata in MySQL Cluster
+ * Copyright (C) 2015  hops.io
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package io.hops.metadata.ndb.wrapper.memory;
+
+import com.mysql.clusterj.annotation.Column;
+import com.mysql.clusterj.annotation.PartitionKey;
+import com.mysql.clusterj.annotation.PersistenceCapable;
+import com.mysql.clusterj.annotation.PrimaryKey;
+import io.hops.exception.StorageException;
+import io.hops.metadata.ndb.mysqlserver.MySQLQueryHelper;
+import io.hops.metadata.ndb.mysqlserver.MysqlServerConnector;
+import io.hops.metadata.ndb.util.LongPairSink;
+import io.hops.metadata.ndb.wrapper.HopsSession;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestMemorySqlServer {
+
+  private static final String TABLE = "test_memory_sql";
+
+  @PersistenceCapable(table = TABLE)
+  @PartitionKey(column = "storage_id")
+  public interface ReplicaDTO {
+    @PrimaryKey
+    @Column(name = "storage_id")
+    int getStorageId();
+    void setStorageId(int storageId);
+
+    @PrimaryKey
+    @Column(name = "block_id")
+    long getBlockId();
+    void setBlockId(long blockId);
+
+    @Column(name = "inode_id")
+    long getINodeId();
+    void setINodeId(long inodeId);
+
+    @Column(name = "bucket_id")
+    int getBucketId();
+    void setBucketId(int bucketId);
+
+    @Column(name = "name")
+    String getName();
+    void setName(String name);
+  }
+
+  private MemorySessionFactory factory;
+
+  @Before
+  public void setup() throws StorageException {
+    Properties conf = new Properties();
+    conf.setProperty(MemorySessionFactory.LOCK_TIMEOUT, "100");
+    factory = new MemorySessionFactory(conf);
+    MemoryStore.getInstance().truncate(TABLE);
+    HopsSession session = factory.getSession();
+    session.currentTransaction().begin();
+    for (long blockId = 1; blockId <= 10; blockId++) {
+      insert(session, 1, blockId, (int) (blockId % 3));
+    }
+    insert(session, 2, 100, 0);
+    session.currentTransaction().commit();
+  }
+
+  private static void insert(HopsSession session, int storageId, long blockId,
+      int bucketId) throws StorageException {
+    ReplicaDTO dto = session.newInstance(ReplicaDTO.class);
+    dto.setStorageId(storageId);
+    dto.setBlockId(blockId);
+    dto.setINodeId(blockId + 1000);
+    dto.setBucketId(bucketId);
+    dto.setName("b" + blockId);
+    session.savePersistent(dto);
+  }
+
+  private static List<Long> stream(String query, Object... params)
+      throws StorageException {
+    final List<Long> ids = new ArrayList<>();
+    MySQLQueryHelper.streamLongPairs(query, new LongPairSink() {
+      @Override
+      public void accept(long blockId, long inodeId) {
+        assertEquals(blockId + 1000, inodeId);
+        ids.add(blockId);
+      }
+    }, params);
+    return ids;
+  }
+
+  @Test
+  public void testStreamWithIn() throws StorageException {
+    assertEquals(Arrays.asList(1L, 2L, 4L, 5L, 7L, 8L, 10L),
+        stream("SELECT block_id, inode_id FROM " + TABLE +
+            " WHERE storage_id=? AND bucket_id IN (?,?)", 1, 1, 2));
+    assertEquals(Arrays.asList(3L, 6L, 9L), stream("SELECT block_id, " +
+        "inode_id FROM " + TABLE + " WHERE storage_id=? AND bucket_id=?", 1,
+        0));
+    assertEquals(Arrays.asList(100L), stream("SELECT block_id, inode_id " +
+        "FROM " + TABLE + " WHERE storage_id = 2"));
+    assertTrue(stream("SELECT block_id, inode_id FROM " + TABLE +
+        " WHERE storage_id=?", 3).isEmpty());
+    assertTrue(stream("SELECT block_id, inode_id FROM never_used").isEmpty());
+  }
+
+  @Test
+  public void testAggregates() throws StorageException {
+    assertEquals(11, MySQLQueryHelper.countAll(TABLE));
+    // no fragment statistics, counted
+    assertEquals(11, MySQLQueryHelper.estimateCount(TABLE));
+    assertEquals(10, MySQLQueryHelper.countWithCriterion(TABLE,
+        "storage_id=?", 1));
+    assertEquals(4, MySQLQueryHelper.countWithCriterion(TABLE,
+        "storage_id=? and block_id between ? and ?", 1, 3, 6));
+    assertEquals(6, MySQLQueryHelper.countWithCriterion(TABLE,
+        "storage_id=? and (block_id<3 or block_id>=7)", 1));
+    assertEquals(7, MySQLQueryHelper.countWithCriterion(TABLE,
+        "bucket_id<>0"));
+    assertEquals(4, MySQLQueryHelper.countWithCriterion(TABLE,
+        "bucket_id not in (?, ?)", 1, 2));
+    assertEquals(3, MySQLQueryHelper.countAllUnique(TABLE, "bucket_id"));
+    assertEquals(3, MySQLQueryHelper.countUniqueWithCriterion(TABLE,
+        "storage_id, bucket_id", "block_id>=?", 9));
+    assertEquals(3, MySQLQueryHelper.countWithCriterion(TABLE,
+        "name like 'b1%'"));
+    assertEquals(1, MySQLQueryHelper.countWithCriterion(TABLE,
+        "name = \"b10\""));
+    assertEquals(1, MySQLQueryHelper.minLong(TABLE, "block_id",
+        "storage_id=?", 1));
+    assertEquals(100, MySQLQueryHelper.maxLong(TABLE, "block_id"));
+    assertTrue(MySQLQueryHelper.exists(TABLE, "block_id>?", 99));
+    assertFalse(MySQLQueryHelper.exists(TABLE, "block_id>?", 100));
+  }
+
+  @Test
+  public void testCommittedRowsOnly() throws StorageException {
+    HopsSession session = factory.getSession();
+    session.currentTransaction().begin();
+    insert(session, 3, 200, 0);
+    assertEquals(0, MySQLQueryHelper.countWithCriterion(TABLE,
+        "storage_id=?", 3));
+    session.currentTransaction().commit();
+    assertEquals(1, MySQLQueryHelper.countWithCriterion(TABLE,
+        "storage_id=?", 3));
+  }
+
+  @Test
+  public void testDelete() throws StorageException {
+    assertEquals(2, MySQLQueryHelper.execute("delete from " + TABLE +
+        " where storage_id=? limit ?", 1, 2));
+    assertEquals(8, MySQLQueryHelper.countWithCriterion(TABLE,
+        "storage_id=?", 1));
+    assertEquals(1, MySQLQueryHelper.execute("delete from " + TABLE +
+        " where name = ?", "b100"));
+    assertEquals(8, MySQLQueryHelper.execute("delete from " + TABLE));
+    assertEquals(0, MySQLQueryHelper.countAll(TABLE));
+  }
+
+  @Test
+  public void testSystemTablesAreEmpty() throws StorageException {
+    assertTrue(MysqlServerConnector.getPartitions(TABLE).isEmpty());
+    assertTrue(MysqlServerConnector.getRowCounts().isEmpty());
+    assertTrue(MysqlServerConnector.hasResources(0.9));
+  }
+
+  @Test
+  public void testUnsupportedStatement() {
+    try {
+      MySQLQueryHelper.countWithCriterion(TABLE, "block_id + 1 = ?", 2);
+      fail();
+    } catch (StorageException e) {
+      assertTrue(e.getMessage().contains("memory backend"));
+    }
+  }
+}